@@ -0,0 +1,40 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The entry point of {@code target/benchmarks.jar}. Takes the options of {@code org.openjdk.jmh.Main}
+ * and adds the gc profiler unless a profiler is given, so the allocation rate is reported next to
+ * the score of every benchmark, e.g. {@code java -jar target/benchmarks.jar GitFlowBenchmark}.
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> options = Lists.newArrayList(Arrays.asList(args));
+    if (!options.contains("-prof")) {
+      options.add(0, "-prof");
+      options.add(1, "gc");
+    }
+    org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+  }
+}
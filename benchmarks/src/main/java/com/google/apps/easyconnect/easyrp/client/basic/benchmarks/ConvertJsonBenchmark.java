@@ -0,0 +1,84 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.GitServiceClientImpl;
+
+/**
+ * Measures {@code GitServiceClientImpl.convertJson} on a verified assertion with a full profile and
+ * on an error. Parsing the response text is included, as it is when a response is received.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertJsonBenchmark {
+  private static final String PROFILE = "{\"result\": {"
+      + "\"verifiedEmail\": \"someone@gmail.com\", \"fullName\": \"Test User\", "
+      + "\"photoUrl\": \"http://www.example.com/photo.png\", "
+      + "\"context\": \"{\\\"rp_input_email\\\": \\\"someone@gmail.com\\\"}\", "
+      + "\"oauthAccessToken\": \"ya29.AHES6ZT\", \"oauthExpireIn\": 3600, "
+      + "\"oauthRefreshToken\": \"1/xEoDL4iW3cxlI7yDbSRFYNG01kVKM2C-259HOF2aQbI\"}}";
+  private static final String ERROR = "{\"error\": {\"code\": 400, \"message\": \"Bad Request\"}}";
+
+  /**
+   * Exposes the protected {@code convertJson}.
+   */
+  static class Client extends GitServiceClientImpl {
+    Client() {
+      super("key");
+    }
+
+    JSONObject convert(JSONObject json) throws JSONException {
+      return convertJson(json);
+    }
+  }
+
+  @Param({"profile", "error"})
+  public String response;
+
+  private Client client;
+  private String text;
+
+  @Setup
+  public void setUp() {
+    client = new Client();
+    text = "profile".equals(response) ? PROFILE : ERROR;
+  }
+
+  @Benchmark
+  public JSONObject convertJson() throws JSONException {
+    return client.convert(new JSONObject(text));
+  }
+}
@@ -0,0 +1,395 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
+import com.google.apps.easyconnect.easyrp.client.basic.data.AccountService;
+import com.google.apps.easyconnect.easyrp.client.basic.data.OauthTokenResponse;
+import com.google.apps.easyconnect.easyrp.client.basic.session.CookieBasedSessionManager;
+import com.google.apps.easyconnect.easyrp.client.basic.session.RpConfig;
+import com.google.apps.easyconnect.easyrp.client.basic.session.TokenGenerator;
+import com.google.apps.easyconnect.easyrp.client.basic.util.DasherDomainChecker;
+import com.google.apps.easyconnect.easyrp.client.basic.util.GitServiceClient;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * In-memory stand-ins for the servlet container and the services of the RP, so the benchmarks
+ * measure the library without any I/O. The requests and responses are reset and reused between
+ * invocations, so they do not show in the allocation rates reported by the gc profiler.
+ */
+public final class Fakes {
+  public static final String LEGACY_EMAIL = "alice@example.com";
+  public static final String FEDERATED_EMAIL = "bob@gmail.com";
+  public static final String UNREGISTERED_EMAIL = "carol@example.com";
+  public static final String PASSWORD = "secret";
+
+  private Fakes() {
+  }
+
+  /**
+   * An {@code HttpServletRequest} holding parameters, cookies and attributes. The other methods
+   * throw {@code UnsupportedOperationException}.
+   */
+  public static class Request extends HttpServletRequestWrapper {
+    private final Map<String, String> parameters = Maps.newHashMap();
+    private final Map<String, Object> attributes = Maps.newHashMap();
+    private Cookie[] cookies = new Cookie[0];
+
+    public Request() {
+      super(unsupported(HttpServletRequest.class));
+    }
+
+    public Request parameter(String name, String value) {
+      parameters.put(name, value);
+      return this;
+    }
+
+    public Request cookies(Cookie... cookies) {
+      this.cookies = cookies;
+      return this;
+    }
+
+    /**
+     * Clears the attributes set while handling the previous request.
+     */
+    public Request clear() {
+      attributes.clear();
+      return this;
+    }
+
+    @Override
+    public String getParameter(String name) {
+      return parameters.get(name);
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+      return cookies;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      attributes.remove(name);
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+      return false;
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+      return DISPATCHER;
+    }
+  }
+
+  /**
+   * An {@code HttpServletResponse} buffering the body and recording the cookies and the redirect.
+   * The other methods throw {@code UnsupportedOperationException}.
+   */
+  public static class Response extends HttpServletResponseWrapper {
+    private final StringWriter body = new StringWriter();
+    private final PrintWriter writer = new PrintWriter(body);
+    private final List<Cookie> cookies = Lists.newArrayList();
+    private String contentType;
+    private String redirect;
+
+    public Response() {
+      super(unsupported(HttpServletResponse.class));
+    }
+
+    /**
+     * Clears the body, the cookies and the redirect of the previous response.
+     */
+    public Response clear() {
+      body.getBuffer().setLength(0);
+      cookies.clear();
+      contentType = null;
+      redirect = null;
+      return this;
+    }
+
+    public String getBody() {
+      return body.toString();
+    }
+
+    public List<Cookie> getCookies() {
+      return cookies;
+    }
+
+    public String getRedirect() {
+      return redirect;
+    }
+
+    /**
+     * @return a number depending on the whole response, for the benchmarks to return
+     */
+    public int digest() {
+      return body.getBuffer().length() + cookies.size()
+          + (redirect == null ? 0 : redirect.length());
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+      return writer;
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+      this.contentType = contentType;
+    }
+
+    @Override
+    public String getContentType() {
+      return contentType;
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+      cookies.add(cookie);
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+      redirect = location;
+    }
+  }
+
+  private static final RequestDispatcher DISPATCHER = new RequestDispatcher() {
+    @Override
+    public void forward(ServletRequest request, ServletResponse response) {
+    }
+
+    @Override
+    public void include(ServletRequest request, ServletResponse response) {
+    }
+  };
+
+  private static <T> T unsupported(Class<T> type) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            throw new UnsupportedOperationException(method.getName());
+          }
+        }));
+  }
+
+  /**
+   * An account held in memory.
+   */
+  public static class SimpleAccount implements Account {
+    private final String email;
+    private final boolean federated;
+
+    public SimpleAccount(String email, boolean federated) {
+      this.email = email;
+      this.federated = federated;
+    }
+
+    @Override
+    public boolean isFederated() {
+      return federated;
+    }
+
+    @Override
+    public String getEmail() {
+      return email;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Test User";
+    }
+
+    @Override
+    public String getPhotoUrl() {
+      return "http://www.example.com/photo.png";
+    }
+  }
+
+  /**
+   * An account service knowing {@code LEGACY_EMAIL} and {@code FEDERATED_EMAIL}. The accounts it
+   * creates are not stored, so every invocation of a benchmark sees the same accounts.
+   */
+  public static class Accounts implements AccountService {
+    private final Map<String, Account> accounts = Maps.newHashMap();
+
+    public Accounts() {
+      accounts.put(LEGACY_EMAIL, new SimpleAccount(LEGACY_EMAIL, false));
+      accounts.put(FEDERATED_EMAIL, new SimpleAccount(FEDERATED_EMAIL, true));
+    }
+
+    @Override
+    public Account getAccountByEmail(String email) {
+      return accounts.get(email);
+    }
+
+    @Override
+    public Account createFederatedAccount(JSONObject assertion) {
+      return new SimpleAccount(assertion.optString("email"), true);
+    }
+
+    @Override
+    public boolean checkPassword(String email, String password) {
+      return accounts.containsKey(email) && PASSWORD.equals(password);
+    }
+
+    @Override
+    public void toFederated(String email) {
+    }
+  }
+
+  /**
+   * A token generator which does not sign the tokens.
+   */
+  public static class Tokens implements TokenGenerator {
+    private static final String SESSION_PREFIX = "session:";
+
+    @Override
+    public String generateSessionToken(String email) {
+      return SESSION_PREFIX + email;
+    }
+
+    @Override
+    public String verifySessionToken(String token) {
+      return token.startsWith(SESSION_PREFIX) ? token.substring(SESSION_PREFIX.length()) : null;
+    }
+
+    @Override
+    public String generateIdpAssertionToken(JSONObject data) {
+      return data.toString();
+    }
+
+    @Override
+    public JSONObject verifyIdpAssertionToken(String token) {
+      try {
+        return new JSONObject(token);
+      } catch (JSONException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String generateOauthToken(OauthTokenResponse data) {
+      return data.getAccessToken();
+    }
+
+    @Override
+    public OauthTokenResponse verifyOauthToken(String data) {
+      return null;
+    }
+  }
+
+  /**
+   * A client which verifies any assertion as a trusted one for a fixed email.
+   */
+  public static class Client implements GitServiceClient {
+    private volatile String email;
+
+    public void setEmail(String email) {
+      this.email = email;
+    }
+
+    @Override
+    public JSONObject verifyResponse(String requestUri, String postBody) {
+      JSONObject assertion = new JSONObject();
+      try {
+        assertion.put("email", email);
+        assertion.put("trusted", true);
+      } catch (JSONException e) {
+        throw new IllegalStateException(e);
+      }
+      return assertion;
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody) {
+      return Futures.immediateFuture(verifyResponse(requestUri, postBody));
+    }
+  }
+
+  /**
+   * @return the configuration used by the benchmarks
+   */
+  public static RpConfig config() {
+    return new RpConfig.Builder().sessionCookieName("SID").idpAssertionCookieName("IDP")
+        .maxAgeOfSession(3600).maxAgeOfIdpAssertion(1800).path("/").homeUrl("/home")
+        .loginUrl("/login").signupUrl("/signup").notificationKey("notification")
+        .cdsActionKey("cdsAction").build();
+  }
+
+  /**
+   * Configures {@code Context} with the fakes and the local IDP white list, so the GitTrees run
+   * without any I/O, and turns the logging off, so it is not measured.
+   *
+   * @return the client verifying the assertions of the callback flows
+   */
+  public static Client installContext() {
+    Logger.getLogger("").setLevel(Level.OFF);
+    RpConfig config = config();
+    AccountService accounts = new Accounts();
+    Client client = new Client();
+    Context.setConfig(config);
+    Context.setAccountService(accounts);
+    Context.setSessionManager(new CookieBasedSessionManager(config, accounts, new Tokens()));
+    Cache<String, Boolean> dasherDomains = CacheBuilder.newBuilder().build();
+    dasherDomains.put("example.com", false);
+    Context.setDasherDomainChecker(new DasherDomainChecker(dasherDomains));
+    Context.setGitServiceClient(client);
+    Context.setUseLocalIdpWhiteList(true);
+    Context.setReturnProfileInfo(false);
+    return client;
+  }
+}
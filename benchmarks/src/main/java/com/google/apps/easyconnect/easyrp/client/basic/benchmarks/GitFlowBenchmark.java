@@ -0,0 +1,103 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.Cookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitCallbackRequest;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitLoginRequest;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitRequest;
+
+/**
+ * Executes the built-in {@code GitTree} of each flow, with the real evaluators and actions, on the
+ * in-memory {@code Fakes}. The scores include rendering the responses and setting the cookies, but
+ * no I/O: the account service is a map, the Dasher domain checker is served from its cache and the
+ * callback assertions are verified in place.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitFlowBenchmark {
+
+  @Param({"USER_STATUS", "LEGACY_SIGNIN", "CALLBACK_POPUP", "CALLBACK_REDIRECT"})
+  public GitTree.Flow flow;
+
+  /**
+   * The account of the request: a legacy one, a federated one or an unregistered email.
+   */
+  @Param({"legacy", "federated", "unregistered"})
+  public String account;
+
+  private GitNode tree;
+  private String email;
+  private Fakes.Request httpRequest;
+  private Fakes.Response httpResponse;
+
+  @Setup
+  public void setUp() {
+    Fakes.Client client = Fakes.installContext();
+    if ("legacy".equals(account)) {
+      email = Fakes.LEGACY_EMAIL;
+    } else if ("federated".equals(account)) {
+      email = Fakes.FEDERATED_EMAIL;
+    } else {
+      email = Fakes.UNREGISTERED_EMAIL;
+    }
+    client.setEmail(email);
+    tree = GitTree.get(flow, true, false);
+    httpRequest = new Fakes.Request().parameter("email", email)
+        .cookies(new Cookie("JSESSIONID", "0123456789"), new Cookie("SID", "session:" + email));
+    httpResponse = new Fakes.Response();
+  }
+
+  @Benchmark
+  public int execute() {
+    httpRequest.clear();
+    httpResponse.clear();
+    GitRequest request;
+    switch (flow) {
+      case USER_STATUS:
+        request = new GitRequest(httpRequest, httpResponse, email);
+        break;
+      case LEGACY_SIGNIN:
+        request = new GitLoginRequest(httpRequest, httpResponse, email, Fakes.PASSWORD);
+        break;
+      default:
+        request = new GitCallbackRequest(httpRequest, httpResponse, "http://www.example.com/cb");
+    }
+    tree.execute(request);
+    return httpResponse.digest();
+  }
+}
@@ -0,0 +1,173 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+
+/**
+ * Compares the interpreted {@code GitNode} tree with its {@code CompiledGitTree} and its
+ * {@code GeneratedGitTree}, on a tree shaped like the legacy sign in logic of {@code GitTree}. The
+ * evaluators and actions are trivial, so the scores are the overhead of walking the tree.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar GitTreeBenchmark}, which also compares the
+ * allocation rates. {@code GitFlowBenchmark} executes the real flows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitTreeBenchmark {
+
+  /**
+   * The request walked through the tree.
+   */
+  public static class Request {
+    final boolean validEmail;
+    final boolean registered;
+    final boolean legacy;
+    final boolean correctPassword;
+
+    Request(boolean validEmail, boolean registered, boolean legacy, boolean correctPassword) {
+      this.validEmail = validEmail;
+      this.registered = registered;
+      this.legacy = legacy;
+      this.correctPassword = correctPassword;
+    }
+  }
+
+  public static class Evaluator {
+    public String checkIdentifierType(Request request) {
+      return request.validEmail ? "email" : "invalid";
+    }
+
+    public String checkEmailRegistered(Request request) {
+      return request.registered ? "registered" : "unregistered";
+    }
+
+    public String checkAccountType(Request request) {
+      return request.legacy ? "legacy" : "federated";
+    }
+
+    public String checkPasswordCorrect(Request request) {
+      return request.correctPassword ? "correct" : "incorrect";
+    }
+  }
+
+  public static class Action {
+    int count;
+
+    public void sendEmailNotExist(Request request) {
+      count++;
+    }
+
+    public void sendFederated(Request request) {
+      count++;
+    }
+
+    public void setLoggedIn(Request request) {
+      count++;
+    }
+
+    public void sendOK(Request request) {
+      count++;
+    }
+
+    public void sendPasswordError(Request request) {
+      count++;
+    }
+  }
+
+  /**
+   * The path taken: the depth of the leaf reached.
+   */
+  @Param({"invalidEmail", "regFed", "correct"})
+  public String path;
+
+  private GitNode interpreted;
+  private GitNode compiled;
+  private GitNode generated;
+  private Request request;
+  private Action action;
+
+  @Setup
+  public void setUp() {
+    action = new Action();
+    interpreted = buildTree(action);
+    compiled = CompiledGitTree.compile(buildTree(action));
+    generated = GeneratedGitTree.generate(buildTree(action));
+    if (!(generated instanceof GeneratedGitTree)) {
+      throw new IllegalStateException("The tree was not generated");
+    }
+    if ("invalidEmail".equals(path)) {
+      request = new Request(false, false, false, false);
+    } else if ("regFed".equals(path)) {
+      request = new Request(true, true, false, false);
+    } else {
+      request = new Request(true, true, true, true);
+    }
+  }
+
+  private static GitNode buildTree(Action action) {
+    GitTreeBuilder builder = new GitTreeBuilder(Request.class, new Evaluator(), action);
+    builder.start("start", "checkIdentifierType");
+    builder.leaf("invalidEmail", "start", "DEFAULT", new String[] {"sendEmailNotExist"});
+    builder.decision("validEmail", "start", "email", "checkEmailRegistered");
+    builder.leaf("unreg", "validEmail", "DEFAULT", new String[] {"sendEmailNotExist"});
+    builder.decision("reg", "validEmail", "registered", "checkAccountType");
+    builder.leaf("regFed", "reg", "DEFAULT", new String[] {"sendFederated"});
+    builder.decision("regLegacy", "reg", "legacy", "checkPasswordCorrect");
+    builder.leaf("correct", "regLegacy", "correct", new String[] {"setLoggedIn", "sendOK"});
+    builder.leaf("incorrect", "regLegacy", "DEFAULT", new String[] {"sendPasswordError"});
+    return builder.build();
+  }
+
+  @Benchmark
+  public int interpreted() {
+    interpreted.execute(request);
+    return action.count;
+  }
+
+  @Benchmark
+  public int compiled() {
+    compiled.execute(request);
+    return action.count;
+  }
+
+  @Benchmark
+  public int generated() {
+    generated.execute(request);
+    return action.count;
+  }
+}
@@ -0,0 +1,76 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.IdpUtils;
+import com.google.apps.easyconnect.easyrp.client.basic.util.IdpWhiteList;
+
+/**
+ * Measures the email checks run on every request: {@code IdpUtils.isValidEmail},
+ * {@code IdpUtils.getDomain} and the lookup of the domain in the default {@code IdpWhiteList}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdpUtilsBenchmark {
+
+  /**
+   * The email checked. The domain of the first one is in the white list, near its end.
+   */
+  @Param({"someone@verizon.net", "someone@example.com", "not an email"})
+  public String email;
+
+  private IdpWhiteList whiteList;
+  private String domain;
+
+  @Setup
+  public void setUp() {
+    whiteList = new IdpWhiteList();
+    domain = IdpUtils.isValidEmail(email) ? IdpUtils.getDomain(email) : email;
+  }
+
+  @Benchmark
+  public boolean isValidEmail() {
+    return IdpUtils.isValidEmail(email);
+  }
+
+  @Benchmark
+  public String getDomain() {
+    return IdpUtils.getDomain(email);
+  }
+
+  @Benchmark
+  public boolean isFederatedDomain() {
+    return whiteList.isFederatedDomain(domain);
+  }
+}
@@ -0,0 +1,97 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.benchmarks.GitTreeBenchmark.Evaluator;
+import com.google.apps.easyconnect.easyrp.client.basic.benchmarks.GitTreeBenchmark.Request;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.MethodInvoker;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.MethodInvokers;
+
+/**
+ * Compares the invokers generated by {@code MethodInvokers.bind} with {@code Method.invoke} and
+ * with plain calls, on the four evaluators of {@code GitTreeBenchmark} called from one call site,
+ * as the nodes of a tree do.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar MethodInvokerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodInvokerBenchmark {
+  private static final String[] EVALUATORS = {"checkIdentifierType", "checkEmailRegistered",
+      "checkAccountType", "checkPasswordCorrect"};
+
+  private Evaluator evaluator;
+  private Request request;
+  private MethodInvoker[] bound;
+  private MethodInvoker[] reflective;
+
+  @Setup
+  public void setUp() throws NoSuchMethodException {
+    evaluator = new Evaluator();
+    request = new Request(true, true, true, true);
+    bound = new MethodInvoker[EVALUATORS.length];
+    reflective = new MethodInvoker[EVALUATORS.length];
+    for (int i = 0; i < EVALUATORS.length; i++) {
+      Method method = Evaluator.class.getMethod(EVALUATORS[i], Request.class);
+      bound[i] = MethodInvokers.bind(method);
+      reflective[i] = MethodInvokers.reflective(method);
+    }
+  }
+
+  @Benchmark
+  public int direct() {
+    return evaluator.checkIdentifierType(request).length()
+        + evaluator.checkEmailRegistered(request).length()
+        + evaluator.checkAccountType(request).length()
+        + evaluator.checkPasswordCorrect(request).length();
+  }
+
+  @Benchmark
+  public int bound() throws Exception {
+    return invokeAll(bound);
+  }
+
+  @Benchmark
+  public int reflective() throws Exception {
+    return invokeAll(reflective);
+  }
+
+  private int invokeAll(MethodInvoker[] invokers) throws Exception {
+    int length = 0;
+    for (MethodInvoker invoker : invokers) {
+      length += ((String) invoker.invoke(evaluator, request)).length();
+    }
+    return length;
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.ac.LegacySigninJsonResponseBuilder;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.ac.PopupCallbackResponseBuilder;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.ac.RedirectCallbackNotificationBuilder;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.ac.UserStatusJsonResponseBuilder;
+
+/**
+ * Measures rendering the responses of each flow, with all the optional fields set. The JSON
+ * builders are reused as the actions reuse them, through {@code reset()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBuilderBenchmark {
+  private static final String EMAIL = "someone@example.com";
+  private static final String DISPLAY_NAME = "Test User";
+  private static final String PHOTO_URL = "http://www.example.com/photo.png";
+
+  private final UserStatusJsonResponseBuilder userStatus = new UserStatusJsonResponseBuilder();
+  private final LegacySigninJsonResponseBuilder legacySignin =
+      new LegacySigninJsonResponseBuilder();
+  private final PopupCallbackResponseBuilder popupCallback = new PopupCallbackResponseBuilder();
+  private final RedirectCallbackNotificationBuilder redirectCallback =
+      new RedirectCallbackNotificationBuilder();
+
+  @Benchmark
+  public String userStatus() throws JSONException {
+    return userStatus.reset().registered(true).legacy(true).displayName(DISPLAY_NAME)
+        .photoUrl(PHOTO_URL).build();
+  }
+
+  @Benchmark
+  public String legacySignin() throws JSONException {
+    return legacySignin.reset().status(LegacySigninJsonResponseBuilder.Status.OK)
+        .displayName(DISPLAY_NAME).photoUrl(PHOTO_URL).build();
+  }
+
+  @Benchmark
+  public String popupCallbackSuccess() {
+    return popupCallback.createSuccess(true, EMAIL, DISPLAY_NAME, PHOTO_URL, false);
+  }
+
+  @Benchmark
+  public String popupCallbackAccountMismatch() {
+    return popupCallback.createAccountMismatch(EMAIL, "other@example.com", "signin", false);
+  }
+
+  @Benchmark
+  public JSONObject redirectCallbackAccountMismatch() {
+    return redirectCallback.createAccountMismatch(EMAIL, "other@example.com", "signin");
+  }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.Cookie;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
+import com.google.apps.easyconnect.easyrp.client.basic.session.CookieBasedSessionManager;
+
+/**
+ * Measures reading and writing the cookies of {@code CookieBasedSessionManager}, with a request
+ * carrying a few unrelated cookies before the ones of the library. The tokens are not signed, so
+ * the scores are the overhead of the session manager itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionManagerBenchmark {
+  private CookieBasedSessionManager sessionManager;
+  private Fakes.Request request;
+  private Fakes.Response response;
+  private Account account;
+  private JSONObject assertion;
+
+  @Setup
+  public void setUp() throws JSONException {
+    Fakes.Accounts accounts = new Fakes.Accounts();
+    Fakes.Tokens tokens = new Fakes.Tokens();
+    sessionManager = new CookieBasedSessionManager(Fakes.config(), accounts, tokens);
+    account = accounts.getAccountByEmail(Fakes.LEGACY_EMAIL);
+    assertion = new JSONObject().put("email", Fakes.FEDERATED_EMAIL).put("trusted", true);
+    request = new Fakes.Request().cookies(new Cookie("JSESSIONID", "0123456789"),
+        new Cookie("PREF", "ID=1:TM=1"), new Cookie("_ga", "GA1.2.3.4"),
+        new Cookie("SID", tokens.generateSessionToken(Fakes.LEGACY_EMAIL)),
+        new Cookie("IDP", tokens.generateIdpAssertionToken(assertion)));
+    response = new Fakes.Response();
+  }
+
+  @Benchmark
+  public Account getSessionAccount() {
+    // A new request each time, so the account is not served by the cache of the previous one.
+    request.clear();
+    return sessionManager.getSessionAccount(request);
+  }
+
+  @Benchmark
+  public int setSessionAccount() {
+    response.clear();
+    sessionManager.setSessionAccount(request, response, account);
+    return response.digest();
+  }
+
+  @Benchmark
+  public JSONObject getIdpAssertionData() {
+    return sessionManager.getIdpAssertionData(request);
+  }
+
+  @Benchmark
+  public int setIdpAssertionData() {
+    response.clear();
+    sessionManager.setIdpAssertionData(request, response, assertion);
+    return response.digest();
+  }
+}
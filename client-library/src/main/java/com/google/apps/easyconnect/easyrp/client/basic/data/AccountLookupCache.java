@@ -0,0 +1,157 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.SharedExecutors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Memoizes the lookups of {@code AccountService.getAccountByEmail} for the duration of an HTTP
+ * request, so the evaluators, actions and session manager handling the request read each account
+ * from the RP's database once.
+ * <p>
+ * The cache is stored as an attribute of the {@code HttpServletRequest}, so everything handling
+ * the request shares it. Unknown emails are memoized too. Code which changes an account, e.g. with
+ * {@code toFederated}, must {@code invalidate} it or {@code put} the new account. A cache is used
+ * by the thread handling its request only, and is not thread safe.
+ * <p>
+ * A lookup may be started ahead of time with {@code prefetch}, e.g. when the request enters a
+ * tree, so it runs concurrently with other remote calls. It runs on a bounded pool of worker
+ * threads, so the {@code AccountService} must be thread safe.
+ */
+public final class AccountLookupCache {
+  private static final Logger log = Logger.getLogger(AccountLookupCache.class.getName());
+  private static final String ATTRIBUTE = AccountLookupCache.class.getName();
+
+  private final AccountService accountService;
+  private final Map<String, Account> accounts = Maps.newHashMap();
+  private final Map<String, ListenableFuture<Account>> prefetched = Maps.newHashMap();
+
+  public AccountLookupCache(AccountService accountService) {
+    this.accountService = Preconditions.checkNotNull(accountService);
+  }
+
+  /**
+   * Gets the cache of an HTTP request, creating it on first use.
+   *
+   * @param request the HTTP request, or null for a cache not shared
+   * @param accountService the service to look the accounts up
+   */
+  public static AccountLookupCache forRequest(HttpServletRequest request,
+      AccountService accountService) {
+    if (request == null) {
+      return new AccountLookupCache(accountService);
+    }
+    Object cache = request.getAttribute(ATTRIBUTE);
+    if (cache instanceof AccountLookupCache
+        && ((AccountLookupCache) cache).accountService == accountService) {
+      return (AccountLookupCache) cache;
+    }
+    AccountLookupCache newCache = new AccountLookupCache(accountService);
+    request.setAttribute(ATTRIBUTE, newCache);
+    return newCache;
+  }
+
+  /**
+   * Returns the Account for an email, or null if not found, looking it up once per request.
+   */
+  public Account getAccountByEmail(String email) {
+    if (accounts.containsKey(email)) {
+      return accounts.get(email);
+    }
+    ListenableFuture<Account> pending = prefetched.remove(email);
+    if (pending != null) {
+      try {
+        Account account = pending.get();
+        accounts.put(email, account);
+        return account;
+      } catch (ExecutionException e) {
+        // Looked up again below, so the caller gets the failure of the service.
+        log.fine("Failed to prefetch account: " + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    Account account = accountService.getAccountByEmail(email);
+    accounts.put(email, account);
+    return account;
+  }
+
+  /**
+   * Same as {@code getAccountByEmail}, but does not block the calling thread while the account is
+   * looked up, unless the pool of worker threads is saturated. The lookup stays pending in the
+   * cache, so the next {@code getAccountByEmail} of the email takes its result. The future may
+   * complete on a worker thread, which must not use the cache.
+   */
+  public ListenableFuture<Account> getAccountByEmailAsync(String email) {
+    if (accounts.containsKey(email)) {
+      return Futures.immediateFuture(accounts.get(email));
+    }
+    prefetch(email);
+    ListenableFuture<Account> pending = prefetched.get(email);
+    return pending != null ? pending : Futures.immediateFuture(getAccountByEmail(email));
+  }
+
+  /**
+   * Starts looking the account of an email up on a bounded pool of worker threads, without
+   * blocking. The next {@code getAccountByEmail} of the email waits for this lookup rather than
+   * making its own. Does nothing if the account is known already or if the pool is saturated.
+   */
+  public void prefetch(final String email) {
+    if (email == null || accounts.containsKey(email) || prefetched.containsKey(email)) {
+      return;
+    }
+    try {
+      ListeningExecutorService executor = SharedExecutors.bounded("AccountPrefetch", 4, 1000);
+      prefetched.put(email, executor.submit(new Callable<Account>() {
+        @Override
+        public Account call() {
+          return accountService.getAccountByEmail(email);
+        }
+      }));
+    } catch (RejectedExecutionException e) {
+      log.fine("Account prefetch rejected: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Records the account of an email, e.g. just created.
+   */
+  public void put(String email, Account account) {
+    prefetched.remove(email);
+    accounts.put(email, account);
+  }
+
+  /**
+   * Forgets the account of an email, so the next lookup reads it again.
+   */
+  public void invalidate(String email) {
+    prefetched.remove(email);
+    accounts.remove(email);
+  }
+}
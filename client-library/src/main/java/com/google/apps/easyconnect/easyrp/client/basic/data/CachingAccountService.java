@@ -0,0 +1,161 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * An {@code AccountService} decorator which remembers the accounts looked up by email, so the
+ * user status probes, logins and callbacks of the same user do not each cost a round trip to the
+ * RP's database.
+ * <p>
+ * The emails without an account are remembered too, as most user status probes are for
+ * unregistered emails. The cache is bounded both in size and in time, and concurrent lookups of
+ * the same email share the same call to the delegate. Creating a federated account or changing an
+ * account to federated through the decorator forgets the email; an RP changing its accounts by
+ * other means should call {@code invalidate}, or keep the TTL short. The accounts are returned as
+ * is, so they should be immutable. {@code checkPassword} is not cached.
+ */
+public class CachingAccountService implements VerifiedAssertionAccountService {
+  private final AccountService delegate;
+  private final Cache<String, Optional<Account>> cache;
+  // Counts the writes, so a lookup overlapping one does not leave a stale account in the cache.
+  private final AtomicLong writes = new AtomicLong();
+
+  /**
+   * Constructs a caching account service.
+   *
+   * @param delegate the account service of the RP
+   * @param ttlMillis how long an account, or the absence of one, is kept
+   * @param maximumSize the max number of emails kept
+   */
+  public CachingAccountService(AccountService delegate, long ttlMillis, long maximumSize) {
+    this(delegate, ttlMillis, maximumSize, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CachingAccountService(AccountService delegate, long ttlMillis, long maximumSize,
+      Ticker ticker) {
+    Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(ttlMillis > 0 && maximumSize > 0);
+    this.delegate = delegate;
+    this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .maximumSize(maximumSize).ticker(ticker).build();
+  }
+
+  public AccountService getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return the hit, miss and eviction statistics of the cache. A hit may be an email known to
+   *         have no account.
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  @Override
+  public Account getAccountByEmail(final String email) {
+    if (email == null) {
+      return delegate.getAccountByEmail(email);
+    }
+    long writesBefore = writes.get();
+    Optional<Account> account;
+    try {
+      account = cache.get(email, new Callable<Optional<Account>>() {
+        @Override
+        public Optional<Account> call() {
+          return Optional.fromNullable(delegate.getAccountByEmail(email));
+        }
+      });
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    if (writes.get() != writesBefore) {
+      // The lookup may have read the account before the write.
+      cache.asMap().remove(email, account);
+    }
+    return account.orNull();
+  }
+
+  @Override
+  public Account createFederatedAccount(JSONObject assertion) throws AccountException {
+    try {
+      return delegate.createFederatedAccount(assertion);
+    } finally {
+      invalidate(assertion == null ? null : assertion.optString("email", null));
+    }
+  }
+
+  @Override
+  public Account createFederatedAccount(VerifiedAssertion assertion) throws AccountException {
+    try {
+      if (delegate instanceof VerifiedAssertionAccountService) {
+        return ((VerifiedAssertionAccountService) delegate).createFederatedAccount(assertion);
+      }
+      return delegate.createFederatedAccount(assertion == null ? null : assertion.toJson());
+    } finally {
+      invalidate(assertion == null ? null : assertion.getEmail());
+    }
+  }
+
+  @Override
+  public boolean checkPassword(String email, String password) {
+    return delegate.checkPassword(email, password);
+  }
+
+  @Override
+  public void toFederated(String email) throws AccountException {
+    try {
+      delegate.toFederated(email);
+    } finally {
+      invalidate(email);
+    }
+  }
+
+  /**
+   * Forgets the account of an email, e.g. after the RP changed it without going through this
+   * decorator.
+   *
+   * @param email the email, null to forget all the accounts as the email is unknown
+   */
+  public void invalidate(String email) {
+    writes.incrementAndGet();
+    if (email == null) {
+      cache.invalidateAll();
+    } else {
+      cache.invalidate(email);
+    }
+  }
+}
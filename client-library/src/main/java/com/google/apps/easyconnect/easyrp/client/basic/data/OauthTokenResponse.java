@@ -89,6 +89,24 @@ public final class OauthTokenResponse implements Serializable {
     return null;
   }
 
+  /**
+   * Creates an OAuth token response based on the returned IdP assertion.
+   *
+   * @param assertion the returned IdP assertion
+   * @return either an OAuth1 or OAuth2 token response, or null if there is no token
+   */
+  public static OauthTokenResponse createFromAssertion(VerifiedAssertion assertion) {
+    Preconditions.checkNotNull(assertion);
+    if (!Strings.isNullOrEmpty(assertion.getOauthAccessToken())) {
+      return createOauth2Token(assertion.getOauthAccessToken(), assertion.getOauthExpireIn(),
+          assertion.getOauthRefreshToken());
+    } else if (assertion.getOauthAccessToken() == null
+        && !Strings.isNullOrEmpty(assertion.getOauthRequestToken())) {
+      return createOauth1Token(assertion.getOauthRequestToken());
+    }
+    return null;
+  }
+
   /**
    * Types for OAuth token response. Either an OAUTH1_TOKEN or an OAUTH2_TOKEN.
    */
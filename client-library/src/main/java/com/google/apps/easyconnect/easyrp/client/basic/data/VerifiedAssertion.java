@@ -0,0 +1,306 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import java.io.Serializable;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The verified IDP assertion, as returned by {@code GitServiceClient.verifyResponse}. The
+ * assertion is immutable: it keeps a copy of the JSON it was created from, so the fields the
+ * library does not read are kept too, and {@code toJson()} hands out copies of it.
+ */
+public final class VerifiedAssertion implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final Logger log = Logger.getLogger(VerifiedAssertion.class.getName());
+
+  private final String error;
+  private final String email;
+  // Null if the service did not say whether the email is trusted.
+  private final Boolean trusted;
+  private final String firstName;
+  private final String lastName;
+  private final String fullName;
+  private final String photoUrl;
+  private final String context;
+  private final String oauthAccessToken;
+  private final int oauthExpireIn;
+  private final String oauthRefreshToken;
+  private final String oauthRequestToken;
+
+  // A copy of the JSON this assertion was created from, or null if built or deserialized.
+  private final transient JSONObject json;
+
+  private VerifiedAssertion(Builder builder, JSONObject json) {
+    this.error = builder.error;
+    this.email = builder.email;
+    this.trusted = builder.trusted;
+    this.firstName = builder.firstName;
+    this.lastName = builder.lastName;
+    this.fullName = builder.fullName;
+    this.photoUrl = builder.photoUrl;
+    this.context = builder.context;
+    this.oauthAccessToken = builder.oauthAccessToken;
+    this.oauthExpireIn = builder.oauthExpireIn;
+    this.oauthRefreshToken = builder.oauthRefreshToken;
+    this.oauthRequestToken = builder.oauthRequestToken;
+    this.json = json;
+  }
+
+  /**
+   * Creates an assertion from the JSON returned by {@code GitServiceClient.verifyResponse}. The
+   * assertion keeps a copy of the JSON, so the caller may change it afterwards.
+   *
+   * @param json the verified assertion in JSON format
+   * @return the assertion
+   */
+  public static VerifiedAssertion fromJson(JSONObject json) {
+    Preconditions.checkNotNull(json);
+    Builder builder = new Builder();
+    if (json.has("error")) {
+      builder.error(String.valueOf(json.opt("error")));
+    }
+    if (json.has("email")) {
+      builder.email(json.optString("email"));
+    }
+    if (json.has("trusted")) {
+      builder.trusted(json.optBoolean("trusted"));
+    }
+    builder.firstName(optString(json, "firstName")).lastName(optString(json, "lastName"))
+        .fullName(optString(json, "fullName")).photoUrl(optString(json, "photoUrl"))
+        .context(optString(json, "context"))
+        .oauthAccessToken(optString(json, "oauthAccessToken"))
+        .oauthExpireIn(json.optInt("oauthExpireIn"))
+        .oauthRefreshToken(optString(json, "oauthRefreshToken"))
+        .oauthRequestToken(optString(json, "oauthRequestToken"));
+    return new VerifiedAssertion(builder, copy(json));
+  }
+
+  /**
+   * @return a shallow copy of a JSON object; the assertions only hold strings, booleans and numbers
+   */
+  private static JSONObject copy(JSONObject json) {
+    String[] names = JSONObject.getNames(json);
+    if (names == null) {
+      return new JSONObject();
+    }
+    try {
+      return new JSONObject(json, names);
+    } catch (JSONException e) {
+      log.severe(e.getMessage());
+      return new JSONObject();
+    }
+  }
+
+  private static String optString(JSONObject json, String key) {
+    return json.has(key) ? json.optString(key) : null;
+  }
+
+  /**
+   * Returns the JSON form of this assertion, in the format of
+   * {@code GitServiceClient.verifyResponse}. Each call returns a new object, which the caller may
+   * change.
+   *
+   * @return the assertion in JSON format
+   */
+  public JSONObject toJson() {
+    return json != null ? copy(json) : render();
+  }
+
+  private JSONObject render() {
+    JSONObject ret = new JSONObject();
+    try {
+      ret.putOpt("error", error);
+      ret.putOpt("email", email);
+      ret.putOpt("trusted", trusted);
+      ret.putOpt("firstName", firstName);
+      ret.putOpt("lastName", lastName);
+      ret.putOpt("fullName", fullName);
+      ret.putOpt("photoUrl", photoUrl);
+      ret.putOpt("context", context);
+      ret.putOpt("oauthAccessToken", oauthAccessToken);
+      if (oauthExpireIn != 0) {
+        ret.put("oauthExpireIn", oauthExpireIn);
+      }
+      ret.putOpt("oauthRefreshToken", oauthRefreshToken);
+      ret.putOpt("oauthRequestToken", oauthRequestToken);
+    } catch (JSONException e) {
+      log.severe(e.getMessage());
+    }
+    return ret;
+  }
+
+  /**
+   * @return whether the assertion was rejected by the service
+   */
+  public boolean isError() {
+    return error != null;
+  }
+
+  /**
+   * @return the error returned by the service, or null if the assertion is valid
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * @return the email of the user, or null if the IDP did not return one
+   */
+  public String getEmail() {
+    return email;
+  }
+
+  /**
+   * @return whether the service said whether the email is verified by a trusted IDP
+   */
+  public boolean hasTrusted() {
+    return trusted != null;
+  }
+
+  /**
+   * @return whether the email is verified by a trusted IDP
+   */
+  public boolean isTrusted() {
+    return Boolean.TRUE.equals(trusted);
+  }
+
+  public String getFirstName() {
+    return firstName;
+  }
+
+  public String getLastName() {
+    return lastName;
+  }
+
+  public String getFullName() {
+    return fullName;
+  }
+
+  public String getPhotoUrl() {
+    return photoUrl;
+  }
+
+  /**
+   * @return the state parameters sent to the IDP in JSON format, or null
+   */
+  public String getContext() {
+    return context;
+  }
+
+  public String getOauthAccessToken() {
+    return oauthAccessToken;
+  }
+
+  public int getOauthExpireIn() {
+    return oauthExpireIn;
+  }
+
+  public String getOauthRefreshToken() {
+    return oauthRefreshToken;
+  }
+
+  public String getOauthRequestToken() {
+    return oauthRequestToken;
+  }
+
+  /**
+   * Builder class to setup a {@code VerifiedAssertion} instance.
+   */
+  public static class Builder {
+    private String error;
+    private String email;
+    private Boolean trusted;
+    private String firstName;
+    private String lastName;
+    private String fullName;
+    private String photoUrl;
+    private String context;
+    private String oauthAccessToken;
+    private int oauthExpireIn;
+    private String oauthRefreshToken;
+    private String oauthRequestToken;
+
+    public Builder error(String val) {
+      this.error = val;
+      return this;
+    }
+
+    public Builder email(String val) {
+      this.email = val;
+      return this;
+    }
+
+    public Builder trusted(boolean val) {
+      this.trusted = val;
+      return this;
+    }
+
+    public Builder firstName(String val) {
+      this.firstName = val;
+      return this;
+    }
+
+    public Builder lastName(String val) {
+      this.lastName = val;
+      return this;
+    }
+
+    public Builder fullName(String val) {
+      this.fullName = val;
+      return this;
+    }
+
+    public Builder photoUrl(String val) {
+      this.photoUrl = val;
+      return this;
+    }
+
+    public Builder context(String val) {
+      this.context = val;
+      return this;
+    }
+
+    public Builder oauthAccessToken(String val) {
+      this.oauthAccessToken = val;
+      return this;
+    }
+
+    public Builder oauthExpireIn(int val) {
+      this.oauthExpireIn = val;
+      return this;
+    }
+
+    public Builder oauthRefreshToken(String val) {
+      this.oauthRefreshToken = val;
+      return this;
+    }
+
+    public Builder oauthRequestToken(String val) {
+      this.oauthRequestToken = val;
+      return this;
+    }
+
+    public VerifiedAssertion build() {
+      return new VerifiedAssertion(this, null);
+    }
+  }
+}
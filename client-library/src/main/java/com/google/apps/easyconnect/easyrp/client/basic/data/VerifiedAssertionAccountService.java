@@ -0,0 +1,35 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+/**
+ * An {@code AccountService} which creates federated accounts from the typed
+ * {@code VerifiedAssertion}. The client library calls the typed method when the RP's account
+ * service implements this interface, and the JSONObject one otherwise, so the existing
+ * {@code AccountService} implementations keep working.
+ */
+public interface VerifiedAssertionAccountService extends AccountService {
+
+  /**
+   * Create federated account according to the IDP assertion. An RP should throw
+   * {@code AccountException} if not supporting create federated account automatically.
+   * 
+   * @param assertion the verified assertion from IDP
+   * @return the create account object.
+   * @throws AccountException if this action is not allowed.
+   */
+  Account createFederatedAccount(VerifiedAssertion assertion) throws AccountException;
+}
@@ -0,0 +1,49 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A {@code GitNode} which can also be executed without blocking on its evaluators.
+ * <p>
+ * An evaluator may return a {@code ListenableFuture} of its outcome, e.g. when it calls a remote
+ * service. {@code execute} waits for the future, while {@code executeAsync} returns at once and
+ * resumes the walk of the tree when it is done, on a pool of worker threads dedicated to the walks
+ * so the threads of the remote services are not held up. The rest of the walk, evaluators and
+ * actions included, runs on that pool.
+ * <p>
+ * {@code executeAsync} calls an evaluator {@code checkFoo} through its twin {@code checkFooAsync}
+ * returning a future if there is one, e.g. {@code checkDomainTypeAsync}, while {@code execute}
+ * calls {@code checkFoo} itself, so the synchronous walks do not hop threads, unless the node has
+ * a time budget, see {@code GitTreeBuilder.budget}.
+ * <p>
+ * A walk which stops waiting for a future cancels it holding the lock of the request. So an
+ * evaluator whose future writes the request when it completes, e.g.
+ * {@code checkEmailRegisteredAsync}, writes it holding that lock, and only if its future is not
+ * cancelled.
+ */
+public interface AsyncGitNode extends GitNode {
+  /**
+   * Executes the tree asynchronously.
+   *
+   * @param request the request
+   * @return a future done once the actions of the selected leaf have run; it fails with an
+   *         {@code IllegalStateException} if no child matches an outcome. Cancelling it stops the
+   *         walk before the actions of the leaf, and fails once they have started.
+   */
+  ListenableFuture<Void> executeAsync(Object request);
+}
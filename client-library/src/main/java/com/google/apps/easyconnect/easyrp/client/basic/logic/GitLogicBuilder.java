@@ -23,5 +23,21 @@ public interface GitLogicBuilder {
 
   GitLogicBuilder leaf(String id, String parentId, String parentValue, String[] actionMethodNames);
 
+  /**
+   * Limits the time the evaluator of a decision node may take. When it does not answer in time,
+   * the node takes the child of the fallback key, or its {@code DEFAULT} child if it has none, and
+   * counts the timeout in its {@code GitNodeStats}.
+   *
+   * @param fallback the key of the child taken on timeout, normally {@code DEFAULT}
+   */
+  GitLogicBuilder budget(String id, long millis, String fallback);
+
+  /**
+   * Limits the time of a whole request. The evaluators are waited for no longer than what is left
+   * of it, and once it is spent the decision nodes left take their fallback child without calling
+   * their evaluator.
+   */
+  GitLogicBuilder requestBudget(long millis);
+
   GitNode build();
 }
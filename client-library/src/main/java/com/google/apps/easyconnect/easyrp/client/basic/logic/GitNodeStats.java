@@ -0,0 +1,136 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.LatencyHistogram;
+import com.google.apps.easyconnect.easyrp.client.basic.util.StripedCounter;
+import com.google.common.base.Preconditions;
+
+/**
+ * The live traffic of a {@code GitNode}: how many requests reached it, how long the node itself
+ * took (its evaluator, or the actions of a leaf), and for a decision node how many requests took
+ * each of its children, and how many took its fallback child because the evaluator ran out of
+ * its time budget.
+ * <p>
+ * The node keeps its stats whatever the backend executing the tree, see {@code GitTree.Backend}.
+ * Recording allocates nothing and takes no lock. The requests sampled by {@code GitTracer} are
+ * also recorded into their traces.
+ */
+public final class GitNodeStats {
+  private final String nodeId;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final StripedCounter timeouts = new StripedCounter();
+  // The edge counters by GitOutcome id, with the DEFAULT child at 0. Filled while building.
+  private StripedCounter[] edges = new StripedCounter[0];
+
+  /**
+   * @param nodeId the id of the node
+   */
+  public GitNodeStats(String nodeId) {
+    this.nodeId = Preconditions.checkNotNull(nodeId);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Adds the edge to a child. Called while the tree is built.
+   */
+  public void addEdge(GitOutcome outcome) {
+    if (outcome.getId() >= edges.length) {
+      StripedCounter[] newEdges = new StripedCounter[outcome.getId() + 1];
+      System.arraycopy(edges, 0, newEdges, 0, edges.length);
+      edges = newEdges;
+    }
+    if (edges[outcome.getId()] == null) {
+      edges[outcome.getId()] = new StripedCounter();
+    }
+  }
+
+  /**
+   * Records the evaluation of a decision node.
+   *
+   * @param outcomeId the id of the {@code GitOutcome} of the evaluator, or -1 if there is none;
+   *        the requests without a child of their own are counted on the {@code DEFAULT} edge
+   * @param nanos the time taken by the evaluator
+   */
+  public void recordDecision(int outcomeId, long nanos) {
+    latency.record(nanos);
+    if (GitTracer.isEnabled()) {
+      GitTracer.record(nodeId, outcomeId, nanos);
+    }
+    StripedCounter[] edges = this.edges;
+    StripedCounter edge = outcomeId >= 0 && outcomeId < edges.length ? edges[outcomeId] : null;
+    if (edge == null && edges.length > 0) {
+      edge = edges[GitOutcome.DEFAULT.getId()];
+    }
+    if (edge != null) {
+      edge.increment();
+    }
+  }
+
+  /**
+   * Records an evaluator which ran out of its time budget, before its decision is recorded.
+   */
+  public void recordTimeout() {
+    timeouts.increment();
+  }
+
+  /**
+   * Records the execution of the actions of a leaf.
+   */
+  public void recordLeaf(long nanos) {
+    latency.record(nanos);
+    if (GitTracer.isEnabled()) {
+      GitTracer.record(nodeId, GitTrace.LEAF, nanos);
+    }
+  }
+
+  /**
+   * @return the number of requests which reached the node
+   */
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  /**
+   * @return the number of requests for which the evaluator ran out of its time budget
+   */
+  public long getTimeoutCount() {
+    return timeouts.sum();
+  }
+
+  /**
+   * @return the time taken by the node itself
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * @param key the key of a child
+   * @return the number of requests which took the child, 0 if there is no such child
+   */
+  public long getEdgeCount(String key) {
+    GitOutcome outcome = GitOutcome.find(key);
+    StripedCounter[] edges = this.edges;
+    if (outcome == null || outcome.getId() >= edges.length || edges[outcome.getId()] == null) {
+      return 0;
+    }
+    return edges[outcome.getId()].sum();
+  }
+}
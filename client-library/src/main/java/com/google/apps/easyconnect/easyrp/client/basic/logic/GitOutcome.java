@@ -0,0 +1,198 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An interned result of an evaluator, which selects a child of a decision node.
+ * <p>
+ * There is a single instance per key, registered when a tree using the key is built, so the nodes
+ * select their children by identity or by {@code getId()}. An evaluator may return:
+ * <ul>
+ * <li>a {@code GitOutcome}, e.g. a constant {@code GitOutcome.of("registered")};</li>
+ * <li>an enum constant, which stands for the outcome named like the constant, e.g.
+ * {@code REGISTERED} for {@code "registered"};</li>
+ * <li>a {@code String}, which is looked up among the registered outcomes. This is how the
+ * existing evaluators keep working.</li>
+ * <li>a {@code Future} of any of these. Executing a tree synchronously waits for it, while
+ * {@code AsyncGitNode.executeAsync} resumes the walk when a {@code ListenableFuture} completes.
+ * </li>
+ * </ul>
+ * Keys are case insensitive, as the keys of {@code GitLogicBuilder}.
+ */
+public final class GitOutcome {
+  private static final Logger log = Logger.getLogger(GitOutcome.class.getName());
+  private static final ConcurrentMap<String, GitOutcome> outcomes =
+      new ConcurrentHashMap<String, GitOutcome>();
+  private static final ConcurrentMap<Class<?>, GitOutcome[]> enumOutcomes =
+      new ConcurrentHashMap<Class<?>, GitOutcome[]>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * The outcome selecting the default child, with id 0.
+   */
+  public static final GitOutcome DEFAULT = of("DEFAULT");
+
+  private final String key;
+  private final int id;
+
+  private GitOutcome(String key, int id) {
+    this.key = key;
+    this.id = id;
+  }
+
+  /**
+   * Formats a key: {@code DEFAULT} in any case gives {@code "DEFAULT"}, other keys are lower
+   * cased.
+   */
+  public static String formatKey(String key) {
+    Preconditions.checkNotNull(key);
+    return "DEFAULT".equalsIgnoreCase(key) ? "DEFAULT" : key.toLowerCase();
+  }
+
+  /**
+   * Gets the outcome of a key, registering it if needed.
+   */
+  public static GitOutcome of(String key) {
+    String formatted = formatKey(key);
+    GitOutcome outcome = outcomes.get(formatted);
+    if (outcome == null) {
+      synchronized (outcomes) {
+        outcome = outcomes.get(formatted);
+        if (outcome == null) {
+          outcome = new GitOutcome(formatted, nextId.getAndIncrement());
+          outcomes.put(formatted, outcome);
+        }
+      }
+    }
+    return outcome;
+  }
+
+  /**
+   * Gets the outcome named like an enum constant, registering it if needed.
+   */
+  public static GitOutcome of(Enum<?> constant) {
+    GitOutcome[] constants = enumOutcomes.get(constant.getDeclaringClass());
+    if (constants == null) {
+      Enum<?>[] values = constant.getDeclaringClass().getEnumConstants();
+      constants = new GitOutcome[values.length];
+      for (int i = 0; i < values.length; i++) {
+        constants[i] = of(values[i].name());
+      }
+      enumOutcomes.putIfAbsent(constant.getDeclaringClass(), constants);
+    }
+    return constants[constant.ordinal()];
+  }
+
+  /**
+   * Finds a registered outcome, without registering the key.
+   *
+   * @return the outcome, or null if no tree uses the key
+   */
+  public static GitOutcome find(String key) {
+    // The evaluators return lower case constants, so the key is normally found as is.
+    GitOutcome outcome = outcomes.get(key);
+    return outcome != null ? outcome : outcomes.get(formatKey(key));
+  }
+
+  /**
+   * Gets the value of the result of an evaluator, waiting for it if it is a {@code Future}.
+   *
+   * @return the value, or null if the future failed
+   */
+  public static Object resolve(Object result) {
+    if (!(result instanceof Future<?>)) {
+      return result;
+    }
+    try {
+      return ((Future<?>) result).get();
+    } catch (ExecutionException e) {
+      log.severe("Failed to evaluate node: " + e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.severe("Interrupted while evaluating node.");
+    }
+    return null;
+  }
+
+  /**
+   * Converts the result of an evaluator.
+   *
+   * @param result a {@code GitOutcome}, an enum constant or a {@code String}, or a {@code Future}
+   *        of one, see {@code resolve}
+   * @return the outcome, or null if the result is null or is an unknown key
+   */
+  public static GitOutcome fromResult(Object result) {
+    result = resolve(result);
+    if (result instanceof GitOutcome) {
+      return (GitOutcome) result;
+    } else if (result instanceof String) {
+      return find((String) result);
+    } else if (result instanceof Enum<?>) {
+      return of((Enum<?>) result);
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * @return the formatted key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return a small number identifying the outcome, in the order of registration
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Finds the key of an outcome by id. Scans all the outcomes, so it is meant for reports only.
+   *
+   * @return the key, or null if there is no such outcome
+   */
+  static String keyOf(int id) {
+    for (GitOutcome outcome : outcomes.values()) {
+      if (outcome.id == id) {
+        return outcome.key;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the number of outcomes registered so far; ids are below this number
+   */
+  public static int count() {
+    return nextId.get();
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+}
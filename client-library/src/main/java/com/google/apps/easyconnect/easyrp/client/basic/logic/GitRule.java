@@ -22,6 +22,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.apps.easyconnect.easyrp.client.basic.util.LatencyHistogram;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 
@@ -33,9 +34,18 @@ public class GitRule {
   private boolean leaf;
   private String evaluatorMethodName;
   private String[] actionMethodNames;
+  private GitNodeStats stats;
+  private long budgetMillis;
+  private String fallback;
+  private long requestBudgetMillis;
 
   public GitRule(String id, String parentId, String parentValue, boolean leaf,
       String evaluatorMethodName, String[] actionMethodNames) {
+    this(id, parentId, parentValue, leaf, evaluatorMethodName, actionMethodNames, null);
+  }
+
+  public GitRule(String id, String parentId, String parentValue, boolean leaf,
+      String evaluatorMethodName, String[] actionMethodNames, GitNodeStats stats) {
     if (leaf) {
       Preconditions.checkArgument(evaluatorMethodName == null);
     } else {
@@ -47,6 +57,7 @@ public class GitRule {
     this.leaf = leaf;
     this.evaluatorMethodName = evaluatorMethodName;
     this.actionMethodNames = actionMethodNames;
+    this.stats = stats;
   }
 
   public String getId() {
@@ -73,28 +84,187 @@ public class GitRule {
     return actionMethodNames;
   }
 
+  /**
+   * Limits the time the evaluator of a decision node may take, see
+   * {@code GitLogicBuilder.budget}.
+   *
+   * @param fallback the key of the child taken when the budget is spent
+   */
+  public void setBudget(long budgetMillis, String fallback) {
+    Preconditions.checkArgument(!leaf && budgetMillis > 0);
+    this.budgetMillis = budgetMillis;
+    this.fallback = Preconditions.checkNotNull(fallback);
+  }
+
+  /**
+   * @return the budget of the evaluator in milliseconds, or 0 if it has none
+   */
+  public long getBudgetMillis() {
+    return budgetMillis;
+  }
+
+  /**
+   * @return the key of the child taken when the budget of the evaluator is spent, or null
+   */
+  public String getFallback() {
+    return fallback;
+  }
+
+  /**
+   * Limits the time of a request, for the root of a tree, see
+   * {@code GitLogicBuilder.requestBudget}.
+   */
+  public void setRequestBudget(long requestBudgetMillis) {
+    Preconditions.checkArgument(!leaf && requestBudgetMillis > 0);
+    this.requestBudgetMillis = requestBudgetMillis;
+  }
+
+  /**
+   * @return the budget of a request in milliseconds, or 0 if it has none
+   */
+  public long getRequestBudgetMillis() {
+    return requestBudgetMillis;
+  }
+
+  /**
+   * Converts the rule to its definition, as loaded by {@code GitTreeLoader}: an object with the
+   * {@code id}, and unless it is the root the {@code parent} and the {@code value} selecting it,
+   * and either the {@code evaluator} or the {@code actions} of the node. A decision node may have
+   * a {@code budgetMillis} and the {@code fallback} key taken when it is spent, and the root a
+   * {@code requestBudgetMillis}.
+   */
+  public JSONObject toDefinition() {
+    JSONObject json = new JSONObject();
+    try {
+      json.put("id", this.id);
+      if (!Strings.isNullOrEmpty(parentId)) {
+        json.put("parent", this.parentId);
+        json.put("value", this.parentValue);
+      }
+      if (this.isLeaf()) {
+        json.put("actions", new JSONArray(Arrays.asList(this.actionMethodNames)));
+      } else {
+        json.put("evaluator", this.evaluatorMethodName);
+        if (budgetMillis > 0) {
+          json.put("budgetMillis", budgetMillis);
+          json.put("fallback", fallback);
+        }
+        if (requestBudgetMillis > 0) {
+          json.put("requestBudgetMillis", requestBudgetMillis);
+        }
+      }
+    } catch (JSONException e) {
+      log.severe(e.getMessage());
+    }
+    return json;
+  }
+
+  /**
+   * Parses a rule from its definition, see {@code toDefinition}.
+   *
+   * @throws JSONException if the definition misses a field
+   */
+  public static GitRule fromDefinition(JSONObject json) throws JSONException {
+    String id = json.getString("id");
+    String parentId = json.optString("parent", null);
+    String parentValue = parentId == null ? null : json.getString("value");
+    if (json.has("actions")) {
+      JSONArray actions = json.getJSONArray("actions");
+      String[] actionMethodNames = new String[actions.length()];
+      for (int i = 0; i < actionMethodNames.length; i++) {
+        actionMethodNames[i] = actions.getString(i);
+      }
+      Preconditions.checkArgument(parentId != null, "The root [" + id + "] cannot be a leaf.");
+      return new GitRule(id, parentId, parentValue, true, null, actionMethodNames);
+    }
+    GitRule rule = new GitRule(id, parentId, parentValue, false, json.getString("evaluator"),
+        null);
+    if (json.has("budgetMillis")) {
+      rule.setBudget(json.getLong("budgetMillis"), json.optString("fallback", "DEFAULT"));
+    }
+    if (json.has("requestBudgetMillis")) {
+      rule.setRequestBudget(json.getLong("requestBudgetMillis"));
+    }
+    return rule;
+  }
+
+  /**
+   * @return the live stats of the node, or null if unknown
+   */
+  public GitNodeStats getStats() {
+    return stats;
+  }
+
   public JSONArray toJson() {
+    return toJson(0, -1);
+  }
+
+  /**
+   * Converts the rule to a row of the org chart, overlaid with the live stats of the node.
+   *
+   * @param treeNanos the time taken by all the nodes of the tree, to color the node by its share
+   * @param edgeCount the number of requests which took the edge from the parent, or -1 to hide the
+   *        stats
+   */
+  public JSONArray toJson(long treeNanos, long edgeCount) {
     JSONArray json = new JSONArray();
     try {
       JSONObject name = new JSONObject();
       json.put(name);
       name.put("v", this.id);
       if (Strings.isNullOrEmpty(parentId)) {
-        name.put("f", "<div class=\"switch\">" + this.evaluatorMethodName + "</div>");
+        name.put("f", "<div class=\"switch\">" + this.evaluatorMethodName + "</div>"
+            + statsHtml(treeNanos, edgeCount));
         json.put("");
       } else if (this.isLeaf()) {
-        name.put("f", "<div class=\"condition\">" + this.parentValue
-            + "</div><div class=\"action\">" + Arrays.toString(this.actionMethodNames) + "</div>");
+        name.put("f", "<div class=\"condition\">" + this.parentValue + edgeHtml(edgeCount)
+            + "</div><div class=\"action\">" + Arrays.toString(this.actionMethodNames) + "</div>"
+            + statsHtml(treeNanos, edgeCount));
         json.put(this.parentId);
       } else {
-        name.put("f", "<div class=\"condition\">" + this.parentValue
-            + "</div><div class=\"switch\">" + this.evaluatorMethodName + "</div>");
+        name.put("f", "<div class=\"condition\">" + this.parentValue + edgeHtml(edgeCount)
+            + "</div><div class=\"switch\">" + this.evaluatorMethodName + "</div>"
+            + statsHtml(treeNanos, edgeCount));
         json.put(this.parentId);
       }
-      json.put(this.id);
+      json.put(showStats(edgeCount) ? this.id + ": " + statsSummary(treeNanos) : this.id);
     } catch (JSONException e) {
       log.severe(e.getMessage());
     }
     return json;
   }
+
+  private boolean showStats(long edgeCount) {
+    return stats != null && edgeCount >= 0;
+  }
+
+  private String edgeHtml(long edgeCount) {
+    return showStats(edgeCount) ? " (" + edgeCount + ")" : "";
+  }
+
+  private String statsHtml(long treeNanos, long edgeCount) {
+    if (!showStats(edgeCount)) {
+      return "";
+    }
+    // From white for the nodes costing nothing to red for the node taking all the time.
+    int heat = 255 - (int) Math.round(255 * share(treeNanos));
+    return "<div class=\"stats\" style=\"background-color:rgb(255," + heat + "," + heat + ")\">"
+        + statsSummary(treeNanos) + "</div>";
+  }
+
+  private String statsSummary(long treeNanos) {
+    LatencyHistogram latency = stats.getLatency();
+    String summary = String.format("%d req, p50 %.1fus, p99 %.1fus, %.0f%%", latency.getCount(),
+        latency.getPercentileNanos(50) / 1000.0, latency.getPercentileNanos(99) / 1000.0,
+        100 * share(treeNanos));
+    long timeouts = stats.getTimeoutCount();
+    return timeouts == 0 ? summary : summary + ", " + timeouts + " timeouts";
+  }
+
+  private double share(long treeNanos) {
+    if (treeNanos <= 0) {
+      return 0;
+    }
+    return Math.min(1, (double) stats.getLatency().getTotalNanos() / treeNanos);
+  }
 }
@@ -0,0 +1,134 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The trace of one execution of a tree, sampled by {@code GitTracer}: the nodes visited in order,
+ * with the outcome of each decision node and the time taken by each node itself.
+ * <p>
+ * A trace is filled by the threads executing its request, one at a time, and is only read once
+ * finished.
+ */
+public final class GitTrace {
+  private static final Logger log = Logger.getLogger(GitTrace.class.getName());
+  /** The outcome recorded for a leaf. */
+  static final int LEAF = -2;
+
+  private final String treeId;
+  private final long startMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private volatile long totalNanos = -1;
+  private int size;
+  private String[] nodeIds = new String[8];
+  private int[] outcomeIds = new int[8];
+  private long[] nanos = new long[8];
+
+  GitTrace(String treeId) {
+    this.treeId = treeId;
+  }
+
+  void add(String nodeId, int outcomeId, long nodeNanos) {
+    if (size == nodeIds.length) {
+      nodeIds = Arrays.copyOf(nodeIds, size * 2);
+      outcomeIds = Arrays.copyOf(outcomeIds, size * 2);
+      nanos = Arrays.copyOf(nanos, size * 2);
+    }
+    nodeIds[size] = nodeId;
+    outcomeIds[size] = outcomeId;
+    nanos[size] = nodeNanos;
+    size++;
+  }
+
+  void finish() {
+    totalNanos = System.nanoTime() - startNanos;
+  }
+
+  /**
+   * @return the id of the root of the tree
+   */
+  public String getTreeId() {
+    return treeId;
+  }
+
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * @return the time from the start to the end of the execution, including the time spent waiting
+   *         on asynchronous evaluators, or -1 if it is not finished
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * @return the number of nodes visited
+   */
+  public int size() {
+    return size;
+  }
+
+  public String getNodeId(int index) {
+    return nodeIds[index];
+  }
+
+  /**
+   * @return the key of the outcome of a decision node, "DEFAULT" if the evaluator did not return a
+   *         known outcome, or null for a leaf
+   */
+  public String getOutcome(int index) {
+    if (outcomeIds[index] == LEAF) {
+      return null;
+    }
+    String key = outcomeIds[index] < 0 ? null : GitOutcome.keyOf(outcomeIds[index]);
+    return key == null ? GitOutcome.DEFAULT.getKey() : key;
+  }
+
+  public long getNanos(int index) {
+    return nanos[index];
+  }
+
+  public JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    try {
+      json.put("tree", treeId);
+      json.put("start", startMillis);
+      json.put("totalNanos", totalNanos);
+      JSONArray nodes = new JSONArray();
+      for (int i = 0; i < size; i++) {
+        JSONObject node = new JSONObject();
+        node.put("id", nodeIds[i]);
+        if (outcomeIds[i] != LEAF) {
+          node.put("outcome", getOutcome(i));
+        }
+        node.put("nanos", nanos[i]);
+        nodes.put(node);
+      }
+      json.put("nodes", nodes);
+    } catch (JSONException e) {
+      log.severe(e.getMessage());
+    }
+    return json;
+  }
+}
@@ -0,0 +1,154 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Samples the executions of the trees, and keeps the traces of the last ones in a ring buffer.
+ * <p>
+ * Tracing is off by default. When it is off, executing a tree only reads one volatile field per
+ * node. When it is on, one request in {@code 1 / samplingRate} is traced: the nodes record
+ * themselves, through their {@code GitNodeStats}, into the trace of the current thread, and the
+ * finished trace replaces the oldest one of the buffer. Publishing a trace takes no lock.
+ */
+public final class GitTracer {
+  private static final int DEFAULT_CAPACITY = 256;
+
+  private static volatile boolean enabled;
+  private static volatile long samplingPeriod;
+  private static final AtomicLong requests = new AtomicLong();
+  private static final AtomicLong published = new AtomicLong();
+  private static volatile AtomicReferenceArray<GitTrace> traces =
+      new AtomicReferenceArray<GitTrace>(DEFAULT_CAPACITY);
+  private static final ThreadLocal<GitTrace> current = new ThreadLocal<GitTrace>();
+
+  private GitTracer() {
+  }
+
+  /**
+   * Sets the share of the requests traced.
+   *
+   * @param rate from 0, which turns tracing off, to 1, which traces all the requests
+   */
+  public static void setSamplingRate(double rate) {
+    Preconditions.checkArgument(rate >= 0 && rate <= 1, "Illegal sampling rate " + rate);
+    if (rate == 0) {
+      enabled = false;
+    } else {
+      samplingPeriod = Math.round(1 / rate);
+      enabled = true;
+    }
+  }
+
+  public static double getSamplingRate() {
+    return enabled ? 1.0 / samplingPeriod : 0;
+  }
+
+  /**
+   * Sets the number of traces kept, dropping the traces kept so far.
+   */
+  public static synchronized void setCapacity(int capacity) {
+    Preconditions.checkArgument(capacity > 0);
+    traces = new AtomicReferenceArray<GitTrace>(capacity);
+    published.set(0);
+  }
+
+  /**
+   * @return the traces kept, the newest first
+   */
+  public static List<GitTrace> getTraces() {
+    AtomicReferenceArray<GitTrace> traces = GitTracer.traces;
+    long last = published.get();
+    List<GitTrace> result = Lists.newArrayList();
+    for (long i = last - 1; i >= 0 && i >= last - traces.length(); i--) {
+      GitTrace trace = traces.get((int) (i % traces.length()));
+      if (trace != null) {
+        result.add(trace);
+      }
+    }
+    return result;
+  }
+
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts tracing the execution of a tree by the current thread, if the request is sampled and
+   * no execution is traced by the thread yet.
+   *
+   * @param treeId the id of the root of the tree
+   * @return the trace to {@code finish}, or null if the execution is not traced
+   */
+  public static GitTrace start(String treeId) {
+    if (!enabled || current.get() != null
+        || requests.getAndIncrement() % samplingPeriod != 0) {
+      return null;
+    }
+    GitTrace trace = new GitTrace(treeId);
+    current.set(trace);
+    return trace;
+  }
+
+  /**
+   * Finishes a trace started by {@code start} and keeps it.
+   *
+   * @param trace the trace, may be null
+   */
+  public static void finish(GitTrace trace) {
+    if (trace != null) {
+      suspend(trace);
+      trace.finish();
+      AtomicReferenceArray<GitTrace> traces = GitTracer.traces;
+      traces.set((int) (published.getAndIncrement() % traces.length()), trace);
+    }
+  }
+
+  /**
+   * Detaches a trace from the current thread, e.g. while the execution waits on a future.
+   *
+   * @param trace the trace, may be null
+   */
+  public static void suspend(GitTrace trace) {
+    if (trace != null) {
+      current.remove();
+    }
+  }
+
+  /**
+   * Attaches a trace to the current thread, e.g. when an execution resumes in another thread.
+   *
+   * @param trace the trace, may be null
+   */
+  public static void resume(GitTrace trace) {
+    if (trace != null) {
+      current.set(trace);
+    }
+  }
+
+  static void record(String nodeId, int outcomeId, long nanos) {
+    GitTrace trace = current.get();
+    if (trace != null) {
+      trace.add(nodeId, outcomeId, nanos);
+    }
+  }
+}
@@ -15,78 +15,253 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic;
 
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import com.google.common.collect.Maps;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 
 public class GitTree {
-  private static Map<String, GitNode> trees = Maps.newHashMap();
+  /**
+   * How the trees are executed.
+   */
+  public enum Backend {
+    /** Walks the built {@code GitNode}s. */
+    INTERPRETER,
+    /** Walks the tables of a {@code CompiledGitTree}. */
+    COMPILED,
+    /**
+     * Runs a class generated for each tree, see {@code GeneratedGitTree}. Falls back to
+     * {@code COMPILED} for the trees which cannot be generated.
+     */
+    GENERATED
+  }
 
-  public static GitNode getAcUserStatusLogic(boolean useLocalIdpWhiteList,
-      boolean returnProfileInfo) {
-    StringBuilder buf = new StringBuilder();
-    buf.append("acUserStatusLogic").append(useLocalIdpWhiteList ? "1" : "0")
-        .append(returnProfileInfo ? "1" : "0");
-    String key = buf.toString();
-
-    if (trees.get(key) == null) {
-      GitNode acUserStatusLogic;
-      if (useLocalIdpWhiteList) {
-        acUserStatusLogic = buildAcUserStatusLogicWithIdpWhiteList(returnProfileInfo);
-      } else {
-        acUserStatusLogic = buildAcUserStatusLogicWithoutIdpWhiteList(returnProfileInfo);
+  /**
+   * The flows handled by the trees. Each has four variants, by the flags
+   * {@code useLocalIdpWhiteList} and {@code returnProfileInfo}.
+   */
+  public enum Flow {
+    USER_STATUS, LEGACY_SIGNIN, CALLBACK_POPUP, CALLBACK_REDIRECT
+  }
+
+  private static final int VARIANTS = 4;
+  // Indexed by variant, see index(). Readers never lock; a missing tree is built on first use.
+  private static final AtomicReferenceArray<GitNode> trees = new AtomicReferenceArray<GitNode>(
+      Flow.values().length * VARIANTS);
+  // The rules of the variants loaded by GitTreeLoader, indexed as the trees; null for the
+  // built-in trees.
+  private static final AtomicReferenceArray<List<GitRule>> definitions =
+      new AtomicReferenceArray<List<GitRule>>(Flow.values().length * VARIANTS);
+  private static volatile Backend backend = Backend.COMPILED;
+
+  public static Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Sets how the trees are executed, and rebuilds all the variants with the new backend. The
+   * requests in progress finish with the trees they started with.
+   *
+   * @param backend the backend, {@code COMPILED} by default
+   */
+  public static synchronized void setBackend(Backend backend) {
+    GitTree.backend = Preconditions.checkNotNull(backend);
+    for (Flow flow : Flow.values()) {
+      for (int variant = 0; variant < VARIANTS; variant++) {
+        trees.set(index(flow, variant), build(flow, variant));
       }
-      trees.put(key, acUserStatusLogic);
     }
-    return trees.get(key);
   }
 
-  public static GitNode getAcLegacySigninLogic(boolean useLocalIdpWhiteList,
-      boolean returnProfileInfo) {
-    StringBuilder buf = new StringBuilder();
-    buf.append("acLegacySigninLogic").append(useLocalIdpWhiteList ? "1" : "0")
-        .append(returnProfileInfo ? "1" : "0");
-    String key = buf.toString();
-
-    if (trees.get(key) == null) {
-      GitNode acLegacySiginLogic;
-      if (useLocalIdpWhiteList) {
-        acLegacySiginLogic = buildAcLegacySigninLogicWithIdpWhiteList(returnProfileInfo);
-      } else {
-        acLegacySiginLogic = buildAcLegacySigninLogicWithoutIdpWhiteList(returnProfileInfo);
+  /**
+   * Builds all the variants of all the flows which are not built yet. Called at startup, so the
+   * first requests do not pay for building the trees.
+   */
+  public static void warmUp() {
+    for (Flow flow : Flow.values()) {
+      for (int variant = 0; variant < VARIANTS; variant++) {
+        get(flow, variant);
       }
-      trees.put(key, acLegacySiginLogic);
     }
-    return trees.get(key);
+  }
+
+  /**
+   * Gets the tree of a variant of a flow.
+   */
+  public static GitNode get(Flow flow, boolean useLocalIdpWhiteList, boolean returnProfileInfo) {
+    return get(flow, variant(useLocalIdpWhiteList, returnProfileInfo));
+  }
+
+  /**
+   * Replaces the tree of a variant of a flow, without blocking the requests using it.
+   *
+   * @param tree the new tree, built with the evaluator and action objects of the flow
+   * @return the replaced tree, or null if it was not built yet
+   */
+  public static GitNode replace(Flow flow, boolean useLocalIdpWhiteList,
+      boolean returnProfileInfo, GitNode tree) {
+    Preconditions.checkNotNull(tree);
+    return trees.getAndSet(index(flow, variant(useLocalIdpWhiteList, returnProfileInfo)), tree);
+  }
+
+  public static GitNode getAcUserStatusLogic(boolean useLocalIdpWhiteList,
+      boolean returnProfileInfo) {
+    return get(Flow.USER_STATUS, useLocalIdpWhiteList, returnProfileInfo);
+  }
+
+  public static GitNode getAcLegacySigninLogic(boolean useLocalIdpWhiteList,
+      boolean returnProfileInfo) {
+    return get(Flow.LEGACY_SIGNIN, useLocalIdpWhiteList, returnProfileInfo);
   }
 
   public static GitNode getAcCallbackPopupLogic(boolean useLocalIdpWhiteList,
       boolean returnProfileInfo) {
-    StringBuilder buf = new StringBuilder();
-    buf.append("acCallbackLogic").append(useLocalIdpWhiteList ? "1" : "0")
-        .append(returnProfileInfo ? "1" : "0");
-    String key = buf.toString();
-
-    if (trees.get(key) == null) {
-      GitNode acCallbackLogic = buildAcCallbackPopupLogic(useLocalIdpWhiteList, returnProfileInfo);
-      trees.put(key, acCallbackLogic);
-    }
-    return trees.get(key);
+    return get(Flow.CALLBACK_POPUP, useLocalIdpWhiteList, returnProfileInfo);
   }
 
   public static GitNode getAcCallbackRedirectLogic(boolean useLocalIdpWhiteList,
       boolean returnProfileInfo) {
-    StringBuilder buf = new StringBuilder();
-    buf.append("acCallbackRedirectLogic").append(useLocalIdpWhiteList ? "1" : "0")
-        .append(returnProfileInfo ? "1" : "0");
-    String key = buf.toString();
-
-    if (trees.get(key) == null) {
-      GitNode acCallbackLogic = buildAcCallbackRedirectLogic(useLocalIdpWhiteList,
-          returnProfileInfo);
-      trees.put(key, acCallbackLogic);
+    return get(Flow.CALLBACK_REDIRECT, useLocalIdpWhiteList, returnProfileInfo);
+  }
+
+  /**
+   * Replaces the trees with the ones built from definitions, without blocking the requests in
+   * progress, which finish with the trees they started with. All the trees are built before any is
+   * replaced, so definitions which fail to build leave all the trees unchanged.
+   *
+   * @param rules the rules of each variant, indexed as by {@code index}, null for the variants
+   *        getting their built-in tree
+   * @throws IllegalArgumentException or IllegalStateException if a tree fails to build
+   */
+  static synchronized void define(List<List<GitRule>> rules) {
+    Preconditions.checkArgument(rules.size() == definitions.length());
+    List<GitNode> built = Lists.newArrayList();
+    for (Flow flow : Flow.values()) {
+      for (int variant = 0; variant < VARIANTS; variant++) {
+        List<GitRule> variantRules = rules.get(index(flow, variant));
+        built.add(variantRules == null ? null : build(flow, variant, variantRules));
+      }
+    }
+    for (Flow flow : Flow.values()) {
+      for (int variant = 0; variant < VARIANTS; variant++) {
+        int index = index(flow, variant);
+        List<GitRule> previous = definitions.getAndSet(index, rules.get(index));
+        if (built.get(index) != null) {
+          trees.set(index, built.get(index));
+        } else if (previous != null) {
+          trees.set(index, build(flow, variant));
+        }
+      }
     }
-    return trees.get(key);
+  }
+
+  /**
+   * Replaces the tree of one variant with the one built from rules, keeping the definitions of
+   * the other variants, see {@code define(List)}.
+   *
+   * @param rules the rules of the variant, null for its built-in tree
+   */
+  static synchronized void define(Flow flow, boolean useLocalIdpWhiteList,
+      boolean returnProfileInfo, List<GitRule> rules) {
+    List<List<GitRule>> all = Lists.newArrayList();
+    for (int i = 0; i < definitions.length(); i++) {
+      all.add(definitions.get(i));
+    }
+    all.set(index(flow, useLocalIdpWhiteList, returnProfileInfo), rules);
+    define(all);
+  }
+
+  static int index(Flow flow, boolean useLocalIdpWhiteList, boolean returnProfileInfo) {
+    return index(flow, variant(useLocalIdpWhiteList, returnProfileInfo));
+  }
+
+  static int variantCount() {
+    return definitions.length();
+  }
+
+  private static int variant(boolean useLocalIdpWhiteList, boolean returnProfileInfo) {
+    return (useLocalIdpWhiteList ? 2 : 0) + (returnProfileInfo ? 1 : 0);
+  }
+
+  private static int index(Flow flow, int variant) {
+    return flow.ordinal() * VARIANTS + variant;
+  }
+
+  private static GitNode get(Flow flow, int variant) {
+    int index = index(flow, variant);
+    GitNode tree = trees.get(index);
+    if (tree == null) {
+      // Concurrent first uses may build the tree twice, but all of them get the one stored.
+      trees.compareAndSet(index, null, build(flow, variant));
+      tree = trees.get(index);
+    }
+    return tree;
+  }
+
+  private static GitNode build(Flow flow, int variant) {
+    List<GitRule> rules = definitions.get(index(flow, variant));
+    if (rules != null) {
+      return build(flow, variant, rules);
+    }
+    boolean useLocalIdpWhiteList = (variant & 2) != 0;
+    boolean returnProfileInfo = (variant & 1) != 0;
+    switch (flow) {
+      case USER_STATUS:
+        return useLocalIdpWhiteList ? buildAcUserStatusLogicWithIdpWhiteList(returnProfileInfo)
+            : buildAcUserStatusLogicWithoutIdpWhiteList(returnProfileInfo);
+      case LEGACY_SIGNIN:
+        return useLocalIdpWhiteList ? buildAcLegacySigninLogicWithIdpWhiteList(returnProfileInfo)
+            : buildAcLegacySigninLogicWithoutIdpWhiteList(returnProfileInfo);
+      case CALLBACK_POPUP:
+        return buildAcCallbackPopupLogic(useLocalIdpWhiteList, returnProfileInfo);
+      default:
+        return buildAcCallbackRedirectLogic(useLocalIdpWhiteList, returnProfileInfo);
+    }
+  }
+
+  private static GitNode build(Flow flow, int variant, List<GitRule> rules) {
+    boolean useLocalIdpWhiteList = (variant & 2) != 0;
+    boolean returnProfileInfo = (variant & 1) != 0;
+    GitLogicBuilder builder;
+    switch (flow) {
+      case USER_STATUS:
+        builder = GitLogicBuilderFactory.getAcUserStatusLogicBuilder(useLocalIdpWhiteList,
+            returnProfileInfo);
+        break;
+      case LEGACY_SIGNIN:
+        builder = GitLogicBuilderFactory.getAcLegacySigninLogicBuilder(useLocalIdpWhiteList,
+            returnProfileInfo);
+        break;
+      case CALLBACK_POPUP:
+        builder = GitLogicBuilderFactory.getAcCallbackPopupLogicBuilder(useLocalIdpWhiteList,
+            returnProfileInfo);
+        break;
+      default:
+        builder = GitLogicBuilderFactory.getAcCallbackRedirectLogicBuilder(useLocalIdpWhiteList,
+            returnProfileInfo);
+    }
+    for (GitRule rule : rules) {
+      if (Strings.isNullOrEmpty(rule.getParentId())) {
+        builder.start(rule.getId(), rule.getEvaluatorMethodName());
+      } else if (rule.isLeaf()) {
+        builder.leaf(rule.getId(), rule.getParentId(), rule.getParentValue(),
+            rule.getActionMethodNames());
+      } else {
+        builder.decision(rule.getId(), rule.getParentId(), rule.getParentValue(),
+            rule.getEvaluatorMethodName());
+      }
+      if (rule.getBudgetMillis() > 0) {
+        builder.budget(rule.getId(), rule.getBudgetMillis(), rule.getFallback());
+      }
+      if (rule.getRequestBudgetMillis() > 0) {
+        builder.requestBudget(rule.getRequestBudgetMillis());
+      }
+    }
+    return compile(builder.build());
   }
 
   private static GitNode buildAcUserStatusLogicWithIdpWhiteList(boolean returnProfileInfo) {
@@ -101,7 +276,7 @@ public class GitTree {
     builder.decision("reg", "validEmail", "registered", "checkAccountType");
     builder.leaf("regLegacy", "reg", "legacy", actions("sendRegisteredLegacy"));
     builder.leaf("regFed", "reg", "DEFAULT", actions("sendRegistered"));
-    return builder.build();
+    return compile(builder.build());
   }
 
   private static GitNode buildAcUserStatusLogicWithoutIdpWhiteList(boolean returnProfileInfo) {
@@ -114,7 +289,7 @@ public class GitTree {
     builder.decision("checkFed", "validEmail", "registered", "checkAccountType");
     builder.leaf("regLegacy", "checkFed", "legacy", actions("sendRegisteredLegacy"));
     builder.leaf("regFed", "checkFed", "DEFAULT", actions("sendRegistered"));
-    return builder.build();
+    return compile(builder.build());
   }
 
   private static GitNode buildAcLegacySigninLogicWithIdpWhiteList(boolean returnProfileInfo) {
@@ -131,7 +306,7 @@ public class GitTree {
     builder.decision("regLegacy", "reg", "legacy", "checkPasswordCorrect");
     builder.leaf("correct", "regLegacy", "correct", actions("setLoggedIn", "sendOK"));
     builder.leaf("incorrect", "regLegacy", "DEFAULT", actions("sendPasswordError"));
-    return builder.build();
+    return compile(builder.build());
   }
 
   private static GitNode buildAcLegacySigninLogicWithoutIdpWhiteList(boolean returnProfileInfo) {
@@ -146,7 +321,7 @@ public class GitTree {
     builder.decision("regLegacy", "reg", "legacy", "checkPasswordCorrect");
     builder.leaf("correct", "regLegacy", "correct", actions("setLoggedIn", "sendOK"));
     builder.leaf("incorrect", "regLegacy", "DEFAULT", actions("sendPasswordError"));
-    return builder.build();
+    return compile(builder.build());
   }
 
   private static GitNode buildAcCallbackPopupLogic(boolean useLocalIdpWhiteList,
@@ -180,7 +355,18 @@ public class GitTree {
     builder.leaf("regFed", "reg", "DEFAULT", actions("setLoggedIn", "sendOKRegistered"));
     builder.leaf("regLegacy", "reg", "legacy",
         actions("upgrade", "setLoggedIn", "sendOKRegistered"));
-    return builder.build();
+    return compile(builder.build());
+  }
+
+  private static GitNode compile(GitNode root) {
+    switch (backend) {
+      case INTERPRETER:
+        return root;
+      case GENERATED:
+        return GeneratedGitTree.generate(root);
+      default:
+        return CompiledGitTree.compile(root);
+    }
   }
 
   private static String[] actions(String... actionNames) {
@@ -0,0 +1,180 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Loads the trees of {@code GitTree} from JSON definitions, and reloads them when their file
+ * changes.
+ * <p>
+ * The definitions are an array of objects, each with the {@code flow} (a {@code GitTree.Flow}),
+ * optionally the {@code whitelist} and {@code profile} flags of the variant (a missing flag
+ * matches both values), and the {@code rules} of the tree in the shape of
+ * {@code GitRule.toDefinition}, parents first:
+ * 
+ * <pre>
+ * [{"flow": "USER_STATUS", "whitelist": false, "rules": [
+ *     {"id": "start", "evaluator": "checkIdentifierType"},
+ *     {"id": "invalidEmail", "parent": "start", "value": "DEFAULT", "actions": ["sendError"]},
+ *     ...]}]
+ * </pre>
+ * 
+ * The variants without a definition use the built-in trees. The trees are built, so validated,
+ * when loaded, and a file which fails to load leaves all the trees as they were.
+ */
+public final class GitTreeLoader {
+  private static final Logger log = Logger.getLogger(GitTreeLoader.class.getName());
+
+  private final File file;
+  private final ScheduledExecutorService executor;
+  private long lastModified = -1;
+  private long lastLength = -1;
+
+  private GitTreeLoader(File file) {
+    this.file = file;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("GitTreeLoader-%d").build());
+  }
+
+  /**
+   * Loads the trees from definitions. The requests in progress finish with the trees they started
+   * with.
+   *
+   * @param definitions the definitions, see above
+   * @throws JSONException if the definitions are malformed
+   * @throws IllegalArgumentException or IllegalStateException if a tree fails to build
+   */
+  public static void load(String definitions) throws JSONException {
+    GitTree.define(parse(new JSONArray(definitions)));
+  }
+
+  /**
+   * Loads the trees from a file of definitions, in UTF-8.
+   */
+  public static void load(File file) throws IOException, JSONException {
+    load(Files.toString(file, Charsets.UTF_8));
+  }
+
+  /**
+   * Loads the trees from a file, then checks the file periodically and reloads the trees when it
+   * changes. A file which fails to load is logged, and the trees are kept.
+   *
+   * @param file the file of definitions
+   * @param period the period of the checks
+   * @param unit the unit of the period
+   * @return the loader, to stop watching the file
+   */
+  public static GitTreeLoader watch(File file, long period, TimeUnit unit) {
+    Preconditions.checkNotNull(file);
+    Preconditions.checkArgument(period > 0);
+    final GitTreeLoader loader = new GitTreeLoader(file);
+    loader.check();
+    loader.executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        loader.check();
+      }
+    }, period, period, unit);
+    return loader;
+  }
+
+  /**
+   * Stops watching the file. The trees loaded are kept.
+   */
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Reloads the trees if the file changed since the last check.
+   *
+   * @return whether the trees were reloaded
+   */
+  synchronized boolean check() {
+    long modified = file.lastModified();
+    long length = file.length();
+    if (modified == lastModified && length == lastLength) {
+      return false;
+    }
+    lastModified = modified;
+    lastLength = length;
+    if (modified == 0) {
+      log.warning("Tree definitions file [" + file + "] not found, trees kept.");
+      return false;
+    }
+    try {
+      load(file);
+      log.info("Loaded tree definitions from [" + file + "].");
+      return true;
+    } catch (IOException e) {
+      log.severe("Failed to read tree definitions [" + file + "], trees kept: " + e.getMessage());
+    } catch (JSONException e) {
+      log.severe("Malformed tree definitions [" + file + "], trees kept: " + e.getMessage());
+    } catch (RuntimeException e) {
+      log.severe("Invalid tree definitions [" + file + "], trees kept: " + e.getMessage());
+    }
+    return false;
+  }
+
+  private static List<List<GitRule>> parse(JSONArray json) throws JSONException {
+    List<List<GitRule>> rules =
+        Lists.newArrayList(Collections.<List<GitRule>>nCopies(GitTree.variantCount(), null));
+    for (int i = 0; i < json.length(); i++) {
+      JSONObject definition = json.getJSONObject(i);
+      GitTree.Flow flow;
+      try {
+        flow = GitTree.Flow.valueOf(definition.getString("flow"));
+      } catch (IllegalArgumentException e) {
+        throw new JSONException("Unknown flow [" + definition.getString("flow") + "]");
+      }
+      List<GitRule> treeRules = Lists.newArrayList();
+      JSONArray jsonRules = definition.getJSONArray("rules");
+      for (int j = 0; j < jsonRules.length(); j++) {
+        treeRules.add(GitRule.fromDefinition(jsonRules.getJSONObject(j)));
+      }
+      treeRules = Collections.unmodifiableList(treeRules);
+      for (boolean whitelist : flags(definition, "whitelist")) {
+        for (boolean profile : flags(definition, "profile")) {
+          rules.set(GitTree.index(flow, whitelist, profile), treeRules);
+        }
+      }
+    }
+    return rules;
+  }
+
+  private static boolean[] flags(JSONObject definition, String name) throws JSONException {
+    return definition.has(name) ? new boolean[] {definition.getBoolean(name)}
+        : new boolean[] {false, true};
+  }
+}
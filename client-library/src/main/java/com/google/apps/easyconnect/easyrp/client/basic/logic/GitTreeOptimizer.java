@@ -0,0 +1,475 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Reorders the evaluators of a tree by the traffic recorded in its {@code GitNodeStats}, so that
+ * a request costs as little evaluator time as possible on average.
+ * <p>
+ * The cost of a node is the mean latency of its evaluator, and the probability of each child is
+ * its share of the requests counted on the edges of the node. The expected cost of a tree is the
+ * one of its root plus the expected cost of the child taken, weighted by these probabilities.
+ * Only the changes keeping the behavior of the tree are made, and only for evaluators declared
+ * independent: they have no side effect the rest of the tree relies on, and can run on any request
+ * reaching their subtree (a failure selecting the {@code DEFAULT} child, as usual). Two changes are
+ * used:
+ * <ul>
+ * <li>a decision node with a {@code DEFAULT} child, whose children are all the same subtree, is
+ * replaced by that subtree;</li>
+ * <li>a child decision node with an independent evaluator and a {@code DEFAULT} child is hoisted
+ * above its parent, the parent being copied under each of its branches. This pays off when the
+ * copies of the parent can then be removed, e.g. when the outcome of a cheap check makes an
+ * expensive one irrelevant.</li>
+ * </ul>
+ * Hoisting assumes the outcomes of the two evaluators are independent, since only the outcomes of
+ * each node are recorded. A change is made only if it lowers the expected cost of the subtree.
+ * <p>
+ * The result is a {@code Plan}, reporting the changes and the projected costs, which may be
+ * applied to {@code GitTree}. An applied tree starts with fresh stats; a reload of
+ * {@code GitTreeLoader} replaces it.
+ */
+public final class GitTreeOptimizer {
+  private static final Logger log = Logger.getLogger(GitTreeOptimizer.class.getName());
+  private static final String DEFAULT_KEY = GitOutcome.formatKey("DEFAULT");
+  // A change must save this share of the expected cost, so that rounding never swaps two
+  // equivalent orders back and forth.
+  private static final double MIN_SAVING = 1e-6;
+
+  /**
+   * The evaluators of {@code GitEvaluator} which are independent: they only read the identifier
+   * of the request.
+   */
+  public static final ImmutableSet<String> BUILT_IN_INDEPENDENT_EVALUATORS = ImmutableSet.of(
+      "checkIdentifierType", "checkDomainType", "checkDomainTypeAsync");
+
+  private final Set<String> independentEvaluators;
+
+  /**
+   * @param independentEvaluators the names of the evaluators which may be reordered or skipped,
+   *        see above
+   */
+  public GitTreeOptimizer(Collection<String> independentEvaluators) {
+    this.independentEvaluators = ImmutableSet.copyOf(independentEvaluators);
+  }
+
+  /**
+   * Optimizes the current tree of a variant of a flow, by its traffic so far.
+   */
+  public Plan optimize(GitTree.Flow flow, boolean useLocalIdpWhiteList,
+      boolean returnProfileInfo) {
+    List<GitRule> rules = Lists.newArrayList();
+    GitTree.get(flow, useLocalIdpWhiteList, returnProfileInfo).appendToRuleList(rules, null, null);
+    return optimize(rules);
+  }
+
+  /**
+   * Optimizes a tree.
+   *
+   * @param rules the rules of the tree, parents first, as given by {@code appendToRuleList}; the
+   *        rules without stats count as never evaluated
+   */
+  public Plan optimize(List<GitRule> rules) {
+    Node root = Node.parse(rules);
+    List<String> changes = Lists.newArrayList();
+    Node optimized = optimize(root, changes);
+    List<GitRule> optimizedRules = Lists.newArrayList();
+    optimized.appendTo(optimizedRules, Sets.<String>newHashSet(), null, null);
+    if (rules.get(0).getRequestBudgetMillis() > 0) {
+      optimizedRules.get(0).setRequestBudget(rules.get(0).getRequestBudgetMillis());
+    }
+    Plan plan = new Plan(optimizedRules, changes, root.cost(), optimized.cost(),
+        root.evaluations(), optimized.evaluations());
+    log.info("[GitTreeOptimizer] " + plan);
+    return plan;
+  }
+
+  private Node optimize(Node node, List<String> changes) {
+    if (node.isLeaf()) {
+      return node;
+    }
+    node = optimizeChildren(node, changes);
+    while (true) {
+      if (isRemovable(node)) {
+        changes.add("Removed [" + node.id + "] (" + node.evaluator
+            + "): all its outcomes lead to the same subtree.");
+        return node.children.get(DEFAULT_KEY);
+      }
+      Node best = null;
+      String hoisted = null;
+      for (String key : node.children.keySet()) {
+        Node child = node.children.get(key);
+        if (isIndependent(child)) {
+          Node candidate = hoist(node, key);
+          double bound = best == null ? node.cost() : best.cost();
+          if (candidate.cost() < bound * (1 - MIN_SAVING)) {
+            best = candidate;
+            hoisted = key;
+          }
+        }
+      }
+      if (best == null) {
+        return node;
+      }
+      Node child = node.children.get(hoisted);
+      changes.add("Hoisted [" + child.id + "] (" + child.evaluator + ") above [" + node.id
+          + "] (" + node.evaluator + "): expected cost " + formatNanos(node.cost()) + " -> "
+          + formatNanos(best.cost()) + ".");
+      node = optimizeChildren(best, changes);
+    }
+  }
+
+  private boolean isIndependent(Node node) {
+    return !node.isLeaf() && independentEvaluators.contains(node.evaluator)
+        && node.children.containsKey(DEFAULT_KEY);
+  }
+
+  private boolean isRemovable(Node node) {
+    if (!isIndependent(node)) {
+      return false;
+    }
+    Node first = node.children.get(DEFAULT_KEY);
+    for (Node child : node.children.values()) {
+      if (!first.sameAs(child)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Node optimizeChildren(Node node, List<String> changes) {
+    Node optimized = node.copy();
+    for (Map.Entry<String, Node> child : node.children.entrySet()) {
+      optimized.children.put(child.getKey(), optimize(child.getValue(), changes));
+    }
+    return optimized;
+  }
+
+  /**
+   * Evaluates the child of a node first: the child is copied in place of the node, with a copy of
+   * the node under each of its branches, which takes the branch instead of the child.
+   */
+  private Node hoist(Node node, String key) {
+    Node child = node.children.get(key);
+    Node hoisted = child.copy();
+    for (Map.Entry<String, Node> branch : child.children.entrySet()) {
+      Node copy = node.copy();
+      for (Map.Entry<String, Node> sibling : node.children.entrySet()) {
+        copy.children.put(sibling.getKey(),
+            sibling.getKey().equals(key) ? branch.getValue() : sibling.getValue());
+      }
+      hoisted.children.put(branch.getKey(),
+          isRemovable(copy) ? copy.children.get(DEFAULT_KEY) : copy);
+    }
+    return hoisted;
+  }
+
+  private static String formatNanos(double nanos) {
+    return String.format("%.1fus", nanos / 1000);
+  }
+
+  /**
+   * A node of the tree being optimized. The subtrees are shared between the copies, and their ids
+   * made unique again when the rules are written.
+   */
+  private static final class Node {
+    final String id;
+    final String evaluator;
+    final String[] actions;
+    // The mean latency of the evaluator, and the probability of each child key.
+    final double cost;
+    final Map<String, Double> probabilities;
+    final Map<String, Node> children = Maps.newLinkedHashMap();
+    // The time budget of the evaluator, which moves with it.
+    long budgetMillis;
+    String fallback;
+
+    Node(String id, String evaluator, String[] actions, double cost,
+        Map<String, Double> probabilities) {
+      this.id = id;
+      this.evaluator = evaluator;
+      this.actions = actions;
+      this.cost = cost;
+      this.probabilities = probabilities;
+    }
+
+    static Node parse(List<GitRule> rules) {
+      Preconditions.checkArgument(!rules.isEmpty(), "The tree has no rules.");
+      Map<String, Node> nodes = Maps.newHashMap();
+      Map<String, List<GitRule>> childRules = Maps.newHashMap();
+      Node root = null;
+      for (GitRule rule : rules) {
+        Node node;
+        if (rule.isLeaf()) {
+          node = new Node(rule.getId(), null, rule.getActionMethodNames(), 0, null);
+        } else {
+          GitNodeStats stats = rule.getStats();
+          long count = stats == null ? 0 : stats.getCount();
+          double cost = count == 0 ? 0 : (double) stats.getLatency().getTotalNanos() / count;
+          node = new Node(rule.getId(), rule.getEvaluatorMethodName(), null, cost,
+              Maps.<String, Double>newHashMap());
+        }
+        node.budgetMillis = rule.getBudgetMillis();
+        node.fallback = rule.getFallback();
+        nodes.put(rule.getId(), node);
+        if (Strings.isNullOrEmpty(rule.getParentId())) {
+          Preconditions.checkArgument(root == null, "The tree has two roots.");
+          root = node;
+        } else {
+          Node parent = nodes.get(rule.getParentId());
+          Preconditions.checkArgument(parent != null && !parent.isLeaf(),
+              "Illegal Tree Statues: the parent of [" + rule.getId() + "] is not defined before.");
+          parent.children.put(GitOutcome.formatKey(rule.getParentValue()), node);
+          if (!childRules.containsKey(parent.id)) {
+            childRules.put(parent.id, Lists.<GitRule>newArrayList());
+          }
+          childRules.get(parent.id).add(rule);
+        }
+      }
+      Preconditions.checkArgument(root != null, "The tree has no root.");
+      for (GitRule rule : rules) {
+        if (!rule.isLeaf()) {
+          nodes.get(rule.getId()).setProbabilities(rule.getStats());
+        }
+      }
+      return root;
+    }
+
+    /**
+     * Sets the probabilities of the children from the edge counts, the same for each child if
+     * there is no traffic.
+     */
+    private void setProbabilities(GitNodeStats stats) {
+      long total = 0;
+      Map<String, Long> counts = Maps.newHashMap();
+      for (String key : children.keySet()) {
+        long count = stats == null ? 0 : stats.getEdgeCount(key);
+        counts.put(key, count);
+        total += count;
+      }
+      for (String key : children.keySet()) {
+        probabilities.put(key, total == 0 ? 1.0 / children.size()
+            : (double) counts.get(key) / total);
+      }
+    }
+
+    boolean isLeaf() {
+      return evaluator == null;
+    }
+
+    Node copy() {
+      Node copy = new Node(id, evaluator, actions, cost, probabilities);
+      copy.budgetMillis = budgetMillis;
+      copy.fallback = fallback;
+      return copy;
+    }
+
+    /**
+     * @return the expected evaluator time of a request reaching the node, in nanoseconds
+     */
+    double cost() {
+      if (isLeaf()) {
+        return 0;
+      }
+      double total = cost;
+      for (Map.Entry<String, Node> child : children.entrySet()) {
+        total += probabilities.get(child.getKey()) * child.getValue().cost();
+      }
+      return total;
+    }
+
+    /**
+     * @return the expected number of evaluators run for a request reaching the node
+     */
+    double evaluations() {
+      if (isLeaf()) {
+        return 0;
+      }
+      double total = 1;
+      for (Map.Entry<String, Node> child : children.entrySet()) {
+        total += probabilities.get(child.getKey()) * child.getValue().evaluations();
+      }
+      return total;
+    }
+
+    /**
+     * @return whether the two subtrees behave the same, whatever their ids
+     */
+    boolean sameAs(Node other) {
+      if (this == other) {
+        return true;
+      }
+      if (isLeaf() || other.isLeaf()) {
+        return isLeaf() && other.isLeaf() && Arrays.equals(actions, other.actions);
+      }
+      if (!evaluator.equals(other.evaluator) || budgetMillis != other.budgetMillis
+          || !Objects.equal(fallback, other.fallback)
+          || !children.keySet().equals(other.children.keySet())) {
+        return false;
+      }
+      for (Map.Entry<String, Node> child : children.entrySet()) {
+        if (!child.getValue().sameAs(other.children.get(child.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void appendTo(List<GitRule> rules, Set<String> ids, String parentId, String parentValue) {
+      String uniqueId = id;
+      for (int i = 2; !ids.add(uniqueId); i++) {
+        uniqueId = id + "-" + i;
+      }
+      GitRule rule = new GitRule(uniqueId, parentId, parentValue, isLeaf(), evaluator, actions);
+      if (budgetMillis > 0) {
+        rule.setBudget(budgetMillis, fallback);
+      }
+      rules.add(rule);
+      for (Map.Entry<String, Node> child : children.entrySet()) {
+        child.getValue().appendTo(rules, ids, uniqueId, child.getKey());
+      }
+    }
+  }
+
+  /**
+   * The outcome of an optimization: the rules of the optimized tree, the changes made, and the
+   * expected cost of a request before and after them.
+   */
+  public static final class Plan {
+    private final ImmutableList<GitRule> rules;
+    private final ImmutableList<String> changes;
+    private final double costBefore;
+    private final double costAfter;
+    private final double evaluationsBefore;
+    private final double evaluationsAfter;
+
+    Plan(List<GitRule> rules, List<String> changes, double costBefore, double costAfter,
+        double evaluationsBefore, double evaluationsAfter) {
+      this.rules = ImmutableList.copyOf(rules);
+      this.changes = ImmutableList.copyOf(changes);
+      this.costBefore = costBefore;
+      this.costAfter = costAfter;
+      this.evaluationsBefore = evaluationsBefore;
+      this.evaluationsAfter = evaluationsAfter;
+    }
+
+    /**
+     * @return the rules of the optimized tree, the ones of the original tree if nothing changed
+     */
+    public List<GitRule> getRules() {
+      return rules;
+    }
+
+    /**
+     * @return a description of each change, in the order made
+     */
+    public List<String> getChanges() {
+      return changes;
+    }
+
+    public boolean isImproved() {
+      return !changes.isEmpty();
+    }
+
+    /**
+     * @return the expected evaluator time of a request before the changes, in nanoseconds
+     */
+    public double getCostBeforeNanos() {
+      return costBefore;
+    }
+
+    /**
+     * @return the expected evaluator time of a request after the changes, in nanoseconds
+     */
+    public double getCostAfterNanos() {
+      return costAfter;
+    }
+
+    /**
+     * @return the expected number of evaluators run by a request before the changes
+     */
+    public double getEvaluationsBefore() {
+      return evaluationsBefore;
+    }
+
+    /**
+     * @return the expected number of evaluators run by a request after the changes
+     */
+    public double getEvaluationsAfter() {
+      return evaluationsAfter;
+    }
+
+    /**
+     * Replaces the tree of a variant with the optimized one, see {@code GitTree}.
+     *
+     * @throws IllegalArgumentException or IllegalStateException if the tree fails to build
+     */
+    public void apply(GitTree.Flow flow, boolean useLocalIdpWhiteList,
+        boolean returnProfileInfo) {
+      GitTree.define(flow, useLocalIdpWhiteList, returnProfileInfo, rules);
+    }
+
+    /**
+     * Converts the plan to JSON: the {@code changes}, the expected cost and evaluations per
+     * request {@code before} and {@code after} them, and the {@code rules} of the optimized tree
+     * in the shape of {@code GitRule.toDefinition}.
+     */
+    public JSONObject toJson() {
+      JSONObject json = new JSONObject();
+      try {
+        json.put("changes", new JSONArray(changes));
+        json.put("before", new JSONObject().put("costNanos", costBefore)
+            .put("evaluations", evaluationsBefore));
+        json.put("after", new JSONObject().put("costNanos", costAfter)
+            .put("evaluations", evaluationsAfter));
+        JSONArray definition = new JSONArray();
+        for (GitRule rule : rules) {
+          definition.put(rule.toDefinition());
+        }
+        json.put("rules", definition);
+      } catch (JSONException e) {
+        log.severe(e.getMessage());
+      }
+      return json;
+    }
+
+    @Override
+    public String toString() {
+      return changes.size() + " changes, expected cost per request " + formatNanos(costBefore)
+          + " -> " + formatNanos(costAfter) + ", evaluations "
+          + String.format("%.2f -> %.2f", evaluationsBefore, evaluationsAfter);
+    }
+  }
+}
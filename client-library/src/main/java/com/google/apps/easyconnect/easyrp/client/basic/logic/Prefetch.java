@@ -0,0 +1,44 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that an evaluator depends only on the request as it enters the tree, e.g. on the
+ * identifier, and names the method starting its remote lookups ahead of time.
+ * <p>
+ * When a request enters a tree built by {@code GitTreeBuilder}, the prefetch methods of all the
+ * evaluators of the tree are called, once each, before the root is evaluated. A prefetch method
+ * is a public method of the evaluator object, taking the request as the evaluator does, which
+ * starts the lookups on a bounded executor and stores them where the evaluator finds them,
+ * without blocking. The lookups of independent evaluators then run concurrently, and each
+ * evaluator waits for its own result only. A prefetch method must be harmless if its evaluator
+ * is not reached, and a failing one is logged and ignored.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Prefetch {
+  /**
+   * @return the name of the prefetch method
+   */
+  String value();
+}
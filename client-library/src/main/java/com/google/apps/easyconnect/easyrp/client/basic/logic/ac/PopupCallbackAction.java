@@ -131,7 +131,7 @@ public class PopupCallbackAction {
         request.getHttpServletResponse(), request.getAccountInDB());
     Context.getSessionManager().setAccountOauthToken(request.getHttpServletRequest(),
         request.getHttpServletResponse(),
-        OauthTokenResponse.createFromAssertion(request.getIdpAssertion()));
+        OauthTokenResponse.createFromAssertion(request.getVerifiedAssertion()));
   }
 
   /**
@@ -165,7 +165,8 @@ public class PopupCallbackAction {
       log.severe("Failed to upgrade email '" + email + "' with error: " + e.getErrorCode());
     }
     // Refresh Account object in session
-    Account account = Context.getAccountService().getAccountByEmail(email);
+    request.getAccountLookups().invalidate(email);
+    Account account = request.getAccountLookups().getAccountByEmail(email);
     request.setAccountInDB(account);
     Context.getSessionManager().setSessionAccount(request.getHttpServletRequest(),
         request.getHttpServletResponse(), account);
@@ -146,7 +146,7 @@ public class RedirectCallbackAction {
         request.getHttpServletResponse(), request.getAccountInDB());
     Context.getSessionManager().setAccountOauthToken(request.getHttpServletRequest(),
         request.getHttpServletResponse(),
-        OauthTokenResponse.createFromAssertion(request.getIdpAssertion()));
+        OauthTokenResponse.createFromAssertion(request.getVerifiedAssertion()));
   }
 
   /**
@@ -180,7 +180,8 @@ public class RedirectCallbackAction {
       log.severe("Failed to upgrade email '" + email + "' with error: " + e.getErrorCode());
     }
     // Refresh Account object in session
-    Account account = Context.getAccountService().getAccountByEmail(email);
+    request.getAccountLookups().invalidate(email);
+    Account account = request.getAccountLookups().getAccountByEmail(email);
     request.setAccountInDB(account);
     Context.getSessionManager().setSessionAccount(request.getHttpServletRequest(),
         request.getHttpServletResponse(), account);
@@ -23,9 +23,16 @@ import org.json.JSONObject;
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
 import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
 import com.google.apps.easyconnect.easyrp.client.basic.data.AccountException;
+import com.google.apps.easyconnect.easyrp.client.basic.data.AccountService;
+import com.google.apps.easyconnect.easyrp.client.basic.data.VerifiedAssertion;
+import com.google.apps.easyconnect.easyrp.client.basic.data.VerifiedAssertionAccountService;
 import com.google.apps.easyconnect.easyrp.client.basic.util.GitServiceClient;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * Defines some evaluators for callback request.
@@ -115,12 +122,19 @@ public class GitCallbackEvaluator extends GitEvaluator {
    * @return the result of auto create the federated account
    */
   public String tryCreateAccount(GitCallbackRequest request) {
-    Preconditions.checkArgument(Context.getAccountService().getAccountByEmail(
+    Preconditions.checkArgument(request.getAccountLookups().getAccountByEmail(
         request.getIdentifier()) == null);
     Account account = null;
     try {
-      account = Context.getAccountService().createFederatedAccount(request.getIdpAssertion());
+      AccountService accountService = Context.getAccountService();
+      if (accountService instanceof VerifiedAssertionAccountService) {
+        account = ((VerifiedAssertionAccountService) accountService).createFederatedAccount(
+            request.getVerifiedAssertion());
+      } else {
+        account = accountService.createFederatedAccount(request.getIdpAssertion());
+      }
       request.setAccountInDB(account);
+      request.getAccountLookups().put(request.getIdentifier(), account);
     } catch (AccountException e) {
       log.info("Failed to create federated automatically: " + e.getErrorCode());
     }
@@ -190,25 +204,68 @@ public class GitCallbackEvaluator extends GitEvaluator {
    */
   public String verifyAssertion(GitCallbackRequest request) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(request.getRequestUri()));
+    GitServiceClient apiClient = Context.getGitServiceClient();
+    JSONObject idpAssertion = apiClient.verifyResponse(request.getRequestUri(), null);
+    return applyAssertion(request, idpAssertion);
+  }
+
+  /**
+   * Same as {@code verifyAssertion}, but does not block the calling thread while the IDP assertion
+   * is verified. The returned future never fails: a failed verification results in 'error'.
+   *
+   * @param request the request object
+   * @return the future result for Verifying the IDP assertion.
+   */
+  public ListenableFuture<String> verifyAssertionAsync(final GitCallbackRequest request) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(request.getRequestUri()));
+    GitServiceClient apiClient = Context.getGitServiceClient();
+    final SettableFuture<String> result = SettableFuture.create();
+    Futures.addCallback(apiClient.verifyResponseAsync(request.getRequestUri(), null),
+        new FutureCallback<JSONObject>() {
+          @Override
+          public void onSuccess(JSONObject idpAssertion) {
+            complete(request, idpAssertion);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.severe(String.valueOf(t));
+            complete(request, new JSONObject());
+          }
+
+          private void complete(GitCallbackRequest request, JSONObject idpAssertion) {
+            // The walk cancels the result holding the request lock once it stops waiting for it.
+            synchronized (request) {
+              if (!result.isCancelled()) {
+                result.set(applyAssertion(request, idpAssertion));
+              }
+            }
+          }
+        });
+    return result;
+  }
+
+  private String applyAssertion(GitCallbackRequest request, JSONObject idpAssertion) {
     String ret = "error";
-    try {
-      GitServiceClient apiClient = Context.getGitServiceClient();
-      JSONObject idpAssertion = apiClient.verifyResponse(request.getRequestUri(), null);
-      request.setIdpAssertion(idpAssertion);
-      if (idpAssertion != null) {
-        if (idpAssertion.has("trusted")) {
-          request.setIdentifier(idpAssertion.getString("email"));
-          ret = idpAssertion.getBoolean("trusted") ? "trusted" : "untrusted";
+    VerifiedAssertion assertion = idpAssertion == null ? null
+        : VerifiedAssertion.fromJson(idpAssertion);
+    request.setVerifiedAssertion(assertion);
+    if (assertion != null) {
+      if (assertion.hasTrusted()) {
+        if (assertion.getEmail() != null) {
+          request.setIdentifier(assertion.getEmail());
+          ret = assertion.isTrusted() ? "trusted" : "untrusted";
+        } else {
+          log.severe("The verified assertion has no email.");
         }
-        if (idpAssertion.has("context")) {
-          String stateParameters = idpAssertion.getString("context");
-          if (!Strings.isNullOrEmpty(stateParameters)) {
-            request.setStateParameters(stateParameters);
-          }
+      }
+      if (!Strings.isNullOrEmpty(assertion.getContext())) {
+        try {
+          request.setStateParameters(assertion.getContext());
+        } catch (JSONException e) {
+          log.severe(e.getMessage());
         }
       }
-    } catch (JSONException e) {
-      log.severe(e.getMessage());
     }
     log.info("[verifyAssertion] result: " + ret);
     return ret;
@@ -18,6 +18,8 @@ package com.google.apps.easyconnect.easyrp.client.basic.logic.common;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.apps.easyconnect.easyrp.client.basic.data.VerifiedAssertion;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -27,7 +29,7 @@ import javax.servlet.http.HttpServletResponse;
  * @author guibinkong@google.com (Guibin Kong)
  */
 public class GitCallbackRequest extends GitRequest {
-  private JSONObject idpAssertion;
+  private VerifiedAssertion idpAssertion;
   private String purpose;
   private String inputEmail;
   private String requestUri;
@@ -44,11 +46,25 @@ public class GitCallbackRequest extends GitRequest {
     super(httpServletRequest, httpServletResponse);
   }
 
+  /**
+   * Returns a copy of the IDP assertion in JSON format, see {@code VerifiedAssertion.toJson()}.
+   * Changing it does not change the assertion of the request.
+   * 
+   * @return the IDP assertion, or null if not verified yet
+   */
   public JSONObject getIdpAssertion() {
-    return idpAssertion;
+    return idpAssertion == null ? null : idpAssertion.toJson();
   }
 
   public void setIdpAssertion(JSONObject idpAssertion) {
+    this.idpAssertion = idpAssertion == null ? null : VerifiedAssertion.fromJson(idpAssertion);
+  }
+
+  public VerifiedAssertion getVerifiedAssertion() {
+    return idpAssertion;
+  }
+
+  public void setVerifiedAssertion(VerifiedAssertion idpAssertion) {
     this.idpAssertion = idpAssertion;
   }
 
@@ -15,23 +15,33 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic.common;
 
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
 import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.Prefetch;
 import com.google.apps.easyconnect.easyrp.client.basic.util.IdpUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * Defines some common evaluators. An {@code Evaluator} is a java method that takes a request
- * parameter of a specific type and returns a String as result. It is used by a
+ * parameter of a specific type and returns a String as result, or a {@code ListenableFuture} of it
+ * when the evaluation calls a remote service, see {@code AsyncGitNode}. It is used by a
  * {@code GitDecisionNode} to evaluate the request, and decide which subtree to go.
  * <p>
  * When creating a {@code GitNode} by {@code GitTreeBuilder}, the class of request parameter, the
  * instance of {@code Evaluator} object and {@code Action} object have been injected to the return
  * {@code GitNode} instance. <br>
  * See {@code GitTreeBuilder} for more detail.
+ * <p>
+ * The account lookup and the domain type check depend on the identifier only, so they are started
+ * concurrently when a request enters a tree, see {@code Prefetch}.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
@@ -94,15 +104,51 @@ public class GitEvaluator {
    * @param request the request object
    * @return whether the email is registered
    */
+  @Prefetch("prefetchAccount")
   public String checkEmailRegistered(GitRequest request) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(request.getIdentifier()));
-    Account account = Context.getAccountService().getAccountByEmail(request.getIdentifier());
+    Account account = request.getAccountLookups().getAccountByEmail(request.getIdentifier());
     request.setAccountInDB(account);
     String ret = (account == null) ? "unregistered" : "registered";
     log.info("[checkEmailRegistered] result: " + ret);
     return ret;
   }
 
+  /**
+   * Same as {@code checkEmailRegistered}, but does not block the calling thread while the account
+   * is looked up, so a time budget of its node bounds the lookup, see {@code Budgets}. The account
+   * is set to the request when the lookup completes, unless the walk stopped waiting for it.
+   *
+   * @param request the request object
+   * @return the future registration state of the email
+   */
+  @Prefetch("prefetchAccount")
+  public ListenableFuture<String> checkEmailRegisteredAsync(final GitRequest request) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(request.getIdentifier()));
+    final SettableFuture<String> result = SettableFuture.create();
+    Futures.addCallback(request.getAccountLookups().getAccountByEmailAsync(
+        request.getIdentifier()), new FutureCallback<Account>() {
+          @Override
+          public void onSuccess(Account account) {
+            synchronized (request) {
+              if (result.isCancelled()) {
+                return;
+              }
+              request.setAccountInDB(account);
+              String ret = (account == null) ? "unregistered" : "registered";
+              log.info("[checkEmailRegistered] result: " + ret);
+              result.set(ret);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            result.setException(t);
+          }
+        });
+    return result;
+  }
+
   /**
    * Checks the account type of a registered account.
    * <p>
@@ -140,10 +186,14 @@ public class GitEvaluator {
    * <li>May send out an HTTP request to check whether a domain is a Google Apps domain, which will
    * also be treated as federated domain.</li>
    * </ul>
+   * With a time budget on its node, the tree calls {@code checkDomainTypeAsync} instead, so the
+   * wait for the prefetched check is bounded by the budget.
+   *
    * @param request the request object
    * @return the account type of an registered account
    * @throws IllegalStateException if {@code useLocalIdpWhiteList} is set to false
    */
+  @Prefetch("prefetchDomainType")
   public String checkDomainType(GitRequest request) {
     if (!useLocalIdpWhiteList) {
       String msg = "Action [checkDomainType] cannot be called " +
@@ -151,13 +201,99 @@ public class GitEvaluator {
       log.severe(msg);
       throw new IllegalStateException(msg);
     }
+    ListenableFuture<String> prefetched =
+        request.getPrefetchedDomainType(request.getIdentifier());
+    if (prefetched != null) {
+      try {
+        return prefetched.get();
+      } catch (ExecutionException e) {
+        log.severe(String.valueOf(e.getCause()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     String domain = IdpUtils.getDomain(request.getIdentifier());
     boolean inFederatedDomain = Context.isFederatedDomain(domain);
     boolean isDashDomain = false;
     if (!inFederatedDomain) {
       isDashDomain = Context.getDasherDomainChecker().isDasherDomain(domain);
     }
-    String ret = (inFederatedDomain || isDashDomain) ? "idp" : "non-idp";
+    return domainType(inFederatedDomain || isDashDomain);
+  }
+
+  /**
+   * Same as {@code checkDomainType}, but does not block the calling thread while the domain is
+   * probed as a Google Apps domain. The returned future never fails.
+   *
+   * @param request the request object
+   * @return the future domain type of the email
+   * @throws IllegalStateException if {@code useLocalIdpWhiteList} is set to false
+   */
+  @Prefetch("prefetchDomainType")
+  public ListenableFuture<String> checkDomainTypeAsync(GitRequest request) {
+    if (!useLocalIdpWhiteList) {
+      String msg = "Action [checkDomainTypeAsync] cannot be called " +
+          "when local IDP white list is not used.";
+      log.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    ListenableFuture<String> prefetched =
+        request.getPrefetchedDomainType(request.getIdentifier());
+    return prefetched != null ? prefetched : domainTypeAsync(request.getIdentifier());
+  }
+
+  private static ListenableFuture<String> domainTypeAsync(String email) {
+    String domain = IdpUtils.getDomain(email);
+    if (Context.isFederatedDomain(domain)) {
+      return Futures.immediateFuture(domainType(true));
+    }
+    final SettableFuture<String> result = SettableFuture.create();
+    Futures.addCallback(Context.getDasherDomainChecker().isDasherDomainAsync(domain),
+        new FutureCallback<Boolean>() {
+          @Override
+          public void onSuccess(Boolean isDashDomain) {
+            result.set(domainType(isDashDomain));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.severe(String.valueOf(t));
+            result.set(domainType(false));
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Starts looking up the account of the identifier, if it is a valid email, for
+   * {@code checkEmailRegistered}.
+   *
+   * @param request the request object
+   */
+  public void prefetchAccount(GitRequest request) {
+    if (IdpUtils.isValidEmail(request.getIdentifier())) {
+      request.getAccountLookups().prefetch(request.getIdentifier());
+    }
+  }
+
+  /**
+   * Starts checking the domain type of the identifier, if it is a valid email and the IDP white
+   * list is used, for {@code checkDomainType} and {@code checkDomainTypeAsync}. The check is
+   * speculative: it is wasted on a registered email, but costs no more than a cache lookup for
+   * the domains already known.
+   *
+   * @param request the request object
+   */
+  public void prefetchDomainType(GitRequest request) {
+    String email = request.getIdentifier();
+    if (useLocalIdpWhiteList && IdpUtils.isValidEmail(email)
+        && request.getPrefetchedDomainType(email) == null) {
+      request.setPrefetchedDomainType(email, domainTypeAsync(email));
+    }
+  }
+
+  private static String domainType(boolean isIdp) {
+    String ret = isIdp ? "idp" : "non-idp";
     log.info("[checkDomainType] result: " + ret);
     return ret;
   }
@@ -18,7 +18,10 @@ package com.google.apps.easyconnect.easyrp.client.basic.logic.common;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.apps.easyconnect.easyrp.client.basic.Context;
 import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
+import com.google.apps.easyconnect.easyrp.client.basic.data.AccountLookupCache;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * Defines the base request object to wrap common attributes.
@@ -30,6 +33,9 @@ public class GitRequest {
   private HttpServletResponse httpServletResponse;
   private String identifier;
   private Account accountInDB;
+  private AccountLookupCache accountLookups;
+  private String prefetchedDomainEmail;
+  private ListenableFuture<String> prefetchedDomainType;
 
   public GitRequest(HttpServletRequest httpServletRequest,
       HttpServletResponse httpServletResponse) {
@@ -77,4 +83,32 @@ public class GitRequest {
   public void setAccountInDB(Account accountInDB) {
     this.accountInDB = accountInDB;
   }
+
+  /**
+   * Gets the account lookups of the request, shared with the session manager through the
+   * {@code HttpServletRequest}. The evaluators and actions should look the accounts up with it
+   * rather than with {@code AccountService}, and invalidate the accounts they change.
+   */
+  public AccountLookupCache getAccountLookups() {
+    if (accountLookups == null) {
+      accountLookups = AccountLookupCache.forRequest(httpServletRequest,
+          Context.getAccountService());
+    }
+    return accountLookups;
+  }
+
+  /**
+   * Records the domain type of an email, being checked ahead of time.
+   */
+  public void setPrefetchedDomainType(String email, ListenableFuture<String> domainType) {
+    this.prefetchedDomainEmail = email;
+    this.prefetchedDomainType = domainType;
+  }
+
+  /**
+   * @return the domain type of an email being checked ahead of time, or null if it is not
+   */
+  public ListenableFuture<String> getPrefetchedDomainType(String email) {
+    return email != null && email.equals(prefetchedDomainEmail) ? prefetchedDomainType : null;
+  }
 }
@@ -15,13 +15,18 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
 
+import java.lang.reflect.Method;
+import java.util.Map;
+
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNodeStats;
 import com.google.common.base.Preconditions;
 
 public abstract class AbstractGitNode implements GitNode {
   private String id;
   private boolean leaf;
   private Class<?> requestClass;
+  private final GitNodeStats stats;
 
   public AbstractGitNode(String id, boolean leaf, Class<?> requestClass) {
     Preconditions.checkNotNull(id);
@@ -29,6 +34,7 @@ public abstract class AbstractGitNode implements GitNode {
     this.id = id;
     this.leaf = leaf;
     this.requestClass = requestClass;
+    this.stats = new GitNodeStats(id);
   }
 
   public String getId() {
@@ -42,4 +48,26 @@ public abstract class AbstractGitNode implements GitNode {
   public Class<?> getRequestClass() {
     return this.requestClass;
   }
+
+  public GitNodeStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Replaces the reflective calls of this node with the invokers bound by
+   * {@code MethodInvokers.bind}. Called by {@code GitTreeBuilder.build()}.
+   *
+   * @param invokers the invokers already bound for the tree, by method
+   */
+  void bindInvokers(Map<Method, MethodInvoker> invokers) {
+  }
+
+  static MethodInvoker bind(Map<Method, MethodInvoker> invokers, Method method) {
+    MethodInvoker invoker = invokers.get(method);
+    if (invoker == null) {
+      invoker = MethodInvokers.bind(method);
+      invokers.put(method, invoker);
+    }
+    return invoker;
+  }
 }
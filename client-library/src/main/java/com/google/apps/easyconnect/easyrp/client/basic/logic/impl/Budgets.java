@@ -0,0 +1,149 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.SharedExecutors;
+
+/**
+ * The time budgets of the decision nodes and of the requests, see {@code GitTreeBuilder.budget}
+ * and {@code GitTreeBuilder.requestBudget}.
+ * <p>
+ * The budgets and deadlines are in {@code System.nanoTime()} nanoseconds, {@code NONE} standing for
+ * no limit. An evaluator with a budget is waited for at most the least of its budget and what is
+ * left of the request budget, and its node takes its fallback child when it does not answer in
+ * time. Only an evaluator returning a {@code Future}, or with a twin returning one, see
+ * {@code AsyncGitNode}, can be stopped waiting for: an evaluator returning a plain outcome is
+ * called on the thread walking the tree, as it reads and writes the request, which is not thread
+ * safe. {@code GitTreeBuilder.budget} rejects a budget on such an evaluator, but its time still
+ * counts against the request budget.
+ * <p>
+ * The future of an evaluator which runs out of its budget is cancelled while holding the lock of
+ * the request, so an evaluator writing the request when its future completes can tell whether
+ * the walk still waits for it, see {@code AsyncGitNode}.
+ */
+final class Budgets {
+  private static final Logger log = Logger.getLogger(Budgets.class.getName());
+
+  static final long NONE = Long.MAX_VALUE;
+
+  /**
+   * The result of an evaluator which did not answer in time.
+   */
+  static final Object TIMED_OUT = new Object() {
+    @Override
+    public String toString() {
+      return "TIMED_OUT";
+    }
+  };
+
+  /**
+   * Runs the walks resumed by {@code GitDecisionNode.executeAsync} on a bounded pool of worker
+   * threads, so they do not hold up the timer or the thread completing an evaluator's future. A
+   * walk is resumed in place if the pool is saturated.
+   */
+  static final Executor RESUME = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      try {
+        SharedExecutors.bounded("GitResume", 16, 1000).execute(task);
+      } catch (RejectedExecutionException e) {
+        log.fine("Too many pending walks, resuming in place.");
+        task.run();
+      }
+    }
+  };
+
+  private Budgets() {
+  }
+
+  /**
+   * @return the deadline of a request starting now, or {@code NONE}
+   */
+  static long deadline(long budgetNanos) {
+    return budgetNanos == NONE ? NONE : System.nanoTime() + budgetNanos;
+  }
+
+  /**
+   * @return how long an evaluator may be waited for: the least of its budget and of what is left
+   *         before the deadline, {@code NONE} if neither is set, 0 or less if the deadline passed
+   */
+  static long timeout(long budgetNanos, long deadline) {
+    return deadline == NONE ? budgetNanos : Math.min(budgetNanos, deadline - System.nanoTime());
+  }
+
+  /**
+   * Waits for the result of an evaluator if it is a {@code Future}, cancelling it if it is late.
+   *
+   * @param request the request passed to the evaluator
+   * @return the value, null if the future failed, or {@code TIMED_OUT}
+   */
+  static Object await(Object result, long timeoutNanos, Object request) {
+    if (!(result instanceof Future<?>)) {
+      return result;
+    }
+    Future<?> future = (Future<?>) result;
+    try {
+      try {
+        return future.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        if (cancel(future, request)) {
+          return TIMED_OUT;
+        }
+        return future.get();
+      }
+    } catch (ExecutionException e) {
+      log.severe("Failed to evaluate node: " + e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.severe("Interrupted while evaluating node.");
+    }
+    return null;
+  }
+
+  /**
+   * Cancels the future of an evaluator which ran out of its budget, holding the lock of the
+   * request.
+   *
+   * @return whether the future was cancelled, false if it completed meanwhile
+   */
+  static boolean cancel(Future<?> future, Object request) {
+    synchronized (request) {
+      return future.cancel(false);
+    }
+  }
+
+  /**
+   * Runs a task on {@code RESUME} once a budget is spent. The timer thread only hands the task
+   * over, so one slow task does not delay the timeouts of the other requests.
+   */
+  static ScheduledFuture<?> schedule(final Runnable task, long timeoutNanos) {
+    return SharedExecutors.timer("GitBudgetTimer").schedule(new Runnable() {
+      @Override
+      public void run() {
+        RESUME.execute(task);
+      }
+    }, Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+  }
+}
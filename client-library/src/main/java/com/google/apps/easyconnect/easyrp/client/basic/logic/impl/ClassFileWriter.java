@@ -0,0 +1,439 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A minimal writer of class files, just enough to emit the small classes generated by this
+ * package. The classes are written in the Java 5 format (49.0), so the methods need no stack map
+ * frames.
+ */
+final class ClassFileWriter {
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndexes = Maps.newHashMap();
+  private int poolSize = 1;
+  private final int thisClass;
+  private final int superClass;
+  private final int[] interfaces;
+  private final List<byte[]> methods = Lists.newArrayList();
+
+  /**
+   * @param name the internal name of the class, e.g. "java/lang/Object"
+   * @param superName the internal name of the super class
+   * @param interfaceNames the internal names of the implemented interfaces
+   */
+  ClassFileWriter(String name, String superName, String... interfaceNames) {
+    thisClass = classRef(name);
+    superClass = classRef(superName);
+    interfaces = new int[interfaceNames.length];
+    for (int i = 0; i < interfaceNames.length; i++) {
+      interfaces[i] = classRef(interfaceNames[i]);
+    }
+  }
+
+  /**
+   * @return the internal name of a class, or its descriptor for an array
+   */
+  static String internalName(Class<?> klass) {
+    return klass.isArray() ? descriptor(klass) : klass.getName().replace('.', '/');
+  }
+
+  static String descriptor(Class<?> klass) {
+    if (klass.isArray()) {
+      return klass.getName().replace('.', '/');
+    } else if (!klass.isPrimitive()) {
+      return "L" + internalName(klass) + ";";
+    } else if (klass == void.class) {
+      return "V";
+    } else if (klass == boolean.class) {
+      return "Z";
+    } else if (klass == long.class) {
+      return "J";
+    } else {
+      return String.valueOf(Character.toUpperCase(klass.getName().charAt(0)));
+    }
+  }
+
+  /**
+   * @return the descriptor of a method, e.g. "(Ljava/lang/Object;)V"
+   */
+  static String methodDescriptor(Class<?> returnType, Class<?>... parameterTypes) {
+    StringBuilder buf = new StringBuilder("(");
+    for (Class<?> parameterType : parameterTypes) {
+      buf.append(descriptor(parameterType));
+    }
+    return buf.append(')').append(descriptor(returnType)).toString();
+  }
+
+  int utf8(String value) {
+    String key = "U" + value;
+    Integer index = poolIndexes.get(key);
+    if (index == null) {
+      try {
+        pool.writeByte(CONSTANT_UTF8);
+        pool.writeUTF(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      index = addToPool(key);
+    }
+    return index;
+  }
+
+  int classRef(String internalName) {
+    return ref(CONSTANT_CLASS, "C" + internalName, utf8(internalName));
+  }
+
+  int integer(int value) {
+    Integer index = poolIndexes.get("I" + value);
+    if (index == null) {
+      try {
+        pool.writeByte(CONSTANT_INTEGER);
+        pool.writeInt(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      index = addToPool("I" + value);
+    }
+    return index;
+  }
+
+  int string(String value) {
+    return ref(CONSTANT_STRING, "S" + value, utf8(value));
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int nameAndType = ref(CONSTANT_NAME_AND_TYPE, "N" + name + " " + descriptor, utf8(name),
+        utf8(descriptor));
+    return ref(tag, tag + owner + "." + name + " " + descriptor, classRef(owner), nameAndType);
+  }
+
+  private int ref(int tag, String key, int... indexes) {
+    Integer index = poolIndexes.get(key);
+    if (index == null) {
+      try {
+        pool.writeByte(tag);
+        for (int i : indexes) {
+          pool.writeShort(i);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      index = addToPool(key);
+    }
+    return index;
+  }
+
+  private int addToPool(String key) {
+    int index = poolSize++;
+    if (index > 0xFFFF) {
+      throw new IllegalStateException("Constant pool overflow");
+    }
+    poolIndexes.put(key, index);
+    return index;
+  }
+
+  /**
+   * Adds a method.
+   *
+   * @param access the access flags
+   * @param name the method name
+   * @param descriptor the method descriptor
+   * @param code the bytecode, see {@code Code}
+   */
+  void addMethod(int access, String name, String descriptor, Code code) {
+    int codeAttribute = utf8("Code");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(access);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(descriptor));
+      out.writeShort(1);
+      out.writeShort(codeAttribute);
+      byte[] bytecode = code.toByteArray();
+      List<int[]> handlers = code.handlers;
+      out.writeInt(12 + bytecode.length + 8 * handlers.size());
+      out.writeShort(code.maxStack);
+      out.writeShort(code.maxLocals);
+      out.writeInt(bytecode.length);
+      out.write(bytecode);
+      out.writeShort(handlers.size());
+      for (int[] handler : handlers) {
+        for (int value : handler) {
+          out.writeShort(value);
+        }
+      }
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    methods.add(bytes.toByteArray());
+  }
+
+  byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(49);
+      out.writeShort(poolSize);
+      pool.flush();
+      out.write(poolBytes.toByteArray());
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaces.length);
+      for (int i : interfaces) {
+        out.writeShort(i);
+      }
+      out.writeShort(0);
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * A position in a {@code Code}, which may be jumped to before it is marked.
+   */
+  static final class Label {
+    private int position = -1;
+  }
+
+  /**
+   * The bytecode of a method. Only the instructions used by the generators of this package are
+   * provided; the max stack and locals are set by the caller.
+   */
+  static final class Code {
+    static final int ACONST_NULL = 0x01;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int POP = 0x57;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int LLOAD = 0x16;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int ASTORE = 0x3a;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int GOTO = 0xa7;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final int maxStack;
+    private final int maxLocals;
+    // The jumps to patch, by position of their instruction.
+    private final Map<Integer, Label> jumps = Maps.newHashMap();
+    private final List<Label[]> tryCatchLabels = Lists.newArrayList();
+    private final List<int[]> handlers = Lists.newArrayList();
+
+    Code(int maxStack, int maxLocals) {
+      this.maxStack = maxStack;
+      this.maxLocals = maxLocals;
+    }
+
+    Code op(int opcode) {
+      bytes.write(opcode);
+      return this;
+    }
+
+    Code iload(int local) {
+      bytes.write(ILOAD);
+      bytes.write(local);
+      return this;
+    }
+
+    Code istore(int local) {
+      bytes.write(ISTORE);
+      bytes.write(local);
+      return this;
+    }
+
+    Code lload(int local) {
+      bytes.write(LLOAD);
+      bytes.write(local);
+      return this;
+    }
+
+    Code lstore(int local) {
+      bytes.write(LSTORE);
+      bytes.write(local);
+      return this;
+    }
+
+    Code aload(int local) {
+      bytes.write(ALOAD);
+      bytes.write(local);
+      return this;
+    }
+
+    Code astore(int local) {
+      bytes.write(ASTORE);
+      bytes.write(local);
+      return this;
+    }
+
+    /**
+     * @param constant a constant of the pool, e.g. from {@code ClassFileWriter.string} or
+     *        {@code ClassFileWriter.integer}
+     */
+    Code ldc(int constant) {
+      return withIndex(LDC_W, constant);
+    }
+
+    /**
+     * Jumps to the label if the two ints on top of the stack are equal.
+     */
+    Code ifIcmpeq(Label label) {
+      return jump(IF_ICMPEQ, label);
+    }
+
+    Code goTo(Label label) {
+      return jump(GOTO, label);
+    }
+
+    private Code jump(int opcode, Label label) {
+      jumps.put(bytes.size(), label);
+      return withIndex(opcode, 0);
+    }
+
+    /**
+     * Sets the label to the position of the next instruction.
+     */
+    Code mark(Label label) {
+      label.position = bytes.size();
+      return this;
+    }
+
+    /**
+     * Adds an exception handler to the code between two labels.
+     *
+     * @param start the first instruction covered
+     * @param end the instruction following the last one covered
+     * @param handler the handler, called with the exception on the stack
+     * @param catchType the class of the exceptions caught
+     */
+    Code tryCatch(Label start, Label end, Label handler, int catchType) {
+      tryCatchLabels.add(new Label[] {start, end, handler});
+      handlers.add(new int[] {0, 0, 0, catchType});
+      return this;
+    }
+
+    Code checkcast(int classRef) {
+      return withIndex(CHECKCAST, classRef);
+    }
+
+    Code invokeVirtual(int methodRef) {
+      return withIndex(INVOKEVIRTUAL, methodRef);
+    }
+
+    Code invokeSpecial(int methodRef) {
+      return withIndex(INVOKESPECIAL, methodRef);
+    }
+
+    Code invokeStatic(int methodRef) {
+      return withIndex(INVOKESTATIC, methodRef);
+    }
+
+    /**
+     * @param interfaceMethodRef the method
+     * @param argumentSlots the number of slots of the arguments, including the receiver
+     */
+    Code invokeInterface(int interfaceMethodRef, int argumentSlots) {
+      withIndex(INVOKEINTERFACE, interfaceMethodRef);
+      bytes.write(argumentSlots);
+      bytes.write(0);
+      return this;
+    }
+
+    private Code withIndex(int opcode, int index) {
+      bytes.write(opcode);
+      bytes.write(index >> 8);
+      bytes.write(index);
+      return this;
+    }
+
+    byte[] toByteArray() {
+      byte[] code = bytes.toByteArray();
+      for (Map.Entry<Integer, Label> jump : jumps.entrySet()) {
+        int offset = position(jump.getValue()) - jump.getKey();
+        if (offset != (short) offset) {
+          throw new IllegalStateException("Jump too far");
+        }
+        code[jump.getKey() + 1] = (byte) (offset >> 8);
+        code[jump.getKey() + 2] = (byte) offset;
+      }
+      for (int i = 0; i < handlers.size(); i++) {
+        for (int j = 0; j < 3; j++) {
+          handlers.get(i)[j] = position(tryCatchLabels.get(i)[j]);
+        }
+      }
+      return code;
+    }
+
+    private static int position(Label label) {
+      if (label.position < 0) {
+        throw new IllegalStateException("Label not marked");
+      }
+      return label.position;
+    }
+  }
+}
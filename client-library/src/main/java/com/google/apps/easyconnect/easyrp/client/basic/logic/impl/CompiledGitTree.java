@@ -0,0 +1,299 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNodeStats;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitOutcome;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTrace;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTracer;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A built tree of {@code GitDecisionNode}s and {@code GitActionNode}s, compiled into flat tables.
+ * <p>
+ * The nodes are numbered in breadth first order from the root (0), and every distinct child key
+ * of the tree gets an outcome ordinal, {@code DEFAULT} being 0. A decision node converts the
+ * result of its evaluator to a {@code GitOutcome}, whose id gives the ordinal, and finds its child
+ * at {@code children[node * outcomeCount + ordinal]}, and the actions of all the leaves are
+ * stored in one array. Executing the tree walks these tables with direct invokers, see
+ * {@code MethodInvokers}, and allocates nothing besides what the evaluators and actions do.
+ * <p>
+ * The behavior is the one of the source tree: an evaluator which fails or returns an unknown key
+ * selects the {@code DEFAULT} child, and a failing action is logged and does not stop the
+ * following ones. The time budgets are the ones of the source tree, see {@code Budgets}. The
+ * traffic and latency are recorded into the {@code GitNodeStats} of the source nodes.
+ */
+public final class CompiledGitTree implements AsyncGitNode {
+  private static final Logger log = Logger.getLogger(CompiledGitTree.class.getName());
+  private static final String DEFAULT_OUTCOME = GitDecisionNode.formatKey("DEFAULT");
+  private static final int NONE = -1;
+
+  private final GitNode source;
+  private final Class<?> requestClass;
+  private final String[] nodeIds;
+  private final ImmutableList<String> outcomes;
+  // The outcome ordinals of this tree, by GitOutcome id.
+  private final int[] ordinalsById;
+  private final int outcomeCount;
+
+  // Indexed by node id; the evaluator is null for the leaves.
+  private final MethodInvoker[] evaluators;
+  // Called instead of the evaluators when a budget applies, see GitDecisionNode.getTimedEvaluator.
+  private final MethodInvoker[] timedEvaluators;
+  private final Object[] evaluatorObjects;
+  private final Object[] actionObjects;
+  private final int[] children;
+  private final GitNodeStats[] stats;
+  private final Prefetchers prefetchers;
+  private final long requestBudgetNanos;
+  // The budgets of the evaluators and their fallback outcomes, Budgets.NONE without a budget.
+  private final long[] budgetNanos;
+  private final GitOutcome[] fallbacks;
+
+  // The actions of the node n are actions[actionStart[n]] to actions[actionStart[n + 1] - 1].
+  private final MethodInvoker[] actions;
+  private final int[] actionStart;
+
+  private CompiledGitTree(GitNode source, List<AbstractGitNode> nodes, List<String> outcomes,
+      Map<Method, MethodInvoker> invokers) {
+    this.source = source;
+    this.requestClass = nodes.get(0).getRequestClass();
+    this.prefetchers = nodes.get(0) instanceof GitDecisionNode
+        ? ((GitDecisionNode) nodes.get(0)).getPrefetchers() : Prefetchers.NONE;
+    this.requestBudgetNanos = nodes.get(0) instanceof GitDecisionNode
+        ? ((GitDecisionNode) nodes.get(0)).getRequestBudgetNanos() : Budgets.NONE;
+    this.outcomes = ImmutableList.copyOf(outcomes);
+    Map<String, Integer> outcomeOrdinals = Maps.newHashMap();
+    for (int i = 0; i < outcomes.size(); i++) {
+      outcomeOrdinals.put(outcomes.get(i), i);
+    }
+    this.ordinalsById = new int[GitOutcome.count()];
+    Arrays.fill(ordinalsById, NONE);
+    for (int i = 0; i < outcomes.size(); i++) {
+      ordinalsById[GitOutcome.of(outcomes.get(i)).getId()] = i;
+    }
+    this.outcomeCount = outcomes.size();
+
+    int nodeCount = nodes.size();
+    Map<GitNode, Integer> ids = new IdentityHashMap<GitNode, Integer>();
+    for (int i = 0; i < nodeCount; i++) {
+      ids.put(nodes.get(i), i);
+    }
+    nodeIds = new String[nodeCount];
+    evaluators = new MethodInvoker[nodeCount];
+    timedEvaluators = new MethodInvoker[nodeCount];
+    evaluatorObjects = new Object[nodeCount];
+    actionObjects = new Object[nodeCount];
+    stats = new GitNodeStats[nodeCount];
+    budgetNanos = new long[nodeCount];
+    Arrays.fill(budgetNanos, Budgets.NONE);
+    fallbacks = new GitOutcome[nodeCount];
+    children = new int[nodeCount * outcomeCount];
+    Arrays.fill(children, NONE);
+    actionStart = new int[nodeCount + 1];
+    List<MethodInvoker> allActions = Lists.newArrayList();
+    for (int i = 0; i < nodeCount; i++) {
+      AbstractGitNode node = nodes.get(i);
+      nodeIds[i] = node.getId();
+      stats[i] = node.getStats();
+      actionStart[i] = allActions.size();
+      if (node instanceof GitDecisionNode) {
+        GitDecisionNode decision = (GitDecisionNode) node;
+        evaluators[i] = AbstractGitNode.bind(invokers, decision.getEvaluator());
+        timedEvaluators[i] = AbstractGitNode.bind(invokers, decision.getTimedEvaluator());
+        evaluatorObjects[i] = decision.getEvaluatorObject();
+        budgetNanos[i] = decision.getBudgetNanos();
+        fallbacks[i] = decision.getFallback();
+        for (Map.Entry<String, GitNode> child : decision.getChildren().entrySet()) {
+          children[i * outcomeCount + outcomeOrdinals.get(child.getKey())] =
+              ids.get(child.getValue());
+        }
+      } else {
+        GitActionNode leaf = (GitActionNode) node;
+        actionObjects[i] = leaf.getActionObject();
+        for (Method method : leaf.getActionMethods()) {
+          allActions.add(AbstractGitNode.bind(invokers, method));
+        }
+      }
+    }
+    actionStart[nodeCount] = allActions.size();
+    actions = allActions.toArray(new MethodInvoker[allActions.size()]);
+  }
+
+  /**
+   * Compiles a built tree.
+   *
+   * @param root the root of a tree of {@code GitDecisionNode}s and {@code GitActionNode}s, as
+   *        returned by {@code GitTreeBuilder.build()}
+   * @return the compiled tree
+   * @throws IllegalArgumentException if the tree contains other kinds of nodes
+   */
+  public static CompiledGitTree compile(GitNode root) {
+    Preconditions.checkNotNull(root);
+    List<AbstractGitNode> nodes = Lists.newArrayList();
+    Map<GitNode, Boolean> visited = new IdentityHashMap<GitNode, Boolean>();
+    List<String> outcomes = Lists.newArrayList(DEFAULT_OUTCOME);
+    Map<String, Boolean> knownOutcomes = Maps.newHashMap();
+    knownOutcomes.put(DEFAULT_OUTCOME, true);
+
+    nodes.add(checkNode(root));
+    visited.put(root, true);
+    for (int i = 0; i < nodes.size(); i++) {
+      if (nodes.get(i) instanceof GitDecisionNode) {
+        Map<String, GitNode> children = ((GitDecisionNode) nodes.get(i)).getChildren();
+        for (Map.Entry<String, GitNode> child : children.entrySet()) {
+          if (knownOutcomes.put(child.getKey(), true) == null) {
+            outcomes.add(child.getKey());
+          }
+          if (visited.put(child.getValue(), true) == null) {
+            nodes.add(checkNode(child.getValue()));
+          }
+        }
+      }
+    }
+    return new CompiledGitTree(root, nodes, outcomes, Maps.<Method, MethodInvoker>newHashMap());
+  }
+
+  private static AbstractGitNode checkNode(GitNode node) {
+    Preconditions.checkArgument(node instanceof GitDecisionNode || node instanceof GitActionNode,
+        "Cannot compile node of type " + node.getClass().getName());
+    return (AbstractGitNode) node;
+  }
+
+  public int getNodeCount() {
+    return nodeIds.length;
+  }
+
+  /**
+   * @return the child keys of the tree, by outcome ordinal
+   */
+  public List<String> getOutcomes() {
+    return outcomes;
+  }
+
+  @Override
+  public void execute(Object request) {
+    Preconditions.checkNotNull(request);
+    if (!requestClass.isInstance(request)) {
+      String msg = "Illegal Tree Statues: GitNode [" + nodeIds[0] + "] expects parameter type ["
+          + requestClass.getName() + "], but actually it get [" + request.getClass().getName()
+          + "].";
+      log.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    prefetchers.run(request);
+    GitTrace trace = GitTracer.start(nodeIds[0]);
+    try {
+      execute(0, request, Budgets.deadline(requestBudgetNanos));
+    } finally {
+      GitTracer.finish(trace);
+    }
+  }
+
+  private void execute(int node, Object request, long deadline) {
+    while (evaluators[node] != null) {
+      node = findChild(node, request, deadline);
+    }
+    long start = System.nanoTime();
+    Object actionObject = actionObjects[node];
+    for (int i = actionStart[node]; i < actionStart[node + 1]; i++) {
+      try {
+        actions[i].invoke(actionObject, request);
+      } catch (Throwable e) {
+        log.severe(e.getMessage());
+      }
+    }
+    stats[node].recordLeaf(System.nanoTime() - start);
+  }
+
+  private int findChild(int node, Object request, long deadline) {
+    Object result = null;
+    long start = System.nanoTime();
+    long timeout = Budgets.timeout(budgetNanos[node], deadline);
+    try {
+      if (timeout == Budgets.NONE) {
+        result = evaluators[node].invoke(evaluatorObjects[node], request);
+      } else if (timeout > 0) {
+        result = Budgets.await(timedEvaluators[node].invoke(evaluatorObjects[node], request),
+            timeout, request);
+      } else {
+        result = Budgets.TIMED_OUT;
+      }
+    } catch (Throwable e) {
+      log.severe("Failed to evaluate node: " + e.getMessage());
+    }
+    int child = NONE;
+    GitOutcome outcome;
+    if (result == Budgets.TIMED_OUT) {
+      log.warning("GitNode [" + nodeIds[node] + "] ran out of its time budget.");
+      stats[node].recordTimeout();
+      outcome = fallbacks[node];
+    } else {
+      outcome = GitOutcome.fromResult(result);
+    }
+    stats[node].recordDecision(outcome == null ? NONE : outcome.getId(), System.nanoTime() - start);
+    int ordinal = ordinalOf(outcome);
+    if (ordinal != NONE) {
+      child = children[node * outcomeCount + ordinal];
+    }
+    if (child == NONE) {
+      child = children[node * outcomeCount];
+    }
+    if (child == NONE) {
+      String msg = "Illegal Tree Statues: GitNode [" + nodeIds[node]
+          + "] return an unknown value [" + result + "].";
+      log.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    return child;
+  }
+
+  private int ordinalOf(GitOutcome outcome) {
+    // The outcomes registered after this tree was compiled are not used by it.
+    if (outcome == null || outcome.getId() >= ordinalsById.length) {
+      return NONE;
+    }
+    return ordinalsById[outcome.getId()];
+  }
+
+  /**
+   * Executes the source tree asynchronously, see {@code AsyncGitNode}. The walk of the built nodes
+   * is used, since it may be suspended and resumed in another thread.
+   */
+  @Override
+  public ListenableFuture<Void> executeAsync(Object request) {
+    return ((AsyncGitNode) source).executeAsync(request);
+  }
+
+  @Override
+  public void appendToRuleList(List<GitRule> rules, String parentId, String parentValue) {
+    source.appendToRuleList(rules, parentId, parentValue);
+  }
+}
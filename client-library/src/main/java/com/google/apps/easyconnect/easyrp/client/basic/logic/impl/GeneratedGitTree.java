@@ -0,0 +1,445 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNodeStats;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitOutcome;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTrace;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTracer;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.ClassFileWriter.Code;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.ClassFileWriter.Label;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A built tree of {@code GitDecisionNode}s and {@code GitActionNode}s, generated into the bytecode
+ * of a single class.
+ * <p>
+ * The generated {@code Body} is the tree written as straight-line code: each decision node calls
+ * its evaluator directly, compares the id of the resulting {@code GitOutcome} with the ids of its
+ * children and jumps to the matching one, and each leaf calls its actions in a row. What is left
+ * of the per-node cost is the same as in the other backends: the result is still converted by
+ * {@code GitOutcome.fromResult}, and each node still reads {@code System.nanoTime()} before and
+ * after it for its stats. The behavior is the one of the source tree: an evaluator which fails
+ * or returns an unknown key selects the {@code DEFAULT} child, and a failing action is logged and
+ * does not stop the following ones. The traffic and latency are recorded into the
+ * {@code GitNodeStats} of the source nodes.
+ * <p>
+ * A tree can only be generated when it uses a single evaluator object and a single action object
+ * (as built by {@code GitTreeBuilder}), whose methods are public and declared by public classes,
+ * without time budgets, and when classes can be defined at runtime. Otherwise {@code generate}
+ * returns the tree compiled by {@code CompiledGitTree}.
+ */
+public final class GeneratedGitTree implements AsyncGitNode {
+  private static final Logger log = Logger.getLogger(GeneratedGitTree.class.getName());
+  private static final String GENERATED_NAME = GeneratedGitTree.class.getPackage().getName()
+      .replace('.', '/') + "/GeneratedTree$";
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  // The locals of Body.execute.
+  private static final int EVALUATOR_LOCAL = 1;
+  private static final int ACTION_LOCAL = 2;
+  private static final int REQUEST_LOCAL = 3;
+  private static final int STATS_LOCAL = 4;
+  private static final int RESULT_LOCAL = 5;
+  private static final int OUTCOME_LOCAL = 6;
+  // A long, taking two locals.
+  private static final int START_LOCAL = 7;
+
+  /**
+   * The generated code of a tree.
+   */
+  public interface Body {
+    void execute(Object evaluatorObject, Object actionObject, Object request,
+        GitNodeStats[] stats);
+  }
+
+  private final AbstractGitNode source;
+  private final Class<?> requestClass;
+  private final Object evaluatorObject;
+  private final Object actionObject;
+  private final Body body;
+  // The stats of the source nodes, in the order of the generated blocks.
+  private final GitNodeStats[] stats;
+
+  private GeneratedGitTree(AbstractGitNode source, Class<?> requestClass, Object evaluatorObject,
+      Object actionObject, Body body, GitNodeStats[] stats) {
+    this.source = source;
+    this.requestClass = requestClass;
+    this.evaluatorObject = evaluatorObject;
+    this.actionObject = actionObject;
+    this.body = body;
+    this.stats = stats;
+  }
+
+  /**
+   * Generates the class of a built tree.
+   *
+   * @param root the root of a tree of {@code GitDecisionNode}s and {@code GitActionNode}s, as
+   *        returned by {@code GitTreeBuilder.build()}
+   * @return the generated tree, or the tree compiled by {@code CompiledGitTree} if it cannot be
+   *         generated
+   * @throws IllegalArgumentException if the tree contains other kinds of nodes
+   */
+  public static GitNode generate(GitNode root) {
+    Preconditions.checkNotNull(root);
+    try {
+      GitNode generated = tryGenerate(root);
+      if (generated != null) {
+        return generated;
+      }
+    } catch (LinkageError e) {
+      log.warning("Failed to generate tree, falling back to the compiled tree: " + e);
+    } catch (SecurityException e) {
+      log.warning("Failed to generate tree, falling back to the compiled tree: " + e);
+    } catch (IllegalStateException e) {
+      log.warning("Failed to generate tree, falling back to the compiled tree: " + e);
+    }
+    return CompiledGitTree.compile(root);
+  }
+
+  private static GitNode tryGenerate(GitNode root) {
+    if (!(root instanceof GitDecisionNode)) {
+      return null;
+    }
+    GitDecisionNode start = (GitDecisionNode) root;
+    Object evaluatorObject = start.getEvaluatorObject();
+    Object actionObject = null;
+    Set<Class<?>> referenced = new LinkedHashSet<Class<?>>();
+    referenced.add(GeneratedGitTree.class);
+    referenced.add(Body.class);
+    referenced.add(GitNodeStats.class);
+
+    if (start.getRequestBudgetNanos() != Budgets.NONE) {
+      log.info("Cannot generate a tree with time budgets");
+      return null;
+    }
+    // Checks the tree, and finds the objects and classes used by the generated code.
+    List<GitNode> nodes = Lists.newArrayList(root);
+    Set<GitNode> visited = Sets.newSetFromMap(new IdentityHashMap<GitNode, Boolean>());
+    visited.add(root);
+    for (int i = 0; i < nodes.size(); i++) {
+      GitNode node = nodes.get(i);
+      if (node instanceof GitDecisionNode) {
+        GitDecisionNode decision = (GitDecisionNode) node;
+        Method evaluator = decision.getEvaluator();
+        if (decision.getBudgetNanos() != Budgets.NONE) {
+          log.info("Cannot generate a tree with time budgets");
+          return null;
+        }
+        if (decision.getEvaluatorObject() != evaluatorObject
+            || evaluator.getReturnType() == void.class || !canCall(evaluator, referenced)) {
+          log.info("Cannot generate evaluator " + evaluator);
+          return null;
+        }
+        for (GitNode child : decision.getChildren().values()) {
+          if (visited.add(child)) {
+            nodes.add(child);
+          }
+        }
+      } else if (node instanceof GitActionNode) {
+        GitActionNode leaf = (GitActionNode) node;
+        if (actionObject == null) {
+          actionObject = leaf.getActionObject();
+        }
+        if (leaf.getActionObject() != actionObject) {
+          log.info("Cannot generate a tree with several action objects");
+          return null;
+        }
+        for (Method action : leaf.getActionMethods()) {
+          if (!canCall(action, referenced)) {
+            log.info("Cannot generate action " + action);
+            return null;
+          }
+        }
+      } else {
+        throw new IllegalArgumentException("Cannot generate node of type "
+            + node.getClass().getName());
+      }
+    }
+
+    String name = GENERATED_NAME + counter.incrementAndGet();
+    byte[] bytes = new Generator(name, nodes).generate();
+    Class<?> klass = MethodInvokers.defineClass(name, bytes,
+        referenced.toArray(new Class<?>[referenced.size()]));
+    if (klass == null) {
+      log.info("No class loader sees all the classes of tree " + start.getId());
+      return null;
+    }
+    GitNodeStats[] stats = new GitNodeStats[nodes.size()];
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = ((AbstractGitNode) nodes.get(i)).getStats();
+    }
+    try {
+      return new GeneratedGitTree(start, start.getRequestClass(), evaluatorObject, actionObject,
+          (Body) klass.newInstance(), stats);
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean canCall(Method method, Set<Class<?>> referenced) {
+    if (!MethodInvokers.canGenerate(method)) {
+      return false;
+    }
+    referenced.add(method.getDeclaringClass());
+    referenced.add(method.getParameterTypes()[0]);
+    return true;
+  }
+
+  @Override
+  public void execute(Object request) {
+    Preconditions.checkNotNull(request);
+    if (!requestClass.isInstance(request)) {
+      String msg = "Illegal Tree Statues: GitNode [" + source.getId() + "] expects parameter type ["
+          + requestClass.getName() + "], but actually it get [" + request.getClass().getName()
+          + "].";
+      log.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    ((GitDecisionNode) source).getPrefetchers().run(request);
+    GitTrace trace = GitTracer.start(source.getId());
+    try {
+      body.execute(evaluatorObject, actionObject, request, stats);
+    } finally {
+      GitTracer.finish(trace);
+    }
+  }
+
+  /**
+   * Executes the source tree asynchronously, see {@code AsyncGitNode}. The walk of the built nodes
+   * is used, since it may be suspended and resumed in another thread.
+   */
+  @Override
+  public ListenableFuture<Void> executeAsync(Object request) {
+    return ((AsyncGitNode) source).executeAsync(request);
+  }
+
+  @Override
+  public void appendToRuleList(List<GitRule> rules, String parentId, String parentValue) {
+    source.appendToRuleList(rules, parentId, parentValue);
+  }
+
+  /**
+   * Called by the generated code to convert the result of an evaluator.
+   *
+   * @param result the result of the evaluator, may be null
+   * @return the id of the {@code GitOutcome} of the result, or -1 if there is none
+   */
+  public static int outcomeId(Object result) {
+    GitOutcome outcome = GitOutcome.fromResult(result);
+    return outcome == null ? -1 : outcome.getId();
+  }
+
+  /**
+   * Called by the generated code after an evaluator.
+   *
+   * @param stats the stats of the nodes
+   * @param node the index of the decision node
+   * @param outcomeId the id of the {@code GitOutcome} of the result, or -1 if there is none
+   * @param start the {@code System.nanoTime()} before the evaluator was called
+   */
+  public static void recordDecision(GitNodeStats[] stats, int node, int outcomeId, long start) {
+    stats[node].recordDecision(outcomeId, System.nanoTime() - start);
+  }
+
+  /**
+   * Called by the generated code after the actions of a leaf.
+   *
+   * @param stats the stats of the nodes
+   * @param node the index of the leaf
+   * @param start the {@code System.nanoTime()} before the first action was called
+   */
+  public static void recordLeaf(GitNodeStats[] stats, int node, long start) {
+    stats[node].recordLeaf(System.nanoTime() - start);
+  }
+
+  /**
+   * Called by the generated code when an evaluator throws.
+   */
+  public static void evaluationFailed(Throwable e) {
+    log.severe("Failed to evaluate node: " + e.getMessage());
+  }
+
+  /**
+   * Called by the generated code when an action throws.
+   */
+  public static void actionFailed(Throwable e) {
+    log.severe(e.getMessage());
+  }
+
+  /**
+   * Called by the generated code when no child matches the result of an evaluator.
+   *
+   * @throws IllegalStateException always
+   */
+  public static void unknownValue(String evaluatorName, Object result) {
+    String msg = "Illegal Tree Statues: GitNode [" + evaluatorName + "] return an unknown value ["
+        + result + "].";
+    log.severe(msg);
+    throw new IllegalStateException(msg);
+  }
+
+  /**
+   * Writes the class of a tree. The code of {@code Body.execute} has one block per node, each
+   * ending with a jump to a child or a return.
+   */
+  private static final class Generator {
+    private final ClassFileWriter writer;
+    private final List<GitNode> nodes;
+    private final Map<GitNode, Label> labels = new IdentityHashMap<GitNode, Label>();
+    private final String helpers = ClassFileWriter.internalName(GeneratedGitTree.class);
+
+    Generator(String name, List<GitNode> nodes) {
+      this.writer = new ClassFileWriter(name, "java/lang/Object",
+          ClassFileWriter.internalName(Body.class));
+      this.nodes = nodes;
+      for (GitNode node : nodes) {
+        labels.put(node, new Label());
+      }
+    }
+
+    byte[] generate() {
+      writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", new Code(1, 1)
+          .op(Code.ALOAD_0)
+          .invokeSpecial(writer.methodRef("java/lang/Object", "<init>", "()V"))
+          .op(Code.RETURN));
+      Code code = new Code(5, START_LOCAL + 2);
+      for (int i = 0; i < nodes.size(); i++) {
+        GitNode node = nodes.get(i);
+        code.mark(labels.get(node));
+        code.invokeStatic(writer.methodRef("java/lang/System", "nanoTime", "()J"))
+            .lstore(START_LOCAL);
+        if (node instanceof GitDecisionNode) {
+          writeDecision(code, (GitDecisionNode) node, i);
+        } else {
+          writeLeaf(code, (GitActionNode) node, i);
+        }
+      }
+      writer.addMethod(ClassFileWriter.ACC_PUBLIC, "execute",
+          ClassFileWriter.methodDescriptor(void.class, Object.class, Object.class, Object.class,
+              GitNodeStats[].class),
+          code);
+      return writer.toByteArray();
+    }
+
+    private void writeDecision(Code code, GitDecisionNode node, int index) {
+      Label start = new Label();
+      Label end = new Label();
+      Label handler = new Label();
+      Label dispatch = new Label();
+      code.mark(start);
+      writeCall(code, node.getEvaluator(), EVALUATOR_LOCAL);
+      code.astore(RESULT_LOCAL).mark(end).goTo(dispatch);
+      code.mark(handler)
+          .invokeStatic(helper("evaluationFailed", void.class, Throwable.class))
+          .op(Code.ACONST_NULL).astore(RESULT_LOCAL);
+      code.tryCatch(start, end, handler, writer.classRef("java/lang/Throwable"));
+
+      code.mark(dispatch).aload(RESULT_LOCAL)
+          .invokeStatic(helper("outcomeId", int.class, Object.class))
+          .istore(OUTCOME_LOCAL);
+      code.aload(STATS_LOCAL).ldc(writer.integer(index)).iload(OUTCOME_LOCAL).lload(START_LOCAL)
+          .invokeStatic(helper("recordDecision", void.class, GitNodeStats[].class, int.class,
+              int.class, long.class));
+      GitNode defaultChild = null;
+      for (Map.Entry<String, GitNode> child : node.getChildren().entrySet()) {
+        GitOutcome outcome = GitOutcome.of(child.getKey());
+        if (outcome == GitOutcome.DEFAULT) {
+          defaultChild = child.getValue();
+        } else {
+          code.iload(OUTCOME_LOCAL).ldc(writer.integer(outcome.getId()))
+              .ifIcmpeq(labels.get(child.getValue()));
+        }
+      }
+      if (defaultChild != null) {
+        code.goTo(labels.get(defaultChild));
+      } else {
+        code.ldc(writer.string(node.getEvaluator().getName())).aload(RESULT_LOCAL)
+            .invokeStatic(helper("unknownValue", void.class, String.class, Object.class))
+            .op(Code.RETURN);
+      }
+    }
+
+    private void writeLeaf(Code code, GitActionNode node, int index) {
+      for (Method action : node.getActionMethods()) {
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        Label next = new Label();
+        code.mark(start);
+        writeCall(code, action, ACTION_LOCAL);
+        if (action.getReturnType() != void.class) {
+          code.op(Code.POP);
+        }
+        code.mark(end).goTo(next);
+        code.mark(handler).invokeStatic(helper("actionFailed", void.class, Throwable.class));
+        code.tryCatch(start, end, handler, writer.classRef("java/lang/Throwable"));
+        code.mark(next);
+      }
+      code.aload(STATS_LOCAL).ldc(writer.integer(index)).lload(START_LOCAL)
+          .invokeStatic(helper("recordLeaf", void.class, GitNodeStats[].class, int.class,
+              long.class));
+      code.op(Code.RETURN);
+    }
+
+    /**
+     * Calls a method with the request, leaving its result on the stack.
+     */
+    private void writeCall(Code code, Method method, int targetLocal) {
+      Class<?> owner = method.getDeclaringClass();
+      Class<?> parameterType = method.getParameterTypes()[0];
+      String ownerName = ClassFileWriter.internalName(owner);
+      String descriptor = ClassFileWriter.methodDescriptor(method.getReturnType(), parameterType);
+      boolean isStatic = Modifier.isStatic(method.getModifiers());
+      if (!isStatic) {
+        code.aload(targetLocal).checkcast(writer.classRef(ownerName));
+      }
+      code.aload(REQUEST_LOCAL)
+          .checkcast(writer.classRef(ClassFileWriter.internalName(parameterType)));
+      if (isStatic) {
+        code.invokeStatic(writer.methodRef(ownerName, method.getName(), descriptor));
+      } else if (owner.isInterface()) {
+        code.invokeInterface(writer.interfaceMethodRef(ownerName, method.getName(), descriptor),
+            2);
+      } else {
+        code.invokeVirtual(writer.methodRef(ownerName, method.getName(), descriptor));
+      }
+    }
+
+    private int helper(String name, Class<?> returnType, Class<?>... parameterTypes) {
+      return writer.methodRef(helpers, name,
+          ClassFileWriter.methodDescriptor(returnType, parameterTypes));
+    }
+  }
+}
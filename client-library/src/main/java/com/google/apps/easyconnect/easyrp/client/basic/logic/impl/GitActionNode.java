@@ -15,21 +15,25 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
-public class GitActionNode extends AbstractGitNode {
+public class GitActionNode extends AbstractGitNode implements AsyncGitNode {
   private static final Logger log = Logger.getLogger(GitActionNode.class.getName());
   private Object actionObject;
   private List<String> actions = Lists.newArrayList();
   private List<Method> methods = Lists.newArrayList();
+  private MethodInvoker[] invokers = new MethodInvoker[0];
 
   public GitActionNode(String id, Class<?> requestClass, Object actionObject) {
     super(id, true, requestClass);
@@ -50,6 +54,10 @@ public class GitActionNode extends AbstractGitNode {
     }
     actions.add(action);
     methods.add(actionMethod);
+    MethodInvoker[] newInvokers = new MethodInvoker[invokers.length + 1];
+    System.arraycopy(invokers, 0, newInvokers, 0, invokers.length);
+    newInvokers[invokers.length] = MethodInvokers.reflective(actionMethod);
+    this.invokers = newInvokers;
   }
 
   public void addActions(String[] actions) {
@@ -62,25 +70,47 @@ public class GitActionNode extends AbstractGitNode {
     return Collections.unmodifiableList(this.actions);
   }
 
+  Object getActionObject() {
+    return actionObject;
+  }
+
+  List<Method> getActionMethods() {
+    return Collections.unmodifiableList(methods);
+  }
+
+  @Override
+  void bindInvokers(Map<Method, MethodInvoker> bound) {
+    MethodInvoker[] newInvokers = new MethodInvoker[methods.size()];
+    for (int i = 0; i < newInvokers.length; i++) {
+      newInvokers[i] = bind(bound, methods.get(i));
+    }
+    this.invokers = newInvokers;
+  }
+
   @Override
   public void execute(Object request) {
-    for (int i = 0; i < methods.size(); i++) {
+    long start = System.nanoTime();
+    MethodInvoker[] invokers = this.invokers;
+    for (int i = 0; i < invokers.length; i++) {
       try {
-        methods.get(i).invoke(actionObject, request);
-      } catch (IllegalArgumentException e) {
-        log.severe(e.getMessage());
-      } catch (IllegalAccessException e) {
-        log.severe(e.getMessage());
-      } catch (InvocationTargetException e) {
+        invokers[i].invoke(actionObject, request);
+      } catch (Throwable e) {
         log.severe(e.getMessage());
       }
     }
+    getStats().recordLeaf(System.nanoTime() - start);
+  }
+
+  @Override
+  public ListenableFuture<Void> executeAsync(Object request) {
+    execute(request);
+    return Futures.immediateFuture(null);
   }
 
   @Override
   public void appendToRuleList(List<GitRule> rules, String parentId, String parentValue) {
     String[] actionNames = new String[actions.size()];
-    rules
-        .add(new GitRule(getId(), parentId, parentValue, true, null, actions.toArray(actionNames)));
+    rules.add(new GitRule(getId(), parentId, parentValue, true, null,
+        actions.toArray(actionNames), getStats()));
   }
 }
@@ -15,26 +15,50 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitOutcome;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTrace;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTracer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
 
-public class GitDecisionNode extends AbstractGitNode {
+public class GitDecisionNode extends AbstractGitNode implements AsyncGitNode {
   private static final Logger log = Logger.getLogger(GitDecisionNode.class.getName());
   private static final String DEFAULT_CHILD_KEY = "DEFAULT";
 
   private Object evaluatorObject;
   private Method evaluator;
+  private MethodInvoker invoker;
+  // The twin of the evaluator returning a future, used by executeAsync; null if there is none.
+  private Method asyncEvaluator;
+  private MethodInvoker asyncInvoker;
   private Map<String, GitNode> children = Maps.newHashMap();
+  private Map<GitOutcome, GitNode> outcomeChildren = new IdentityHashMap<GitOutcome, GitNode>();
+  // Set on the root only, see GitTreeBuilder.build().
+  private Prefetchers prefetchers = Prefetchers.NONE;
+  // The time budget of the evaluator and the outcome taken when it is spent, see Budgets.
+  private long budgetMillis;
+  private long budgetNanos = Budgets.NONE;
+  private GitOutcome fallback = GitOutcome.DEFAULT;
+  // Set on the root only.
+  private long requestBudgetMillis;
+  private long requestBudgetNanos = Budgets.NONE;
 
   public GitDecisionNode(String id, Class<?> requestClass, Object evaluatorObject,
       String evaluatorMethod) {
@@ -49,21 +73,27 @@ public class GitDecisionNode extends AbstractGitNode {
       throw new IllegalStateException(msg);
     }
     this.evaluatorObject = evaluatorObject;
+    this.invoker = MethodInvokers.reflective(evaluator);
+    if (!ListenableFuture.class.isAssignableFrom(evaluator.getReturnType())) {
+      Method twin = ClassUtil.getMethod(evaluatorObject.getClass(), evaluatorMethod + "Async",
+          requestClass);
+      if (twin != null && ListenableFuture.class.isAssignableFrom(twin.getReturnType())) {
+        this.asyncEvaluator = twin;
+        this.asyncInvoker = MethodInvokers.reflective(twin);
+      }
+    }
   }
 
   public static String formatKey(String key) {
-    Preconditions.checkNotNull(key);
-    if (DEFAULT_CHILD_KEY.equalsIgnoreCase(key)) {
-      return DEFAULT_CHILD_KEY;
-    } else {
-      return key.toLowerCase();
-    }
+    return GitOutcome.formatKey(key);
   }
 
   public void addChild(String key, GitNode node) {
     Preconditions.checkNotNull(key);
     Preconditions.checkNotNull(node);
     children.put(formatKey(key), node);
+    outcomeChildren.put(GitOutcome.of(key), node);
+    getStats().addEdge(GitOutcome.of(key));
   }
 
   public boolean hasChild(String key) {
@@ -72,6 +102,8 @@ public class GitDecisionNode extends AbstractGitNode {
 
   public void addDefaultChild(GitNode node) {
     children.put(DEFAULT_CHILD_KEY, node);
+    outcomeChildren.put(GitOutcome.DEFAULT, node);
+    getStats().addEdge(GitOutcome.DEFAULT);
   }
 
   public boolean hasChildren() {
@@ -82,30 +114,161 @@ public class GitDecisionNode extends AbstractGitNode {
     return children.values().iterator();
   }
 
+  Object getEvaluatorObject() {
+    return evaluatorObject;
+  }
+
+  Method getEvaluator() {
+    return evaluator;
+  }
+
+  /**
+   * @return the evaluator called when the node has a time budget: its twin returning a future if
+   *         there is one, see {@code evaluateAsync}
+   */
+  Method getTimedEvaluator() {
+    return asyncEvaluator != null ? asyncEvaluator : evaluator;
+  }
+
+  /**
+   * @return whether the evaluator can be stopped waiting for, so a time budget applies to it
+   */
+  boolean hasTimedEvaluator() {
+    return Future.class.isAssignableFrom(getTimedEvaluator().getReturnType());
+  }
+
+  Prefetchers getPrefetchers() {
+    return prefetchers;
+  }
+
+  void setPrefetchers(Prefetchers prefetchers) {
+    this.prefetchers = prefetchers;
+  }
+
+  /**
+   * Limits the time the evaluator may take, see {@code GitTreeBuilder.budget}.
+   */
+  void setBudget(long millis, String fallbackKey) {
+    Preconditions.checkArgument(millis > 0, "The budget must be positive.");
+    this.budgetMillis = millis;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    this.fallback = GitOutcome.of(fallbackKey);
+  }
+
+  /**
+   * @return the budget of the evaluator in nanoseconds, or {@code Budgets.NONE}
+   */
+  long getBudgetNanos() {
+    return budgetNanos;
+  }
+
+  GitOutcome getFallback() {
+    return fallback;
+  }
+
+  /**
+   * Limits the time of the requests entering the tree at this node, see
+   * {@code GitTreeBuilder.requestBudget}.
+   */
+  void setRequestBudget(long millis) {
+    Preconditions.checkArgument(millis > 0, "The budget must be positive.");
+    this.requestBudgetMillis = millis;
+    this.requestBudgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * @return the budget of a request in nanoseconds, or {@code Budgets.NONE}
+   */
+  long getRequestBudgetNanos() {
+    return requestBudgetNanos;
+  }
+
+  /**
+   * @return whether a child is taken when the evaluator runs out of its budget
+   */
+  boolean hasFallbackChild() {
+    return outcomeChildren.containsKey(fallback) || outcomeChildren.containsKey(GitOutcome.DEFAULT);
+  }
+
+  /**
+   * @return the children by their formatted keys, see {@code formatKey}
+   */
+  Map<String, GitNode> getChildren() {
+    return Collections.unmodifiableMap(children);
+  }
+
   @VisibleForTesting
   GitNode findChild(Object request) {
-    String key = null;
-    GitNode child = null;
+    return findChild(request, Budgets.NONE);
+  }
+
+  /**
+   * @param deadline the deadline of the request, see {@code Budgets}
+   */
+  private GitNode findChild(Object request, long deadline) {
+    long start = System.nanoTime();
+    long timeout = Budgets.timeout(budgetNanos, deadline);
+    if (timeout == Budgets.NONE) {
+      return selectChild(evaluate(request), start);
+    }
+    Object result = timeout <= 0 ? Budgets.TIMED_OUT : evaluateAsync(request);
+    return selectChild(Budgets.await(result, timeout, request), start);
+  }
+
+  /**
+   * @return the result of the evaluator, or null if it failed
+   */
+  private Object evaluate(Object request) {
     try {
-      key = (String) evaluator.invoke(evaluatorObject, request);
-    } catch (IllegalArgumentException e) {
+      return invoker.invoke(evaluatorObject, request);
+    } catch (Throwable e) {
       log.severe("Failed to evaluate node: " + e.getMessage());
-    } catch (IllegalAccessException e) {
-      log.severe("Failed to evaluate node: " + e.getMessage());
-    } catch (InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Same as {@code evaluate}, but calls the twin of the evaluator returning a future if there is
+   * one, e.g. {@code checkDomainTypeAsync} for {@code checkDomainType}.
+   */
+  private Object evaluateAsync(Object request) {
+    if (asyncInvoker == null) {
+      return evaluate(request);
+    }
+    try {
+      return asyncInvoker.invoke(evaluatorObject, request);
+    } catch (Throwable e) {
       log.severe("Failed to evaluate node: " + e.getMessage());
+      return null;
     }
-    if (key != null) {
-      child = this.children.get(formatKey(key));
-      if (child == null) {
-        child = this.children.get(DEFAULT_CHILD_KEY);
-      }
+  }
+
+  /**
+   * Selects the child of the result of the evaluator, waiting for it if it is a future.
+   *
+   * @param start the {@code System.nanoTime()} before the evaluator was called
+   */
+  private GitNode selectChild(Object result, long start) {
+    GitNode child = null;
+    GitOutcome outcome;
+    if (result == Budgets.TIMED_OUT) {
+      log.warning("GitNode [" + getId() + "] ran out of its time budget.");
+      getStats().recordTimeout();
+      outcome = fallback;
     } else {
-      child = this.children.get(DEFAULT_CHILD_KEY);
+      result = GitOutcome.resolve(result);
+      outcome = GitOutcome.fromResult(result);
+    }
+    getStats().recordDecision(outcome == null ? -1 : outcome.getId(), System.nanoTime() - start);
+    if (outcome != null) {
+      child = this.outcomeChildren.get(outcome);
+    }
+    if (child == null) {
+      child = this.outcomeChildren.get(GitOutcome.DEFAULT);
     }
     if (child == null) {
       String msg = "Illegal Tree Statues: GitNode [" + this.evaluator.getName()
-          + "] return an unknown value [" + key + "].";
+          + "] return an unknown value [" + result + "].";
       log.severe(msg);
       throw new IllegalStateException(msg);
     }
@@ -113,7 +276,14 @@ public class GitDecisionNode extends AbstractGitNode {
   }
 
   @Override
-  public void execute(Object request) {
+  void bindInvokers(Map<Method, MethodInvoker> invokers) {
+    this.invoker = bind(invokers, evaluator);
+    if (asyncEvaluator != null) {
+      this.asyncInvoker = bind(invokers, asyncEvaluator);
+    }
+  }
+
+  private void checkRequest(Object request) {
     Preconditions.checkNotNull(request);
     if (!this.getRequestClass().isInstance(request)) {
       String msg = "Illegal Tree Statues: GitNode [" + this.evaluator.getName()
@@ -122,12 +292,195 @@ public class GitDecisionNode extends AbstractGitNode {
       log.severe(msg);
       throw new IllegalStateException(msg);
     }
-    findChild(request).execute(request);
+  }
+
+  @Override
+  public void execute(Object request) {
+    checkRequest(request);
+    prefetchers.run(request);
+    GitTrace trace = GitTracer.start(getId());
+    try {
+      long deadline = Budgets.deadline(requestBudgetNanos);
+      GitNode node = this;
+      while (node instanceof GitDecisionNode) {
+        node = ((GitDecisionNode) node).findChild(request, deadline);
+      }
+      node.execute(request);
+    } finally {
+      GitTracer.finish(trace);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Void> executeAsync(Object request) {
+    checkRequest(request);
+    prefetchers.run(request);
+    Walk done = new Walk();
+    walk(this, request, done, GitTracer.start(getId()), Budgets.deadline(requestBudgetNanos));
+    return done;
+  }
+
+  /**
+   * Walks the tree from a node, until an evaluator returns a future which is not done yet, the
+   * walk resuming when it completes, or until the actions of a leaf are executed. The evaluators
+   * with a twin returning a future are called through it, see {@code evaluateAsync}. A future not
+   * done within the budget of its node resumes the walk with the fallback child. A cancelled walk
+   * stops before its next evaluator, or before the actions of its leaf.
+   */
+  private static void walk(GitNode node, Object request, Walk done, GitTrace trace,
+      long deadline) {
+    try {
+      while (node instanceof GitDecisionNode) {
+        if (done.isCancelled()) {
+          stop(trace);
+          return;
+        }
+        GitDecisionNode decision = (GitDecisionNode) node;
+        long start = System.nanoTime();
+        long timeout = Budgets.timeout(decision.budgetNanos, deadline);
+        Object result;
+        if (timeout == Budgets.NONE) {
+          result = decision.evaluateAsync(request);
+        } else {
+          result = timeout <= 0 ? Budgets.TIMED_OUT : decision.evaluateAsync(request);
+          if (result instanceof Future<?> && !(result instanceof ListenableFuture<?>)) {
+            result = Budgets.await(result, timeout, request);
+          }
+        }
+        if (result instanceof ListenableFuture<?> && !((ListenableFuture<?>) result).isDone()) {
+          GitTracer.suspend(trace);
+          Resume resume = new Resume(decision, result, start, request, done, trace, deadline);
+          if (timeout != Budgets.NONE) {
+            resume.timer = Budgets.schedule(resume.timeout(), timeout);
+          }
+          ((ListenableFuture<?>) result).addListener(resume, Budgets.RESUME);
+          return;
+        }
+        node = decision.selectChild(result, start);
+      }
+      if (!done.startActions()) {
+        stop(trace);
+        return;
+      }
+      node.execute(request);
+      GitTracer.finish(trace);
+      done.set(null);
+    } catch (RuntimeException e) {
+      GitTracer.finish(trace);
+      done.setException(e);
+    }
+  }
+
+  private static void stop(GitTrace trace) {
+    log.fine("The walk was cancelled.");
+    GitTracer.finish(trace);
+  }
+
+  /**
+   * The future of a walk. Once the actions of the leaf have started it can no longer be cancelled,
+   * so a walk either writes the response or is cancelled, never both.
+   */
+  private static final class Walk extends AbstractFuture<Void> {
+    private final AtomicBoolean acting = new AtomicBoolean();
+
+    /**
+     * @return whether the actions may run, false if the walk was cancelled
+     */
+    boolean startActions() {
+      return acting.compareAndSet(false, true);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return acting.compareAndSet(false, true) && super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    protected boolean set(Void value) {
+      return super.set(value);
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+  }
+
+  /**
+   * Resumes a walk when the future returned by an evaluator completes, or when the budget of the
+   * evaluator is spent, whichever comes first.
+   */
+  private static final class Resume implements Runnable {
+    private final GitDecisionNode decision;
+    private final Object result;
+    private final long start;
+    private final Object request;
+    private final Walk done;
+    private final GitTrace trace;
+    private final long deadline;
+    private final AtomicBoolean resumed = new AtomicBoolean();
+    volatile Future<?> timer;
+
+    Resume(GitDecisionNode decision, Object result, long start, Object request,
+        Walk done, GitTrace trace, long deadline) {
+      this.decision = decision;
+      this.result = result;
+      this.start = start;
+      this.request = request;
+      this.done = done;
+      this.trace = trace;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      if (!resumed.compareAndSet(false, true)) {
+        return;
+      }
+      Future<?> timer = this.timer;
+      if (timer != null) {
+        timer.cancel(false);
+      }
+      resume(result);
+    }
+
+    Runnable timeout() {
+      return new Runnable() {
+        @Override
+        public void run() {
+          if (resumed.compareAndSet(false, true)) {
+            // Takes the result if it completed while the timer fired.
+            resume(Budgets.cancel((Future<?>) result, request) ? Budgets.TIMED_OUT : result);
+          }
+        }
+      };
+    }
+
+    private void resume(Object value) {
+      GitTracer.resume(trace);
+      GitNode child;
+      try {
+        child = decision.selectChild(value, start);
+      } catch (RuntimeException e) {
+        GitTracer.finish(trace);
+        done.setException(e);
+        return;
+      }
+      walk(child, request, done, trace, deadline);
+    }
   }
 
   @Override
   public void appendToRuleList(List<GitRule> rules, String parentId, String parentValue) {
-    rules.add(new GitRule(getId(), parentId, parentValue, false, this.evaluator.getName(), null));
+    GitRule rule = new GitRule(getId(), parentId, parentValue, false, this.evaluator.getName(),
+        null, getStats());
+    if (budgetMillis > 0) {
+      rule.setBudget(budgetMillis, fallback.getKey());
+    }
+    if (requestBudgetMillis > 0) {
+      rule.setRequestBudget(requestBudgetMillis);
+    }
+    rules.add(rule);
     Iterator<String> it = this.children.keySet().iterator();
     while (it.hasNext()) {
       String key = it.next();
@@ -15,6 +15,7 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
 
+import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -34,6 +35,7 @@ public class GitTreeBuilder implements GitLogicBuilder {
   private boolean built;
   private Map<String, GitNode> nodes;
   private GitNode root;
+  private long requestBudgetMillis;
 
   public GitTreeBuilder(Class<?> requestClass, Object evaluatorObject, Object actionObject) {
     this.requestClass = requestClass;
@@ -136,6 +138,26 @@ public class GitTreeBuilder implements GitLogicBuilder {
     return this;
   }
 
+  public GitTreeBuilder budget(String id, long millis, String fallback) {
+    checkBuildStatus();
+    Preconditions.checkArgument(nodes.get(id) instanceof GitDecisionNode,
+        "Failed to build tree: node [" + id + "] is not a decision node!");
+    Preconditions.checkArgument(millis > 0, "Failed to build tree: the budget of [" + id
+        + "] must be positive!");
+    GitDecisionNode node = (GitDecisionNode) nodes.get(id);
+    Preconditions.checkArgument(node.hasTimedEvaluator(), "Failed to build tree: the evaluator of ["
+        + id + "] returns no Future and has no Async twin, so its budget cannot apply!");
+    node.setBudget(millis, fallback);
+    return this;
+  }
+
+  public GitTreeBuilder requestBudget(long millis) {
+    checkBuildStatus();
+    Preconditions.checkArgument(millis > 0, "Failed to build tree: the budget must be positive!");
+    this.requestBudgetMillis = millis;
+    return this;
+  }
+
   private void checkNode(GitNode node) {
     if (node instanceof GitDecisionNode) {
       GitDecisionNode decisionNode = (GitDecisionNode) node;
@@ -144,6 +166,13 @@ public class GitTreeBuilder implements GitLogicBuilder {
         log.severe(msg);
         throw new IllegalStateException(msg);
       }
+      if ((decisionNode.getBudgetNanos() != Budgets.NONE || requestBudgetMillis > 0)
+          && !decisionNode.hasFallbackChild()) {
+        String msg = "Failed to build tree: node [" + decisionNode.getId()
+            + "] has a time budget but no fallback child!";
+        log.severe(msg);
+        throw new IllegalStateException(msg);
+      }
       Iterator<GitNode> children = decisionNode.children();
       while (children.hasNext()) {
         checkNode(children.next());
@@ -172,6 +201,17 @@ public class GitTreeBuilder implements GitLogicBuilder {
       log.severe(msg);
       throw new IllegalStateException(msg);
     }
+    // Resolves every evaluator and action once, so executing the tree makes direct calls.
+    Map<Method, MethodInvoker> invokers = Maps.newHashMap();
+    for (GitNode node : nodes.values()) {
+      if (node instanceof AbstractGitNode) {
+        ((AbstractGitNode) node).bindInvokers(invokers);
+      }
+    }
+    ((GitDecisionNode) root).setPrefetchers(Prefetchers.collect(root, invokers));
+    if (requestBudgetMillis > 0) {
+      ((GitDecisionNode) root).setRequestBudget(requestBudgetMillis);
+    }
     this.built = true;
     return root;
   }
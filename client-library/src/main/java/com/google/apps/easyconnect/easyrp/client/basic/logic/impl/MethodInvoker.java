@@ -0,0 +1,35 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+/**
+ * An evaluator or action method of a {@code GitNode}, bound into a directly invocable form. See
+ * {@code MethodInvokers}.
+ */
+public interface MethodInvoker {
+
+  /**
+   * Calls the method.
+   *
+   * @param target the evaluator or action object, ignored for static methods
+   * @param request the request passed as the single parameter
+   * @return the value returned by the method, or null for void methods
+   * @throws Exception the exception thrown by the method, as is; an {@code Error} thrown by the
+   *         method propagates as is too, so the nodes catch {@code Throwable} as they did when
+   *         {@code Method.invoke} wrapped it
+   */
+  Object invoke(Object target, Object request) throws Exception;
+}
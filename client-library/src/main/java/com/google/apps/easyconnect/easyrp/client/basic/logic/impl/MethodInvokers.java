@@ -0,0 +1,286 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.ClassFileWriter.Code;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Binds the evaluator and action methods of the {@code GitNode}s into {@code MethodInvoker}s.
+ * <p>
+ * For a public method of a public class, a small class is generated which casts its arguments and
+ * calls the method directly, as a lambda would on newer JVMs. Each node then makes a monomorphic
+ * call the JIT can inline, without the argument array, the access checks and the exception
+ * wrapping of {@code Method.invoke}. When the method is not accessible, or classes cannot be
+ * defined in this environment, the invoker falls back to reflection.
+ * <p>
+ * The invokers are kept by method for the life of this class, so rebuilding, reloading or
+ * optimizing the trees reuses them instead of generating another class and class loader for each
+ * method. An invoker pins the class loader of its method, so a web application sharing this class
+ * with others, e.g. from the lib directory of the container, must {@code clear} them when it
+ * stops. {@code MethodInvokerBenchmark} compares them with the reflective calls.
+ */
+public final class MethodInvokers {
+  private static final Logger log = Logger.getLogger(MethodInvokers.class.getName());
+  private static final String GENERATED_NAME = MethodInvokers.class.getPackage().getName()
+      .replace('.', '/') + "/GeneratedInvoker$";
+  private static final AtomicInteger counter = new AtomicInteger();
+  private static final ConcurrentMap<Method, MethodInvoker> bound = Maps.newConcurrentMap();
+
+  private MethodInvokers() {
+  }
+
+  /**
+   * Binds a method, generating a direct invoker if possible. A method is bound once, the later
+   * calls returning the same invoker.
+   *
+   * @param method a method with a single reference parameter
+   * @return the invoker
+   */
+  public static MethodInvoker bind(Method method) {
+    checkMethod(method);
+    MethodInvoker invoker = bound.get(method);
+    if (invoker == null) {
+      // Racing callers may each generate one, all but the first being dropped.
+      invoker = newInvoker(method);
+      MethodInvoker existing = bound.putIfAbsent(method, invoker);
+      if (existing != null) {
+        invoker = existing;
+      }
+    }
+    return invoker;
+  }
+
+  /**
+   * Forgets the invokers bound so far, so the classes of their methods can be unloaded. The trees
+   * built already keep their invokers; the methods bound later get new ones.
+   */
+  public static void clear() {
+    bound.clear();
+  }
+
+  private static MethodInvoker newInvoker(Method method) {
+    if (canGenerate(method)) {
+      try {
+        return generate(method);
+      } catch (LinkageError e) {
+        log.fine("Falling back to reflection for " + method + ": " + e);
+      } catch (SecurityException e) {
+        log.fine("Falling back to reflection for " + method + ": " + e);
+      }
+    }
+    return reflective(method);
+  }
+
+  /**
+   * Binds a method through reflection.
+   *
+   * @param method a method with a single reference parameter
+   * @return the invoker
+   */
+  public static MethodInvoker reflective(Method method) {
+    checkMethod(method);
+    return new ReflectiveInvoker(method);
+  }
+
+  private static void checkMethod(Method method) {
+    Preconditions.checkNotNull(method);
+    Preconditions.checkArgument(method.getParameterTypes().length == 1
+        && !method.getParameterTypes()[0].isPrimitive(), "Expected a single reference parameter: "
+        + method);
+  }
+
+  /**
+   * @return whether a generated class can call the method directly
+   */
+  static boolean canGenerate(Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    Class<?> returnType = method.getReturnType();
+    return Modifier.isPublic(method.getModifiers()) && isPublic(owner)
+        && isPublic(method.getParameterTypes()[0])
+        && (returnType == void.class || !returnType.isPrimitive());
+  }
+
+  static boolean isPublic(Class<?> klass) {
+    while (klass.isArray()) {
+      klass = klass.getComponentType();
+    }
+    return Modifier.isPublic(klass.getModifiers());
+  }
+
+  private static MethodInvoker generate(Method method) {
+    Class<?> owner = method.getDeclaringClass();
+    Class<?> parameterType = method.getParameterTypes()[0];
+    String name = GENERATED_NAME + counter.incrementAndGet();
+    ClassFileWriter writer = new ClassFileWriter(name, "java/lang/Object",
+        ClassFileWriter.internalName(MethodInvoker.class));
+    writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", new Code(1, 1)
+        .op(Code.ALOAD_0)
+        .invokeSpecial(writer.methodRef("java/lang/Object", "<init>", "()V"))
+        .op(Code.RETURN));
+
+    String ownerName = ClassFileWriter.internalName(owner);
+    String descriptor = ClassFileWriter.methodDescriptor(method.getReturnType(), parameterType);
+    Code code = new Code(2, 3);
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    if (!isStatic) {
+      code.op(Code.ALOAD_1).checkcast(writer.classRef(ownerName));
+    }
+    code.op(Code.ALOAD_2).checkcast(writer.classRef(ClassFileWriter.internalName(parameterType)));
+    if (isStatic) {
+      code.invokeStatic(writer.methodRef(ownerName, method.getName(), descriptor));
+    } else if (owner.isInterface()) {
+      code.invokeInterface(writer.interfaceMethodRef(ownerName, method.getName(), descriptor), 2);
+    } else {
+      code.invokeVirtual(writer.methodRef(ownerName, method.getName(), descriptor));
+    }
+    if (method.getReturnType() == void.class) {
+      code.op(Code.ACONST_NULL);
+    }
+    writer.addMethod(ClassFileWriter.ACC_PUBLIC, "invoke",
+        ClassFileWriter.methodDescriptor(Object.class, Object.class, Object.class),
+        code.op(Code.ARETURN));
+
+    Class<?> klass = defineClass(name, writer.toByteArray(), owner, parameterType,
+        MethodInvoker.class);
+    if (klass == null) {
+      log.fine("No class loader sees both " + owner.getName() + " and MethodInvoker");
+      return reflective(method);
+    }
+    try {
+      return (MethodInvoker) klass.newInstance();
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Defines a generated class in its own class loader, whose parent sees all the classes it
+   * references.
+   *
+   * @param internalName the internal name of the generated class
+   * @param bytes the class file
+   * @param referenced the classes referenced by the generated class
+   * @return the class, or null if no class loader sees all the referenced classes
+   * @throws LinkageError if the class is invalid
+   * @throws SecurityException if classes cannot be defined
+   */
+  static Class<?> defineClass(String internalName, byte[] bytes, Class<?>... referenced) {
+    ClassLoader parent = findLoader(referenced);
+    if (parent == null) {
+      return null;
+    }
+    return new GeneratedClassLoader(parent).define(internalName.replace('/', '.'), bytes);
+  }
+
+  /**
+   * @return a class loader which sees the classes referenced by the generated class, or null
+   */
+  private static ClassLoader findLoader(Class<?>... referenced) {
+    List<ClassLoader> candidates = Lists.newArrayList();
+    for (Class<?> klass : referenced) {
+      candidates.add(klass.getClassLoader());
+    }
+    candidates.add(MethodInvokers.class.getClassLoader());
+    for (ClassLoader loader : candidates) {
+      if (loader != null && seesAll(loader, referenced)) {
+        return loader;
+      }
+    }
+    return null;
+  }
+
+  private static boolean seesAll(ClassLoader loader, Class<?>... classes) {
+    for (Class<?> klass : classes) {
+      if (!sees(loader, klass)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sees(ClassLoader loader, Class<?> klass) {
+    while (klass.isArray()) {
+      klass = klass.getComponentType();
+    }
+    if (klass.isPrimitive()) {
+      return true;
+    }
+    try {
+      return Class.forName(klass.getName(), false, loader) == klass;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Defines one generated class. Each class gets its own loader, so a generated tree can be
+   * unloaded once it is replaced.
+   */
+  private static final class GeneratedClassLoader extends ClassLoader {
+    GeneratedClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * The invoker of the methods which cannot be called from a generated class.
+   */
+  static final class ReflectiveInvoker implements MethodInvoker {
+    private final Method method;
+
+    ReflectiveInvoker(Method method) {
+      this.method = method;
+      try {
+        method.setAccessible(true);
+      } catch (SecurityException e) {
+        // Keeps the access checks.
+      }
+    }
+
+    @Override
+    public Object invoke(Object target, Object request) throws Exception {
+      try {
+        return method.invoke(target, request);
+      } catch (InvocationTargetException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return method.toString();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.Prefetch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The prefetch methods of the evaluators of a tree, see {@code Prefetch}. They are collected when
+ * the tree is built and kept by its root, and every backend runs them when a request enters the
+ * tree.
+ */
+final class Prefetchers {
+  private static final Logger log = Logger.getLogger(Prefetchers.class.getName());
+
+  static final Prefetchers NONE = new Prefetchers(Lists.newArrayList(),
+      Lists.<MethodInvoker>newArrayList());
+
+  private final Object[] objects;
+  private final MethodInvoker[] invokers;
+
+  private Prefetchers(List<Object> objects, List<MethodInvoker> invokers) {
+    this.objects = objects.toArray();
+    this.invokers = invokers.toArray(new MethodInvoker[invokers.size()]);
+  }
+
+  /**
+   * Collects the prefetch methods of the evaluators of a tree.
+   *
+   * @param root the root of the tree
+   * @param bound the invokers bound so far, see {@code AbstractGitNode.bind}
+   * @throws IllegalStateException if a prefetch method is not found
+   */
+  static Prefetchers collect(GitNode root, Map<Method, MethodInvoker> bound) {
+    List<Object> objects = Lists.newArrayList();
+    List<MethodInvoker> invokers = Lists.newArrayList();
+    Map<Method, Boolean> found = Maps.newHashMap();
+    List<GitNode> nodes = Lists.newArrayList(root);
+    Map<GitNode, Boolean> visited = new IdentityHashMap<GitNode, Boolean>();
+    for (int i = 0; i < nodes.size(); i++) {
+      if (!(nodes.get(i) instanceof GitDecisionNode)) {
+        continue;
+      }
+      GitDecisionNode decision = (GitDecisionNode) nodes.get(i);
+      for (GitNode child : decision.getChildren().values()) {
+        if (visited.put(child, true) == null) {
+          nodes.add(child);
+        }
+      }
+      Prefetch prefetch = decision.getEvaluator().getAnnotation(Prefetch.class);
+      if (prefetch == null) {
+        continue;
+      }
+      Object evaluatorObject = decision.getEvaluatorObject();
+      Method method = ClassUtil.getMethod(evaluatorObject.getClass(), prefetch.value(),
+          decision.getRequestClass());
+      if (method == null) {
+        String msg = "Illegal Tree Statues: Failed to find prefetch method [" + prefetch.value()
+            + "] on class [" + evaluatorObject.getClass().getSimpleName() + "].";
+        log.severe(msg);
+        throw new IllegalStateException(msg);
+      }
+      // Evaluators may share a prefetch method, e.g. the sync and async forms of a check.
+      if (found.put(method, true) == null) {
+        objects.add(evaluatorObject);
+        invokers.add(AbstractGitNode.bind(bound, method));
+      }
+    }
+    return invokers.isEmpty() ? NONE : new Prefetchers(objects, invokers);
+  }
+
+  /**
+   * Runs the prefetch methods. A failing one is logged and does not stop the following ones.
+   */
+  void run(Object request) {
+    for (int i = 0; i < invokers.length; i++) {
+      try {
+        invokers[i].invoke(objects[i], request);
+      } catch (Throwable e) {
+        log.warning("Failed to prefetch: " + e.getMessage());
+      }
+    }
+  }
+}
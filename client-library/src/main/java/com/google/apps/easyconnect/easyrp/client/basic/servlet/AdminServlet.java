@@ -16,7 +16,9 @@
 package com.google.apps.easyconnect.easyrp.client.basic.servlet;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,12 +31,33 @@ import org.json.JSONArray;
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTrace;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTracer;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTreeOptimizer;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * Handles logic visualization & testing.
  * <p>
+ * Each node of the tree is shown with its live traffic: the requests taking the edge from its
+ * parent, the latency of the node itself, and a background from white to red by the node's share
+ * of the time spent in the tree.
+ * <p>
+ * With {@code format=definition}, the rules of the tree are returned in the shape loaded by
+ * {@code GitTreeLoader}, as a starting point for a file of tree definitions.
+ * <p>
+ * With {@code format=traces}, the last executions sampled by {@code GitTracer} are returned, the
+ * newest first. The parameter {@code traceSamplingRate} sets the share of the requests traced, 0
+ * to turn tracing off; it is only accepted in a POST.
+ * <p>
+ * With {@code format=optimize}, the tree is optimized by its traffic so far, see
+ * {@code GitTreeOptimizer}, and the changes, the projected costs and the optimized rules are
+ * returned. The parameter {@code independent} lists the evaluators which may be reordered,
+ * separated by commas, and {@code apply=1} in a POST replaces the tree with the optimized one.
+ * <p>
  * Note: this servlet should only be accessible to administrators.
  * 
  * @author guibinkong@google.com (Guibin Kong)
@@ -45,15 +68,47 @@ public class AdminServlet extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    doPost(req, resp);
+    visualize(req, resp, false);
   }
 
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    visualize(req, resp);
+    visualize(req, resp, true);
   }
 
-  private void visualize(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+  /**
+   * @param post whether the request is a POST, the only method allowed to change the state of the
+   *        library
+   */
+  private void visualize(HttpServletRequest req, HttpServletResponse resp, boolean post)
+      throws IOException {
+    String samplingRate = req.getParameter("traceSamplingRate");
+    boolean apply = "optimize".equalsIgnoreCase(req.getParameter("format"))
+        && "1".equals(req.getParameter("apply"));
+    if (!post && (!Strings.isNullOrEmpty(samplingRate) || apply)) {
+      resp.setHeader("Allow", "POST");
+      resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+          "traceSamplingRate and apply require a POST");
+      return;
+    }
+    if (!Strings.isNullOrEmpty(samplingRate)) {
+      try {
+        GitTracer.setSamplingRate(Double.parseDouble(samplingRate));
+        log.info("Admin Servlet: trace sampling rate set to " + samplingRate);
+      } catch (IllegalArgumentException e) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        return;
+      }
+    }
+    if ("traces".equalsIgnoreCase(req.getParameter("format"))) {
+      JSONArray json = new JSONArray();
+      for (GitTrace trace : GitTracer.getTraces()) {
+        json.put(trace.toJson());
+      }
+      resp.setContentType(ContentType.JSON);
+      resp.getWriter().print(json.toString());
+      return;
+    }
     String whitelist = req.getParameter("whitelist");
     if ("0".equalsIgnoreCase(whitelist) || "false".equalsIgnoreCase(whitelist)
         || "no".equalsIgnoreCase(whitelist)) {
@@ -84,26 +139,79 @@ public class AdminServlet extends HttpServlet {
       log.info(buf.toString());
     }
 
-    GitNode tree;
+    GitTree.Flow flow;
     if ("userstatus".equalsIgnoreCase(logic)) {
-      tree = GitTree.getAcUserStatusLogic("1".equals(whitelist), "1".equals(showprofile));
+      flow = GitTree.Flow.USER_STATUS;
     } else if ("login".equalsIgnoreCase(logic)) {
-      tree = GitTree.getAcLegacySigninLogic("1".equals(whitelist), "1".equals(showprofile));
+      flow = GitTree.Flow.LEGACY_SIGNIN;
     } else {
-      tree = GitTree.getAcCallbackPopupLogic("1".equals(whitelist), "1".equals(showprofile));
+      flow = GitTree.Flow.CALLBACK_POPUP;
     }
+    GitNode tree = GitTree.get(flow, "1".equals(whitelist), "1".equals(showprofile));
 
     resp.setContentType(ContentType.JSON);
-    resp.getWriter().print(toJson(tree));
+    if ("optimize".equalsIgnoreCase(req.getParameter("format"))) {
+      resp.getWriter().print(optimize(req, flow, "1".equals(whitelist), "1".equals(showprofile)));
+    } else if ("definition".equalsIgnoreCase(req.getParameter("format"))) {
+      resp.getWriter().print(toDefinition(tree));
+    } else {
+      resp.getWriter().print(toJson(tree));
+    }
+  }
+
+  private static String optimize(HttpServletRequest req, GitTree.Flow flow, boolean whitelist,
+      boolean showprofile) {
+    String independent = req.getParameter("independent");
+    GitTreeOptimizer optimizer = new GitTreeOptimizer(Strings.isNullOrEmpty(independent)
+        ? GitTreeOptimizer.BUILT_IN_INDEPENDENT_EVALUATORS
+        : Arrays.asList(independent.split("\\s*,\\s*")));
+    GitTreeOptimizer.Plan plan = optimizer.optimize(flow, whitelist, showprofile);
+    if ("1".equals(req.getParameter("apply")) && plan.isImproved()) {
+      plan.apply(flow, whitelist, showprofile);
+      log.info("Admin Servlet: applied the optimized tree of " + flow + ": " + plan);
+    }
+    return plan.toJson().toString();
+  }
+
+  private static String toDefinition(GitNode tree) {
+    List<GitRule> rules = Lists.newArrayList();
+    tree.appendToRuleList(rules, null, null);
+    JSONArray json = new JSONArray();
+    for (GitRule rule : rules) {
+      json.put(rule.toDefinition());
+    }
+    return json.toString();
   }
 
   private static String toJson(GitNode tree) {
     List<GitRule> rules = Lists.newArrayList();
     tree.appendToRuleList(rules, null, null);
+    Map<String, GitRule> rulesById = Maps.newHashMap();
+    long treeNanos = 0;
+    for (GitRule rule : rules) {
+      rulesById.put(rule.getId(), rule);
+      if (rule.getStats() != null) {
+        treeNanos += rule.getStats().getLatency().getTotalNanos();
+      }
+    }
     JSONArray json = new JSONArray();
-    for (int i = 0; i < rules.size(); i++) {
-      json.put(rules.get(i).toJson());
+    for (GitRule rule : rules) {
+      json.put(rule.toJson(treeNanos, edgeCount(rule, rulesById)));
     }
     return json.toString();
   }
+
+  /**
+   * @return the number of requests which took the edge to the node, or -1 if unknown
+   */
+  private static long edgeCount(GitRule rule, Map<String, GitRule> rulesById) {
+    if (rule.getStats() == null) {
+      return -1;
+    }
+    GitRule parent = rule.getParentId() == null ? null : rulesById.get(rule.getParentId());
+    if (parent == null) {
+      return rule.getStats().getCount();
+    }
+    return parent.getStats() == null ? -1 : parent.getStats().getEdgeCount(rule.getParentValue());
+  }
 }
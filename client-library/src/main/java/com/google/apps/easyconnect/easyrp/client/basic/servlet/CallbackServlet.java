@@ -24,24 +24,38 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.MethodInvokers;
+import com.google.apps.easyconnect.easyrp.client.basic.util.SharedExecutors;
 import com.google.common.base.Strings;
 
 /**
  * Handles the callback from IDP after successfully Callback login.
+ * <p>
+ * The init parameter {@code async} turns the async mode of {@code GitHandler} on.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
 public class CallbackServlet extends HttpServlet {
   private static final long serialVersionUID = 1L;
   private boolean redirectMode = false;
+  private boolean asyncMode = false;
 
   @Override
   public void init(ServletConfig config) throws ServletException {
     String setting = config.getInitParameter("fullPageRedirect");
     this.redirectMode = "true".equalsIgnoreCase(setting) || "1".equals(setting);
+    setting = config.getInitParameter("async");
+    this.asyncMode = "true".equalsIgnoreCase(setting) || "1".equals(setting);
     super.init(config);
   }
 
+  @Override
+  public void destroy() {
+    SharedExecutors.shutdown();
+    MethodInvokers.clear();
+    super.destroy();
+  }
+
   private boolean isRedirectMode(HttpServletRequest req) {
     boolean redirect = this.redirectMode;
     String rpRedirectMode = req.getParameter("rp_fullPageRedirect");
@@ -64,6 +78,6 @@ public class CallbackServlet extends HttpServlet {
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     // Starts a new sign-in process so the IDPAssertion will be cleared.
     Context.getSessionManager().setIdpAssertionData(req, resp, null);
-    GitHandler.handleCallback(req, resp, isRedirectMode(req));
+    GitHandler.handleCallback(req, resp, isRedirectMode(req), asyncMode);
   }
 }
@@ -16,22 +16,43 @@
 package com.google.apps.easyconnect.easyrp.client.basic.servlet;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitCallbackRequest;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitLoginRequest;
 import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitRequest;
 import com.google.apps.easyconnect.easyrp.client.basic.util.Utils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * The helper class that really handle GIT RPC requests. All the servlets will delegate their
  * request to suitable methods in GitHandler.
+ * <p>
+ * In async mode, the user status and popup callback requests are put in Servlet 3.0 async mode
+ * when the container supports it, and the container thread is released while an evaluator waits
+ * on a remote service, see {@code AsyncGitNode}. The servlet must be declared with
+ * {@code <async-supported>true</async-supported>}. The redirect callbacks forward to the RP's pages,
+ * so they are always handled synchronously. A request still in progress when the async timeout of
+ * the container expires is answered with a 503, and its walk is cancelled so its actions never
+ * write to the completed response. If the actions have already started, the request is completed
+ * once they are done.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
@@ -69,6 +90,18 @@ public class GitHandler {
    */
   public static void handleUserStatus(HttpServletRequest req, HttpServletResponse resp)
       throws IOException {
+    handleUserStatus(req, resp, false);
+  }
+
+  /**
+   * Handles the user status RPC request.
+   * @param req the HTTP request
+   * @param resp the HTTP response
+   * @param async whether to handle the request in async mode
+   * @throws IOException when IO error occurs.
+   */
+  public static void handleUserStatus(HttpServletRequest req, HttpServletResponse resp,
+      boolean async) throws IOException {
     String email = req.getParameter("email");
     if (log.isLoggable(Level.INFO)) {
       StringBuilder buf = new StringBuilder();
@@ -77,8 +110,8 @@ public class GitHandler {
     }
 
     GitRequest request = new GitRequest(req, resp, email);
-    GitTree.getAcUserStatusLogic(Context.isUseLocalIdpWhiteList(), Context.isReturnProfileInfo())
-        .execute(request);
+    execute(GitTree.getAcUserStatusLogic(Context.isUseLocalIdpWhiteList(),
+        Context.isReturnProfileInfo()), request, async);
   }
 
   /**
@@ -90,6 +123,19 @@ public class GitHandler {
    */
   public static void handleCallback(HttpServletRequest req, HttpServletResponse resp,
       boolean redirect) throws IOException {
+    handleCallback(req, resp, redirect, false);
+  }
+
+  /**
+   * Handles the callback request.
+   * @param req the HTTP request
+   * @param resp the HTTP response
+   * @param redirect whether the login is done by full page redirecting or in popup window.
+   * @param async whether to handle a popup callback in async mode
+   * @throws IOException when IO error occurs.
+   */
+  public static void handleCallback(HttpServletRequest req, HttpServletResponse resp,
+      boolean redirect, boolean async) throws IOException {
     String requestUri = Utils.getRequestUri(req);
     if (log.isLoggable(Level.INFO)) {
       StringBuilder buf = new StringBuilder();
@@ -102,8 +148,104 @@ public class GitHandler {
       GitTree.getAcCallbackRedirectLogic(Context.isUseLocalIdpWhiteList(),
           Context.isReturnProfileInfo()).execute(request);
     } else {
-      GitTree.getAcCallbackPopupLogic(Context.isUseLocalIdpWhiteList(),
-          Context.isReturnProfileInfo()).execute(request);
+      execute(GitTree.getAcCallbackPopupLogic(Context.isUseLocalIdpWhiteList(),
+          Context.isReturnProfileInfo()), request, async);
+    }
+  }
+
+  @VisibleForTesting
+  static void execute(GitNode tree, GitRequest request, boolean async) {
+    HttpServletRequest req = request.getHttpServletRequest();
+    if (!async || !(tree instanceof AsyncGitNode) || !req.isAsyncSupported()) {
+      tree.execute(request);
+      return;
+    }
+    final AsyncContext asyncContext = req.startAsync();
+    // Set by whichever of the walk and the container ends the request first.
+    final AtomicBoolean finished = new AtomicBoolean();
+    final ListenableFuture<Void> walk;
+    try {
+      walk = ((AsyncGitNode) tree).executeAsync(request);
+    } catch (RuntimeException e) {
+      asyncContext.complete();
+      throw e;
+    }
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        if (!finished.compareAndSet(false, true)) {
+          return;
+        }
+        if (cancelOrAwait(walk)) {
+          log.warning("Timed out handling request");
+          sendError(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        asyncContext.complete();
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        if (finished.compareAndSet(false, true)) {
+          log.log(Level.SEVERE, "Failed to handle request", event.getThrowable());
+          cancelOrAwait(walk);
+          asyncContext.complete();
+        }
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+      }
+    });
+    Futures.addCallback(walk, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        if (finished.compareAndSet(false, true)) {
+          asyncContext.complete();
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (finished.compareAndSet(false, true)) {
+          log.log(Level.SEVERE, "Failed to handle request", t);
+          sendError(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+          asyncContext.complete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Cancels a walk, or waits for it if the actions of its leaf have started, since the response is
+   * theirs from then on.
+   *
+   * @return whether the walk was cancelled
+   */
+  private static boolean cancelOrAwait(ListenableFuture<Void> walk) {
+    if (walk.cancel(false)) {
+      return true;
+    }
+    try {
+      Uninterruptibles.getUninterruptibly(walk);
+    } catch (ExecutionException e) {
+      log.log(Level.SEVERE, "Failed to handle request", e.getCause());
+    }
+    return false;
+  }
+
+  private static void sendError(AsyncContext asyncContext, int status) {
+    HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+    if (resp.isCommitted()) {
+      return;
+    }
+    try {
+      resp.sendError(status);
+    } catch (IOException e) {
+      log.severe(e.getMessage());
     }
   }
 }
@@ -15,7 +15,9 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.servlet;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,11 +28,20 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTreeLoader;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.MethodInvokers;
+import com.google.apps.easyconnect.easyrp.client.basic.util.SharedExecutors;
 import com.google.common.base.Strings;
 
 /**
  * Handles all three types of GIT RPC requests. An RP can support all GIT functions by adding a
  * single entry point for this servlet.
+ * <p>
+ * The init parameter {@code treeDefinitions} may name a file of tree definitions, see
+ * {@code GitTreeLoader}, which is checked every {@code treeDefinitionsCheckSeconds} (10 by
+ * default, or when the setting is not a positive number) and reloaded when it changes. The init
+ * parameter {@code async} turns the async mode of {@code GitHandler} on.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
@@ -38,17 +49,53 @@ public class GitServlet extends HttpServlet {
   private static final long serialVersionUID = 1L;
   private static final Logger log = Logger.getLogger(GitServlet.class.getName());
   private boolean redirectMode = false;
+  private boolean asyncMode = false;
   private boolean disableCallback = false;
+  private GitTreeLoader treeLoader;
 
   @Override
   public void init(ServletConfig config) throws ServletException {
     String setting = config.getInitParameter("fullPageRedirect");
     this.redirectMode = "true".equalsIgnoreCase(setting) || "1".equals(setting);
+    setting = config.getInitParameter("async");
+    this.asyncMode = "true".equalsIgnoreCase(setting) || "1".equals(setting);
     setting = config.getInitParameter("disableCallback");
     this.disableCallback = "true".equalsIgnoreCase(setting) || "1".equals(setting);
+    setting = config.getInitParameter("treeDefinitions");
+    if (!Strings.isNullOrEmpty(setting)) {
+      this.treeLoader = GitTreeLoader.watch(new File(setting),
+          parsePositiveLong(config, "treeDefinitionsCheckSeconds", 10), TimeUnit.SECONDS);
+    }
+    GitTree.warmUp();
     super.init(config);
   }
 
+  private static long parsePositiveLong(ServletConfig config, String name, long defaultValue) {
+    String str = config.getInitParameter(name);
+    if (!Strings.isNullOrEmpty(str)) {
+      try {
+        long value = Long.parseLong(str);
+        if (value > 0) {
+          return value;
+        }
+        log.severe("Init parameter " + name + " must be positive: " + str);
+      } catch (NumberFormatException e) {
+        log.severe("Failed to parse init parameter " + name + ": " + e.getMessage());
+      }
+    }
+    return defaultValue;
+  }
+
+  @Override
+  public void destroy() {
+    if (treeLoader != null) {
+      treeLoader.stop();
+    }
+    SharedExecutors.shutdown();
+    MethodInvokers.clear();
+    super.destroy();
+  }
+
   private boolean isRedirectMode(HttpServletRequest req) {
     boolean redirect = this.redirectMode;
     String rpRedirectMode = req.getParameter("rp_fullPageRedirect");
@@ -80,14 +127,14 @@ public class GitServlet extends HttpServlet {
     // Starts a new sign-in process so the IDPAssertion will be cleared.
     Context.getSessionManager().setIdpAssertionData(req, resp, null);
     if ("userstatus".equalsIgnoreCase(rpTarget)) {
-      GitHandler.handleUserStatus(req, resp);
+      GitHandler.handleUserStatus(req, resp, asyncMode);
     } else if ("login".equalsIgnoreCase(rpTarget)) {
       GitHandler.handleLogin(req, resp);
     } else if ("callback".equalsIgnoreCase(rpTarget)) {
       if (this.disableCallback) {
         log.warning("Git Servlet: rp_target 'callback' is disabled, ignored.");
       } else {
-        GitHandler.handleCallback(req, resp, isRedirectMode(req));
+        GitHandler.handleCallback(req, resp, isRedirectMode(req), asyncMode);
       }
     } else {
       log.warning("Git Servlet: Unkown rp_target '" + rpTarget + "' received, ignored.");
@@ -22,6 +22,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.MethodInvokers;
+import com.google.apps.easyconnect.easyrp.client.basic.util.SharedExecutors;
 
 /**
  * Handles the user status RPC request.
@@ -37,4 +39,11 @@ public class UserStatusServlet extends HttpServlet {
     Context.getSessionManager().setIdpAssertionData(req, resp, null);
     GitHandler.handleUserStatus(req, resp);
   }
+
+  @Override
+  public void destroy() {
+    SharedExecutors.shutdown();
+    MethodInvokers.clear();
+    super.destroy();
+  }
 }
@@ -22,6 +22,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
 
 import com.google.apps.easyconnect.easyrp.client.basic.data.Account;
+import com.google.apps.easyconnect.easyrp.client.basic.data.AccountLookupCache;
 import com.google.apps.easyconnect.easyrp.client.basic.data.AccountService;
 import com.google.apps.easyconnect.easyrp.client.basic.data.OauthTokenResponse;
 import com.google.common.base.Preconditions;
@@ -50,7 +51,7 @@ public class CookieBasedSessionManager implements SessionManager {
     if (cookie != null) {
       String email = tokenGenerator.verifySessionToken(cookie.getValue());
       if (!Strings.isNullOrEmpty(email)) {
-        return accountService.getAccountByEmail(email);
+        return AccountLookupCache.forRequest(request, accountService).getAccountByEmail(email);
       }
     }
     return null;
@@ -49,6 +49,10 @@ public class RpConfig {
   private String loginUrl;
   private String signupUrl;
 
+  private int rpcConnectTimeout;
+  private int rpcReadTimeout;
+  private int rpcDeadline;
+
   /** Default constructor */
   public RpConfig() {
   }
@@ -97,6 +101,21 @@ public class RpConfig {
     this.homeUrl = properties.getProperty("RP.Config.homeUrl");
     this.loginUrl = properties.getProperty("RP.Config.loginUrl");
     this.signupUrl = properties.getProperty("RP.Config.signupUrl");
+    this.rpcConnectTimeout = parseInt(properties, "rpcConnectTimeout");
+    this.rpcReadTimeout = parseInt(properties, "rpcReadTimeout");
+    this.rpcDeadline = parseInt(properties, "rpcDeadline");
+  }
+
+  private static int parseInt(Properties properties, String name) {
+    String str = properties.getProperty("RP.Config." + name);
+    if (!Strings.isNullOrEmpty(str)) {
+      try {
+        return Integer.parseInt(str);
+      } catch (NumberFormatException e) {
+        log.severe("Failed to parse " + name + ": " + e.getMessage());
+      }
+    }
+    return 0;
   }
 
   public String getSessionCookieName() {
@@ -168,6 +187,29 @@ public class RpConfig {
     return signupUrl;
   }
 
+  /**
+   * @return the connect timeout in milliseconds of the calls to googleapis.com, or 0 for the
+   *         default
+   */
+  public int getRpcConnectTimeout() {
+    return rpcConnectTimeout;
+  }
+
+  /**
+   * @return the read timeout in milliseconds of the calls to googleapis.com, or 0 for the default
+   */
+  public int getRpcReadTimeout() {
+    return rpcReadTimeout;
+  }
+
+  /**
+   * @return how long in milliseconds a blocking call to googleapis.com may take in total, or 0 for
+   *         the default
+   */
+  public int getRpcDeadline() {
+    return rpcDeadline;
+  }
+
   /**
    * Builder class to setup a {@code RpConfig} instance.
    * @author guibinkong@google.com (Guibin Kong)
@@ -196,6 +238,10 @@ public class RpConfig {
     private String loginUrl;
     private String signupUrl;
 
+    private int rpcConnectTimeout;
+    private int rpcReadTimeout;
+    private int rpcDeadline;
+
     public Builder sessionCookieName(String val) {
       this.sessionCookieName = val;
       return this;
@@ -282,6 +328,21 @@ public class RpConfig {
       return this;
     }
 
+    public Builder rpcConnectTimeout(int val) {
+      this.rpcConnectTimeout = val;
+      return this;
+    }
+
+    public Builder rpcReadTimeout(int val) {
+      this.rpcReadTimeout = val;
+      return this;
+    }
+
+    public Builder rpcDeadline(int val) {
+      this.rpcDeadline = val;
+      return this;
+    }
+
     public RpConfig build() {
       RpConfig config = new RpConfig();
       config.sessionCookieName = this.sessionCookieName;
@@ -302,6 +363,9 @@ public class RpConfig {
       config.homeUrl = this.homeUrl;
       config.loginUrl = this.loginUrl;
       config.signupUrl = this.signupUrl;
+      config.rpcConnectTimeout = this.rpcConnectTimeout;
+      config.rpcReadTimeout = this.rpcReadTimeout;
+      config.rpcDeadline = this.rpcDeadline;
       return config;
     }
   }
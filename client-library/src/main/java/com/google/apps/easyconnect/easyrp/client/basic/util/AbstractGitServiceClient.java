@@ -0,0 +1,97 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.Context;
+import com.google.apps.easyconnect.easyrp.client.basic.session.RpConfig;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * A base {@code GitServiceClient} whose blocking {@code verifyResponse} waits for
+ * {@code verifyResponseAsync}. A failed verification is returned as an empty JSONObject. The
+ * subclasses which can serve a blocking call without a worker thread override
+ * {@code verifyResponse}.
+ * <p>
+ * The calls are bounded by the timeouts of {@code RpConfig}, which are read at call time so that a
+ * new configuration takes effect immediately.
+ */
+public abstract class AbstractGitServiceClient implements GitServiceClient {
+  private static final Logger log = Logger.getLogger(AbstractGitServiceClient.class.getName());
+  static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+  static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+  static final int DEFAULT_DEADLINE_MILLIS = 15000;
+
+  @Override
+  public JSONObject verifyResponse(String requestUri, String postBody) {
+    return waitFor(verifyResponseAsync(requestUri, postBody));
+  }
+
+  /**
+   * Waits for a verification until the deadline of {@code RpConfig}, cancelling it if it is late.
+   *
+   * @param future the verification
+   * @return the result, or an empty JSONObject if the verification failed or timed out
+   */
+  protected JSONObject waitFor(Future<JSONObject> future) {
+    try {
+      return Uninterruptibles.getUninterruptibly(future, getDeadlineMillis(),
+          TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      log.severe(String.valueOf(e.getCause()));
+    } catch (TimeoutException e) {
+      log.severe("verifyResponse timed out after " + getDeadlineMillis() + "ms");
+      future.cancel(true);
+    } catch (RuntimeException e) {
+      log.severe(e.getMessage());
+    }
+    return new JSONObject();
+  }
+
+  /**
+   * @return the connect timeout of one HTTP request to googleapis.com
+   */
+  protected int getConnectTimeoutMillis() {
+    RpConfig config = Context.getConfig();
+    return config == null || config.getRpcConnectTimeout() <= 0 ? DEFAULT_CONNECT_TIMEOUT_MILLIS
+        : config.getRpcConnectTimeout();
+  }
+
+  /**
+   * @return the read timeout of one HTTP request to googleapis.com
+   */
+  protected int getReadTimeoutMillis() {
+    RpConfig config = Context.getConfig();
+    return config == null || config.getRpcReadTimeout() <= 0 ? DEFAULT_READ_TIMEOUT_MILLIS
+        : config.getRpcReadTimeout();
+  }
+
+  /**
+   * @return how long the blocking {@code verifyResponse} waits for the result
+   */
+  protected int getDeadlineMillis() {
+    RpConfig config = Context.getConfig();
+    return config == null || config.getRpcDeadline() <= 0 ? DEFAULT_DEADLINE_MILLIS
+        : config.getRpcDeadline();
+  }
+}
@@ -0,0 +1,210 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.VerifyAssertionResponseParser.ParsedResponse;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A {@code GitServiceClientImpl} which collects the concurrent verify requests and sends them to
+ * googleapis.com as one JSON-RPC batch. A batch is sent when it reaches {@code maxBatchSize}
+ * requests, or {@code windowMillis} after its first request, whichever comes first. Each request
+ * carries an id, which is used to route the elements of the response array back to the callers.
+ * <p>
+ * Batching trades up to {@code windowMillis} of latency for fewer round trips, so it only pays off
+ * when many users sign in at the same time. To enable it:
+ *
+ * <pre>
+ * Context.setGitServiceClient(new BatchingGitServiceClient(developerKey, 20, 10));
+ * </pre>
+ */
+public class BatchingGitServiceClient extends GitServiceClientImpl {
+  private static final Logger log = Logger.getLogger(BatchingGitServiceClient.class.getName());
+
+  private final long windowMillis;
+  private final int maxBatchSize;
+  private final AtomicLong nextId = new AtomicLong();
+  private final Object lock = new Object();
+  private List<PendingRequest> batch = new ArrayList<PendingRequest>();
+
+  /**
+   * Constructs a batching client which uses the shared transport and worker threads.
+   *
+   * @param developerKey the developer key for googleapis.com
+   * @param windowMillis how long the first request of a batch waits for other requests
+   * @param maxBatchSize the max number of requests in one batch
+   */
+  public BatchingGitServiceClient(String developerKey, long windowMillis, int maxBatchSize) {
+    super(developerKey);
+    Preconditions.checkArgument(windowMillis >= 0 && maxBatchSize > 0);
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Constructs a batching client.
+   *
+   * @param developerKey the developer key for googleapis.com
+   * @param transport the transport to send the batches
+   * @param executor the executor to send the batches, should be bounded
+   * @param windowMillis how long the first request of a batch waits for other requests
+   * @param maxBatchSize the max number of requests in one batch
+   */
+  public BatchingGitServiceClient(String developerKey, HttpTransport transport,
+      ExecutorService executor, long windowMillis, int maxBatchSize) {
+    super(developerKey, transport, executor);
+    Preconditions.checkArgument(windowMillis >= 0 && maxBatchSize > 0);
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Waits for {@code verifyResponseAsync} until the deadline of {@code RpConfig}, so the blocking
+   * calls are batched too, rather than sent one by one from the calling thread.
+   */
+  @Override
+  public JSONObject verifyResponse(String requestUri, String postBody) {
+    return waitFor(verifyResponseAsync(requestUri, postBody));
+  }
+
+  @Override
+  public ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody) {
+    PendingRequest pending = new PendingRequest(String.valueOf(nextId.incrementAndGet()),
+        buildRequest(requestUri, postBody));
+    List<PendingRequest> fullBatch = null;
+    List<PendingRequest> newBatch = null;
+    synchronized (lock) {
+      batch.add(pending);
+      if (batch.size() >= maxBatchSize) {
+        fullBatch = batch;
+        batch = new ArrayList<PendingRequest>();
+      } else if (batch.size() == 1) {
+        newBatch = batch;
+      }
+    }
+    if (fullBatch != null) {
+      send(fullBatch);
+    } else if (newBatch != null) {
+      final List<PendingRequest> scheduledBatch = newBatch;
+      SharedExecutors.timer("BatchingGitServiceClient").schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush(scheduledBatch);
+        }
+      }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+    return pending.future;
+  }
+
+  /**
+   * Sends the batch if it has not been sent because it was full.
+   */
+  private void flush(List<PendingRequest> scheduledBatch) {
+    synchronized (lock) {
+      if (batch != scheduledBatch) {
+        return;
+      }
+      batch = new ArrayList<PendingRequest>();
+    }
+    send(scheduledBatch);
+  }
+
+  private void send(final List<PendingRequest> requests) {
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          doSend(requests);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.severe("verifyResponse rejected: " + e.getMessage());
+      failAll(requests, new IOException("Too many pending verifications", e));
+    }
+  }
+
+  private void doSend(List<PendingRequest> requests) {
+    Map<String, PendingRequest> byId = new HashMap<String, PendingRequest>();
+    JSONArray postData = new JSONArray();
+    try {
+      for (PendingRequest pending : requests) {
+        pending.request.put("id", pending.id);
+        postData.put(pending.request);
+        byId.put(pending.id, pending);
+      }
+      log.fine("verifyResponse batch of " + requests.size());
+      for (ParsedResponse response : postBatch(postData)) {
+        PendingRequest pending = byId.remove(response.getId());
+        if (pending != null) {
+          pending.future.set(response.getProfile());
+        }
+      }
+      failAll(byId.values(), new IOException("No response for the request"));
+    } catch (IOException e) {
+      failAll(requests, e);
+    } catch (JSONException e) {
+      failAll(requests, new IOException("Invalid response: " + e.getMessage(), e));
+    } catch (RuntimeException e) {
+      failAll(requests, new IOException(e.getMessage(), e));
+    }
+  }
+
+  private static void failAll(Iterable<PendingRequest> requests, IOException e) {
+    for (PendingRequest pending : requests) {
+      pending.future.setException(e);
+    }
+  }
+
+  /**
+   * A request waiting in a batch.
+   */
+  private static class PendingRequest {
+    private final String id;
+    private final JSONObject request;
+    private final SettableFuture<JSONObject> future = SettableFuture.create();
+
+    PendingRequest(String id, JSONObject request) {
+      this.id = id;
+      this.request = request;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A {@code GitServiceClient} decorator which remembers the verified assertions for a few seconds,
+ * so the same IDP callback submitted again (double click, back button, retried POST) does not cost
+ * another round trip to googleapis.com.
+ * <p>
+ * The cache is keyed by a SHA-256 digest of the request URI and post body, so the IDP responses
+ * themselves are not kept as keys. Concurrent duplicates share the same in-flight call. Only the
+ * successful verifications are kept, and the cache is bounded both in size and in time. As a
+ * duplicate callback gets the assertion without the IDP's replay check, the TTL should stay short.
+ * <p>
+ * A blocking {@code verifyResponse} which misses the cache calls the blocking
+ * {@code verifyResponse} of the delegate from the calling thread.
+ */
+public class CachingGitServiceClient extends AbstractGitServiceClient {
+  private static final Logger log = Logger.getLogger(CachingGitServiceClient.class.getName());
+
+  private final GitServiceClient delegate;
+  private final Cache<String, ListenableFuture<JSONObject>> cache;
+
+  /**
+   * Constructs a caching client.
+   *
+   * @param delegate the client to send the requests
+   * @param ttlMillis how long a verified assertion is kept
+   * @param maximumSize the max number of assertions kept
+   */
+  public CachingGitServiceClient(GitServiceClient delegate, long ttlMillis, long maximumSize) {
+    this(delegate, ttlMillis, maximumSize, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CachingGitServiceClient(GitServiceClient delegate, long ttlMillis, long maximumSize,
+      Ticker ticker) {
+    Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(ttlMillis > 0 && maximumSize > 0);
+    this.delegate = delegate;
+    this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .maximumSize(maximumSize).ticker(ticker).build();
+  }
+
+  public GitServiceClient getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return the hit and miss statistics of the cache
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  @Override
+  public ListenableFuture<JSONObject> verifyResponseAsync(final String requestUri,
+      final String postBody) {
+    final String key = digest(requestUri, postBody);
+    final ListenableFuture<JSONObject> future;
+    try {
+      future = cache.get(key, new Callable<ListenableFuture<JSONObject>>() {
+        @Override
+        public ListenableFuture<JSONObject> call() {
+          return delegate.verifyResponseAsync(requestUri, postBody);
+        }
+      });
+    } catch (ExecutionException e) {
+      return Futures.immediateFailedFuture(e.getCause());
+    }
+    return share(key, future);
+  }
+
+  @Override
+  public JSONObject verifyResponse(String requestUri, String postBody) {
+    String key = digest(requestUri, postBody);
+    final SettableFuture<JSONObject> loading = SettableFuture.create();
+    ListenableFuture<JSONObject> future;
+    try {
+      future = cache.get(key, new Callable<ListenableFuture<JSONObject>>() {
+        @Override
+        public ListenableFuture<JSONObject> call() {
+          return loading;
+        }
+      });
+    } catch (ExecutionException e) {
+      log.severe(String.valueOf(e.getCause()));
+      return new JSONObject();
+    }
+    if (future == loading) {
+      // Verified outside of the cache's lock, so the duplicates wait without blocking other keys.
+      try {
+        loading.set(delegate.verifyResponse(requestUri, postBody));
+      } catch (RuntimeException e) {
+        loading.setException(e);
+      }
+    }
+    return waitFor(share(key, future));
+  }
+
+  /**
+   * Each caller gets its own future, so cancelling it does not cancel the shared verification. A
+   * failed verification is forgotten, including the empty answer of a blocking call.
+   */
+  private ListenableFuture<JSONObject> share(final String key,
+      final ListenableFuture<JSONObject> future) {
+    final SettableFuture<JSONObject> result = SettableFuture.create();
+    Futures.addCallback(future, new FutureCallback<JSONObject>() {
+      @Override
+      public void onSuccess(JSONObject json) {
+        if (json == null || json.length() == 0 || json.has("error")) {
+          cache.asMap().remove(key, future);
+        }
+        result.set(copyOf(json));
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        cache.asMap().remove(key, future);
+        result.setException(t);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Forgets the assertion of a callback.
+   *
+   * @param requestUri the request URI of the IDP response.
+   * @param postBody the post data of the IDP response.
+   */
+  public void invalidate(String requestUri, String postBody) {
+    cache.invalidate(digest(requestUri, postBody));
+  }
+
+  private static String digest(String requestUri, String postBody) {
+    return Hashing.sha256().hashString(Strings.nullToEmpty(requestUri) + '\n'
+        + Strings.nullToEmpty(postBody), Charsets.UTF_8).toString();
+  }
+
+  /**
+   * Each caller gets its own copy, as JSONObject is mutable.
+   */
+  private static JSONObject copyOf(JSONObject json) {
+    String[] names = json == null ? null : JSONObject.getNames(json);
+    if (names == null) {
+      return new JSONObject();
+    }
+    try {
+      return new JSONObject(json, names);
+    } catch (JSONException e) {
+      log.severe(e.getMessage());
+      return new JSONObject();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A {@code GitServiceClient} decorator which stops calling a failing service for a while, and
+ * limits the number of concurrent calls.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens, and all calls fail
+ * immediately for {@code openMillis}. Then one probe call is let through: the circuit closes if it
+ * succeeds, and opens again otherwise. Calls beyond {@code maxConcurrentCalls} also fail
+ * immediately. A failed call results in an empty profile, so the callback flow renders its
+ * 'error' outcome without waiting for the service.
+ * <p>
+ * Only the calls let through since the last change of state count: a call completing after the
+ * circuit opened, or after the probe was sent, is ignored.
+ * <p>
+ * A blocking {@code verifyResponse} calls the blocking {@code verifyResponse} of the delegate from
+ * the calling thread, an empty answer counting as a failure.
+ */
+public class CircuitBreakingGitServiceClient extends AbstractGitServiceClient {
+  private static final Logger log =
+      Logger.getLogger(CircuitBreakingGitServiceClient.class.getName());
+  private static final long REJECTED = -1;
+
+  /**
+   * The states of the circuit.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final GitServiceClient delegate;
+  private final int failureThreshold;
+  private final long openNanos;
+  private final Semaphore bulkhead;
+  private final Ticker ticker;
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean probeInFlight;
+  // Incremented on each change of state, so the completions of older calls can be told apart.
+  private long generation;
+  private final AtomicLong rejectedByCircuit = new AtomicLong();
+  private final AtomicLong rejectedByBulkhead = new AtomicLong();
+
+  /**
+   * Constructs a circuit breaker.
+   *
+   * @param delegate the client to send the requests
+   * @param failureThreshold the number of consecutive failures which opens the circuit
+   * @param openMillis how long the circuit stays open before a probe call
+   * @param maxConcurrentCalls the max number of calls in flight
+   */
+  public CircuitBreakingGitServiceClient(GitServiceClient delegate, int failureThreshold,
+      long openMillis, int maxConcurrentCalls) {
+    this(delegate, failureThreshold, openMillis, maxConcurrentCalls, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CircuitBreakingGitServiceClient(GitServiceClient delegate, int failureThreshold,
+      long openMillis, int maxConcurrentCalls, Ticker ticker) {
+    Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(failureThreshold > 0 && openMillis >= 0 && maxConcurrentCalls > 0);
+    this.delegate = delegate;
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.bulkhead = new Semaphore(maxConcurrentCalls);
+    this.ticker = ticker;
+  }
+
+  public GitServiceClient getDelegate() {
+    return delegate;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return how many calls failed fast because the circuit was open
+   */
+  public long getRejectedByCircuitCount() {
+    return rejectedByCircuit.get();
+  }
+
+  /**
+   * @return how many calls failed fast because too many calls were in flight
+   */
+  public long getRejectedByBulkheadCount() {
+    return rejectedByBulkhead.get();
+  }
+
+  @Override
+  public ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody) {
+    if (!bulkhead.tryAcquire()) {
+      rejectedByBulkhead.incrementAndGet();
+      return Futures.immediateFailedFuture(new IOException("Too many concurrent verifications"));
+    }
+    final long admitted = allowRequest();
+    if (admitted == REJECTED) {
+      bulkhead.release();
+      rejectedByCircuit.incrementAndGet();
+      return Futures.immediateFailedFuture(new IOException("Circuit is open"));
+    }
+    ListenableFuture<JSONObject> future;
+    try {
+      future = delegate.verifyResponseAsync(requestUri, postBody);
+    } catch (RuntimeException e) {
+      bulkhead.release();
+      recordFailure(admitted);
+      return Futures.immediateFailedFuture(e);
+    }
+    Futures.addCallback(future, new FutureCallback<JSONObject>() {
+      @Override
+      public void onSuccess(JSONObject result) {
+        bulkhead.release();
+        recordSuccess(admitted);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        bulkhead.release();
+        recordFailure(admitted);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * @return the generation the call is let through in, or {@code REJECTED}
+   */
+  @Override
+  public JSONObject verifyResponse(String requestUri, String postBody) {
+    if (!bulkhead.tryAcquire()) {
+      rejectedByBulkhead.incrementAndGet();
+      log.severe("Too many concurrent verifications");
+      return new JSONObject();
+    }
+    try {
+      long admitted = allowRequest();
+      if (admitted == REJECTED) {
+        rejectedByCircuit.incrementAndGet();
+        log.severe("Circuit is open");
+        return new JSONObject();
+      }
+      JSONObject result;
+      try {
+        result = delegate.verifyResponse(requestUri, postBody);
+      } catch (RuntimeException e) {
+        log.severe(e.getMessage());
+        result = null;
+      }
+      if (result == null || result.length() == 0) {
+        recordFailure(admitted);
+        return new JSONObject();
+      }
+      recordSuccess(admitted);
+      return result;
+    } finally {
+      bulkhead.release();
+    }
+  }
+
+  private synchronized long allowRequest() {
+    switch (state) {
+      case CLOSED:
+        return generation;
+      case OPEN:
+        if (ticker.read() - openedAt < openNanos) {
+          return REJECTED;
+        }
+        log.info("Circuit half-open, sending a probe call");
+        setState(State.HALF_OPEN);
+        probeInFlight = true;
+        return generation;
+      default:
+        if (probeInFlight) {
+          return REJECTED;
+        }
+        probeInFlight = true;
+        return generation;
+    }
+  }
+
+  private synchronized void recordSuccess(long admitted) {
+    if (admitted != generation) {
+      return;
+    }
+    if (state != State.CLOSED) {
+      log.info("Circuit closed");
+      setState(State.CLOSED);
+    }
+    consecutiveFailures = 0;
+    probeInFlight = false;
+  }
+
+  private synchronized void recordFailure(long admitted) {
+    if (admitted != generation) {
+      return;
+    }
+    consecutiveFailures++;
+    probeInFlight = false;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      log.warning("Circuit opened after " + consecutiveFailures + " consecutive failures");
+      setState(State.OPEN);
+      openedAt = ticker.read();
+    }
+  }
+
+  private void setState(State newState) {
+    state = newState;
+    generation++;
+  }
+}
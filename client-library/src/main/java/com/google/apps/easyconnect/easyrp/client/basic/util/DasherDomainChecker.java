@@ -16,11 +16,17 @@
 package com.google.apps.easyconnect.easyrp.client.basic.util;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 /**
@@ -34,13 +40,40 @@ public class DasherDomainChecker {
   private static final String XRDS_MIME_TYPE = "application/xrds+xml";
 
   private Cache<String, Boolean> cache;
+  private String xrdsUrlPrefix;
+  private volatile RetryPolicy retryPolicy = RetryPolicy.newDefault();
 
   /**
    * Construct a checker instance.
    * @param cache a cache for domain/isDasher mapping. Use {@code null} if don't want to use cache.
    */
   public DasherDomainChecker(Cache<String, Boolean> cache) {
+    this(cache, DASHER_XRDS_URL_PREFIX);
+  }
+
+  /**
+   * Construct a checker instance which probes another XRDS endpoint, such as a local stand-in for
+   * tests and benchmarks.
+   * @param cache a cache for domain/isDasher mapping. Use {@code null} if don't want to use cache.
+   * @param xrdsUrlPrefix the XRDS URL, to which the domain is appended
+   */
+  public DasherDomainChecker(Cache<String, Boolean> cache, String xrdsUrlPrefix) {
+    Preconditions.checkNotNull(xrdsUrlPrefix);
     this.cache = cache;
+    this.xrdsUrlPrefix = xrdsUrlPrefix;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets how the XRDS probes are retried.
+   * @param retryPolicy the policy, {@code RetryPolicy.noRetry()} to disable the retries
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    Preconditions.checkNotNull(retryPolicy);
+    this.retryPolicy = retryPolicy;
   }
 
   /**
@@ -52,7 +85,7 @@ public class DasherDomainChecker {
    * @param domain the domain to be checked
    * @return true if it is a dasher domain
    */
-  public boolean isDasherDomain(String domain) {
+  public boolean isDasherDomain(final String domain) {
     logger.entering("Utils", "isDasherDomain", domain);
     boolean isDasherDomain = false;
     try {
@@ -61,7 +94,14 @@ public class DasherDomainChecker {
         logger.fine("found domain [" + domain + "] in cache.");
         isDasherDomain = result;
       } else {
-        isDasherDomain = checkDasherDomain(domain);
+        // The probe is a GET, so it can be retried on any transient failure rather than caching a
+        // wrong answer.
+        isDasherDomain = retryPolicy.execute(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            return checkDasherDomain(xrdsUrlPrefix, domain);
+          }
+        }, true);
         if (cache != null) {
           cache.put(domain, isDasherDomain);
         }
@@ -75,6 +115,33 @@ public class DasherDomainChecker {
     return isDasherDomain;
   }
 
+  /**
+   * Same as {@code isDasherDomain}, but probes the domain from a bounded pool of worker threads
+   * unless it is cached, so the calling thread is not blocked.
+   *
+   * @param domain the domain to be checked
+   * @return the future result, which never fails
+   */
+  public ListenableFuture<Boolean> isDasherDomainAsync(final String domain) {
+    Boolean result = cache == null ? null : cache.getIfPresent(domain);
+    if (result != null) {
+      return Futures.immediateFuture(result);
+    }
+    try {
+      ListeningExecutorService executor =
+          SharedExecutors.bounded("DasherDomainChecker", 4, 1000);
+      return executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return isDasherDomain(domain);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      logger.fine("Too many pending probes, checking domain [" + domain + "] in place.");
+      return Futures.immediateFuture(isDasherDomain(domain));
+    }
+  }
+
   /**
    * Checks whether a domain is dasher domain by connecting its XRDS url.
    * @param domain the domain under check
@@ -83,9 +150,18 @@ public class DasherDomainChecker {
    */
   @VisibleForTesting
   protected static boolean checkDasherDomain(String domain) throws IOException {
-    String endpoint = DASHER_XRDS_URL_PREFIX + domain;
+    return checkDasherDomain(DASHER_XRDS_URL_PREFIX, domain);
+  }
+
+  private static boolean checkDasherDomain(String xrdsUrlPrefix, String domain)
+      throws IOException {
+    String endpoint = xrdsUrlPrefix + domain;
     URL url = new URL(endpoint);
-    String contentType = ((HttpURLConnection) url.openConnection()).getContentType().toLowerCase();
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if (connection.getResponseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+      throw new HttpStatusException(connection.getResponseCode(), endpoint);
+    }
+    String contentType = connection.getContentType().toLowerCase();
     logger.fine("retrieve xrds, return contentType='" + contentType + "'");
     return contentType.contains(XRDS_MIME_TYPE);
   }
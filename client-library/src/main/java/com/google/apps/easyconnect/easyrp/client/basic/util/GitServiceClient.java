@@ -17,8 +17,12 @@ package com.google.apps.easyconnect.easyrp.client.basic.util;
 
 import org.json.JSONObject;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
- * Wraps the request to the GITKit service or similar.
+ * Wraps the request to the GITKit service or similar. Implementations can extend
+ * {@code AbstractGitServiceClient}, which implements the blocking method on top of the asynchronous
+ * one.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
@@ -31,4 +35,14 @@ public interface GitServiceClient {
    * @return the profile data of the user, or nothing in it if failed.
    */
   JSONObject verifyResponse(String requestUri, String postBody);
+
+  /**
+   * Verifying the response of IDP without blocking the calling thread.
+   * 
+   * @param requestUri the request URI of the IDP response.
+   * @param postBody the post data of the IDP response.
+   * @return the future profile data of the user. The future fails with an {@code IOException} if
+   *         the service cannot be reached or returns an invalid response.
+   */
+  ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody);
 }
@@ -16,35 +16,147 @@
 package com.google.apps.easyconnect.easyrp.client.basic.util;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.apps.easyconnect.easyrp.client.basic.util.VerifyAssertionResponseParser.ParsedResponse;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
- * Wraps the request to the googleapis.com.
+ * Wraps the request to the googleapis.com. {@code verifyResponse} sends the request from the
+ * calling thread, while {@code verifyResponseAsync} sends it from a bounded pool of worker threads,
+ * so the container threads are not blocked.
  * 
  * @author guibinkong@google.com (Guibin Kong)
  */
-public class GitServiceClientImpl implements GitServiceClient {
+public class GitServiceClientImpl extends AbstractGitServiceClient {
   private static final Logger log = Logger.getLogger(GitServiceClient.class.getName());
   private static final String VERIFY_URL = "https://www.googleapis.com/rpc?pp=1&key=";
+  private static final HttpTransport DEFAULT_TRANSPORT = new KeepAliveHttpTransport();
+  private static final int DEFAULT_THREADS = 16;
+  private static final int DEFAULT_QUEUE_SIZE = 1000;
 
   private String developerKey;
+  private HttpTransport transport;
+  // Null for the shared pool, which is looked up on each call so it survives a shutdown.
+  private final ListeningExecutorService executor;
+  private volatile String verifyUrl = VERIFY_URL;
+  private volatile RetryPolicy retryPolicy = RetryPolicy.newDefault();
+  private final boolean streamingParser = !overridesConvertJson(getClass());
 
+  /**
+   * Constructs a client which sends its requests through the JDK keep-alive connections and
+   * shares a pool of 16 worker threads with the other clients created by this constructor.
+   *
+   * @param developerKey the developer key for googleapis.com
+   */
   public GitServiceClientImpl(String developerKey) {
+    this(developerKey, DEFAULT_TRANSPORT);
+  }
+
+  /**
+   * Constructs a client which sends its requests through the given transport.
+   *
+   * @param developerKey the developer key for googleapis.com
+   * @param transport the transport to send the requests
+   */
+  public GitServiceClientImpl(String developerKey, HttpTransport transport) {
+    Preconditions.checkNotNull(transport);
     this.developerKey = developerKey;
+    this.transport = transport;
+    this.executor = null;
+  }
+
+  /**
+   * Constructs a client which sends its requests through the given transport, from the threads of
+   * the given executor.
+   *
+   * @param developerKey the developer key for googleapis.com
+   * @param transport the transport to send the requests
+   * @param executor the executor to run the requests, should be bounded
+   */
+  public GitServiceClientImpl(String developerKey, HttpTransport transport,
+      ExecutorService executor) {
+    Preconditions.checkNotNull(transport);
+    Preconditions.checkNotNull(executor);
+    this.developerKey = developerKey;
+    this.transport = transport;
+    this.executor = MoreExecutors.listeningDecorator(executor);
+  }
+
+  /**
+   * Creates an executor with a fixed number of daemon threads and a bounded queue. Requests
+   * submitted when the queue is full are rejected.
+   *
+   * @param namePrefix the prefix of the names of the threads, which are numbered after it
+   * @param threads the number of worker threads
+   * @param queueSize the max number of requests waiting for a thread
+   * @return the executor
+   */
+  public static ExecutorService newBoundedExecutor(String namePrefix, int threads,
+      int queueSize) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat(namePrefix + "-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   public String getDeveloperKey() {
     return developerKey;
   }
 
+  public HttpTransport getTransport() {
+    return transport;
+  }
+
+  public String getVerifyUrl() {
+    return verifyUrl;
+  }
+
+  /**
+   * Points the client at another JSON-RPC endpoint, such as a local stand-in of googleapis.com
+   * for tests and benchmarks.
+   *
+   * @param verifyUrl the endpoint URL, to which the developer key is appended
+   */
+  public void setVerifyUrl(String verifyUrl) {
+    Preconditions.checkNotNull(verifyUrl);
+    this.verifyUrl = verifyUrl;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets how the requests to googleapis.com are retried. As verifyAssertion is not idempotent,
+   * only the requests which could not reach the server, or were answered 503, are retried.
+   *
+   * @param retryPolicy the policy, {@code RetryPolicy.noRetry()} to disable the retries
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    Preconditions.checkNotNull(retryPolicy);
+    this.retryPolicy = retryPolicy;
+  }
+
   /**
    * Builds the post data for the request to googleapi.com.
    * 
@@ -55,10 +167,21 @@ public class GitServiceClientImpl implements GitServiceClient {
   @VisibleForTesting
   JSONArray buildPostData(String requestUri, String postBody) {
     JSONArray requests = new JSONArray();
+    requests.put(buildRequest(requestUri, postBody));
+    return requests;
+  }
+
+  /**
+   * Builds one JSON-RPC request of the batch sent to googleapi.com.
+   * 
+   * @param requestUri the request URI of the IDP response.
+   * @param postBody the post data of the IDP response.
+   * @return the verifyAssertion request.
+   */
+  JSONObject buildRequest(String requestUri, String postBody) {
     JSONObject request = new JSONObject();
     JSONObject params = new JSONObject();
     try {
-      requests.put(request);
       request.put("method", "identitytoolkit.relyingparty.verifyAssertion");
       request.put("apiVersion", "v1");
       request.put("params", params);
@@ -69,51 +192,122 @@ public class GitServiceClientImpl implements GitServiceClient {
     } catch (JSONException e) {
       log.severe(e.getMessage());
     }
-    return requests;
+    return request;
+  }
+
+  ListeningExecutorService getExecutor() {
+    return executor != null ? executor
+        : SharedExecutors.bounded("GitServiceClient", DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
   }
 
   /**
-   * Verifying the response of IDP, and return the profile data if success.
+   * Sends the request from the calling thread, so the blocking calls are not bounded by the worker
+   * threads of {@code verifyResponseAsync}. The retries stop at the deadline of {@code RpConfig},
+   * and each attempt is bounded by the connect and read timeouts.
+   */
+  @Override
+  public JSONObject verifyResponse(String requestUri, String postBody) {
+    try {
+      return doVerifyResponse(requestUri, postBody);
+    } catch (IOException e) {
+      log.severe("verifyResponse failed: " + e);
+    } catch (RuntimeException e) {
+      log.severe(e.getMessage());
+    }
+    return new JSONObject();
+  }
+
+  @Override
+  public ListenableFuture<JSONObject> verifyResponseAsync(final String requestUri,
+      final String postBody) {
+    try {
+      return getExecutor().submit(new Callable<JSONObject>() {
+        @Override
+        public JSONObject call() throws IOException {
+          return doVerifyResponse(requestUri, postBody);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.severe("verifyResponse rejected: " + e.getMessage());
+      return Futures.immediateFailedFuture(new IOException("Too many pending verifications", e));
+    }
+  }
+
+  /**
+   * Sends the verify request to googleapis.com and waits for the response.
    * 
    * @param requestUri the request URI of the IDP response.
    * @param postBody the post data of the IDP response.
-   * @return the profile data of the user, or nothing in it if failed.
+   * @return the profile data of the user.
+   * @throws IOException if googleapis.com cannot be reached or returns an invalid response.
    */
-  public JSONObject verifyResponse(String requestUri, String postBody) {
+  @VisibleForTesting
+  JSONObject doVerifyResponse(String requestUri, String postBody) throws IOException {
     log.fine("verifyResponse:\nrequestUri = [" + requestUri + "]\npostBody = [" + postBody + "]");
 
-    JSONObject result = new JSONObject();
+    List<ParsedResponse> responses = postBatch(buildPostData(requestUri, postBody));
+    return responses.isEmpty() ? new JSONObject() : responses.get(0).getProfile();
+  }
+
+  /**
+   * Posts a batch of JSON-RPC requests to googleapis.com. Unless {@code convertJson} is
+   * overridden, the response is parsed as a stream, keeping only the fields of the profile.
+   * 
+   * @param requests the requests
+   * @return the converted responses, in the order chosen by the server
+   * @throws IOException if googleapis.com cannot be reached or returns an invalid response.
+   */
+  List<ParsedResponse> postBatch(JSONArray requests) throws IOException {
+    String postData = requests.toString();
+    log.fine("verifyResponse postData:\n" + postData);
+
+    final String url = verifyUrl;
+    final HttpRequest request = HttpRequest.post(url + this.developerKey,
+        "application/json", postData.getBytes("UTF-8")).withTimeouts(getConnectTimeoutMillis(),
+        getReadTimeoutMillis());
+    HttpResponse response = retryPolicy.execute(new Callable<HttpResponse>() {
+      @Override
+      public HttpResponse call() throws IOException {
+        HttpResponse response = transport.execute(request);
+        if (response.getStatusCode() >= 500) {
+          response.close();
+          throw new HttpStatusException(response.getStatusCode(), url);
+        }
+        return response;
+      }
+    }, false, getDeadlineMillis());
     try {
-      URL url = new URL(VERIFY_URL + this.developerKey);
-      String postData = buildPostData(requestUri, postBody).toString();
-      log.fine("verifyResponse postData:\n" + postData);
-
-      HttpURLConnection httpurlconnection = (HttpURLConnection) url.openConnection();
-      httpurlconnection.setDoOutput(true);
-      httpurlconnection.setRequestProperty("Content-Type", "application/json");
-      httpurlconnection.setRequestMethod("POST");
-      httpurlconnection.getOutputStream().write(postData.getBytes());
-      httpurlconnection.getOutputStream().flush();
-      httpurlconnection.getOutputStream().close();
-
-      String content = Utils.streamToString(httpurlconnection.getInputStream(),
-          httpurlconnection.getContentEncoding());
+      if (streamingParser) {
+        return VerifyAssertionResponseParser.parse(response.getContent(),
+            response.getContentEncoding());
+      }
+      String content = Utils.streamToString(response.getContent(), response.getContentEncoding());
       log.fine("verifyResponse return: " + content);
+      JSONArray responses = new JSONArray(content);
+      List<ParsedResponse> results = new ArrayList<ParsedResponse>(responses.length());
+      for (int i = 0; i < responses.length(); i++) {
+        JSONObject json = responses.getJSONObject(i);
+        results.add(new ParsedResponse(json.has("id") ? json.getString("id") : null,
+            convertJson(json)));
+      }
+      return results;
+    } catch (JSONException e) {
+      throw new IOException("Invalid response: " + e.getMessage(), e);
+    } finally {
+      response.close();
+    }
+  }
+
+  private static boolean overridesConvertJson(Class<?> klass) {
+    for (Class<?> c = klass; c != GitServiceClientImpl.class; c = c.getSuperclass()) {
       try {
-        JSONArray response = new JSONArray(content);
-        if (response != null && response.length() > 0) {
-          JSONObject ret = response.getJSONObject(0);
-          result = convertJson(ret);
-        }
-      } catch (JSONException e) {
-        log.severe(e.getMessage());
+        c.getDeclaredMethod("convertJson", JSONObject.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Keeps looking in the super class.
       }
-    } catch (IOException e) {
-      log.severe(e.getMessage());
-    } catch (RuntimeException e) {
-      log.severe(e.getMessage());
     }
-    return result;
+    return false;
   }
 
   /**
@@ -170,7 +364,7 @@ public class GitServiceClientImpl implements GitServiceClient {
         ret.put("oauthExpireIn", result.get("oauthExpireIn"));
       }
       if (result.has("oauthRefreshToken")) {
-        ret.put("oauthRefreshToken", result.getInt("oauthRefreshToken"));
+        ret.put("oauthRefreshToken", result.get("oauthRefreshToken"));
       }
       if (result.has("oauthRequestToken")) {
         ret.put("oauthRequestToken", result.get("oauthRequestToken"));
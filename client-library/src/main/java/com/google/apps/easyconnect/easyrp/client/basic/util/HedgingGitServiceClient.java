@@ -0,0 +1,209 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A {@code GitServiceClient} decorator which sends a second, hedged request when the first one is
+ * slower than a percentile of the recent latencies, and returns the first good answer.
+ * <p>
+ * The hedged requests are limited by a budget: every request earns {@code budgetRatio} of a token,
+ * and a hedge spends a whole one, so at most {@code budgetRatio} of the requests are duplicated
+ * even when the service is slow for everybody.
+ * <p>
+ * Note: an IDP assertion may be single-use, in which case the loser of the race is rejected by
+ * googleapis.com as a replay. Hence an answer with an {@code error} is only returned when no other
+ * request is outstanding.
+ * <p>
+ * The blocking {@code verifyResponse} waits for {@code verifyResponseAsync}, since racing two
+ * requests takes the worker threads of the delegate.
+ */
+public class HedgingGitServiceClient extends AbstractGitServiceClient {
+  private static final Logger log = Logger.getLogger(HedgingGitServiceClient.class.getName());
+  private static final int MIN_SAMPLES = 10;
+  private static final double MAX_TOKENS = 10;
+
+  private final GitServiceClient delegate;
+  private final double percentile;
+  private final long minDelayMillis;
+  private final double budgetRatio;
+  private final Ticker ticker;
+  private final long[] samples;
+  private int sampleCount;
+  private int nextSample;
+  private double tokens;
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  /**
+   * Constructs a hedging client which keeps the latencies of the last 100 requests.
+   *
+   * @param delegate the client to send the requests
+   * @param percentile the percentile of the recent latencies to wait before hedging, like 0.95
+   * @param minDelayMillis the min time to wait before hedging
+   * @param budgetRatio the max ratio of requests which can be hedged, like 0.1
+   */
+  public HedgingGitServiceClient(GitServiceClient delegate, double percentile,
+      long minDelayMillis, double budgetRatio) {
+    this(delegate, percentile, minDelayMillis, budgetRatio, 100, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  HedgingGitServiceClient(GitServiceClient delegate, double percentile, long minDelayMillis,
+      double budgetRatio, int windowSize, Ticker ticker) {
+    Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(percentile > 0 && percentile <= 1);
+    Preconditions.checkArgument(minDelayMillis >= 0 && budgetRatio >= 0 && windowSize > 0);
+    this.delegate = delegate;
+    this.percentile = percentile;
+    this.minDelayMillis = minDelayMillis;
+    this.budgetRatio = budgetRatio;
+    this.samples = new long[windowSize];
+    this.ticker = ticker;
+  }
+
+  public GitServiceClient getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return how many hedged requests have been sent
+   */
+  public long getHedgeCount() {
+    return hedges.get();
+  }
+
+  /**
+   * @return how many hedged requests answered before the original request
+   */
+  public long getHedgeWinCount() {
+    return hedgeWins.get();
+  }
+
+  @Override
+  public ListenableFuture<JSONObject> verifyResponseAsync(final String requestUri,
+      final String postBody) {
+    final Race race = new Race();
+    long delay = earnTokenAndGetDelay();
+    race.start(delegate.verifyResponseAsync(requestUri, postBody), false);
+    if (delay >= 0) {
+      SharedExecutors.timer("HedgingGitServiceClient").schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (!race.result.isDone() && trySpendToken()) {
+            hedges.incrementAndGet();
+            log.fine("Sending a hedged verifyResponse request");
+            race.start(delegate.verifyResponseAsync(requestUri, postBody), true);
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    return race.result;
+  }
+
+  /**
+   * Adds {@code budgetRatio} to the hedge budget and returns the hedge delay.
+   *
+   * @return the delay in milliseconds, or -1 if there are not enough samples yet
+   */
+  private synchronized long earnTokenAndGetDelay() {
+    tokens = Math.min(MAX_TOKENS, tokens + budgetRatio);
+    if (sampleCount < MIN_SAMPLES) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(samples, sampleCount);
+    Arrays.sort(sorted);
+    int index = Math.min(sampleCount - 1, (int) Math.ceil(percentile * sampleCount) - 1);
+    return Math.max(minDelayMillis, sorted[Math.max(0, index)]);
+  }
+
+  private synchronized boolean trySpendToken() {
+    if (tokens < 1) {
+      return false;
+    }
+    tokens -= 1;
+    return true;
+  }
+
+  @VisibleForTesting
+  synchronized void recordLatency(long millis) {
+    samples[nextSample] = millis;
+    nextSample = (nextSample + 1) % samples.length;
+    sampleCount = Math.min(sampleCount + 1, samples.length);
+  }
+
+  /**
+   * The original request and its hedge, racing for the result.
+   */
+  private class Race {
+    private final SettableFuture<JSONObject> result = SettableFuture.create();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicReference<JSONObject> errorAnswer = new AtomicReference<JSONObject>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    void start(ListenableFuture<JSONObject> future, final boolean hedge) {
+      outstanding.incrementAndGet();
+      final long start = ticker.read();
+      Futures.addCallback(future, new FutureCallback<JSONObject>() {
+        @Override
+        public void onSuccess(JSONObject answer) {
+          recordLatency(TimeUnit.NANOSECONDS.toMillis(ticker.read() - start));
+          if (answer != null && !answer.has("error")) {
+            if (result.set(answer) && hedge) {
+              hedgeWins.incrementAndGet();
+            }
+          } else {
+            errorAnswer.compareAndSet(null, answer == null ? new JSONObject() : answer);
+          }
+          finish();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          failure.compareAndSet(null, t);
+          finish();
+        }
+      });
+    }
+
+    private void finish() {
+      if (outstanding.decrementAndGet() == 0 && !result.isDone()) {
+        if (errorAnswer.get() != null) {
+          result.set(errorAnswer.get());
+        } else {
+          result.setException(failure.get());
+        }
+      }
+    }
+  }
+}
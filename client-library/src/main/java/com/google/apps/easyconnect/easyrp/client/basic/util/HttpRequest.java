@@ -0,0 +1,104 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * An immutable HTTP request sent through a {@code HttpTransport}.
+ */
+public final class HttpRequest {
+  private final String method;
+  private final String url;
+  private final String contentType;
+  private final byte[] content;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+
+  private HttpRequest(String method, String url, String contentType, byte[] content,
+      int connectTimeoutMillis, int readTimeoutMillis) {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(method));
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(url));
+    Preconditions.checkArgument(connectTimeoutMillis >= 0 && readTimeoutMillis >= 0);
+    this.method = method;
+    this.url = url;
+    this.contentType = contentType;
+    this.content = content;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  /**
+   * Creates a GET request without timeouts.
+   *
+   * @param url the target URL
+   * @return the request
+   */
+  public static HttpRequest get(String url) {
+    return new HttpRequest("GET", url, null, null, 0, 0);
+  }
+
+  /**
+   * Creates a POST request without timeouts.
+   *
+   * @param url the target URL
+   * @param contentType the content type of the post data
+   * @param content the post data
+   * @return the request
+   */
+  public static HttpRequest post(String url, String contentType, byte[] content) {
+    Preconditions.checkNotNull(content);
+    return new HttpRequest("POST", url, contentType, content, 0, 0);
+  }
+
+  /**
+   * Returns a copy of this request with the given timeouts. A timeout of zero means infinite, as
+   * for {@code URLConnection}.
+   *
+   * @param connectTimeoutMillis the connect timeout in milliseconds
+   * @param readTimeoutMillis the read timeout in milliseconds
+   * @return the new request
+   */
+  public HttpRequest withTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+    return new HttpRequest(method, url, contentType, content, connectTimeoutMillis,
+        readTimeoutMillis);
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+}
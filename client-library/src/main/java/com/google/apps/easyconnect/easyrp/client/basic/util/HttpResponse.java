@@ -0,0 +1,53 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response of a {@code HttpTransport}. Closing the response releases its connection, so it
+ * must always be closed, even when the content is not read.
+ */
+public interface HttpResponse extends Closeable {
+  /**
+   * @return the HTTP status code
+   */
+  int getStatusCode();
+
+  /**
+   * @return the value of the Content-Type header, or null if not present
+   */
+  String getContentType();
+
+  /**
+   * @return the value of the Content-Encoding header, or null if not present
+   */
+  String getContentEncoding();
+
+  /**
+   * Returns the response body. For error status codes this is the error body sent by the server.
+   *
+   * @return the response body, never null
+   */
+  InputStream getContent();
+
+  /**
+   * Consumes the rest of the body and releases the connection.
+   */
+  void close() throws IOException;
+}
@@ -0,0 +1,38 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a remote endpoint answers with a server error status.
+ */
+public class HttpStatusException extends IOException {
+  private static final long serialVersionUID = 1L;
+  private final int statusCode;
+
+  public HttpStatusException(int statusCode, String url) {
+    super("HTTP " + statusCode + " from " + url);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * @return the HTTP status code
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+}
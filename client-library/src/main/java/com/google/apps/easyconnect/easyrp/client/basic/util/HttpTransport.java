@@ -0,0 +1,34 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+
+/**
+ * Sends HTTP requests on behalf of the remote clients, such as {@code GitServiceClientImpl}. RP can
+ * plug in its own implementation to control how connections are created and reused.
+ */
+public interface HttpTransport {
+  /**
+   * Sends the request and returns the response. The caller must close the returned response, so
+   * the underlying connection can be reused.
+   *
+   * @param request the request to send
+   * @return the response, whose content should be consumed and closed by the caller
+   * @throws IOException if the request cannot be sent or the response cannot be read
+   */
+  HttpResponse execute(HttpRequest request) throws IOException;
+}
@@ -0,0 +1,140 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@code HttpTransport} over {@code HttpURLConnection} which lets the JDK reuse its sockets.
+ * <p>
+ * This transport does not own any connection: the sockets are kept alive and reused by the JDK
+ * keep-alive cache, which only takes a connection back once its response body (or error body) has
+ * been read to the end and closed, and keeps at most {@code http.maxConnections} (default 5) idle
+ * sockets per host for {@code http.keepAlive.time}. This transport always drains the body when a
+ * response is closed, and disconnects only the connections which failed, so a healthy connection
+ * always goes back to that cache. It does not limit the number of concurrent requests.
+ */
+public class KeepAliveHttpTransport implements HttpTransport {
+
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    URL url = new URL(request.getUrl());
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setConnectTimeout(request.getConnectTimeoutMillis());
+      connection.setReadTimeout(request.getReadTimeoutMillis());
+      connection.setRequestMethod(request.getMethod());
+      if (request.getContentType() != null) {
+        connection.setRequestProperty("Content-Type", request.getContentType());
+      }
+      byte[] content = request.getContent();
+      if (content != null) {
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(content.length);
+        OutputStream out = connection.getOutputStream();
+        try {
+          out.write(content);
+          out.flush();
+        } finally {
+          out.close();
+        }
+      }
+      int statusCode = connection.getResponseCode();
+      InputStream body = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+          ? connection.getErrorStream() : connection.getInputStream();
+      if (body == null) {
+        body = new ByteArrayInputStream(new byte[0]);
+      }
+      return new KeepAliveResponse(connection, statusCode, body);
+    } catch (IOException e) {
+      connection.disconnect();
+      throw e;
+    } catch (RuntimeException e) {
+      connection.disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * A response whose connection goes back to the JDK keep-alive cache when it is closed.
+   */
+  private static class KeepAliveResponse implements HttpResponse {
+    private final HttpURLConnection connection;
+    private final int statusCode;
+    private final InputStream body;
+    private final InputStream content;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    KeepAliveResponse(HttpURLConnection connection, int statusCode, InputStream body) {
+      this.connection = connection;
+      this.statusCode = statusCode;
+      this.body = body;
+      this.content = new FilterInputStream(body) {
+        @Override
+        public void close() throws IOException {
+          KeepAliveResponse.this.close();
+        }
+      };
+    }
+
+    @Override
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    @Override
+    public String getContentType() {
+      return connection.getContentType();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return connection.getContentEncoding();
+    }
+
+    @Override
+    public InputStream getContent() {
+      return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      boolean drained = false;
+      try {
+        byte[] buffer = new byte[1024];
+        while (body.read(buffer) >= 0) {
+          // Drains the body so that the JDK can reuse the socket.
+        }
+        body.close();
+        drained = true;
+      } finally {
+        if (!drained) {
+          connection.disconnect();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A histogram of latencies for hot paths, striped like {@code StripedCounter}.
+ * <p>
+ * The bucket b counts the latencies from 2^(b-1) included to 2^b nanoseconds excluded, so the
+ * percentiles are upper bounds within a factor of two. Recording allocates nothing and takes no
+ * lock.
+ */
+public final class LatencyHistogram {
+  private static final int BUCKETS = 40;
+  private static final int TOTAL = BUCKETS;
+  // Each stripe has a row with the buckets and the total, the rows being a cache line apart.
+  private static final int ROW = BUCKETS + 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+
+  static int bucket(long nanos) {
+    return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  public void record(long nanos) {
+    int row = StripedCounter.stripe() * ROW;
+    cells.incrementAndGet(row + bucket(nanos));
+    cells.addAndGet(row + TOTAL, Math.max(nanos, 0));
+  }
+
+  private long sum(int column) {
+    long sum = 0;
+    for (int i = 0; i < StripedCounter.STRIPES; i++) {
+      sum += cells.get(i * ROW + column);
+    }
+    return sum;
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      count += sum(bucket);
+    }
+    return count;
+  }
+
+  /**
+   * @return the sum of the latencies recorded
+   */
+  public long getTotalNanos() {
+    return sum(TOTAL);
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return an upper bound of the percentile, or 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+    long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      counts[bucket] = sum(bucket);
+      count += counts[bucket];
+    }
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank && seen > 0) {
+        return bucket == 0 ? 0 : 1L << bucket;
+      }
+    }
+    return 0;
+  }
+}
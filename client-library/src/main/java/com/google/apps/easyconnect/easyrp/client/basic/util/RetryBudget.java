@@ -0,0 +1,91 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * A token bucket which bounds the retries to a fraction of the calls. Each call deposits
+ * {@code retryRatio} tokens, each retry withdraws one, and a small reserve refills with time so
+ * that a quiet client can still retry. During an outage the retries therefore add at most
+ * {@code retryRatio} to the load, instead of multiplying it by the number of attempts.
+ */
+public class RetryBudget {
+  private final double retryRatio;
+  private final double minRetriesPerSecond;
+  private final double maxTokens;
+  private final Ticker ticker;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * Constructs a budget.
+   *
+   * @param retryRatio the tokens deposited by each call, e.g. 0.1 allows one retry per 10 calls
+   * @param minRetriesPerSecond the rate of the reserve, which refills regardless of the calls
+   * @param maxTokens the max number of tokens saved, which bounds the burst of retries
+   */
+  public RetryBudget(double retryRatio, double minRetriesPerSecond, double maxTokens) {
+    this(retryRatio, minRetriesPerSecond, maxTokens, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RetryBudget(double retryRatio, double minRetriesPerSecond, double maxTokens, Ticker ticker) {
+    Preconditions.checkArgument(retryRatio >= 0 && minRetriesPerSecond >= 0 && maxTokens >= 1);
+    this.retryRatio = retryRatio;
+    this.minRetriesPerSecond = minRetriesPerSecond;
+    this.maxTokens = maxTokens;
+    this.ticker = ticker;
+    // Starts with one second of reserve, so a new client can retry right away.
+    this.tokens = Math.min(maxTokens, minRetriesPerSecond);
+    this.lastRefillNanos = ticker.read();
+  }
+
+  /**
+   * Records a call, i.e. a first attempt.
+   */
+  public synchronized void deposit() {
+    tokens = Math.min(maxTokens, tokens + retryRatio);
+  }
+
+  /**
+   * Withdraws the token of a retry.
+   *
+   * @return true if the retry is allowed
+   */
+  public synchronized boolean tryWithdraw() {
+    long now = ticker.read();
+    double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    lastRefillNanos = now;
+    tokens = Math.min(maxTokens, tokens + elapsedSeconds * minRetriesPerSecond);
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  /**
+   * @return the number of tokens currently saved
+   */
+  public synchronized double getTokens() {
+    return tokens;
+  }
+}
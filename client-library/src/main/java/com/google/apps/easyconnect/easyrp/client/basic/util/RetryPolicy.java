@@ -0,0 +1,270 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * Retries the calls to a remote endpoint which fail with a transient {@code IOException}, waiting
+ * for an exponential backoff with full jitter between the attempts.
+ * <p>
+ * A call is either idempotent, and retried on any {@code IOException}, or not, and only retried
+ * when the request is known not to have been processed: the connection could not be opened, or
+ * the server answered 503. A verifyAssertion call is not idempotent, as the IDP response may be
+ * rejected as a replay once it has been seen.
+ * <p>
+ * The retries are bounded by a {@code RetryBudget}, which should be shared by all the calls to the
+ * same endpoint.
+ */
+public class RetryPolicy {
+  private static final Logger log = Logger.getLogger(RetryPolicy.class.getName());
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final double multiplier;
+  private final RetryBudget budget;
+  private final Random random = new Random();
+  /** The number of attempts made, by attempt number. */
+  private final AtomicLongArray attempts;
+  /** The number of calls which succeeded, by attempt number. */
+  private final AtomicLongArray successes;
+  private final AtomicLong budgetExhausted = new AtomicLong();
+
+  RetryPolicy(Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoffMillis = builder.initialBackoffMillis;
+    this.maxBackoffMillis = builder.maxBackoffMillis;
+    this.multiplier = builder.multiplier;
+    this.budget = builder.budget;
+    this.attempts = new AtomicLongArray(maxAttempts);
+    this.successes = new AtomicLongArray(maxAttempts);
+  }
+
+  /**
+   * @return a policy of up to 3 attempts, backing off from 100ms to 1s, and retrying at most 10%
+   *         of the calls beyond a reserve of one retry per second
+   */
+  public static RetryPolicy newDefault() {
+    return new Builder().build();
+  }
+
+  /**
+   * @return a policy which never retries
+   */
+  public static RetryPolicy noRetry() {
+    return new Builder().maxAttempts(1).build();
+  }
+
+  /**
+   * Calls {@code call} until it succeeds, fails with an error which cannot be retried, or the
+   * attempts or the retry budget are exhausted.
+   *
+   * @param call the call, which is made from the current thread
+   * @param idempotent whether the call can safely be made again once the server has seen it
+   * @return the result of the call
+   * @throws IOException the failure of the last attempt
+   */
+  public <T> T execute(Callable<T> call, boolean idempotent) throws IOException {
+    return execute(call, idempotent, Long.MAX_VALUE);
+  }
+
+  /**
+   * Calls {@code call} until it succeeds, fails with an error which cannot be retried, or the
+   * attempts, the retry budget or the time are exhausted.
+   *
+   * @param call the call, which is made from the current thread
+   * @param idempotent whether the call can safely be made again once the server has seen it
+   * @param timeoutMillis no retry is started if its backoff would end after this time
+   * @return the result of the call
+   * @throws IOException the failure of the last attempt
+   */
+  public <T> T execute(Callable<T> call, boolean idempotent, long timeoutMillis)
+      throws IOException {
+    long start = System.nanoTime();
+    if (budget != null) {
+      budget.deposit();
+    }
+    for (int attempt = 1;; attempt++) {
+      attempts.incrementAndGet(attempt - 1);
+      IOException failure;
+      try {
+        T result = call.call();
+        successes.incrementAndGet(attempt - 1);
+        return result;
+      } catch (IOException e) {
+        failure = e;
+      } catch (Exception e) {
+        throw Throwables.propagate(e);
+      }
+      if (attempt >= maxAttempts || !isRetryable(failure, idempotent)) {
+        throw failure;
+      }
+      long backoff = getBackoffMillis(attempt);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (elapsed + backoff >= timeoutMillis) {
+        throw failure;
+      }
+      if (budget != null && !budget.tryWithdraw()) {
+        budgetExhausted.incrementAndGet();
+        log.fine("Retry budget exhausted, giving up: " + failure);
+        throw failure;
+      }
+      log.fine("Attempt " + attempt + " failed after " + elapsed + "ms, retrying in " + backoff
+          + "ms: " + failure);
+      try {
+        sleep(backoff);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted = new InterruptedIOException("Retry interrupted");
+        interrupted.initCause(failure);
+        throw interrupted;
+      }
+    }
+  }
+
+  /**
+   * Whether a failure can be retried.
+   *
+   * @param e the failure
+   * @param idempotent whether the call is idempotent
+   * @return true if the call can be made again
+   */
+  @VisibleForTesting
+  static boolean isRetryable(IOException e, boolean idempotent) {
+    if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+      return false;
+    }
+    if (idempotent) {
+      return true;
+    }
+    return e instanceof ConnectException || e instanceof NoRouteToHostException
+        || e instanceof UnknownHostException
+        || (e instanceof HttpStatusException && ((HttpStatusException) e).getStatusCode() == 503);
+  }
+
+  /**
+   * @param attempt the number of the failed attempt, from 1
+   * @return a random backoff between 0 and the exponential bound of the attempt
+   */
+  @VisibleForTesting
+  long getBackoffMillis(int attempt) {
+    double bound = Math.min(maxBackoffMillis,
+        initialBackoffMillis * Math.pow(multiplier, attempt - 1));
+    double jitter;
+    synchronized (random) {
+      jitter = random.nextDouble();
+    }
+    return (long) (bound * jitter);
+  }
+
+  @VisibleForTesting
+  void sleep(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param attempt the attempt number, from 1
+   * @return the number of attempts made with this number
+   */
+  public long getAttemptCount(int attempt) {
+    return attempts.get(attempt - 1);
+  }
+
+  /**
+   * @param attempt the attempt number, from 1
+   * @return the number of calls which succeeded at this attempt
+   */
+  public long getSuccessCount(int attempt) {
+    return successes.get(attempt - 1);
+  }
+
+  /**
+   * @return the number of retries refused by the budget
+   */
+  public long getBudgetExhaustedCount() {
+    return budgetExhausted.get();
+  }
+
+  /**
+   * Builder class to setup a {@code RetryPolicy} instance.
+   */
+  public static class Builder {
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 1000;
+    private double multiplier = 2;
+    private RetryBudget budget = new RetryBudget(0.1, 1, 10);
+
+    /**
+     * @param val the max number of attempts, including the first one
+     */
+    public Builder maxAttempts(int val) {
+      Preconditions.checkArgument(val >= 1);
+      this.maxAttempts = val;
+      return this;
+    }
+
+    public Builder initialBackoffMillis(long val) {
+      Preconditions.checkArgument(val >= 0);
+      this.initialBackoffMillis = val;
+      return this;
+    }
+
+    public Builder maxBackoffMillis(long val) {
+      Preconditions.checkArgument(val >= 0);
+      this.maxBackoffMillis = val;
+      return this;
+    }
+
+    public Builder multiplier(double val) {
+      Preconditions.checkArgument(val >= 1);
+      this.multiplier = val;
+      return this;
+    }
+
+    /**
+     * @param val the budget of the retries, or null for no budget
+     */
+    public Builder budget(RetryBudget val) {
+      this.budget = val;
+      return this;
+    }
+
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Logger;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The thread pools and timers shared by all the instances of the library's classes, e.g. the
+ * worker threads of {@code GitServiceClientImpl.verifyResponseAsync}. Each is named after its
+ * user, created on first use, and stopped by {@code shutdown}, which the servlets call from their
+ * {@code destroy} so an undeployed web application does not leave threads behind.
+ */
+public final class SharedExecutors {
+  private static final Logger log = Logger.getLogger(SharedExecutors.class.getName());
+  // Read without locking on every call, written under the class lock.
+  private static final ConcurrentMap<String, ListeningExecutorService> pools =
+      Maps.newConcurrentMap();
+  private static final ConcurrentMap<String, ScheduledExecutorService> timers =
+      Maps.newConcurrentMap();
+
+  private SharedExecutors() {
+  }
+
+  /**
+   * Returns the bounded pool of the given name, creating it with
+   * {@code GitServiceClientImpl.newBoundedExecutor} if it does not exist.
+   *
+   * @param name the name of the pool, also the prefix of the names of its threads
+   * @param threads the number of worker threads
+   * @param queueSize the max number of tasks waiting for a thread
+   * @return the pool
+   */
+  public static ListeningExecutorService bounded(String name, int threads, int queueSize) {
+    ListeningExecutorService pool = pools.get(name);
+    if (pool != null) {
+      return pool;
+    }
+    synchronized (SharedExecutors.class) {
+      pool = pools.get(name);
+      if (pool == null) {
+        pool = MoreExecutors.listeningDecorator(
+            GitServiceClientImpl.newBoundedExecutor(name, threads, queueSize));
+        pools.put(name, pool);
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * Returns the single thread timer of the given name, creating it if it does not exist.
+   *
+   * @param name the name of the timer, also the prefix of the name of its thread
+   * @return the timer
+   */
+  public static ScheduledExecutorService timer(String name) {
+    ScheduledExecutorService timer = timers.get(name);
+    if (timer != null) {
+      return timer;
+    }
+    synchronized (SharedExecutors.class) {
+      timer = timers.get(name);
+      if (timer == null) {
+        timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build());
+        timers.put(name, timer);
+      }
+      return timer;
+    }
+  }
+
+  /**
+   * Stops all the pools and timers, dropping the tasks not started yet. A pool or timer used after
+   * this call is created again.
+   */
+  public static synchronized void shutdown() {
+    for (ExecutorService executor : pools.values()) {
+      executor.shutdownNow();
+    }
+    for (ExecutorService executor : timers.values()) {
+      executor.shutdownNow();
+    }
+    log.info("Stopped " + pools.size() + " pools and " + timers.size() + " timers.");
+    pools.clear();
+    timers.clear();
+  }
+}
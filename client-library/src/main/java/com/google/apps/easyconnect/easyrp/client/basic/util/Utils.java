@@ -15,7 +15,6 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -77,13 +76,13 @@ public class Utils {
     } else {
       isr = new InputStreamReader(is, encoding);
     }
-    BufferedReader reader = new BufferedReader(isr);
     StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[2048];
 
-    int ch;
+    int count;
     try {
-      while ((ch = reader.read()) >= 0) {
-        sb.append((char) ch);
+      while ((count = isr.read(buffer)) >= 0) {
+        sb.append(buffer, 0, count);
       }
     } catch (IOException e) {
       log.severe(e.getMessage());
@@ -0,0 +1,417 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.google.common.base.Strings;
+
+/**
+ * Parses the JSON-RPC response of verifyAssertion straight from the response stream. Only the
+ * fields used by {@code GitServiceClientImpl.convertJson} are kept, the others are skipped without
+ * being materialized, and the profile is built in the same pass.
+ * <p>
+ * The output is the same as parsing the response into a {@code JSONArray} and passing each
+ * element to the default {@code convertJson}.
+ */
+final class VerifyAssertionResponseParser {
+  /** The fields kept from the 'result' object, in the order they are copied to the profile. */
+  private static final String[] RESULT_FIELDS = {"verifiedEmail", "email", "firstName",
+      "lastName", "fullName", "photoUrl", "context", "oauthAccessToken", "oauthExpireIn",
+      "oauthRefreshToken", "oauthRequestToken"};
+  private static final int VERIFIED_EMAIL = 0;
+  private static final int EMAIL = 1;
+  private static final int FIRST_NAME = 2;
+  private static final int LAST_NAME = 3;
+  private static final int FULL_NAME = 4;
+  private static final int PHOTO_URL = 5;
+
+  private final Reader reader;
+  private final char[] buffer = new char[2048];
+  private int position;
+  private int limit;
+  private final StringBuilder text = new StringBuilder();
+
+  private VerifyAssertionResponseParser(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Parses a verifyAssertion response.
+   *
+   * @param in the response body, which is not closed
+   * @param encoding the charset of the body, or null for UTF-8
+   * @return the converted profiles, in the order of the response array
+   * @throws IOException if the body cannot be read or is not a JSON array of objects
+   */
+  static List<ParsedResponse> parse(InputStream in, String encoding) throws IOException {
+    Reader reader = new InputStreamReader(in, Strings.isNullOrEmpty(encoding) ? "UTF-8" : encoding);
+    return new VerifyAssertionResponseParser(reader).parseArray();
+  }
+
+  /**
+   * One element of the response array.
+   */
+  static final class ParsedResponse {
+    private final String id;
+    private final JSONObject profile;
+
+    ParsedResponse(String id, JSONObject profile) {
+      this.id = id;
+      this.profile = profile;
+    }
+
+    /**
+     * @return the JSON-RPC id of the element, or null if absent
+     */
+    String getId() {
+      return id;
+    }
+
+    /**
+     * @return the converted profile
+     */
+    JSONObject getProfile() {
+      return profile;
+    }
+  }
+
+  private List<ParsedResponse> parseArray() throws IOException {
+    List<ParsedResponse> responses = new ArrayList<ParsedResponse>();
+    expect('[');
+    if (peek() == ']') {
+      next();
+      return responses;
+    }
+    while (true) {
+      responses.add(parseElement());
+      char c = next();
+      if (c == ']') {
+        return responses;
+      } else if (c != ',') {
+        throw syntaxError("Expected ',' or ']'");
+      }
+    }
+  }
+
+  private ParsedResponse parseElement() throws IOException {
+    String id = null;
+    Object error = null;
+    Object[] fields = null;
+    expect('{');
+    if (peek() == '}') {
+      next();
+    } else {
+      while (true) {
+        String key = parseKey();
+        if ("id".equals(key)) {
+          Object value = parseValue();
+          id = value == JSONObject.NULL ? null : value.toString();
+        } else if ("error".equals(key)) {
+          error = parseValue();
+        } else if ("result".equals(key) && peek() == '{') {
+          fields = parseResult();
+        } else {
+          skipValue();
+        }
+        char c = next();
+        if (c == '}') {
+          break;
+        } else if (c != ',') {
+          throw syntaxError("Expected ',' or '}'");
+        }
+      }
+    }
+    try {
+      return new ParsedResponse(id, toProfile(error, fields));
+    } catch (JSONException e) {
+      throw new IOException("Invalid response: " + e.getMessage(), e);
+    }
+  }
+
+  private Object[] parseResult() throws IOException {
+    Object[] fields = new Object[RESULT_FIELDS.length];
+    expect('{');
+    if (peek() == '}') {
+      next();
+      return fields;
+    }
+    while (true) {
+      String key = parseKey();
+      int index = indexOf(key);
+      if (index >= 0) {
+        fields[index] = parseValue();
+      } else {
+        skipValue();
+      }
+      char c = next();
+      if (c == '}') {
+        return fields;
+      } else if (c != ',') {
+        throw syntaxError("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private static int indexOf(String key) {
+    for (int i = 0; i < RESULT_FIELDS.length; i++) {
+      if (RESULT_FIELDS[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Builds the profile the same way as the default {@code GitServiceClientImpl.convertJson}.
+   */
+  private static JSONObject toProfile(Object error, Object[] fields) throws JSONException {
+    JSONObject ret = new JSONObject();
+    if (error != null) {
+      ret.put("error", error);
+    } else if (fields != null) {
+      if (fields[VERIFIED_EMAIL] != null) {
+        ret.put("email", fields[VERIFIED_EMAIL]);
+        ret.put("trusted", true);
+      } else if (fields[EMAIL] != null) {
+        ret.put("email", fields[EMAIL]);
+        ret.put("trusted", false);
+      }
+      if (fields[FIRST_NAME] != null) {
+        ret.put("firstName", fields[FIRST_NAME]);
+      }
+      if (fields[LAST_NAME] != null) {
+        ret.put("lastName", fields[LAST_NAME]);
+      }
+      if (fields[FULL_NAME] != null) {
+        ret.put("fullName", fields[FULL_NAME]);
+        String fullName = fields[FULL_NAME].toString().trim();
+        int index = fullName.lastIndexOf(" ");
+        index = (index < 0) ? fullName.length() : index;
+        if (fields[FIRST_NAME] == null) {
+          ret.put("firstName", fullName.substring(0, index));
+        }
+        if (index < fullName.length() && fields[LAST_NAME] == null) {
+          ret.put("lastName", fullName.substring(index + 1).trim());
+        }
+      }
+      for (int i = PHOTO_URL; i < RESULT_FIELDS.length; i++) {
+        if (fields[i] != null) {
+          ret.put(RESULT_FIELDS[i], fields[i]);
+        }
+      }
+    }
+    return ret;
+  }
+
+  private String parseKey() throws IOException {
+    if (peek() != '"') {
+      throw syntaxError("Expected a key");
+    }
+    String key = parseString();
+    expect(':');
+    return key;
+  }
+
+  /**
+   * Parses a value into the same type as {@code JSONTokener.nextValue()}.
+   */
+  private Object parseValue() throws IOException {
+    char c = peek();
+    if (c == '"') {
+      return parseString();
+    }
+    text.setLength(0);
+    if (c == '{' || c == '[') {
+      copyValue(text);
+      try {
+        return new JSONTokener(text.toString()).nextValue();
+      } catch (JSONException e) {
+        throw new IOException("Invalid response: " + e.getMessage(), e);
+      }
+    }
+    while (position < limit || fill()) {
+      c = buffer[position];
+      if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+        break;
+      }
+      text.append(c);
+      position++;
+    }
+    if (text.length() == 0) {
+      throw syntaxError("Expected a value");
+    }
+    return JSONObject.stringToValue(text.toString());
+  }
+
+  private String parseString() throws IOException {
+    next();
+    text.setLength(0);
+    while (true) {
+      char c = nextRaw();
+      if (c == '"') {
+        return text.toString();
+      } else if (c == '\\') {
+        c = nextRaw();
+        switch (c) {
+          case 'b':
+            text.append('\b');
+            break;
+          case 't':
+            text.append('\t');
+            break;
+          case 'n':
+            text.append('\n');
+            break;
+          case 'f':
+            text.append('\f');
+            break;
+          case 'r':
+            text.append('\r');
+            break;
+          case 'u':
+            char[] hex = {nextRaw(), nextRaw(), nextRaw(), nextRaw()};
+            try {
+              text.append((char) Integer.parseInt(new String(hex), 16));
+            } catch (NumberFormatException e) {
+              throw syntaxError("Invalid escape");
+            }
+            break;
+          default:
+            text.append(c);
+        }
+      } else {
+        text.append(c);
+      }
+    }
+  }
+
+  private void skipValue() throws IOException {
+    copyValue(null);
+  }
+
+  /**
+   * Consumes one value, appending its text to {@code out} unless it is null.
+   */
+  private void copyValue(StringBuilder out) throws IOException {
+    int depth = 0;
+    boolean inString = false;
+    peek();
+    while (true) {
+      if (position >= limit && !fill()) {
+        if (depth == 0 && !inString) {
+          return;
+        }
+        throw syntaxError("Unterminated value");
+      }
+      char c = buffer[position];
+      if (inString) {
+        position++;
+        if (out != null) {
+          out.append(c);
+        }
+        if (c == '\\') {
+          char escaped = nextRaw();
+          if (out != null) {
+            out.append(escaped);
+          }
+        } else if (c == '"') {
+          inString = false;
+          if (depth == 0) {
+            return;
+          }
+        }
+        continue;
+      }
+      if (depth == 0 && (c == ',' || c == '}' || c == ']')) {
+        return;
+      }
+      position++;
+      if (out != null) {
+        out.append(c);
+      }
+      if (c == '"') {
+        inString = true;
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+        if (depth == 0) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    if (next() != expected) {
+      throw syntaxError("Expected '" + expected + "'");
+    }
+  }
+
+  /**
+   * @return the next non-whitespace char, without consuming it
+   */
+  private char peek() throws IOException {
+    while (position < limit || fill()) {
+      char c = buffer[position];
+      if (!Character.isWhitespace(c)) {
+        return c;
+      }
+      position++;
+    }
+    throw syntaxError("Unexpected end of response");
+  }
+
+  /**
+   * @return the next non-whitespace char
+   */
+  private char next() throws IOException {
+    char c = peek();
+    position++;
+    return c;
+  }
+
+  private char nextRaw() throws IOException {
+    if (position >= limit && !fill()) {
+      throw syntaxError("Unexpected end of response");
+    }
+    return buffer[position++];
+  }
+
+  private boolean fill() throws IOException {
+    limit = reader.read(buffer, 0, buffer.length);
+    position = 0;
+    if (limit < 0) {
+      limit = 0;
+      return false;
+    }
+    return true;
+  }
+
+  private IOException syntaxError(String message) {
+    return new IOException("Invalid response: " + message);
+  }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.json.JSONObject;
+
+import com.google.common.collect.Lists;
+
+public class AccountLookupCacheTest extends TestCase {
+
+  private static class CountingAccountService implements AccountService {
+    final List<String> lookups = Lists.newArrayList();
+    final Account account = EasyMock.createMock(Account.class);
+
+    @Override
+    public Account getAccountByEmail(String email) {
+      lookups.add(email);
+      return "user@example.com".equals(email) ? account : null;
+    }
+
+    @Override
+    public Account createFederatedAccount(JSONObject assertion) {
+      return null;
+    }
+
+    @Override
+    public boolean checkPassword(String email, String password) {
+      return false;
+    }
+
+    @Override
+    public void toFederated(String email) {
+    }
+  }
+
+  private CountingAccountService accountService;
+
+  @Override
+  protected void setUp() throws Exception {
+    accountService = new CountingAccountService();
+  }
+
+  public void testGetAccountByEmail_memoized() {
+    AccountLookupCache cache = new AccountLookupCache(accountService);
+    Assert.assertSame(accountService.account, cache.getAccountByEmail("user@example.com"));
+    Assert.assertSame(accountService.account, cache.getAccountByEmail("user@example.com"));
+    Assert.assertNull(cache.getAccountByEmail("unknown@example.com"));
+    Assert.assertNull(cache.getAccountByEmail("unknown@example.com"));
+    Assert.assertEquals(Lists.newArrayList("user@example.com", "unknown@example.com"),
+        accountService.lookups);
+  }
+
+  public void testInvalidateAndPut() {
+    AccountLookupCache cache = new AccountLookupCache(accountService);
+    cache.getAccountByEmail("user@example.com");
+    cache.invalidate("user@example.com");
+    cache.getAccountByEmail("user@example.com");
+    Assert.assertEquals(2, accountService.lookups.size());
+
+    Account created = EasyMock.createMock(Account.class);
+    cache.put("new@example.com", created);
+    Assert.assertSame(created, cache.getAccountByEmail("new@example.com"));
+    Assert.assertEquals(2, accountService.lookups.size());
+  }
+
+  public void testPrefetch() {
+    AccountLookupCache cache = new AccountLookupCache(accountService);
+    cache.prefetch("user@example.com");
+    cache.prefetch("user@example.com");
+    Assert.assertSame(accountService.account, cache.getAccountByEmail("user@example.com"));
+    cache.prefetch("user@example.com");
+    Assert.assertSame(accountService.account, cache.getAccountByEmail("user@example.com"));
+    Assert.assertEquals(Lists.newArrayList("user@example.com"), accountService.lookups);
+  }
+
+  public void testGetAccountByEmailAsync() throws Exception {
+    AccountLookupCache cache = new AccountLookupCache(accountService);
+    Assert.assertSame(accountService.account,
+        cache.getAccountByEmailAsync("user@example.com").get(5, TimeUnit.SECONDS));
+    // The pending lookup is taken over by the blocking one, then memoized.
+    Assert.assertSame(accountService.account, cache.getAccountByEmail("user@example.com"));
+    Assert.assertTrue(cache.getAccountByEmailAsync("user@example.com").isDone());
+    Assert.assertEquals(Lists.newArrayList("user@example.com"), accountService.lookups);
+  }
+
+  public void testForRequest() {
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getAttribute(AccountLookupCache.class.getName())).andReturn(null);
+    request.setAttribute(EasyMock.eq(AccountLookupCache.class.getName()),
+        EasyMock.isA(AccountLookupCache.class));
+    EasyMock.replay(request);
+    Assert.assertNotNull(AccountLookupCache.forRequest(request, accountService));
+    EasyMock.verify(request);
+
+    AccountLookupCache cache = new AccountLookupCache(accountService);
+    request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getAttribute(AccountLookupCache.class.getName())).andReturn(cache);
+    EasyMock.replay(request);
+    Assert.assertSame(cache, AccountLookupCache.forRequest(request, accountService));
+    EasyMock.verify(request);
+  }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.FakeTicker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class CachingAccountServiceTest extends TestCase {
+
+  private static class FakeAccountService implements AccountService {
+    final List<String> lookups = Lists.newArrayList();
+    final Set<String> registered = Sets.newHashSet("user@example.com");
+    final Account account = EasyMock.createMock(Account.class);
+
+    @Override
+    public Account getAccountByEmail(String email) {
+      lookups.add(email);
+      if ("broken@example.com".equals(email)) {
+        throw new IllegalStateException("Database is down");
+      }
+      return registered.contains(email) ? account : null;
+    }
+
+    @Override
+    public Account createFederatedAccount(JSONObject assertion) {
+      registered.add(assertion.optString("email"));
+      return account;
+    }
+
+    @Override
+    public boolean checkPassword(String email, String password) {
+      return "secret".equals(password);
+    }
+
+    @Override
+    public void toFederated(String email) throws AccountException {
+      throw new AccountException(AccountException.UNKNOWN_ERROR);
+    }
+  }
+
+  private FakeAccountService delegate;
+  private FakeTicker ticker;
+  private CachingAccountService accountService;
+
+  @Override
+  protected void setUp() throws Exception {
+    delegate = new FakeAccountService();
+    ticker = new FakeTicker();
+    accountService = new CachingAccountService(delegate, 5000, 2, ticker);
+  }
+
+  public void testGetAccountByEmail_cachesHitsAndMisses() {
+    Assert.assertSame(delegate.account, accountService.getAccountByEmail("user@example.com"));
+    Assert.assertSame(delegate.account, accountService.getAccountByEmail("user@example.com"));
+    Assert.assertNull(accountService.getAccountByEmail("unknown@example.com"));
+    Assert.assertNull(accountService.getAccountByEmail("unknown@example.com"));
+    Assert.assertEquals(Lists.newArrayList("user@example.com", "unknown@example.com"),
+        delegate.lookups);
+    Assert.assertEquals(2, accountService.getStats().hitCount());
+    Assert.assertEquals(2, accountService.getStats().missCount());
+  }
+
+  public void testGetAccountByEmail_ttlAndSize() {
+    accountService.getAccountByEmail("user@example.com");
+    ticker.advance(6000);
+    accountService.getAccountByEmail("user@example.com");
+    Assert.assertEquals(2, delegate.lookups.size());
+
+    accountService.getAccountByEmail("a@example.com");
+    accountService.getAccountByEmail("b@example.com");
+    Assert.assertTrue(accountService.getStats().evictionCount() > 0);
+  }
+
+  public void testGetAccountByEmail_failuresNotCached() {
+    for (int i = 0; i < 2; i++) {
+      try {
+        accountService.getAccountByEmail("broken@example.com");
+        fail("Should throw the exception of the delegate.");
+      } catch (IllegalStateException e) {
+        Assert.assertEquals("Database is down", e.getMessage());
+      }
+    }
+    Assert.assertEquals(2, delegate.lookups.size());
+  }
+
+  public void testCreateFederatedAccount_invalidates() throws Exception {
+    Assert.assertNull(accountService.getAccountByEmail("new@example.com"));
+    accountService.createFederatedAccount(new JSONObject().put("email", "new@example.com"));
+    Assert.assertSame(delegate.account, accountService.getAccountByEmail("new@example.com"));
+
+    Assert.assertNull(accountService.getAccountByEmail("other@example.com"));
+    accountService.createFederatedAccount(new VerifiedAssertion.Builder()
+        .email("other@example.com").build());
+    Assert.assertSame(delegate.account, accountService.getAccountByEmail("other@example.com"));
+    Assert.assertEquals(4, delegate.lookups.size());
+  }
+
+  public void testToFederated_invalidatesOnFailure() {
+    accountService.getAccountByEmail("user@example.com");
+    try {
+      accountService.toFederated("user@example.com");
+      fail("Should throw the exception of the delegate.");
+    } catch (AccountException e) {
+    }
+    accountService.getAccountByEmail("user@example.com");
+    Assert.assertEquals(2, delegate.lookups.size());
+  }
+
+  public void testCheckPassword_notCached() {
+    Assert.assertTrue(accountService.checkPassword("user@example.com", "secret"));
+    Assert.assertFalse(accountService.checkPassword("user@example.com", "wrong"));
+    Assert.assertTrue(delegate.lookups.isEmpty());
+  }
+}
@@ -0,0 +1,109 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.data;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.data.OauthTokenResponse.OauthTokenType;
+
+public class VerifiedAssertionTest extends TestCase {
+
+  public void testFromJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("email", "user@example.com");
+    json.put("trusted", true);
+    json.put("firstName", "Jane");
+    json.put("context", "{\"a\":\"b\"}");
+    json.put("oauthAccessToken", "token");
+    json.put("oauthExpireIn", 3600);
+    json.put("custom", "kept");
+    VerifiedAssertion assertion = VerifiedAssertion.fromJson(json);
+
+    Assert.assertFalse(assertion.isError());
+    Assert.assertEquals("user@example.com", assertion.getEmail());
+    Assert.assertTrue(assertion.isTrusted());
+    Assert.assertEquals("Jane", assertion.getFirstName());
+    Assert.assertNull(assertion.getLastName());
+    Assert.assertEquals("{\"a\":\"b\"}", assertion.getContext());
+    Assert.assertEquals(3600, assertion.getOauthExpireIn());
+
+    // The unknown keys are kept, but neither the source nor the JSON form alias the assertion.
+    Assert.assertEquals("kept", assertion.toJson().getString("custom"));
+    json.put("email", "changed@example.com");
+    Assert.assertEquals("user@example.com", assertion.toJson().getString("email"));
+    JSONObject form = assertion.toJson();
+    Assert.assertNotSame(form, assertion.toJson());
+    form.put("trusted", false);
+    Assert.assertTrue(assertion.toJson().getBoolean("trusted"));
+  }
+
+  public void testFromJson_empty() {
+    Assert.assertEquals(0, VerifiedAssertion.fromJson(new JSONObject()).toJson().length());
+  }
+
+  public void testFromJson_error() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("error", "INVALID");
+    VerifiedAssertion assertion = VerifiedAssertion.fromJson(json);
+    Assert.assertTrue(assertion.isError());
+    Assert.assertEquals("INVALID", assertion.getError());
+    Assert.assertNull(assertion.getEmail());
+    Assert.assertFalse(assertion.hasTrusted());
+  }
+
+  public void testFromJson_emailWithoutTrusted() throws JSONException {
+    VerifiedAssertion assertion = VerifiedAssertion.fromJson(
+        new JSONObject().put("email", "user@example.com"));
+    Assert.assertEquals("user@example.com", assertion.getEmail());
+    Assert.assertFalse(assertion.hasTrusted());
+    Assert.assertFalse(assertion.isTrusted());
+  }
+
+  public void testBuilder_toJson() throws JSONException {
+    VerifiedAssertion assertion = new VerifiedAssertion.Builder().email("user@example.com")
+        .trusted(false).fullName("Jane Doe").oauthRequestToken("request").build();
+    JSONObject json = assertion.toJson();
+    Assert.assertNotSame(json, assertion.toJson());
+    Assert.assertEquals("user@example.com", json.getString("email"));
+    Assert.assertFalse(json.getBoolean("trusted"));
+    Assert.assertEquals("Jane Doe", json.getString("fullName"));
+    Assert.assertFalse(json.has("firstName"));
+    Assert.assertFalse(json.has("oauthExpireIn"));
+  }
+
+  public void testCreateOauthTokenResponse() {
+    VerifiedAssertion oauth2 = new VerifiedAssertion.Builder().oauthAccessToken("access")
+        .oauthExpireIn(60).oauthRefreshToken("refresh").build();
+    OauthTokenResponse token = OauthTokenResponse.createFromAssertion(oauth2);
+    Assert.assertEquals(OauthTokenType.OAUTH2_TOKEN, token.getType());
+    Assert.assertEquals("access", token.getAccessToken());
+    Assert.assertEquals(60, token.getExpireIn());
+    Assert.assertEquals("refresh", token.getRefreshToken());
+
+    VerifiedAssertion oauth1 = new VerifiedAssertion.Builder().oauthRequestToken("request")
+        .build();
+    token = OauthTokenResponse.createFromAssertion(oauth1);
+    Assert.assertEquals(OauthTokenType.OAUTH1_TOKEN, token.getType());
+    Assert.assertEquals("request", token.getRequestToken());
+
+    Assert.assertNull(OauthTokenResponse.createFromAssertion(
+        new VerifiedAssertion.Builder().build()));
+  }
+}
@@ -0,0 +1,162 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class AsyncGitNodeTest extends TestCase {
+
+  public static class Evaluator {
+    final List<SettableFuture<String>> pending = Lists.newArrayList();
+
+    public ListenableFuture<String> checkRemote(String request) {
+      if (request.startsWith("now:")) {
+        return Futures.immediateFuture(request.substring(4));
+      }
+      SettableFuture<String> future = SettableFuture.create();
+      pending.add(future);
+      return future;
+    }
+
+    public String checkLength(String request) {
+      return request.length() > 6 ? "long" : "short";
+    }
+
+    public String checkTwin(String request) {
+      return "trusted";
+    }
+
+    public ListenableFuture<String> checkTwinAsync(String request) {
+      return checkRemote(request);
+    }
+  }
+
+  public static class Actions {
+    final List<String> calls = Lists.newArrayList();
+    volatile String trustedThread;
+
+    public void trusted(String request) {
+      calls.add("trusted:" + request);
+      trustedThread = Thread.currentThread().getName();
+    }
+
+    public void other(String request) {
+      calls.add("other:" + request);
+    }
+  }
+
+  private Evaluator evaluator;
+  private Actions actions;
+
+  @Override
+  protected void setUp() throws Exception {
+    evaluator = new Evaluator();
+    actions = new Actions();
+  }
+
+  private GitNode buildTree() {
+    return new GitTreeBuilder(String.class, evaluator, actions)
+        .start("start", "checkRemote")
+        .decision("trusted", "start", "trusted", "checkLength")
+        .leaf("long", "trusted", "long", new String[] {"trusted"})
+        .leaf("short", "trusted", "DEFAULT", new String[] {"other"})
+        .leaf("error", "start", "DEFAULT", new String[] {"other"})
+        .build();
+  }
+
+  public void testExecuteAsync_resumesOnCompletion() throws Exception {
+    for (GitNode tree : new GitNode[] {buildTree(), CompiledGitTree.compile(buildTree()),
+        GeneratedGitTree.generate(buildTree())}) {
+      actions.calls.clear();
+      evaluator.pending.clear();
+      ListenableFuture<Void> done = ((AsyncGitNode) tree).executeAsync("request");
+      Assert.assertFalse(done.isDone());
+      Assert.assertTrue(actions.calls.isEmpty());
+      evaluator.pending.get(0).set("trusted");
+      done.get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(Lists.newArrayList("trusted:request"), actions.calls);
+      // Not on the thread completing the future, e.g. one of the pool of a remote service.
+      Assert.assertTrue(actions.trustedThread.startsWith("GitResume-"));
+    }
+  }
+
+  public void testExecuteAsync_completedFuture() throws Exception {
+    ListenableFuture<Void> done = ((AsyncGitNode) buildTree()).executeAsync("now:trusted");
+    Assert.assertTrue(done.isDone());
+    Assert.assertEquals(Lists.newArrayList("trusted:now:trusted"), actions.calls);
+  }
+
+  public void testExecuteAsync_failedFutureSelectsDefault() throws Exception {
+    ListenableFuture<Void> done = ((AsyncGitNode) buildTree()).executeAsync("request");
+    evaluator.pending.get(0).setException(new IllegalStateException("unreachable"));
+    done.get();
+    Assert.assertEquals(Lists.newArrayList("other:request"), actions.calls);
+  }
+
+  public void testExecuteAsync_noChild() throws Exception {
+    GitNode tree = new GitTreeBuilder(String.class, evaluator, actions)
+        .start("start", "checkRemote")
+        .leaf("trusted", "start", "trusted", new String[] {"trusted"})
+        .build();
+    ListenableFuture<Void> done = ((AsyncGitNode) tree).executeAsync("request");
+    evaluator.pending.get(0).set("untrusted");
+    try {
+      done.get();
+      fail("Expected no child to match");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  public void testExecuteAsync_callsAsyncTwin() throws Exception {
+    GitNode tree = new GitTreeBuilder(String.class, evaluator, actions)
+        .start("start", "checkTwin")
+        .leaf("trusted", "start", "trusted", new String[] {"trusted"})
+        .leaf("other", "start", "DEFAULT", new String[] {"other"})
+        .build();
+    tree.execute("sync");
+    Assert.assertTrue(evaluator.pending.isEmpty());
+    ListenableFuture<Void> done = ((AsyncGitNode) tree).executeAsync("async");
+    Assert.assertEquals(1, evaluator.pending.size());
+    evaluator.pending.get(0).set("untrusted");
+    done.get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(Lists.newArrayList("trusted:sync", "other:async"), actions.calls);
+  }
+
+  public void testExecute_waitsForFuture() {
+    for (GitNode tree : new GitNode[] {buildTree(), CompiledGitTree.compile(buildTree()),
+        GeneratedGitTree.generate(buildTree())}) {
+      actions.calls.clear();
+      tree.execute("now:trusted");
+      tree.execute("now:untrusted");
+      Assert.assertEquals(Lists.newArrayList("trusted:now:trusted", "other:now:untrusted"),
+          actions.calls);
+    }
+  }
+}
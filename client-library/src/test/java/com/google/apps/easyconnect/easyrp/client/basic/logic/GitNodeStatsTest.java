@@ -0,0 +1,104 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.AbstractGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.TestTrees;
+import com.google.common.collect.Lists;
+
+public class GitNodeStatsTest extends TestCase {
+
+  private GitNode buildTree() {
+    return new GitTreeBuilder(String.class, new TestTrees.Evaluator(),
+        new TestTrees.Actions())
+        .start("start", "checkFirst")
+        .leaf("x", "start", "x", new String[] {"a"})
+        .leaf("other", "start", "DEFAULT", new String[] {"fail"})
+        .build();
+  }
+
+  private static GitNodeStats stats(GitNode root, String id) {
+    List<GitRule> rules = Lists.newArrayList();
+    root.appendToRuleList(rules, null, null);
+    for (GitRule rule : rules) {
+      if (rule.getId().equals(id)) {
+        return rule.getStats();
+      }
+    }
+    throw new IllegalArgumentException(id);
+  }
+
+  private void checkRecorded(GitNode source, GitNode tree) {
+    for (String request : new String[] {"x", "xy", "y", "z", "X"}) {
+      tree.execute(request);
+    }
+    Assert.assertSame(((AbstractGitNode) source).getStats(), stats(tree, "start"));
+    GitNodeStats start = stats(source, "start");
+    Assert.assertEquals(5, start.getCount());
+    Assert.assertEquals(3, start.getEdgeCount("x"));
+    Assert.assertEquals(2, start.getEdgeCount("DEFAULT"));
+    Assert.assertEquals(0, start.getEdgeCount("unknown"));
+    Assert.assertEquals(3, stats(source, "x").getCount());
+    Assert.assertEquals(2, stats(source, "other").getCount());
+  }
+
+  public void testRecord_interpreter() {
+    GitNode source = buildTree();
+    checkRecorded(source, source);
+  }
+
+  public void testRecord_compiled() {
+    GitNode source = buildTree();
+    checkRecorded(source, CompiledGitTree.compile(source));
+  }
+
+  public void testRecord_generated() {
+    GitNode source = buildTree();
+    GitNode generated = GeneratedGitTree.generate(source);
+    Assert.assertTrue(generated instanceof GeneratedGitTree);
+    checkRecorded(source, generated);
+  }
+
+  public void testToJson() throws Exception {
+    GitNode source = buildTree();
+    source.execute("x");
+    GitRule rule = null;
+    List<GitRule> rules = Lists.newArrayList();
+    source.appendToRuleList(rules, null, null);
+    for (GitRule r : rules) {
+      if (r.getId().equals("x")) {
+        rule = r;
+      }
+    }
+    JSONArray json = rule.toJson(rule.getStats().getLatency().getTotalNanos(), 1);
+    String html = ((JSONObject) json.get(0)).getString("f");
+    Assert.assertTrue(html, html.contains("x (1)"));
+    Assert.assertTrue(html, html.contains("rgb(255,0,0)"));
+    Assert.assertTrue(json.getString(2).startsWith("x: 1 req"));
+    Assert.assertEquals(rule.toJson().toString(), rule.toJson(0, -1).toString());
+  }
+}
@@ -0,0 +1,110 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.common.collect.Lists;
+
+public class GitOutcomeTest extends TestCase {
+  public enum Size {
+    SMALL, LARGE, HUGE
+  }
+
+  public static class Evaluator {
+    private static final GitOutcome EVEN = GitOutcome.of("even");
+
+    public Size checkSize(String request) {
+      return request.length() < 3 ? Size.SMALL : request.length() < 6 ? Size.LARGE : Size.HUGE;
+    }
+
+    public GitOutcome checkParity(String request) {
+      return request.length() % 2 == 0 ? EVEN : null;
+    }
+  }
+
+  public static class Actions {
+    final List<String> calls = Lists.newArrayList();
+
+    public void small(String request) {
+      calls.add("small:" + request);
+    }
+
+    public void even(String request) {
+      calls.add("even:" + request);
+    }
+
+    public void other(String request) {
+      calls.add("other:" + request);
+    }
+  }
+
+  public void testOf() {
+    Assert.assertSame(GitOutcome.of("registered"), GitOutcome.of("Registered"));
+    Assert.assertEquals("registered", GitOutcome.of("REGISTERED").getKey());
+    Assert.assertSame(GitOutcome.DEFAULT, GitOutcome.of("default"));
+    Assert.assertEquals(0, GitOutcome.DEFAULT.getId());
+    Assert.assertTrue(GitOutcome.of("registered").getId() < GitOutcome.count());
+  }
+
+  public void testOf_enum() {
+    Assert.assertSame(GitOutcome.of("large"), GitOutcome.of(Size.LARGE));
+  }
+
+  public void testFromResult() {
+    GitOutcome outcome = GitOutcome.of("trusted");
+    Assert.assertSame(outcome, GitOutcome.fromResult("trusted"));
+    Assert.assertSame(outcome, GitOutcome.fromResult("Trusted"));
+    Assert.assertSame(outcome, GitOutcome.fromResult(outcome));
+    Assert.assertSame(GitOutcome.of("small"), GitOutcome.fromResult(Size.SMALL));
+    Assert.assertNull(GitOutcome.fromResult(null));
+    Assert.assertNull(GitOutcome.fromResult(Integer.valueOf(1)));
+    Assert.assertNull(GitOutcome.fromResult("never-registered-outcome"));
+    Assert.assertNull(GitOutcome.find("never-registered-outcome"));
+  }
+
+  private static GitNode buildTree(Actions actions) {
+    return new GitTreeBuilder(String.class, new Evaluator(), actions)
+        .start("start", "checkSize")
+        .leaf("small", "start", "small", new String[] {"small"})
+        .decision("parity", "start", "DEFAULT", "checkParity")
+        .leaf("even", "parity", "even", new String[] {"even"})
+        .leaf("other", "parity", "DEFAULT", new String[] {"other"})
+        .build();
+  }
+
+  public void testExecute_typedOutcomes() {
+    List<String> expected = Lists.newArrayList("small:ab", "even:abcd", "other:abcde",
+        "other:abcdefg");
+    Actions actions = new Actions();
+    List<GitNode> trees = Lists.newArrayList(buildTree(actions),
+        CompiledGitTree.compile(buildTree(actions)), GeneratedGitTree.generate(buildTree(actions)));
+    Assert.assertTrue(trees.get(2) instanceof GeneratedGitTree);
+    for (GitNode tree : trees) {
+      actions.calls.clear();
+      for (String request : new String[] {"ab", "abcd", "abcde", "abcdefg"}) {
+        tree.execute(request);
+      }
+      Assert.assertEquals(expected, actions.calls);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class GitTracerTest extends TestCase {
+
+  public static class Evaluator {
+    SettableFuture<String> pending;
+
+    public String checkFirst(String request) {
+      return request.substring(0, 1);
+    }
+
+    public ListenableFuture<String> checkRemote(String request) {
+      pending = SettableFuture.create();
+      return pending;
+    }
+  }
+
+  public static class Actions {
+    public void a(String request) {
+    }
+  }
+
+  private Evaluator evaluator;
+
+  @Override
+  protected void setUp() throws Exception {
+    evaluator = new Evaluator();
+    GitTracer.setCapacity(16);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    GitTracer.setSamplingRate(0);
+    GitTracer.setCapacity(256);
+  }
+
+  private GitNode buildTree() {
+    return new GitTreeBuilder(String.class, evaluator, new Actions())
+        .start("start", "checkFirst")
+        .leaf("x", "start", "x", new String[] {"a"})
+        .leaf("other", "start", "DEFAULT", new String[] {"a"})
+        .build();
+  }
+
+  private static void assertTrace(GitTrace trace, String... idsAndOutcomes) {
+    Assert.assertEquals(idsAndOutcomes.length / 2, trace.size());
+    for (int i = 0; i < trace.size(); i++) {
+      Assert.assertEquals(idsAndOutcomes[2 * i], trace.getNodeId(i));
+      Assert.assertEquals(idsAndOutcomes[2 * i + 1], trace.getOutcome(i));
+      Assert.assertTrue(trace.getNanos(i) >= 0);
+    }
+    Assert.assertTrue(trace.getTotalNanos() >= 0);
+  }
+
+  public void testTrace_allBackends() {
+    GitTracer.setSamplingRate(1);
+    for (GitNode tree : new GitNode[] {buildTree(), CompiledGitTree.compile(buildTree()),
+        GeneratedGitTree.generate(buildTree())}) {
+      tree.execute("x");
+      tree.execute("#");
+      List<GitTrace> traces = GitTracer.getTraces();
+      assertTrace(traces.get(0), "start", "DEFAULT", "other", null);
+      assertTrace(traces.get(1), "start", "x", "x", null);
+      Assert.assertEquals("start", traces.get(0).getTreeId());
+    }
+    Assert.assertEquals(6, GitTracer.getTraces().size());
+  }
+
+  public void testTrace_samplingAndCapacity() {
+    GitNode tree = buildTree();
+    tree.execute("x");
+    Assert.assertTrue(GitTracer.getTraces().isEmpty());
+
+    GitTracer.setSamplingRate(0.25);
+    Assert.assertEquals(0.25, GitTracer.getSamplingRate());
+    for (int i = 0; i < 100; i++) {
+      tree.execute("x");
+    }
+    Assert.assertEquals(16, GitTracer.getTraces().size());
+    GitTracer.setCapacity(64);
+    for (int i = 0; i < 100; i++) {
+      tree.execute("x");
+    }
+    Assert.assertEquals(25, GitTracer.getTraces().size());
+  }
+
+  public void testTrace_async() throws Exception {
+    GitTracer.setSamplingRate(1);
+    AsyncGitNode tree = (AsyncGitNode) new GitTreeBuilder(String.class, evaluator, new Actions())
+        .start("remote", "checkRemote")
+        .leaf("trusted", "remote", "trusted", new String[] {"a"})
+        .build();
+    ListenableFuture<Void> done = tree.executeAsync("x");
+    Assert.assertTrue(GitTracer.getTraces().isEmpty());
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        evaluator.pending.set("trusted");
+      }
+    };
+    thread.start();
+    thread.join();
+    done.get();
+    assertTrace(GitTracer.getTraces().get(0), "remote", "trusted", "trusted", null);
+  }
+
+  public void testToJson() throws Exception {
+    GitTracer.setSamplingRate(1);
+    buildTree().execute("x");
+    String json = GitTracer.getTraces().get(0).toJson().toString();
+    Assert.assertTrue(json, json.contains("\"outcome\":\"x\""));
+    Assert.assertTrue(json, json.contains("\"tree\":\"start\""));
+  }
+}
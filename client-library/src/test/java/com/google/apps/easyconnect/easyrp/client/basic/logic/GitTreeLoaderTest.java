@@ -0,0 +1,136 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class GitTreeLoaderTest extends TestCase {
+  private static final String USER_STATUS = "{\"flow\": \"USER_STATUS\", \"whitelist\": false, "
+      + "\"rules\": [{\"id\": \"start\", \"evaluator\": \"checkIdentifierType\"}, "
+      + "{\"id\": \"invalid\", \"parent\": \"start\", \"value\": \"DEFAULT\", "
+      + "\"actions\": [\"sendError\"]}]}";
+
+  private File file;
+
+  @Override
+  protected void tearDown() throws Exception {
+    GitTreeLoader.load("[]");
+    if (file != null) {
+      file.delete();
+    }
+  }
+
+  private static List<String> ruleIds(GitNode tree) {
+    List<GitRule> rules = Lists.newArrayList();
+    tree.appendToRuleList(rules, null, null);
+    List<String> ids = Lists.newArrayList();
+    for (GitRule rule : rules) {
+      ids.add(rule.getId());
+    }
+    return ids;
+  }
+
+  public void testDefinition_roundTrip() throws Exception {
+    List<GitRule> rules = Lists.newArrayList();
+    GitTree.getAcLegacySigninLogic(true, false).appendToRuleList(rules, null, null);
+    for (GitRule rule : rules) {
+      JSONObject definition = rule.toDefinition();
+      Assert.assertEquals(definition.toString(),
+          GitRule.fromDefinition(definition).toDefinition().toString());
+    }
+  }
+
+  public void testLoad() throws Exception {
+    GitNode builtIn = GitTree.getAcUserStatusLogic(false, false);
+    GitNode other = GitTree.getAcUserStatusLogic(true, false);
+    GitTreeLoader.load("[" + USER_STATUS + "]");
+    Assert.assertEquals(Lists.newArrayList("start", "invalid"),
+        ruleIds(GitTree.getAcUserStatusLogic(false, false)));
+    Assert.assertEquals(Lists.newArrayList("start", "invalid"),
+        ruleIds(GitTree.getAcUserStatusLogic(false, true)));
+    Assert.assertSame(other, GitTree.getAcUserStatusLogic(true, false));
+
+    GitTreeLoader.load("[]");
+    Assert.assertEquals(ruleIds(builtIn), ruleIds(GitTree.getAcUserStatusLogic(false, false)));
+  }
+
+  public void testLoad_exportedDefinition() throws Exception {
+    List<GitRule> rules = Lists.newArrayList();
+    GitTree.getAcCallbackPopupLogic(false, false).appendToRuleList(rules, null, null);
+    JSONArray jsonRules = new JSONArray();
+    for (GitRule rule : rules) {
+      jsonRules.put(rule.toDefinition());
+    }
+    JSONObject definition = new JSONObject().put("flow", "CALLBACK_REDIRECT").put("rules",
+        jsonRules);
+    GitTreeLoader.load(new JSONArray().put(definition).toString());
+    Assert.assertEquals(ruleIds(GitTree.getAcCallbackPopupLogic(false, false)),
+        ruleIds(GitTree.getAcCallbackRedirectLogic(true, true)));
+  }
+
+  public void testLoad_invalid() throws Exception {
+    GitNode tree = GitTree.getAcUserStatusLogic(false, false);
+    try {
+      GitTreeLoader.load("[" + USER_STATUS.replace("sendError", "noSuchAction") + "]");
+      fail("Expected the tree to fail to build");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      GitTreeLoader.load("[" + USER_STATUS.replace("USER_STATUS", "NO_SUCH_FLOW") + "]");
+      fail("Expected an unknown flow");
+    } catch (JSONException e) {
+      // expected
+    }
+    Assert.assertSame(tree, GitTree.getAcUserStatusLogic(false, false));
+  }
+
+  public void testWatch() throws Exception {
+    file = File.createTempFile("trees", ".json");
+    Files.write("[" + USER_STATUS + "]", file, Charsets.UTF_8);
+    GitTreeLoader loader = GitTreeLoader.watch(file, 1, TimeUnit.HOURS);
+    try {
+      Assert.assertEquals(2, ruleIds(GitTree.getAcUserStatusLogic(false, false)).size());
+      Assert.assertFalse(loader.check());
+
+      Files.write("[ " + USER_STATUS.replace("invalid", "invalidEmail") + "]", file,
+          Charsets.UTF_8);
+      Assert.assertTrue(loader.check());
+      Assert.assertEquals(Lists.newArrayList("start", "invalidEmail"),
+          ruleIds(GitTree.getAcUserStatusLogic(false, false)));
+
+      Files.write("[ {\"flow\": ", file, Charsets.UTF_8);
+      Assert.assertFalse(loader.check());
+      Assert.assertEquals(Lists.newArrayList("start", "invalidEmail"),
+          ruleIds(GitTree.getAcUserStatusLogic(false, false)));
+    } finally {
+      loader.stop();
+    }
+  }
+}
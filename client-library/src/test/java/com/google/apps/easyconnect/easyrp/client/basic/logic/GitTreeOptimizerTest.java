@@ -0,0 +1,175 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class GitTreeOptimizerTest extends TestCase {
+
+  public static class Evaluator {
+    public String lookup(String request) {
+      return request.startsWith("r") ? "registered" : "unregistered";
+    }
+
+    public String checkDomain(String request) {
+      return request.endsWith("idp") ? "idp" : "other";
+    }
+  }
+
+  public static class Actions {
+    final List<String> calls = Lists.newArrayList();
+
+    public void federated(String request) {
+      calls.add("federated:" + request);
+    }
+
+    public void unregistered(String request) {
+      calls.add("unregistered:" + request);
+    }
+  }
+
+  private static GitNodeStats decision(String id, long nanos, Object... edgeCounts) {
+    GitNodeStats stats = new GitNodeStats(id);
+    for (int i = 0; i < edgeCounts.length; i += 2) {
+      GitOutcome outcome = GitOutcome.of((String) edgeCounts[i]);
+      stats.addEdge(outcome);
+      for (int j = 0; j < (Integer) edgeCounts[i + 1]; j++) {
+        stats.recordDecision(outcome.getId(), nanos);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * A slow lookup, then a fast domain check for the unregistered users only, although the domain
+   * alone decides most requests.
+   */
+  private static List<GitRule> buildRules() {
+    List<GitRule> rules = Lists.newArrayList();
+    rules.add(new GitRule("start", null, null, false, "lookup", null,
+        decision("start", 1000, "DEFAULT", 50, "registered", 50)));
+    rules.add(new GitRule("domain", "start", "DEFAULT", false, "checkDomain", null,
+        decision("domain", 10, "idp", 40, "DEFAULT", 10)));
+    rules.add(new GitRule("fed", "domain", "idp", true, null, new String[] {"federated"}));
+    rules.add(new GitRule("unreg", "domain", "DEFAULT", true, null,
+        new String[] {"unregistered"}));
+    rules.add(new GitRule("reg", "start", "registered", true, null, new String[] {"federated"}));
+    return rules;
+  }
+
+  private static GitNode build(List<GitRule> rules, Actions actions) {
+    GitTreeBuilder builder = new GitTreeBuilder(String.class, new Evaluator(), actions);
+    for (GitRule rule : rules) {
+      if (rule.getParentId() == null) {
+        builder.start(rule.getId(), rule.getEvaluatorMethodName());
+      } else if (rule.isLeaf()) {
+        builder.leaf(rule.getId(), rule.getParentId(), rule.getParentValue(),
+            rule.getActionMethodNames());
+      } else {
+        builder.decision(rule.getId(), rule.getParentId(), rule.getParentValue(),
+            rule.getEvaluatorMethodName());
+      }
+    }
+    return builder.build();
+  }
+
+  private static List<String> ids(List<GitRule> rules) {
+    List<String> ids = Lists.newArrayList();
+    for (GitRule rule : rules) {
+      ids.add(rule.getId());
+    }
+    return ids;
+  }
+
+  public void testOptimize_hoistsCheapCheck() {
+    GitTreeOptimizer.Plan plan = new GitTreeOptimizer(ImmutableSet.of("lookup", "checkDomain"))
+        .optimize(buildRules());
+    Assert.assertTrue(plan.isImproved());
+    Assert.assertEquals(1, plan.getChanges().size());
+    Assert.assertEquals(Lists.newArrayList("domain", "fed", "start", "unreg", "reg"),
+        ids(plan.getRules()));
+    Assert.assertEquals("checkDomain", plan.getRules().get(0).getEvaluatorMethodName());
+    // 1000 + 0.5 * 10 before, 10 + 0.2 * 1000 after.
+    Assert.assertEquals(1005, plan.getCostBeforeNanos(), 1e-6);
+    Assert.assertEquals(210, plan.getCostAfterNanos(), 1e-6);
+    Assert.assertEquals(1.5, plan.getEvaluationsBefore(), 1e-6);
+    Assert.assertEquals(1.2, plan.getEvaluationsAfter(), 1e-6);
+  }
+
+  public void testOptimize_sameBehavior() {
+    String[] requests = {"r", "ridp", "u", "uidp"};
+    Actions expected = new Actions();
+    GitNode original = build(buildRules(), expected);
+    Actions actual = new Actions();
+    GitNode optimized = build(new GitTreeOptimizer(ImmutableSet.of("lookup", "checkDomain"))
+        .optimize(buildRules()).getRules(), actual);
+    for (String request : requests) {
+      original.execute(request);
+      optimized.execute(request);
+    }
+    Assert.assertEquals(expected.calls, actual.calls);
+  }
+
+  public void testOptimize_dependentEvaluatorKept() {
+    // The lookup may have side effects, so it cannot be skipped, and hoisting only adds cost.
+    GitTreeOptimizer.Plan plan = new GitTreeOptimizer(ImmutableSet.of("checkDomain"))
+        .optimize(buildRules());
+    Assert.assertFalse(plan.isImproved());
+    Assert.assertEquals(ids(buildRules()), ids(plan.getRules()));
+    Assert.assertEquals(plan.getCostBeforeNanos(), plan.getCostAfterNanos(), 1e-6);
+  }
+
+  public void testOptimize_removesUselessCheck() {
+    List<GitRule> rules = Lists.newArrayList();
+    rules.add(new GitRule("start", null, null, false, "lookup", null));
+    rules.add(new GitRule("domain", "start", "registered", false, "checkDomain", null));
+    rules.add(new GitRule("a", "domain", "idp", true, null, new String[] {"federated"}));
+    rules.add(new GitRule("b", "domain", "DEFAULT", true, null, new String[] {"federated"}));
+    rules.add(new GitRule("c", "start", "DEFAULT", true, null, new String[] {"unregistered"}));
+    GitTreeOptimizer.Plan plan = new GitTreeOptimizer(ImmutableSet.of("checkDomain"))
+        .optimize(rules);
+    Assert.assertEquals(1, plan.getChanges().size());
+    Assert.assertEquals(Lists.newArrayList("start", "b", "c"), ids(plan.getRules()));
+    Assert.assertEquals("registered", plan.getRules().get(1).getParentValue());
+  }
+
+  public void testOptimize_builtInTree() {
+    try {
+      GitTreeOptimizer.Plan plan = new GitTreeOptimizer(
+          GitTreeOptimizer.BUILT_IN_INDEPENDENT_EVALUATORS).optimize(GitTree.Flow.USER_STATUS,
+          true, false);
+      List<GitRule> rules = Lists.newArrayList();
+      GitTree.getAcUserStatusLogic(true, false).appendToRuleList(rules, null, null);
+      Assert.assertEquals(ids(rules), ids(plan.getRules()));
+      Assert.assertTrue(plan.toJson().has("rules"));
+
+      plan.apply(GitTree.Flow.USER_STATUS, true, false);
+      rules.clear();
+      GitTree.getAcUserStatusLogic(true, false).appendToRuleList(rules, null, null);
+      Assert.assertEquals(ids(plan.getRules()), ids(rules));
+    } finally {
+      GitTree.define(GitTree.Flow.USER_STATUS, true, false, null);
+    }
+  }
+}
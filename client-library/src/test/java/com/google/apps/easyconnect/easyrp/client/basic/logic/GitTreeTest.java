@@ -0,0 +1,76 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.CompiledGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GeneratedGitTree;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitDecisionNode;
+
+public class GitTreeTest extends TestCase {
+
+  @Override
+  protected void tearDown() throws Exception {
+    GitTree.setBackend(GitTree.Backend.COMPILED);
+  }
+
+  private static void assertAllTrees(Class<?> expectedClass) {
+    for (boolean useLocalIdpWhiteList : new boolean[] {true, false}) {
+      for (boolean returnProfileInfo : new boolean[] {true, false}) {
+        Assert.assertEquals(expectedClass,
+            GitTree.getAcUserStatusLogic(useLocalIdpWhiteList, returnProfileInfo).getClass());
+        Assert.assertEquals(expectedClass,
+            GitTree.getAcLegacySigninLogic(useLocalIdpWhiteList, returnProfileInfo).getClass());
+        Assert.assertEquals(expectedClass,
+            GitTree.getAcCallbackPopupLogic(useLocalIdpWhiteList, returnProfileInfo).getClass());
+        Assert.assertEquals(expectedClass, GitTree.getAcCallbackRedirectLogic(
+            useLocalIdpWhiteList, returnProfileInfo).getClass());
+      }
+    }
+  }
+
+  public void testGet_sameTree() {
+    GitTree.warmUp();
+    GitNode tree = GitTree.get(GitTree.Flow.USER_STATUS, true, false);
+    Assert.assertSame(tree, GitTree.getAcUserStatusLogic(true, false));
+    Assert.assertNotSame(tree, GitTree.getAcUserStatusLogic(true, true));
+    Assert.assertNotSame(tree, GitTree.getAcLegacySigninLogic(true, false));
+  }
+
+  public void testReplace() {
+    GitNode tree = GitTree.getAcCallbackPopupLogic(false, true);
+    GitNode replacement = CompiledGitTree.compile(GitLogicBuilderFactory
+        .getAcUserStatusLogicBuilder(false, true).start("start", "checkIdentifierType")
+        .leaf("invalidEmail", "start", "DEFAULT", new String[] {"sendError"}).build());
+    Assert.assertSame(tree, GitTree.replace(GitTree.Flow.CALLBACK_POPUP, false, true,
+        replacement));
+    Assert.assertSame(replacement, GitTree.getAcCallbackPopupLogic(false, true));
+    Assert.assertNotSame(replacement, GitTree.getAcCallbackPopupLogic(false, false));
+    GitTree.replace(GitTree.Flow.CALLBACK_POPUP, false, true, tree);
+    Assert.assertSame(tree, GitTree.getAcCallbackPopupLogic(false, true));
+  }
+
+  public void testSetBackend() {
+    Assert.assertEquals(GitTree.Backend.COMPILED, GitTree.getBackend());
+    assertAllTrees(CompiledGitTree.class);
+    GitTree.setBackend(GitTree.Backend.GENERATED);
+    assertAllTrees(GeneratedGitTree.class);
+    GitTree.setBackend(GitTree.Backend.INTERPRETER);
+    assertAllTrees(GitDecisionNode.class);
+  }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.common.collect.Lists;
+
+public class CompiledGitTreeTest extends TestCase {
+
+  public void testCompile_tables() {
+    CompiledGitTree tree = CompiledGitTree.compile(TestTrees.build(new TestTrees.Actions()));
+    Assert.assertEquals(6, tree.getNodeCount());
+    Assert.assertEquals("DEFAULT", tree.getOutcomes().get(0));
+    Assert.assertTrue(tree.getOutcomes().containsAll(Lists.newArrayList("x", "y", "one")));
+    Assert.assertEquals(4, tree.getOutcomes().size());
+  }
+
+  public void testExecute_noDefaultChild() {
+    GitNode compiled = CompiledGitTree.compile(new GitTreeBuilder(String.class,
+        new TestTrees.Evaluator(), new TestTrees.Actions()).start("start", "checkFirst")
+        .leaf("x", "start", "x", new String[] {"a"}).build());
+    try {
+      compiled.execute("z");
+      fail("Should throw IllegalStateException if no child matches.");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testExecute_wrongRequestType() {
+    try {
+      CompiledGitTree.compile(TestTrees.build(new TestTrees.Actions())).execute(Integer.valueOf(1));
+      fail("Should throw IllegalStateException if the request has a wrong type.");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testAppendToRuleList() {
+    GitNode source = TestTrees.build(new TestTrees.Actions());
+    List<GitRule> expected = Lists.newArrayList();
+    source.appendToRuleList(expected, null, null);
+    List<GitRule> rules = Lists.newArrayList();
+    CompiledGitTree.compile(source).appendToRuleList(rules, null, null);
+    Assert.assertEquals(expected.size(), rules.size());
+    for (int i = 0; i < rules.size(); i++) {
+      Assert.assertEquals(expected.get(i).getId(), rules.get(i).getId());
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+
+public class GeneratedGitTreeTest extends TestCase {
+
+  static class HiddenActions {
+    public void a(String request) {
+    }
+  }
+
+  public void testGenerate() {
+    Assert.assertTrue(GeneratedGitTree.generate(TestTrees.build(new TestTrees.Actions()))
+        instanceof GeneratedGitTree);
+  }
+
+  public void testExecute_noDefaultChild() {
+    GitNode generated = GeneratedGitTree.generate(new GitTreeBuilder(String.class,
+        new TestTrees.Evaluator(), new TestTrees.Actions()).start("start", "checkFirst")
+        .leaf("x", "start", "x", new String[] {"a"}).build());
+    Assert.assertTrue(generated instanceof GeneratedGitTree);
+    try {
+      generated.execute("z");
+      fail("Should throw IllegalStateException if no child matches.");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testExecute_wrongRequestType() {
+    try {
+      GeneratedGitTree.generate(TestTrees.build(new TestTrees.Actions()))
+          .execute(Integer.valueOf(1));
+      fail("Should throw IllegalStateException if the request has a wrong type.");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testGenerate_fallback() {
+    GitNode tree = GeneratedGitTree.generate(new GitTreeBuilder(String.class,
+        new TestTrees.Evaluator(), new HiddenActions()).start("start", "checkFirst")
+        .leaf("x", "start", "DEFAULT", new String[] {"a"}).build());
+    Assert.assertTrue(tree instanceof CompiledGitTree);
+    tree.execute("x");
+  }
+}
@@ -0,0 +1,51 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
+import com.google.common.collect.Lists;
+
+public class GitTreeBackendsTest extends TestCase {
+
+  public void testExecute_sameOnEachBackend() {
+    for (GitTree.Backend backend : GitTree.Backend.values()) {
+      TestTrees.Actions actions = new TestTrees.Actions();
+      GitNode tree = TestTrees.onBackend(TestTrees.build(actions), backend);
+      for (String request : TestTrees.REQUESTS) {
+        tree.execute(request);
+      }
+      Assert.assertEquals(backend.name(), TestTrees.CALLS, actions.calls);
+    }
+  }
+
+  public void testExecute_errorsContainedOnEachBackend() {
+    for (GitTree.Backend backend : GitTree.Backend.values()) {
+      TestTrees.Actions actions = new TestTrees.Actions();
+      GitNode tree = TestTrees.onBackend(new GitTreeBuilder(String.class,
+          new TestTrees.Evaluator(), actions).start("start", "checkBroken")
+          .leaf("x", "start", "x", new String[] {"b"})
+          .leaf("other", "start", "DEFAULT", new String[] {"broken", "a"})
+          .build(), backend);
+      tree.execute("x");
+      Assert.assertEquals(backend.name(), Lists.newArrayList("a:x"), actions.calls);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.common.collect.Lists;
+
+public class MethodInvokersTest extends TestCase {
+
+  public static class Evaluator {
+    public String check(String request) {
+      return request.length() > 0 ? "full" : "empty";
+    }
+
+    public static String staticCheck(String request) {
+      return "static:" + request;
+    }
+
+    public String fail(String request) throws IOException {
+      throw new IOException("failed: " + request);
+    }
+  }
+
+  public interface Action {
+    void act(String request);
+  }
+
+  public static class Recorder implements Action {
+    final List<String> calls = Lists.newArrayList();
+
+    public void act(String request) {
+      calls.add("act:" + request);
+    }
+
+    public void done(String request) {
+      calls.add("done:" + request);
+    }
+  }
+
+  static class HiddenEvaluator {
+    public String check(String request) {
+      return "hidden";
+    }
+  }
+
+  private static MethodInvoker bind(Class<?> klass, String name) {
+    return MethodInvokers.bind(ClassUtil.getMethod(klass, name, String.class));
+  }
+
+  public void testBind_instanceMethod() throws Exception {
+    MethodInvoker invoker = bind(Evaluator.class, "check");
+    Assert.assertFalse(invoker instanceof MethodInvokers.ReflectiveInvoker);
+    Assert.assertEquals("full", invoker.invoke(new Evaluator(), "x"));
+    Assert.assertEquals("empty", invoker.invoke(new Evaluator(), ""));
+  }
+
+  public void testBind_staticMethod() throws Exception {
+    MethodInvoker invoker = bind(Evaluator.class, "staticCheck");
+    Assert.assertFalse(invoker instanceof MethodInvokers.ReflectiveInvoker);
+    Assert.assertEquals("static:x", invoker.invoke(null, "x"));
+  }
+
+  public void testBind_voidAndInterfaceMethods() throws Exception {
+    Recorder recorder = new Recorder();
+    MethodInvoker act = MethodInvokers.bind(Action.class.getMethod("act", String.class));
+    Assert.assertFalse(act instanceof MethodInvokers.ReflectiveInvoker);
+    Assert.assertNull(act.invoke(recorder, "a"));
+    Assert.assertNull(bind(Recorder.class, "done").invoke(recorder, "b"));
+    Assert.assertEquals(Lists.newArrayList("act:a", "done:b"), recorder.calls);
+  }
+
+  public void testBind_checkedException() throws Exception {
+    for (MethodInvoker invoker : new MethodInvoker[] {bind(Evaluator.class, "fail"),
+        MethodInvokers.reflective(ClassUtil.getMethod(Evaluator.class, "fail", String.class))}) {
+      try {
+        invoker.invoke(new Evaluator(), "x");
+        fail("Expected the exception of the method");
+      } catch (IOException e) {
+        Assert.assertEquals("failed: x", e.getMessage());
+      }
+    }
+  }
+
+  public void testBind_reusesInvoker() throws Exception {
+    // Each lookup returns a new Method object, equal to the others.
+    MethodInvoker invoker = bind(Evaluator.class, "check");
+    Assert.assertSame(invoker, bind(Evaluator.class, "check"));
+    Assert.assertNotSame(invoker, bind(Evaluator.class, "staticCheck"));
+  }
+
+  public void testClear() throws Exception {
+    MethodInvoker invoker = bind(Evaluator.class, "check");
+    MethodInvokers.clear();
+    MethodInvoker rebound = bind(Evaluator.class, "check");
+    Assert.assertNotSame(invoker, rebound);
+    Assert.assertEquals(invoker.invoke(new Evaluator(), "a"), rebound.invoke(new Evaluator(), "a"));
+  }
+
+  public void testBind_nonPublicClass() throws Exception {
+    MethodInvoker invoker = bind(HiddenEvaluator.class, "check");
+    Assert.assertTrue(invoker instanceof MethodInvokers.ReflectiveInvoker);
+    Assert.assertEquals("hidden", invoker.invoke(new HiddenEvaluator(), "x"));
+  }
+
+  public void testBuild_bindsInvokers() {
+    Recorder recorder = new Recorder();
+    GitNode root = new GitTreeBuilder(String.class, new Evaluator(), recorder)
+        .start("start", "check")
+        .leaf("full", "start", "full", new String[] {"act", "done"})
+        .leaf("empty", "start", "DEFAULT", new String[] {"done"})
+        .build();
+    root.execute("x");
+    root.execute("");
+    Assert.assertEquals(Lists.newArrayList("act:x", "done:x", "done:"), recorder.calls);
+  }
+}
@@ -0,0 +1,101 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.Prefetch;
+import com.google.common.collect.Lists;
+
+public class PrefetchersTest extends TestCase {
+
+  public static class Evaluator {
+    final List<String> calls = Lists.newArrayList();
+
+    @Prefetch("prefetchLength")
+    public String checkLength(String request) {
+      calls.add("check:" + request);
+      return request.length() > 1 ? "long" : "short";
+    }
+
+    @Prefetch("prefetchLength")
+    public String checkLengthAgain(String request) {
+      calls.add("again:" + request);
+      return "done";
+    }
+
+    public void prefetchLength(String request) {
+      calls.add("prefetch:" + request);
+    }
+
+    @Prefetch("missing")
+    public String checkMissing(String request) {
+      return "done";
+    }
+  }
+
+  public static class Actions {
+    public void act(String request) {
+    }
+  }
+
+  private static GitNode buildTree(Evaluator evaluator) {
+    return new GitTreeBuilder(String.class, evaluator, new Actions())
+        .start("start", "checkLength")
+        .leaf("short", "start", "short", new String[] {"act"})
+        .decision("long", "start", "DEFAULT", "checkLengthAgain")
+        .leaf("done", "long", "DEFAULT", new String[] {"act"})
+        .build();
+  }
+
+  public void testExecute_prefetchesOnce() throws Exception {
+    List<String> expected = Lists.newArrayList("prefetch:a", "check:a", "prefetch:ab", "check:ab",
+        "again:ab");
+    Evaluator evaluator = new Evaluator();
+    GitNode source = buildTree(evaluator);
+    List<GitNode> trees = Lists.newArrayList(source, CompiledGitTree.compile(source),
+        GeneratedGitTree.generate(source));
+    Assert.assertTrue(trees.get(2) instanceof GeneratedGitTree);
+    for (GitNode tree : trees) {
+      evaluator.calls.clear();
+      tree.execute("a");
+      tree.execute("ab");
+      Assert.assertEquals(expected, evaluator.calls);
+
+      evaluator.calls.clear();
+      ((AsyncGitNode) tree).executeAsync("a").get();
+      ((AsyncGitNode) tree).executeAsync("ab").get();
+      Assert.assertEquals(expected, evaluator.calls);
+    }
+  }
+
+  public void testBuild_missingPrefetchMethod() {
+    try {
+      new GitTreeBuilder(String.class, new Evaluator(), new Actions())
+          .start("start", "checkMissing")
+          .leaf("done", "start", "DEFAULT", new String[] {"act"})
+          .build();
+      fail("Should throw IllegalStateException if the prefetch method is not found.");
+    } catch (IllegalStateException e) {
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.util.List;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTree;
+import com.google.common.collect.Lists;
+
+/**
+ * A small tree shared by the tests of the backends, with the requests walking each of its paths.
+ * Its evaluators and actions cover a static evaluator, a failing evaluator, an action returning a
+ * value and a failing action, and throw an {@code Error} for the trees checking it is contained.
+ */
+public class TestTrees {
+  /** The requests walking each path of the tree, a failing evaluator and a failing action. */
+  public static final String[] REQUESTS = {"x", "xy", "xyzw", "y", "z", "X"};
+
+  /** The actions called by {@code REQUESTS}, in order, on any backend. */
+  public static final List<String> CALLS = Lists.newArrayList("a:x", "a:xy", "b:xy", "a:xyzw",
+      "b:xyzw", "b:z", "a:X");
+
+  public static class Evaluator {
+    public String checkFirst(String request) {
+      return request.substring(0, 1);
+    }
+
+    public static String checkLength(String request) {
+      if (request.length() > 3) {
+        throw new IllegalArgumentException("too long");
+      }
+      return request.length() == 1 ? "One" : "many";
+    }
+
+    public String checkBroken(String request) {
+      throw new Error("broken");
+    }
+  }
+
+  public static class Actions {
+    public final List<String> calls = Lists.newArrayList();
+
+    public void a(String request) {
+      calls.add("a:" + request);
+    }
+
+    public String b(String request) {
+      calls.add("b:" + request);
+      return request;
+    }
+
+    public void fail(String request) {
+      throw new IllegalStateException("failed");
+    }
+
+    public void broken(String request) {
+      throw new Error("broken");
+    }
+  }
+
+  private TestTrees() {
+  }
+
+  public static GitNode build(Actions actions) {
+    return new GitTreeBuilder(String.class, new Evaluator(), actions)
+        .start("start", "checkFirst")
+        .leaf("other", "start", "DEFAULT", new String[] {"b"})
+        .decision("x", "start", "x", "checkLength")
+        .leaf("one", "x", "one", new String[] {"a"})
+        .leaf("many", "x", "DEFAULT", new String[] {"fail", "a", "b"})
+        .leaf("y", "start", "y", new String[0])
+        .build();
+  }
+
+  /**
+   * @return the tree run by a backend, as {@code GitTree} runs it
+   */
+  public static GitNode onBackend(GitNode root, GitTree.Backend backend) {
+    switch (backend) {
+      case INTERPRETER:
+        return root;
+      case GENERATED:
+        return GeneratedGitTree.generate(root);
+      default:
+        return CompiledGitTree.compile(root);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.logic.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class TimeBudgetTest extends TestCase {
+
+  public static class Evaluator {
+    // The last future which never completes on its own.
+    volatile SettableFuture<String> never;
+    volatile String thread;
+
+    public String checkSlow(String request) throws InterruptedException {
+      thread = Thread.currentThread().getName();
+      Thread.sleep(50);
+      return "fast";
+    }
+
+    public ListenableFuture<String> checkStalledAsync(String request) {
+      never = SettableFuture.create();
+      return never;
+    }
+
+    public String checkFast(String request) {
+      return "fast";
+    }
+
+    public ListenableFuture<String> checkFastAsync(String request) {
+      return Futures.immediateFuture("fast");
+    }
+
+    public String checkLate(String request) {
+      thread = Thread.currentThread().getName();
+      return "fast";
+    }
+
+    public ListenableFuture<String> checkLateAsync(String request) {
+      never = SettableFuture.create();
+      return never;
+    }
+  }
+
+  public static class Actions {
+    final List<String> calls = Lists.newArrayList();
+    volatile String fallbackThread;
+
+    public void fast(String request) {
+      calls.add("fast:" + request);
+    }
+
+    public void fallback(String request) {
+      calls.add("fallback:" + request);
+      fallbackThread = Thread.currentThread().getName();
+    }
+  }
+
+  private Evaluator evaluator;
+  private Actions actions;
+
+  @Override
+  protected void setUp() throws Exception {
+    evaluator = new Evaluator();
+    actions = new Actions();
+  }
+
+  private GitTreeBuilder builder(String rootEvaluator) {
+    return new GitTreeBuilder(String.class, evaluator, actions)
+        .start("start", rootEvaluator)
+        .leaf("fast", "start", "fast", new String[] {"fast"})
+        .leaf("slow", "start", "slow", new String[] {"fallback"})
+        .leaf("other", "start", "DEFAULT", new String[] {"fast"});
+  }
+
+  public void testExecute_evaluatorBudget() {
+    GitNode source = builder("checkStalledAsync").budget("start", 20, "slow").build();
+    GitNode generated = GeneratedGitTree.generate(source);
+    Assert.assertTrue(generated instanceof CompiledGitTree);
+    for (GitNode tree : new GitNode[] {source, CompiledGitTree.compile(source), generated}) {
+      tree.execute("a");
+    }
+    Assert.assertEquals(Lists.newArrayList("fallback:a", "fallback:a", "fallback:a"),
+        actions.calls);
+    Assert.assertEquals(3, ((GitDecisionNode) source).getStats().getTimeoutCount());
+    Assert.assertEquals(3, ((GitDecisionNode) source).getStats().getEdgeCount("slow"));
+  }
+
+  public void testBuild_budgetOnPlainEvaluator() {
+    // The evaluator cannot be stopped waiting for, so its budget would never apply.
+    try {
+      builder("checkSlow").budget("start", 20, "slow");
+      fail("Should throw IllegalArgumentException for a budget on a plain evaluator.");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testExecute_budgetCallsAsyncTwin() {
+    GitNode source = builder("checkLate").budget("start", 20, "slow").build();
+    for (GitNode tree : new GitNode[] {source, CompiledGitTree.compile(source)}) {
+      tree.execute("a");
+    }
+    Assert.assertEquals(Lists.newArrayList("fallback:a", "fallback:a"), actions.calls);
+    Assert.assertNull(evaluator.thread);
+    // The late future is cancelled, so it knows not to write the request.
+    Assert.assertTrue(evaluator.never.isCancelled());
+  }
+
+  public void testExecute_withinBudget() {
+    GitNode source = builder("checkFast").budget("start", 1000, "slow").build();
+    source.execute("a");
+    CompiledGitTree.compile(source).execute("b");
+    Assert.assertEquals(Lists.newArrayList("fast:a", "fast:b"), actions.calls);
+    Assert.assertEquals(0, ((GitDecisionNode) source).getStats().getTimeoutCount());
+  }
+
+  public void testExecuteAsync_evaluatorBudget() throws Exception {
+    GitNode source = builder("checkStalledAsync").budget("start", 20, "slow").build();
+    ((AsyncGitNode) source).executeAsync("a").get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(Lists.newArrayList("fallback:a"), actions.calls);
+    evaluator.never.set("fast");
+    Assert.assertEquals(Lists.newArrayList("fallback:a"), actions.calls);
+    // The walk is resumed off the timer thread.
+    Assert.assertTrue(actions.fallbackThread, actions.fallbackThread.startsWith("GitResume-"));
+  }
+
+  public void testExecute_requestBudget() {
+    GitNode source = new GitTreeBuilder(String.class, evaluator, actions)
+        .start("start", "checkFast")
+        .decision("stalled", "start", "fast", "checkStalledAsync")
+        .leaf("fast", "stalled", "fast", new String[] {"fast"})
+        .leaf("slow", "stalled", "DEFAULT", new String[] {"fallback"})
+        .leaf("other", "start", "DEFAULT", new String[] {"fast"})
+        .requestBudget(20)
+        .build();
+    source.execute("a");
+    CompiledGitTree.compile(source).execute("b");
+    Assert.assertEquals(Lists.newArrayList("fallback:a", "fallback:b"), actions.calls);
+  }
+
+  public void testBuild_noFallbackChild() {
+    try {
+      new GitTreeBuilder(String.class, evaluator, actions)
+          .start("start", "checkFast")
+          .leaf("fast", "start", "fast", new String[] {"fast"})
+          .budget("start", 20, "slow")
+          .build();
+      fail("Should throw IllegalStateException if no child is taken on timeout.");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testDefinition_budgets() throws Exception {
+    GitNode source = builder("checkFast").budget("start", 20, "slow").requestBudget(100).build();
+    List<GitRule> rules = Lists.newArrayList();
+    source.appendToRuleList(rules, null, null);
+    JSONObject definition = rules.get(0).toDefinition();
+    Assert.assertEquals(20, definition.getLong("budgetMillis"));
+    Assert.assertEquals("slow", definition.getString("fallback"));
+    Assert.assertEquals(100, definition.getLong("requestBudgetMillis"));
+    GitRule parsed = GitRule.fromDefinition(definition);
+    Assert.assertEquals(20, parsed.getBudgetMillis());
+    Assert.assertEquals("slow", parsed.getFallback());
+    Assert.assertEquals(100, parsed.getRequestBudgetMillis());
+  }
+}
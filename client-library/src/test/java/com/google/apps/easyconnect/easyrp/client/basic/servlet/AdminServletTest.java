@@ -0,0 +1,89 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitTracer;
+
+public class AdminServletTest extends TestCase {
+  private double samplingRate;
+
+  @Override
+  protected void setUp() throws Exception {
+    samplingRate = GitTracer.getSamplingRate();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    GitTracer.setSamplingRate(samplingRate);
+  }
+
+  private static HttpServletRequest newRequest(String format, String apply,
+      String traceSamplingRate) {
+    HttpServletRequest req = EasyMock.createNiceMock(HttpServletRequest.class);
+    EasyMock.expect(req.getParameter("format")).andReturn(format).anyTimes();
+    EasyMock.expect(req.getParameter("apply")).andReturn(apply).anyTimes();
+    EasyMock.expect(req.getParameter("traceSamplingRate")).andReturn(traceSamplingRate)
+        .anyTimes();
+    EasyMock.replay(req);
+    return req;
+  }
+
+  private static HttpServletResponse expectMethodNotAllowed() throws Exception {
+    HttpServletResponse resp = EasyMock.createMock(HttpServletResponse.class);
+    resp.setHeader("Allow", "POST");
+    resp.sendError(EasyMock.eq(HttpServletResponse.SC_METHOD_NOT_ALLOWED),
+        EasyMock.isA(String.class));
+    EasyMock.replay(resp);
+    return resp;
+  }
+
+  public void testDoGet_applyRequiresPost() throws Exception {
+    HttpServletResponse resp = expectMethodNotAllowed();
+    new AdminServlet().doGet(newRequest("optimize", "1", null), resp);
+    EasyMock.verify(resp);
+  }
+
+  public void testDoGet_traceSamplingRateRequiresPost() throws Exception {
+    GitTracer.setSamplingRate(0);
+    HttpServletResponse resp = expectMethodNotAllowed();
+    new AdminServlet().doGet(newRequest("traces", null, "1"), resp);
+    EasyMock.verify(resp);
+    Assert.assertEquals(0.0, GitTracer.getSamplingRate());
+  }
+
+  public void testDoPost_traceSamplingRate() throws Exception {
+    GitTracer.setSamplingRate(0);
+    StringWriter body = new StringWriter();
+    HttpServletResponse resp = EasyMock.createNiceMock(HttpServletResponse.class);
+    EasyMock.expect(resp.getWriter()).andReturn(new PrintWriter(body));
+    EasyMock.replay(resp);
+    new AdminServlet().doPost(newRequest("traces", null, "1"), resp);
+    Assert.assertEquals(1.0, GitTracer.getSamplingRate());
+    Assert.assertTrue(body.toString().startsWith("["));
+  }
+}
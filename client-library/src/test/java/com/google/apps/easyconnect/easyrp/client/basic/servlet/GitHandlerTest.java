@@ -0,0 +1,287 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.servlet;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.google.apps.easyconnect.easyrp.client.basic.logic.AsyncGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitNodeStats;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.GitRule;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.common.GitRequest;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.AbstractGitNode;
+import com.google.apps.easyconnect.easyrp.client.basic.logic.impl.GitTreeBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ForwardingListenableFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class GitHandlerTest extends TestCase {
+
+  private static class Tree implements AsyncGitNode {
+    final SettableFuture<Void> done = SettableFuture.create();
+    // False once the actions of the leaf have started.
+    boolean cancellable = true;
+    int syncCalls;
+
+    @Override
+    public void execute(Object request) {
+      syncCalls++;
+    }
+
+    @Override
+    public ListenableFuture<Void> executeAsync(Object request) {
+      if (cancellable) {
+        return done;
+      }
+      return new ForwardingListenableFuture.SimpleForwardingListenableFuture<Void>(done) {
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+          return false;
+        }
+      };
+    }
+
+    @Override
+    public void appendToRuleList(List<GitRule> rules, String parentId, String parentValue) {
+    }
+  }
+
+  public static class Evaluator {
+    final SettableFuture<String> result = SettableFuture.create();
+
+    public ListenableFuture<String> check(GitRequest request) {
+      return result;
+    }
+  }
+
+  public static class Actions {
+    final CountDownLatch sent = new CountDownLatch(1);
+
+    public void send(GitRequest request) {
+      sent.countDown();
+      request.getHttpServletResponse().setStatus(HttpServletResponse.SC_OK);
+    }
+  }
+
+  private static class FakeAsyncContext implements AsyncContext {
+    final List<AsyncListener> listeners = Lists.newArrayList();
+    final HttpServletResponse response;
+    int completeCalls;
+
+    FakeAsyncContext(HttpServletResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+      return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+      return true;
+    }
+
+    @Override
+    public void dispatch() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void complete() {
+      completeCalls++;
+    }
+
+    @Override
+    public void start(Runnable run) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+      listeners.add(listener);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest request,
+        ServletResponse response) {
+      listeners.add(listener);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+    }
+
+    @Override
+    public long getTimeout() {
+      return 0;
+    }
+
+    void fireTimeout() throws Exception {
+      for (AsyncListener listener : listeners) {
+        listener.onTimeout(new AsyncEvent(this));
+      }
+    }
+  }
+
+  private Tree tree;
+  private HttpServletResponse response;
+  private FakeAsyncContext asyncContext;
+
+  @Override
+  protected void setUp() throws Exception {
+    tree = new Tree();
+    response = EasyMock.createMock(HttpServletResponse.class);
+    asyncContext = new FakeAsyncContext(response);
+  }
+
+  private GitRequest newRequest(boolean asyncSupported) {
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.isAsyncSupported()).andReturn(asyncSupported);
+    if (asyncSupported) {
+      EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+    }
+    EasyMock.replay(request);
+    return new GitRequest(request, response, "user@example.com");
+  }
+
+  public void testExecute_completesWhenWalkDone() {
+    EasyMock.replay(response);
+    GitHandler.execute(tree, newRequest(true), true);
+    Assert.assertEquals(0, tree.syncCalls);
+    Assert.assertEquals(1, asyncContext.listeners.size());
+    Assert.assertEquals(0, asyncContext.completeCalls);
+    tree.done.set(null);
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    EasyMock.verify(response);
+  }
+
+  public void testExecute_walkFails() throws Exception {
+    EasyMock.expect(response.isCommitted()).andReturn(false);
+    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    EasyMock.replay(response);
+    GitHandler.execute(tree, newRequest(true), true);
+    tree.done.setException(new IllegalStateException("no child"));
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    EasyMock.verify(response);
+  }
+
+  public void testExecute_timeout() throws Exception {
+    EasyMock.expect(response.isCommitted()).andReturn(false);
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    EasyMock.replay(response);
+    GitHandler.execute(tree, newRequest(true), true);
+    asyncContext.fireTimeout();
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    // The walk finishing late does not complete the request again.
+    tree.done.set(null);
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    EasyMock.verify(response);
+  }
+
+  public void testExecute_walkEndingAfterTimeoutWritesNothing() throws Exception {
+    EasyMock.expect(response.isCommitted()).andReturn(false);
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    EasyMock.replay(response);
+    Evaluator evaluator = new Evaluator();
+    Actions actions = new Actions();
+    GitNode root = new GitTreeBuilder(GitRequest.class, evaluator, actions)
+        .start("start", "check")
+        .leaf("sent", "start", "DEFAULT", new String[] {"send"})
+        .build();
+    GitHandler.execute(root, newRequest(true), true);
+    asyncContext.fireTimeout();
+    evaluator.result.set("ok");
+    // The walk resumes on another thread, and takes the leaf before it sees it was cancelled.
+    GitNodeStats stats = ((AbstractGitNode) root).getStats();
+    for (int i = 0; i < 500 && stats.getCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(1, stats.getCount());
+    Assert.assertFalse(actions.sent.await(100, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    EasyMock.verify(response);
+  }
+
+  public void testExecute_timeoutWaitsForStartedActions() throws Exception {
+    EasyMock.replay(response);
+    tree.cancellable = false;
+    GitHandler.execute(tree, newRequest(true), true);
+    Thread container = new Thread() {
+      @Override
+      public void run() {
+        try {
+          asyncContext.fireTimeout();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    container.start();
+    container.join(100);
+    Assert.assertTrue(container.isAlive());
+    tree.done.set(null);
+    container.join(5000);
+    Assert.assertFalse(container.isAlive());
+    Assert.assertEquals(1, asyncContext.completeCalls);
+    EasyMock.verify(response);
+  }
+
+  public void testExecute_asyncNotSupported() {
+    EasyMock.replay(response);
+    GitHandler.execute(tree, newRequest(false), true);
+    Assert.assertEquals(1, tree.syncCalls);
+    Assert.assertTrue(asyncContext.listeners.isEmpty());
+  }
+}
@@ -0,0 +1,57 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.servlet;
+
+import java.io.File;
+
+import javax.servlet.ServletConfig;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+public class GitServletTest extends TestCase {
+  private File definitions;
+
+  @Override
+  protected void setUp() throws Exception {
+    definitions = File.createTempFile("trees", ".json");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    definitions.delete();
+  }
+
+  private ServletConfig newConfig(String checkSeconds) {
+    ServletConfig config = EasyMock.createNiceMock(ServletConfig.class);
+    EasyMock.expect(config.getInitParameter("treeDefinitions"))
+        .andReturn(definitions.getPath()).anyTimes();
+    EasyMock.expect(config.getInitParameter("treeDefinitionsCheckSeconds"))
+        .andReturn(checkSeconds).anyTimes();
+    EasyMock.replay(config);
+    return config;
+  }
+
+  public void testInit_badCheckSecondsFallsBack() throws Exception {
+    for (String checkSeconds : new String[] {"ten", "0", "-5", "30"}) {
+      GitServlet servlet = new GitServlet();
+      servlet.init(newConfig(checkSeconds));
+      servlet.destroy();
+    }
+  }
+}
@@ -36,6 +36,9 @@ public class RpConfigTest extends TestCase {
     properties.put("RP.Config.homeUrl", "/home.jsp");
     properties.put("RP.Config.loginUrl", "/login.jsp");
     properties.put("RP.Config.signupUrl", "/signup.jsp");
+    properties.put("RP.Config.rpcConnectTimeout", "2000");
+    properties.put("RP.Config.rpcReadTimeout", "3000");
+    properties.put("RP.Config.rpcDeadline", "abc");
     RpConfig config = new RpConfig(properties);
     Assert.assertEquals("EMAIL", config.getSessionCookieName());
     Assert.assertEquals("IDPASSERTION", config.getIdpAssertionCookieName());
@@ -48,6 +51,9 @@ public class RpConfigTest extends TestCase {
     Assert.assertEquals("/home.jsp", config.getHomeUrl());
     Assert.assertEquals("/login.jsp", config.getLoginUrl());
     Assert.assertEquals("/signup.jsp", config.getSignupUrl());
+    Assert.assertEquals(2000, config.getRpcConnectTimeout());
+    Assert.assertEquals(3000, config.getRpcReadTimeout());
+    Assert.assertEquals(0, config.getRpcDeadline());
   }
 
   public void testRpConfigBuilder() {
@@ -56,7 +62,8 @@ public class RpConfigTest extends TestCase {
         .maxAgeOfSession(-1).maxAgeOfIdpAssertion(1800).domain("/login").path("/")
         .sessionUserKey("login_account").sessionIdpAssertionKey("idp_assertion")
         .siteUrl("http://localhost:8888").homeUrl("/home.jsp").loginUrl("/login.jsp")
-        .signupUrl("/signup.jsp").build();
+        .signupUrl("/signup.jsp").rpcConnectTimeout(2000).rpcReadTimeout(3000).rpcDeadline(4000)
+        .build();
     Assert.assertEquals("EMAIL", config.getSessionCookieName());
     Assert.assertEquals("IDPASSERTION", config.getIdpAssertionCookieName());
     Assert.assertEquals(-1, config.getMaxAgeOfSession());
@@ -68,5 +75,8 @@ public class RpConfigTest extends TestCase {
     Assert.assertEquals("/home.jsp", config.getHomeUrl());
     Assert.assertEquals("/login.jsp", config.getLoginUrl());
     Assert.assertEquals("/signup.jsp", config.getSignupUrl());
+    Assert.assertEquals(2000, config.getRpcConnectTimeout());
+    Assert.assertEquals(3000, config.getRpcReadTimeout());
+    Assert.assertEquals(4000, config.getRpcDeadline());
   }
 }
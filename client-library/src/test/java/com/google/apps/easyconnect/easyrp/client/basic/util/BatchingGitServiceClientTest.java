@@ -0,0 +1,166 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class BatchingGitServiceClientTest extends TestCase {
+  private EchoTransport transport;
+
+  protected void setUp() throws Exception {
+    transport = new EchoTransport();
+  }
+
+  public void testVerifyResponseAsync_fullBatch() throws Exception {
+    BatchingGitServiceClient client = new BatchingGitServiceClient("key", transport,
+        MoreExecutors.sameThreadExecutor(), 60000, 3);
+    ListenableFuture<JSONObject> first = client.verifyResponseAsync("http://a", null);
+    ListenableFuture<JSONObject> second = client.verifyResponseAsync("http://b", null);
+    Assert.assertFalse(first.isDone());
+    ListenableFuture<JSONObject> third = client.verifyResponseAsync("http://c", null);
+    Assert.assertEquals(1, transport.calls.get());
+    Assert.assertEquals("a@example.com", first.get().getString("email"));
+    Assert.assertEquals("b@example.com", second.get().getString("email"));
+    Assert.assertEquals("c@example.com", third.get().getString("email"));
+  }
+
+  public void testVerifyResponseAsync_window() throws Exception {
+    BatchingGitServiceClient client = new BatchingGitServiceClient("key", transport,
+        MoreExecutors.sameThreadExecutor(), 50, 10);
+    ListenableFuture<JSONObject> first = client.verifyResponseAsync("http://a", null);
+    ListenableFuture<JSONObject> second = client.verifyResponseAsync("http://b", null);
+    Assert.assertEquals("a@example.com", first.get().getString("email"));
+    Assert.assertEquals("b@example.com", second.get().getString("email"));
+    Assert.assertEquals(1, transport.calls.get());
+  }
+
+  public void testVerifyResponseAsync_failure() throws Exception {
+    transport.fail = true;
+    BatchingGitServiceClient client = new BatchingGitServiceClient("key", transport,
+        MoreExecutors.sameThreadExecutor(), 60000, 2);
+    ListenableFuture<JSONObject> first = client.verifyResponseAsync("http://a", null);
+    client.verifyResponseAsync("http://b", null);
+    try {
+      first.get();
+      fail("Expected the future to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  public void testVerifyResponse_batched() throws Exception {
+    final BatchingGitServiceClient client = new BatchingGitServiceClient("key", transport,
+        MoreExecutors.sameThreadExecutor(), 60000, 3);
+    ExecutorService callers = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<JSONObject>> results = Lists.newArrayList();
+      for (final String host : new String[] {"a", "b", "c"}) {
+        results.add(callers.submit(new Callable<JSONObject>() {
+          @Override
+          public JSONObject call() {
+            return client.verifyResponse("http://" + host, null);
+          }
+        }));
+      }
+      Assert.assertEquals("a@example.com", results.get(0).get(5, TimeUnit.SECONDS)
+          .getString("email"));
+      Assert.assertEquals("b@example.com", results.get(1).get(5, TimeUnit.SECONDS)
+          .getString("email"));
+      Assert.assertEquals("c@example.com", results.get(2).get(5, TimeUnit.SECONDS)
+          .getString("email"));
+      Assert.assertEquals(1, transport.calls.get());
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  /**
+   * Answers each request of a batch in reverse order, with an email derived from its requestUri.
+   */
+  private static class EchoTransport implements HttpTransport {
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean fail;
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+      calls.incrementAndGet();
+      if (fail) {
+        throw new IOException("Connection refused");
+      }
+      JSONArray responses = new JSONArray();
+      try {
+        JSONArray requests = new JSONArray(new String(request.getContent(), "UTF-8"));
+        for (int i = requests.length() - 1; i >= 0; i--) {
+          JSONObject params = requests.getJSONObject(i).getJSONObject("params");
+          String host = params.getString("requestUri").substring("http://".length());
+          JSONObject response = new JSONObject();
+          response.put("id", requests.getJSONObject(i).getString("id"));
+          response.put("result", new JSONObject().put("verifiedEmail", host + "@example.com"));
+          responses.put(response);
+        }
+      } catch (JSONException e) {
+        throw new IOException(e.getMessage());
+      }
+      final InputStream in = new ByteArrayInputStream(responses.toString().getBytes("UTF-8"));
+      return new HttpResponse() {
+        @Override
+        public int getStatusCode() {
+          return 200;
+        }
+
+        @Override
+        public String getContentType() {
+          return "application/json";
+        }
+
+        @Override
+        public String getContentEncoding() {
+          return null;
+        }
+
+        @Override
+        public InputStream getContent() {
+          return in;
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+  }
+}
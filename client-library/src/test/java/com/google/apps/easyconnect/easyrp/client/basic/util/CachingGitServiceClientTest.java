@@ -0,0 +1,142 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class CachingGitServiceClientTest extends TestCase {
+  private FakeClient delegate;
+  private FakeTicker ticker;
+  private CachingGitServiceClient client;
+
+  protected void setUp() throws Exception {
+    delegate = new FakeClient();
+    ticker = new FakeTicker();
+    client = new CachingGitServiceClient(delegate, 5000, 100, ticker);
+  }
+
+  private static JSONObject profile(String email) throws JSONException {
+    return new JSONObject().put("email", email);
+  }
+
+  public void testVerifyResponseAsync_singleFlight() throws Exception {
+    ListenableFuture<JSONObject> first = client.verifyResponseAsync("http://test?a", null);
+    ListenableFuture<JSONObject> second = client.verifyResponseAsync("http://test?a", null);
+    Assert.assertEquals(1, delegate.futures.size());
+    delegate.futures.get(0).set(profile("user@example.com"));
+    Assert.assertEquals("user@example.com", first.get().getString("email"));
+    Assert.assertEquals("user@example.com", second.get().getString("email"));
+    first.get().put("email", "changed@example.com");
+    Assert.assertEquals("user@example.com", second.get().getString("email"));
+  }
+
+  public void testVerifyResponseAsync_cancelDoesNotReachSharedCall() throws Exception {
+    ListenableFuture<JSONObject> first = client.verifyResponseAsync("http://test?a", null);
+    ListenableFuture<JSONObject> second = client.verifyResponseAsync("http://test?a", null);
+    first.cancel(true);
+    Assert.assertFalse(delegate.futures.get(0).isCancelled());
+    delegate.futures.get(0).set(profile("user@example.com"));
+    Assert.assertEquals("user@example.com", second.get().getString("email"));
+  }
+
+  public void testVerifyResponseAsync_ttl() throws Exception {
+    client.verifyResponseAsync("http://test?a", null);
+    delegate.futures.get(0).set(profile("user@example.com"));
+    ticker.advance(4000);
+    Assert.assertEquals("user@example.com",
+        client.verifyResponseAsync("http://test?a", null).get().getString("email"));
+    Assert.assertEquals(1, delegate.futures.size());
+    Assert.assertEquals(1, client.getStats().hitCount());
+
+    ticker.advance(2000);
+    client.verifyResponseAsync("http://test?a", null);
+    Assert.assertEquals(2, delegate.futures.size());
+  }
+
+  public void testVerifyResponseAsync_failuresNotCached() throws Exception {
+    client.verifyResponseAsync("http://test?a", null);
+    delegate.futures.get(0).setException(new IOException("Connection refused"));
+    client.verifyResponseAsync("http://test?a", null);
+    delegate.futures.get(1).set(new JSONObject().put("error", "INVALID"));
+    client.verifyResponseAsync("http://test?a", null);
+    Assert.assertEquals(3, delegate.futures.size());
+  }
+
+  public void testVerifyResponseAsync_differentCallbacks() {
+    client.verifyResponseAsync("http://test?a", null);
+    client.verifyResponseAsync("http://test?b", null);
+    client.verifyResponseAsync("http://test?a", "body");
+    Assert.assertEquals(3, delegate.futures.size());
+  }
+
+  public void testVerifyResponse_callingThread() throws Exception {
+    delegate.syncResult = profile("user@example.com");
+    Assert.assertEquals("user@example.com",
+        client.verifyResponse("http://test?a", null).getString("email"));
+    Assert.assertEquals("user@example.com",
+        client.verifyResponse("http://test?a", null).getString("email"));
+    Assert.assertEquals("user@example.com",
+        client.verifyResponseAsync("http://test?a", null).get().getString("email"));
+    Assert.assertEquals(1, delegate.syncCalls);
+    Assert.assertTrue(delegate.futures.isEmpty());
+  }
+
+  public void testVerifyResponse_failuresNotCached() {
+    delegate.syncResult = new JSONObject();
+    Assert.assertEquals(0, client.verifyResponse("http://test?a", null).length());
+    client.verifyResponse("http://test?a", null);
+    Assert.assertEquals(2, delegate.syncCalls);
+  }
+
+  public void testInvalidate() throws Exception {
+    client.verifyResponseAsync("http://test?a", null);
+    delegate.futures.get(0).set(profile("user@example.com"));
+    client.invalidate("http://test?a", null);
+    client.verifyResponseAsync("http://test?a", null);
+    Assert.assertEquals(2, delegate.futures.size());
+  }
+
+  private static class FakeClient extends AbstractGitServiceClient {
+    private final List<SettableFuture<JSONObject>> futures =
+        new ArrayList<SettableFuture<JSONObject>>();
+    private JSONObject syncResult;
+    private int syncCalls;
+
+    @Override
+    public JSONObject verifyResponse(String requestUri, String postBody) {
+      syncCalls++;
+      return syncResult;
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody) {
+      SettableFuture<JSONObject> future = SettableFuture.create();
+      futures.add(future);
+      return future;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.CircuitBreakingGitServiceClient.State;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class CircuitBreakingGitServiceClientTest extends TestCase {
+  private FakeClient delegate;
+  private FakeTicker ticker;
+  private CircuitBreakingGitServiceClient client;
+
+  protected void setUp() throws Exception {
+    delegate = new FakeClient();
+    ticker = new FakeTicker();
+    client = new CircuitBreakingGitServiceClient(delegate, 2, 1000, 2, ticker);
+  }
+
+  public void testOpenAfterFailures() {
+    delegate.fail = true;
+    client.verifyResponse("http://test", null);
+    Assert.assertEquals(State.CLOSED, client.getState());
+    client.verifyResponse("http://test", null);
+    Assert.assertEquals(State.OPEN, client.getState());
+    Assert.assertEquals(0, client.verifyResponse("http://test", null).length());
+    Assert.assertEquals(2, delegate.calls);
+    Assert.assertEquals(1, client.getRejectedByCircuitCount());
+  }
+
+  public void testHalfOpenProbe() {
+    delegate.fail = true;
+    client.verifyResponse("http://test", null);
+    client.verifyResponse("http://test", null);
+    ticker.advance(1000);
+    client.verifyResponse("http://test", null);
+    Assert.assertEquals(3, delegate.calls);
+    Assert.assertEquals(State.OPEN, client.getState());
+
+    ticker.advance(1000);
+    delegate.fail = false;
+    Assert.assertEquals("user@example.com",
+        client.verifyResponse("http://test", null).optString("email"));
+    Assert.assertEquals(State.CLOSED, client.getState());
+  }
+
+  public void testVerifyResponse_callingThread() {
+    Assert.assertEquals("user@example.com",
+        client.verifyResponse("http://test", null).optString("email"));
+    Assert.assertEquals(1, delegate.syncCalls);
+    Assert.assertEquals(State.CLOSED, client.getState());
+  }
+
+  public void testBulkhead() {
+    delegate.pending = true;
+    client.verifyResponseAsync("http://test", null);
+    client.verifyResponseAsync("http://test", null);
+    ListenableFuture<JSONObject> rejected = client.verifyResponseAsync("http://test", null);
+    Assert.assertTrue(rejected.isDone());
+    Assert.assertEquals(2, delegate.calls);
+    Assert.assertEquals(1, client.getRejectedByBulkheadCount());
+    Assert.assertEquals(State.CLOSED, client.getState());
+  }
+
+  public void testStaleCompletionsIgnored() {
+    client = new CircuitBreakingGitServiceClient(delegate, 1, 1000, 10, ticker);
+    delegate.pending = true;
+    for (int i = 0; i < 4; i++) {
+      client.verifyResponseAsync("http://test", null);
+    }
+    delegate.futures.get(0).setException(new IOException("Service unavailable"));
+    Assert.assertEquals(State.OPEN, client.getState());
+    delegate.futures.get(1).set(new JSONObject());
+    Assert.assertEquals(State.OPEN, client.getState());
+
+    // A call failing late does not keep the circuit open longer.
+    ticker.advance(500);
+    delegate.futures.get(2).setException(new IOException("Service unavailable"));
+    ticker.advance(500);
+    client.verifyResponseAsync("http://test", null);
+    Assert.assertEquals(5, delegate.calls);
+    Assert.assertEquals(State.HALF_OPEN, client.getState());
+
+    // Nor does a call succeeding late end the probe.
+    delegate.futures.get(3).set(new JSONObject());
+    Assert.assertEquals(State.HALF_OPEN, client.getState());
+    Assert.assertTrue(client.verifyResponseAsync("http://test", null).isDone());
+    Assert.assertEquals(5, delegate.calls);
+
+    delegate.futures.get(4).set(new JSONObject());
+    Assert.assertEquals(State.CLOSED, client.getState());
+  }
+
+  private static class FakeClient extends AbstractGitServiceClient {
+    private final List<SettableFuture<JSONObject>> futures = Lists.newArrayList();
+    private boolean fail;
+    private boolean pending;
+    private int calls;
+    private int syncCalls;
+
+    @Override
+    public JSONObject verifyResponse(String requestUri, String postBody) {
+      syncCalls++;
+      return super.verifyResponse(requestUri, postBody);
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> verifyResponseAsync(String requestUri, String postBody) {
+      calls++;
+      if (pending) {
+        SettableFuture<JSONObject> future = SettableFuture.create();
+        futures.add(future);
+        return future;
+      }
+      if (fail) {
+        return Futures.immediateFailedFuture(new IOException("Service unavailable"));
+      }
+      JSONObject result = new JSONObject();
+      try {
+        result.put("email", "user@example.com");
+      } catch (JSONException e) {
+        throw new IllegalStateException(e);
+      }
+      return Futures.immediateFuture(result);
+    }
+  }
+}
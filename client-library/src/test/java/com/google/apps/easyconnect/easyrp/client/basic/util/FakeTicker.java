@@ -0,0 +1,38 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A {@code Ticker} which only moves when the test advances it, for the tests of the classes which
+ * take a ticker to measure their timeouts and expirations.
+ */
+public class FakeTicker extends Ticker {
+  private long nanos;
+
+  @Override
+  public long read() {
+    return nanos;
+  }
+
+  public void advance(long millis) {
+    nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
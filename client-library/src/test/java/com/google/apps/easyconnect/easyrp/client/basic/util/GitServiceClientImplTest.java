@@ -15,6 +15,14 @@
 
 package com.google.apps.easyconnect.easyrp.client.basic.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
@@ -23,6 +31,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class GitServiceClientImplTest extends TestCase {
   private String key = "testingDeveloperKey";
@@ -45,6 +54,68 @@ public class GitServiceClientImplTest extends TestCase {
   }
 
   public void testVerifyResponse() {
+    client = new GitServiceClientImpl(key, new FakeTransport(
+        "[{\"result\":{\"verifiedEmail\":\"user@example.com\"}}]"),
+        MoreExecutors.sameThreadExecutor());
+    JSONObject result = client.verifyResponse("http://test", null);
+    Assert.assertEquals("user@example.com", result.optString("email"));
+  }
+
+  public void testVerifyResponse_callingThread() {
+    ExecutorService rejecting = Executors.newSingleThreadExecutor();
+    rejecting.shutdown();
+    client = new GitServiceClientImpl(key, new FakeTransport(
+        "[{\"result\":{\"verifiedEmail\":\"user@example.com\"}}]"), rejecting);
+    JSONObject result = client.verifyResponse("http://test", null);
+    Assert.assertEquals("user@example.com", result.optString("email"));
+  }
+
+  public void testVerifyResponse_failure() {
+    client = new GitServiceClientImpl(key, new FakeTransport(null),
+        MoreExecutors.sameThreadExecutor());
+    JSONObject result = client.verifyResponse("http://test", null);
+    Assert.assertEquals(0, result.length());
+  }
+
+  public void testVerifyResponse_retryConnectFailure() {
+    final HttpTransport transport = new FakeTransport(
+        "[{\"result\":{\"verifiedEmail\":\"user@example.com\"}}]");
+    client = new GitServiceClientImpl(key, new HttpTransport() {
+      private boolean refused;
+
+      @Override
+      public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!refused) {
+          refused = true;
+          throw new ConnectException("Connection refused");
+        }
+        return transport.execute(request);
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    client.setRetryPolicy(new RetryPolicy.Builder().initialBackoffMillis(0).build());
+    JSONObject result = client.verifyResponse("http://test", null);
+    Assert.assertEquals("user@example.com", result.optString("email"));
+    Assert.assertEquals(1, client.getRetryPolicy().getSuccessCount(2));
+  }
+
+  public void testVerifyResponseAsync() throws Exception {
+    client = new GitServiceClientImpl(key, new FakeTransport(
+        "[{\"result\":{\"email\":\"user@example.com\"}}]"),
+        GitServiceClientImpl.newBoundedExecutor("Test", 1, 1));
+    JSONObject result = client.verifyResponseAsync("http://test", null).get();
+    Assert.assertEquals("user@example.com", result.getString("email"));
+    Assert.assertFalse(result.getBoolean("trusted"));
+  }
+
+  public void testVerifyResponseAsync_invalidResponse() throws InterruptedException {
+    client = new GitServiceClientImpl(key, new FakeTransport("<html>"),
+        MoreExecutors.sameThreadExecutor());
+    try {
+      client.verifyResponseAsync("http://test", null).get();
+      fail("Expected the future to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
   }
 
   public void testConvertJson_error() throws JSONException {
@@ -193,4 +264,48 @@ public class GitServiceClientImplTest extends TestCase {
     Assert.assertEquals("C", output.getString("firstName"));
     Assert.assertEquals("B", output.getString("lastName"));
   }
+
+  /**
+   * Returns a fixed content, or fails if the content is null.
+   */
+  private static class FakeTransport implements HttpTransport {
+    private final String content;
+
+    FakeTransport(String content) {
+      this.content = content;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+      if (content == null) {
+        throw new IOException("Connection refused");
+      }
+      final InputStream in = new ByteArrayInputStream(content.getBytes("UTF-8"));
+      return new HttpResponse() {
+        @Override
+        public int getStatusCode() {
+          return 200;
+        }
+
+        @Override
+        public String getContentType() {
+          return "application/json";
+        }
+
+        @Override
+        public String getContentEncoding() {
+          return null;
+        }
+
+        @Override
+        public InputStream getContent() {
+          return in;
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+  }
 }
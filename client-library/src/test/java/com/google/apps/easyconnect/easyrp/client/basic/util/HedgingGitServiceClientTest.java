@@ -0,0 +1,106 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class HedgingGitServiceClientTest extends TestCase {
+  private FakeClient delegate;
+
+  protected void setUp() throws Exception {
+    delegate = new FakeClient();
+  }
+
+  private HedgingGitServiceClient newClient(double budgetRatio) {
+    HedgingGitServiceClient client = new HedgingGitServiceClient(delegate, 0.9, 0, budgetRatio,
+        20, Ticker.systemTicker());
+    for (int i = 0; i < 20; i++) {
+      client.recordLatency(1);
+    }
+    return client;
+  }
+
+  public void testVerifyResponseAsync_hedgeWins() throws Exception {
+    HedgingGitServiceClient client = newClient(1);
+    ListenableFuture<JSONObject> result = client.verifyResponseAsync("http://test", null);
+    delegate.awaitCalls(2);
+    delegate.futures.get(1).set(new JSONObject().put("email", "user@example.com"));
+    Assert.assertEquals("user@example.com", result.get(1, TimeUnit.SECONDS).getString("email"));
+    Assert.assertEquals(1, client.getHedgeCount());
+    Assert.assertEquals(1, client.getHedgeWinCount());
+  }
+
+  public void testVerifyResponseAsync_errorAnswerLoses() throws Exception {
+    HedgingGitServiceClient client = newClient(1);
+    ListenableFuture<JSONObject> result = client.verifyResponseAsync("http://test", null);
+    delegate.awaitCalls(2);
+    delegate.futures.get(1).set(new JSONObject().put("error", "replay"));
+    Assert.assertFalse(result.isDone());
+    delegate.futures.get(0).set(new JSONObject().put("email", "user@example.com"));
+    Assert.assertEquals("user@example.com", result.get(1, TimeUnit.SECONDS).getString("email"));
+    Assert.assertEquals(0, client.getHedgeWinCount());
+  }
+
+  public void testVerifyResponseAsync_noBudget() throws Exception {
+    HedgingGitServiceClient client = newClient(0);
+    ListenableFuture<JSONObject> result = client.verifyResponseAsync("http://test", null);
+    try {
+      result.get(100, TimeUnit.MILLISECONDS);
+      fail("Expected no answer");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    Assert.assertEquals(1, delegate.futures.size());
+    Assert.assertEquals(0, client.getHedgeCount());
+  }
+
+  /**
+   * Returns futures which are completed by the test.
+   */
+  private static class FakeClient extends AbstractGitServiceClient {
+    private final List<SettableFuture<JSONObject>> futures =
+        new ArrayList<SettableFuture<JSONObject>>();
+
+    @Override
+    public synchronized ListenableFuture<JSONObject> verifyResponseAsync(String requestUri,
+        String postBody) {
+      SettableFuture<JSONObject> future = SettableFuture.create();
+      futures.add(future);
+      notifyAll();
+      return future;
+    }
+
+    synchronized void awaitCalls(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 1000;
+      while (futures.size() < count && System.currentTimeMillis() < deadline) {
+        wait(100);
+      }
+      Assert.assertEquals(count, futures.size());
+    }
+  }
+}
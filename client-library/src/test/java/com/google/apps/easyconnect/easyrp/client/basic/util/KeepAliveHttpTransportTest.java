@@ -0,0 +1,107 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class KeepAliveHttpTransportTest extends TestCase {
+  private HttpServer server;
+  private String url;
+  // The client port of each request, which is the same when the JDK reuses the socket.
+  private final List<Integer> clientPorts = new CopyOnWriteArrayList<Integer>();
+  private KeepAliveHttpTransport transport;
+
+  protected void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/echo", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] body = Utils.streamToString(exchange.getRequestBody(), null).getBytes("UTF-8");
+        int status = exchange.getRequestURI().getQuery() == null ? 200 : 500;
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/echo";
+    transport = new KeepAliveHttpTransport();
+  }
+
+  protected void tearDown() throws Exception {
+    server.stop(0);
+  }
+
+  private String post(String url, String content) throws IOException {
+    HttpResponse response = transport.execute(HttpRequest.post(url, "text/plain",
+        content.getBytes("UTF-8")));
+    try {
+      return Utils.streamToString(response.getContent(), null);
+    } finally {
+      response.close();
+    }
+  }
+
+  public void testExecute_reusesConnection() throws IOException {
+    Assert.assertEquals("first", post(url, "first"));
+    Assert.assertEquals("second", post(url, "second"));
+    Assert.assertEquals(2, clientPorts.size());
+    Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+  }
+
+  public void testExecute_errorBody() throws IOException {
+    HttpResponse response = transport.execute(HttpRequest.post(url + "?fail", "text/plain",
+        "oops".getBytes("UTF-8")));
+    try {
+      Assert.assertEquals(500, response.getStatusCode());
+      Assert.assertEquals("oops", Utils.streamToString(response.getContent(), null));
+    } finally {
+      response.close();
+    }
+    post(url, "next");
+    Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+  }
+
+  public void testClose_drainsUnreadBody() throws IOException {
+    transport.execute(HttpRequest.post(url, "text/plain", "unread".getBytes("UTF-8"))).close();
+    Assert.assertEquals("next", post(url, "next"));
+    Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+  }
+
+  public void testExecute_concurrentResponses() throws IOException {
+    HttpResponse first = transport.execute(HttpRequest.get(url));
+    HttpResponse second = transport.execute(HttpRequest.get(url));
+    HttpResponse third = transport.execute(HttpRequest.get(url));
+    first.close();
+    second.close();
+    third.close();
+    Assert.assertEquals(3, clientPorts.size());
+  }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+  public void testBucket() {
+    Assert.assertEquals(0, LatencyHistogram.bucket(0));
+    Assert.assertEquals(1, LatencyHistogram.bucket(1));
+    Assert.assertEquals(2, LatencyHistogram.bucket(2));
+    Assert.assertEquals(10, LatencyHistogram.bucket(1000));
+    Assert.assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE),
+        LatencyHistogram.bucket(Long.MAX_VALUE / 2));
+  }
+
+  public void testRecord() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.getPercentileNanos(50));
+    for (int i = 0; i < 99; i++) {
+      histogram.record(1000);
+    }
+    histogram.record(1000000);
+    histogram.record(-5);
+    Assert.assertEquals(101, histogram.getCount());
+    Assert.assertEquals(99 * 1000 + 1000000, histogram.getTotalNanos());
+    Assert.assertEquals(1024, histogram.getPercentileNanos(50));
+    Assert.assertEquals(1024, histogram.getPercentileNanos(98));
+    Assert.assertEquals(1L << 20, histogram.getPercentileNanos(100));
+  }
+
+  public void testStripedCounter_concurrent() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[StripedCounter.STRIPES * 2];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    counter.add(5);
+    Assert.assertEquals(threads.length * 1000 + 5, counter.sum());
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase {
+  private final List<Long> sleeps = new ArrayList<Long>();
+
+  private RetryPolicy newPolicy(RetryPolicy.Builder builder) {
+    return new RetryPolicy(builder) {
+      @Override
+      void sleep(long millis) {
+        sleeps.add(millis);
+      }
+    };
+  }
+
+  private static Callable<String> failing(final IOException... failures) {
+    return new Callable<String>() {
+      private int calls;
+
+      @Override
+      public String call() throws IOException {
+        if (calls < failures.length) {
+          throw failures[calls++];
+        }
+        return "ok";
+      }
+    };
+  }
+
+  public void testExecute_idempotent() throws IOException {
+    RetryPolicy policy = newPolicy(new RetryPolicy.Builder().budget(null));
+    Assert.assertEquals("ok", policy.execute(
+        failing(new IOException("reset"), new SocketTimeoutException()), true));
+    Assert.assertEquals(2, sleeps.size());
+    Assert.assertTrue(sleeps.get(0) <= 100 && sleeps.get(1) <= 200);
+    Assert.assertEquals(1, policy.getAttemptCount(3));
+    Assert.assertEquals(1, policy.getSuccessCount(3));
+    Assert.assertEquals(0, policy.getSuccessCount(1));
+  }
+
+  public void testExecute_maxAttempts() {
+    RetryPolicy policy = newPolicy(new RetryPolicy.Builder().maxAttempts(2).budget(null));
+    IOException last = new IOException("second");
+    try {
+      policy.execute(failing(new IOException("first"), last), true);
+      fail("Expected the last failure");
+    } catch (IOException e) {
+      Assert.assertSame(last, e);
+    }
+    Assert.assertEquals(1, sleeps.size());
+  }
+
+  public void testExecute_notIdempotent() throws IOException {
+    RetryPolicy policy = newPolicy(new RetryPolicy.Builder().budget(null));
+    try {
+      policy.execute(failing(new SocketTimeoutException()), false);
+      fail("Expected the timeout not to be retried");
+    } catch (SocketTimeoutException e) {
+      // Expected.
+    }
+    Assert.assertEquals("ok", policy.execute(failing(new ConnectException(),
+        new HttpStatusException(503, "http://test")), false));
+
+    Assert.assertFalse(RetryPolicy.isRetryable(new HttpStatusException(500, "http://test"),
+        false));
+    Assert.assertTrue(RetryPolicy.isRetryable(new HttpStatusException(500, "http://test"), true));
+  }
+
+  public void testExecute_budget() {
+    FakeTicker ticker = new FakeTicker();
+    RetryBudget budget = new RetryBudget(0.5, 0, 10, ticker);
+    RetryPolicy policy = newPolicy(new RetryPolicy.Builder().budget(budget));
+    try {
+      policy.execute(failing(new ConnectException()), false);
+      fail("Expected the budget to refuse the retry");
+    } catch (IOException e) {
+      // Expected.
+    }
+    Assert.assertEquals(1, policy.getBudgetExhaustedCount());
+    Assert.assertEquals(0, sleeps.size());
+  }
+
+  public void testExecute_timeout() {
+    RetryPolicy policy = newPolicy(new RetryPolicy.Builder().initialBackoffMillis(10000)
+        .maxBackoffMillis(10000).budget(null));
+    try {
+      policy.execute(failing(new ConnectException(), new ConnectException()), false, 0);
+      fail("Expected no retry past the timeout");
+    } catch (IOException e) {
+      // Expected.
+    }
+    Assert.assertEquals(0, sleeps.size());
+  }
+
+  public void testRetryBudget() {
+    FakeTicker ticker = new FakeTicker();
+    RetryBudget budget = new RetryBudget(0.5, 1, 2, ticker);
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertFalse(budget.tryWithdraw());
+
+    budget.deposit();
+    budget.deposit();
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertFalse(budget.tryWithdraw());
+
+    ticker.advance(10000);
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertFalse(budget.tryWithdraw());
+  }
+}
@@ -0,0 +1,54 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SharedExecutorsTest extends TestCase {
+
+  @Override
+  protected void tearDown() {
+    SharedExecutors.shutdown();
+  }
+
+  public void testBounded_namedAndShared() throws Exception {
+    ExecutorService pool = SharedExecutors.bounded("SharedExecutorsTest", 1, 1);
+    Assert.assertSame(pool, SharedExecutors.bounded("SharedExecutorsTest", 1, 1));
+    String name = pool.submit(new Callable<String>() {
+      @Override
+      public String call() {
+        return Thread.currentThread().getName();
+      }
+    }).get();
+    Assert.assertEquals("SharedExecutorsTest-0", name);
+  }
+
+  public void testShutdown() {
+    ExecutorService pool = SharedExecutors.bounded("SharedExecutorsTest", 1, 1);
+    ExecutorService timer = SharedExecutors.timer("SharedExecutorsTestTimer");
+    SharedExecutors.shutdown();
+    Assert.assertTrue(pool.isShutdown());
+    Assert.assertTrue(timer.isShutdown());
+    ExecutorService recreated = SharedExecutors.bounded("SharedExecutorsTest", 1, 1);
+    Assert.assertNotSame(pool, recreated);
+    Assert.assertFalse(recreated.isShutdown());
+  }
+}
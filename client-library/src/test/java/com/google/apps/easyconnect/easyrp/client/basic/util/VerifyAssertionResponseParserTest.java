@@ -0,0 +1,97 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.VerifyAssertionResponseParser.ParsedResponse;
+
+public class VerifyAssertionResponseParserTest extends TestCase {
+  private GitServiceClientImpl client = new GitServiceClientImpl("key");
+
+  private List<ParsedResponse> parse(String content) throws IOException {
+    return VerifyAssertionResponseParser.parse(
+        new ByteArrayInputStream(content.getBytes("UTF-8")), null);
+  }
+
+  /**
+   * Checks that the parser gives the same profiles as JSONArray and convertJson.
+   */
+  private void assertSameAsConvertJson(String content) throws IOException, JSONException {
+    JSONArray expected = new JSONArray(content);
+    List<ParsedResponse> actual = parse(content);
+    Assert.assertEquals(expected.length(), actual.size());
+    for (int i = 0; i < actual.size(); i++) {
+      Assert.assertEquals(client.convertJson(expected.getJSONObject(i)).toString(),
+          actual.get(i).getProfile().toString());
+    }
+  }
+
+  public void testParse_verifiedEmail() throws Exception {
+    assertSameAsConvertJson("[{\"result\": {\"kind\": \"verifyAssertion\", "
+        + "\"verifiedEmail\": \"user@example.com\", \"fullName\": \"Jane  Q Doe \", "
+        + "\"photoUrl\": \"http://example.com/a.png\", \"oauthExpireIn\": 3600, "
+        + "\"oauthRefreshToken\": \"1/abc\", \"context\": \"a=b\"}}]");
+  }
+
+  public void testParse_unverifiedEmail() throws Exception {
+    assertSameAsConvertJson("[{\"result\":{\"email\":\"user@example.com\",\"firstName\":\"J\","
+        + "\"lastName\":null,\"fullName\":\"Jane\"}}]");
+  }
+
+  public void testParse_skippedFields() throws Exception {
+    assertSameAsConvertJson("[{\"kind\":[1,{\"a\":\"]}\\\"\"}],\"result\":{\"nested\":"
+        + "{\"email\":\"no@example.com\",\"list\":[true,false,null]},\"email\":"
+        + "\"caf\\u00e9@example.com\",\"escaped\":\"a\\\\\\\"b\"}}]");
+  }
+
+  public void testParse_error() throws Exception {
+    assertSameAsConvertJson("[{\"error\":{\"code\":400,\"message\":\"INVALID\"},"
+        + "\"result\":{\"email\":\"user@example.com\"}}]");
+    assertSameAsConvertJson("[{\"result\":\"invalid\"},{}]");
+  }
+
+  public void testParse_ids() throws Exception {
+    List<ParsedResponse> responses = parse("[{\"id\":\"2\",\"result\":{}},{\"id\":1},{}]");
+    Assert.assertEquals("2", responses.get(0).getId());
+    Assert.assertEquals("1", responses.get(1).getId());
+    Assert.assertNull(responses.get(2).getId());
+  }
+
+  public void testParse_empty() throws Exception {
+    Assert.assertEquals(0, parse(" [ ] ").size());
+  }
+
+  public void testParse_invalid() {
+    String[] invalids = {"", "{\"error\":\"x\"}", "[{\"result\":{}", "[{\"a\" 1}]", "<html>"};
+    for (String invalid : invalids) {
+      try {
+        parse(invalid);
+        fail("Expected a failure for " + invalid);
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+}
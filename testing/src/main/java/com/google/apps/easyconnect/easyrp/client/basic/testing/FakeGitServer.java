@@ -0,0 +1,386 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.testing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.DasherDomainChecker;
+import com.google.apps.easyconnect.easyrp.client.basic.util.GitServiceClientImpl;
+import com.google.apps.easyconnect.easyrp.client.basic.util.Utils;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server which stands in for googleapis.com and the Google Apps XRDS discovery,
+ * so the callback path can be tested and benchmarked offline.
+ * <p>
+ * The '/rpc' endpoint speaks the batched verifyAssertion JSON-RPC of
+ * {@code GitServiceClientImpl}, answering with canned identities looked up by request URI. The
+ * '/accounts/o8/site-xrds' endpoint answers 'application/xrds+xml' for the configured Google Apps
+ * domains, like the probe of {@code DasherDomainChecker} expects. Both add a delay drawn from a
+ * {@code LatencyDistribution}, and fail a configurable fraction of the requests.
+ * <p>
+ * Use {@link #newClient} and {@link #newDasherDomainChecker} to get clients pointing at it.
+ */
+public class FakeGitServer {
+  private static final Logger log = Logger.getLogger(FakeGitServer.class.getName());
+  public static final String RPC_PATH = "/rpc";
+  public static final String XRDS_PATH = "/accounts/o8/site-xrds";
+  private static final String XRDS_MIME_TYPE = "application/xrds+xml";
+  private static final String INVALID_ASSERTION = "INVALID_ASSERTION";
+
+  private final int port;
+  private final LatencyDistribution latency;
+  private final double errorRate;
+  private final double invalidRate;
+  private final Map<String, JSONObject> identities;
+  private final JSONObject defaultIdentity;
+  private final Set<String> dasherDomains;
+  private final Random random;
+  private final AtomicInteger httpRequestCount = new AtomicInteger();
+  private final AtomicInteger verifyCount = new AtomicInteger();
+  private HttpServer server;
+  private ExecutorService executor;
+
+  private FakeGitServer(Builder builder) {
+    this.port = builder.port;
+    this.latency = builder.latency;
+    this.errorRate = builder.errorRate;
+    this.invalidRate = builder.invalidRate;
+    this.identities = builder.identities.build();
+    this.defaultIdentity = builder.defaultIdentity;
+    this.dasherDomains = builder.dasherDomains.build();
+    this.random = builder.seed == null ? new Random() : new Random(builder.seed);
+  }
+
+  /**
+   * Starts listening on the loopback interface.
+   *
+   * @return this server
+   * @throws IOException if the port cannot be bound
+   */
+  public synchronized FakeGitServer start() throws IOException {
+    Preconditions.checkState(server == null, "Already started");
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    // The delays are slept in the handler threads, so they must not be serialized.
+    executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("FakeGitServer-%d").build());
+    server.setExecutor(executor);
+    server.createContext(RPC_PATH, new RpcHandler());
+    server.createContext(XRDS_PATH, new XrdsHandler());
+    server.start();
+    log.info("FakeGitServer listening on port " + getPort());
+    return this;
+  }
+
+  /**
+   * Stops the server, dropping the requests in progress.
+   */
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  /**
+   * @return the port the server listens on
+   */
+  public synchronized int getPort() {
+    Preconditions.checkState(server != null, "Not started");
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @return the URL to pass to {@code GitServiceClientImpl.setVerifyUrl}
+   */
+  public String getVerifyUrl() {
+    return "http://localhost:" + getPort() + RPC_PATH + "?pp=1&key=";
+  }
+
+  /**
+   * @return the URL prefix to pass to the {@code DasherDomainChecker} constructor
+   */
+  public String getXrdsUrlPrefix() {
+    return "http://localhost:" + getPort() + XRDS_PATH + "?hd=";
+  }
+
+  /**
+   * Creates a client which sends its requests to this server.
+   *
+   * @param developerKey the developer key, which is not checked
+   * @return the client
+   */
+  public GitServiceClientImpl newClient(String developerKey) {
+    GitServiceClientImpl client = new GitServiceClientImpl(developerKey);
+    client.setVerifyUrl(getVerifyUrl());
+    return client;
+  }
+
+  /**
+   * Creates a checker which probes this server, without cache.
+   *
+   * @return the checker
+   */
+  public DasherDomainChecker newDasherDomainChecker() {
+    return new DasherDomainChecker(null, getXrdsUrlPrefix());
+  }
+
+  /**
+   * @return the number of HTTP requests received by both endpoints
+   */
+  public int getHttpRequestCount() {
+    return httpRequestCount.get();
+  }
+
+  /**
+   * @return the number of verifyAssertion calls received, counting each element of a batch
+   */
+  public int getVerifyCount() {
+    return verifyCount.get();
+  }
+
+  private double nextDouble() {
+    synchronized (random) {
+      return random.nextDouble();
+    }
+  }
+
+  /**
+   * Sleeps for the drawn latency, then decides whether the request fails as a whole.
+   *
+   * @return true if the request has been answered with an error
+   */
+  private boolean delayOrFail(HttpExchange exchange) throws IOException {
+    httpRequestCount.incrementAndGet();
+    long delay;
+    synchronized (random) {
+      delay = latency.nextMillis(random);
+    }
+    Uninterruptibles.sleepUninterruptibly(delay, TimeUnit.MILLISECONDS);
+    if (errorRate > 0 && nextDouble() < errorRate) {
+      send(exchange, 503, "text/plain", "Service Unavailable");
+      return true;
+    }
+    return false;
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private class RpcHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        String body = Utils.streamToString(exchange.getRequestBody(), "UTF-8");
+        if (delayOrFail(exchange)) {
+          return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          send(exchange, 405, "text/plain", "Method Not Allowed");
+          return;
+        }
+        JSONArray responses;
+        try {
+          JSONArray requests = new JSONArray(body);
+          responses = new JSONArray();
+          for (int i = 0; i < requests.length(); i++) {
+            responses.put(verifyAssertion(requests.getJSONObject(i)));
+          }
+        } catch (JSONException e) {
+          send(exchange, 400, "text/plain", "Bad Request: " + e.getMessage());
+          return;
+        }
+        send(exchange, 200, "application/json", responses.toString());
+      } finally {
+        exchange.close();
+      }
+    }
+
+    private JSONObject verifyAssertion(JSONObject request) throws JSONException {
+      verifyCount.incrementAndGet();
+      JSONObject response = new JSONObject();
+      response.putOpt("id", request.opt("id"));
+      JSONObject params = request.optJSONObject("params");
+      String requestUri = params == null ? null : params.optString("requestUri", null);
+      JSONObject identity = requestUri == null ? null : identities.get(requestUri);
+      if (identity == null) {
+        identity = defaultIdentity;
+      }
+      if (identity == null || (invalidRate > 0 && nextDouble() < invalidRate)) {
+        JSONObject error = new JSONObject();
+        error.put("code", 400);
+        error.put("message", INVALID_ASSERTION);
+        response.put("error", error);
+      } else {
+        response.put("result", identity);
+      }
+      return response;
+    }
+  }
+
+  private class XrdsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (delayOrFail(exchange)) {
+          return;
+        }
+        String domain = getParameter(exchange.getRequestURI().getRawQuery(), "hd");
+        if (domain != null && dasherDomains.contains(domain.toLowerCase())) {
+          send(exchange, 200, XRDS_MIME_TYPE, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+              + "<xrds:XRDS xmlns:xrds=\"xri://$xrds\" xmlns=\"xri://$xrd*($v*2.0)\">\n"
+              + "  <XRD><CanonicalID>" + domain + "</CanonicalID></XRD>\n</xrds:XRDS>\n");
+        } else {
+          send(exchange, 404, "text/html", "<html><body>Not Found</body></html>");
+        }
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private static String getParameter(String query, String name) {
+    if (Strings.isNullOrEmpty(query)) {
+      return null;
+    }
+    for (String pair : query.split("&")) {
+      if (pair.startsWith(name + "=")) {
+        return pair.substring(name.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Builder class to setup a {@code FakeGitServer} instance.
+   */
+  public static class Builder {
+    private int port;
+    private LatencyDistribution latency = LatencyDistribution.none();
+    private double errorRate;
+    private double invalidRate;
+    private final ImmutableMap.Builder<String, JSONObject> identities = ImmutableMap.builder();
+    private JSONObject defaultIdentity;
+    private final ImmutableSet.Builder<String> dasherDomains = ImmutableSet.builder();
+    private Long seed;
+
+    /**
+     * @param val the port to listen on, 0 (the default) picks a free one
+     */
+    public Builder port(int val) {
+      Preconditions.checkArgument(val >= 0);
+      this.port = val;
+      return this;
+    }
+
+    public Builder latency(LatencyDistribution val) {
+      Preconditions.checkNotNull(val);
+      this.latency = val;
+      return this;
+    }
+
+    /**
+     * @param val the fraction of the HTTP requests answered with 503
+     */
+    public Builder errorRate(double val) {
+      Preconditions.checkArgument(val >= 0 && val <= 1);
+      this.errorRate = val;
+      return this;
+    }
+
+    /**
+     * @param val the fraction of the verifyAssertion calls rejected as invalid assertions
+     */
+    public Builder invalidRate(double val) {
+      Preconditions.checkArgument(val >= 0 && val <= 1);
+      this.invalidRate = val;
+      return this;
+    }
+
+    /**
+     * Adds a canned identity, in the format of the 'result' of verifyAssertion, e.g.
+     * {"verifiedEmail":"user@example.com","fullName":"Jane Doe"}.
+     *
+     * @param requestUri the request URI of the IDP response which verifies to this identity
+     * @param result the verified identity
+     */
+    public Builder identity(String requestUri, JSONObject result) {
+      identities.put(requestUri, result);
+      return this;
+    }
+
+    /**
+     * @param result the identity returned for the unknown request URIs, or null (the default) to
+     *        reject them as invalid assertions
+     */
+    public Builder defaultIdentity(JSONObject result) {
+      this.defaultIdentity = result;
+      return this;
+    }
+
+    public Builder dasherDomain(String... domains) {
+      for (String domain : domains) {
+        dasherDomains.add(domain.toLowerCase());
+      }
+      return this;
+    }
+
+    /**
+     * @param val the seed of the random source, for reproducible runs
+     */
+    public Builder seed(long val) {
+      this.seed = val;
+      return this;
+    }
+
+    public FakeGitServer build() {
+      return new FakeGitServer(this);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.testing;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The distribution of the delays added by {@code FakeGitServer} before answering a request.
+ */
+public abstract class LatencyDistribution {
+
+  /**
+   * Draws the delay of one request.
+   *
+   * @param random the random source of the server
+   * @return the delay in milliseconds, never negative
+   */
+  public abstract long nextMillis(Random random);
+
+  /**
+   * @return a distribution which never delays
+   */
+  public static LatencyDistribution none() {
+    return fixed(0);
+  }
+
+  /**
+   * @param millis the delay of every request
+   * @return a distribution which always delays for the same time
+   */
+  public static LatencyDistribution fixed(final long millis) {
+    Preconditions.checkArgument(millis >= 0);
+    return new LatencyDistribution() {
+      @Override
+      public long nextMillis(Random random) {
+        return millis;
+      }
+    };
+  }
+
+  /**
+   * @param minMillis the shortest delay
+   * @param maxMillis the longest delay
+   * @return a distribution which delays uniformly between the two bounds
+   */
+  public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+    Preconditions.checkArgument(minMillis >= 0 && maxMillis >= minMillis);
+    return new LatencyDistribution() {
+      @Override
+      public long nextMillis(Random random) {
+        return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+      }
+    };
+  }
+
+  /**
+   * A log-normal distribution has the long tail of real RPC latencies: most requests are close to
+   * the median, a few are many times slower.
+   *
+   * @param medianMillis the median delay
+   * @param sigma the standard deviation of the log of the delay, e.g. 0.5 makes the 99th
+   *        percentile about 3.2 times the median
+   * @return the log-normal distribution
+   */
+  public static LatencyDistribution logNormal(final double medianMillis, final double sigma) {
+    Preconditions.checkArgument(medianMillis > 0 && sigma >= 0);
+    return new LatencyDistribution() {
+      @Override
+      public long nextMillis(Random random) {
+        return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+      }
+    };
+  }
+}
@@ -0,0 +1,118 @@
+/* Copyright 2012 Google Inc. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.apps.easyconnect.easyrp.client.basic.testing;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.google.apps.easyconnect.easyrp.client.basic.util.GitServiceClientImpl;
+import com.google.apps.easyconnect.easyrp.client.basic.util.RetryPolicy;
+
+public class FakeGitServerTest extends TestCase {
+  private FakeGitServer server;
+
+  protected void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  public void testVerifyResponse() throws Exception {
+    server = new FakeGitServer.Builder()
+        .identity("http://rp/callback?id=1",
+            new JSONObject().put("verifiedEmail", "jane@example.com").put("fullName", "Jane Doe"))
+        .build().start();
+    GitServiceClientImpl client = server.newClient("key");
+
+    JSONObject profile = client.verifyResponse("http://rp/callback?id=1", "");
+    Assert.assertEquals("jane@example.com", profile.getString("email"));
+    Assert.assertTrue(profile.getBoolean("trusted"));
+    Assert.assertEquals("Jane", profile.getString("firstName"));
+    Assert.assertEquals("Doe", profile.getString("lastName"));
+
+    profile = client.verifyResponse("http://rp/callback?id=2", "");
+    Assert.assertTrue(profile.has("error"));
+    Assert.assertEquals(2, server.getVerifyCount());
+  }
+
+  public void testVerifyResponse_defaultIdentity() throws Exception {
+    server = new FakeGitServer.Builder()
+        .defaultIdentity(new JSONObject().put("email", "any@example.com")).build().start();
+    JSONObject profile = server.newClient("key").verifyResponse("http://rp/callback", null);
+    Assert.assertEquals("any@example.com", profile.getString("email"));
+    Assert.assertFalse(profile.getBoolean("trusted"));
+  }
+
+  public void testVerifyResponse_errors() throws Exception {
+    server = new FakeGitServer.Builder().errorRate(1)
+        .defaultIdentity(new JSONObject().put("email", "any@example.com")).build().start();
+    GitServiceClientImpl client = server.newClient("key");
+    client.setRetryPolicy(RetryPolicy.noRetry());
+    try {
+      client.verifyResponseAsync("http://rp/callback", null).get();
+      fail("Expected the 503 to fail the request");
+    } catch (ExecutionException e) {
+      // Expected.
+    }
+    Assert.assertEquals(1, server.getHttpRequestCount());
+  }
+
+  public void testVerifyResponse_invalid() throws Exception {
+    server = new FakeGitServer.Builder().invalidRate(1)
+        .defaultIdentity(new JSONObject().put("email", "any@example.com")).build().start();
+    Assert.assertTrue(server.newClient("key").verifyResponse("http://rp/callback", null)
+        .has("error"));
+  }
+
+  public void testVerifyResponse_latency() throws Exception {
+    server = new FakeGitServer.Builder().latency(LatencyDistribution.fixed(200))
+        .defaultIdentity(new JSONObject().put("email", "any@example.com")).build().start();
+    long start = System.currentTimeMillis();
+    server.newClient("key").verifyResponse("http://rp/callback", null);
+    Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+  }
+
+  public void testVerifyResponse_retry() throws Exception {
+    server = new FakeGitServer.Builder().errorRate(1)
+        .defaultIdentity(new JSONObject().put("email", "any@example.com")).build().start();
+    GitServiceClientImpl client = server.newClient("key");
+    client.setRetryPolicy(new RetryPolicy.Builder().initialBackoffMillis(0).budget(null).build());
+    Assert.assertEquals(0, client.verifyResponse("http://rp/callback", null).length());
+    Assert.assertEquals(3, server.getHttpRequestCount());
+  }
+
+  public void testIsDasherDomain() throws Exception {
+    server = new FakeGitServer.Builder().dasherDomain("Example.com").build().start();
+    Assert.assertTrue(server.newDasherDomainChecker().isDasherDomain("example.com"));
+    Assert.assertFalse(server.newDasherDomainChecker().isDasherDomain("example.org"));
+    Assert.assertEquals(2, server.getHttpRequestCount());
+  }
+
+  public void testLatencyDistribution() {
+    Random random = new Random(1);
+    Assert.assertEquals(0, LatencyDistribution.none().nextMillis(random));
+    for (int i = 0; i < 100; i++) {
+      long millis = LatencyDistribution.uniform(10, 20).nextMillis(random);
+      Assert.assertTrue(millis >= 10 && millis <= 20);
+      Assert.assertTrue(LatencyDistribution.logNormal(50, 0.5).nextMillis(random) >= 0);
+    }
+  }
+}